@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.nio.file.Paths;
 
 import de.topobyte.osm4j.core.access.OsmInputException;
+import de.topobyte.osm4j.extra.datatree.DataTree;
 import de.topobyte.osm4j.extra.extracts.ExtractionFileNames;
 import de.topobyte.osm4j.extra.extracts.ExtractionFilesBuilder;
 import de.topobyte.osm4j.extra.extracts.ExtractionFilesHelper;
@@ -40,6 +41,9 @@ public class BuildExtractionFiles extends AbstractExecutableInput
 	private static final String OPTION_MAX_MEMBERS_SIMPLE = "max-members-simple";
 	private static final String OPTION_MAX_MEMBERS_COMPLEX = "max-members-complex";
 	private static final String OPTION_COMPUTE_BBOX = "compute-bbox";
+	private static final String OPTION_FANOUT = "fanout";
+	private static final String OPTION_PLANNING_RESOLUTION = "planning-resolution";
+	private static final String OPTION_MAX_NODES_IN_MEMORY = "max-nodes-in-memory";
 
 	private static final String OPTION_KEEP_ALL = "keep-all";
 	private static final String OPTION_KEEP_SPLITTED = "keep-splitted";
@@ -52,6 +56,10 @@ public class BuildExtractionFiles extends AbstractExecutableInput
 	private static final String OPTION_KEEP_NONTREE_RELATIONS = "keep-nontree-relations";
 	private static final String OPTION_KEEP_UNSORTED_RELATIONS = "keep-unsorted-relations";
 	private static final String OPTION_CONTINUE_PREVIOUS_BUILD = "continue-previous-build";
+	private static final String OPTION_ID_INDEX = "id-index";
+	private static final String OPTION_NODE_ARRAY = "node-array";
+	private static final String OPTION_WAY_LOCATIONS = "way-locations";
+	private static final String OPTION_SHARED_WAYS = "shared-ways";
 
 	@Override
 	protected String getHelpMessage()
@@ -75,6 +83,9 @@ public class BuildExtractionFiles extends AbstractExecutableInput
 	private int maxMembersSimple;
 	private int maxMembersComplex;
 	private boolean computeBbox = false;
+	private int fanout = DataTree.DEFAULT_FANOUT;
+	private int planningResolution = ExtractionFilesBuilder.DEFAULT_PLANNING_RESOLUTION;
+	private int maxNodesInMemory = ExtractionFilesBuilder.DEFAULT_MAX_NODES_IN_MEMORY;
 
 	private FileFormat outputFormat = FileFormat.TBO;
 	private ExtractionFileNames fileNames;
@@ -92,6 +103,11 @@ public class BuildExtractionFiles extends AbstractExecutableInput
 
 	private boolean continuePreviousBuild = false;
 
+	private boolean buildIdIndex = false;
+	private boolean useNodeArray = false;
+	private boolean writeWayLocations = false;
+	private boolean separateSharedWays = false;
+
 	public BuildExtractionFiles()
 	{
 		// @formatter:off
@@ -101,6 +117,9 @@ public class BuildExtractionFiles extends AbstractExecutableInput
 		OptionHelper.addL(options, OPTION_MAX_MEMBERS_SIMPLE, true, true, "maximum number of nodes per batch");
 		OptionHelper.addL(options, OPTION_MAX_MEMBERS_COMPLEX, true, true, "maximum number of nodes per batch");
 		OptionHelper.addL(options, OPTION_COMPUTE_BBOX, false, false, "compute bbox instead of using bbox declared in input file");
+		OptionHelper.addL(options, OPTION_FANOUT, true, false, "number of children per inner tree node (power of two, default: 2)");
+		OptionHelper.addL(options, OPTION_PLANNING_RESOLUTION, true, false, "plan the node tree using a density raster with 2^value cells (default: 22, 0 to disable)");
+		OptionHelper.addL(options, OPTION_MAX_NODES_IN_MEMORY, true, false, "split oversized leafs with up to this many nodes in memory (default: 5000000, 0 to disable)");
 		ExtractionFilesHelper.addOptions(options);
 		OptionHelper.addL(options, OPTION_KEEP_ALL, false, false, "keep all temporary files");
 		OptionHelper.addL(options, OPTION_KEEP_SPLITTED, false, false, "keep the files containing only input nodes/ways/relations");
@@ -113,6 +132,10 @@ public class BuildExtractionFiles extends AbstractExecutableInput
 		OptionHelper.addL(options, OPTION_KEEP_NONTREE_RELATIONS, false, false, "keep the files containing nontree relations");
 		OptionHelper.addL(options, OPTION_KEEP_UNSORTED_RELATIONS, false, false, "keep the files containing unsorted complex relation groups");
 		OptionHelper.addL(options, OPTION_CONTINUE_PREVIOUS_BUILD, false, false, "continue from a previous, aborted or otherwise incomplete run");
+		OptionHelper.addL(options, OPTION_ID_INDEX, false, false, "build an index of entity ids for querying entities by id");
+		OptionHelper.addL(options, OPTION_NODE_ARRAY, false, false, "map ways to the tree using a temporary array of node coordinates");
+		OptionHelper.addL(options, OPTION_WAY_LOCATIONS, false, false, "store node locations of ways next to the tree's way files");
+		OptionHelper.addL(options, OPTION_SHARED_WAYS, false, false, "store ways that span several leafs once instead of copying them to each leaf");
 		// @formatter:on
 	}
 
@@ -154,6 +177,44 @@ public class BuildExtractionFiles extends AbstractExecutableInput
 
 		computeBbox = line.hasOption(OPTION_COMPUTE_BBOX);
 
+		if (line.hasOption(OPTION_FANOUT)) {
+			try {
+				fanout = ArgumentHelper.getInteger(line, OPTION_FANOUT)
+						.getValue();
+			} catch (ArgumentParseException e) {
+				System.out.println(
+						String.format("Error while parsing option '%s': %s",
+								OPTION_FANOUT, e.getMessage()));
+				System.exit(1);
+			}
+		}
+
+		if (line.hasOption(OPTION_PLANNING_RESOLUTION)) {
+			try {
+				planningResolution = ArgumentHelper
+						.getInteger(line, OPTION_PLANNING_RESOLUTION)
+						.getValue();
+			} catch (ArgumentParseException e) {
+				System.out.println(
+						String.format("Error while parsing option '%s': %s",
+								OPTION_PLANNING_RESOLUTION, e.getMessage()));
+				System.exit(1);
+			}
+		}
+
+		if (line.hasOption(OPTION_MAX_NODES_IN_MEMORY)) {
+			try {
+				maxNodesInMemory = ArgumentHelper
+						.getInteger(line, OPTION_MAX_NODES_IN_MEMORY)
+						.getValue();
+			} catch (ArgumentParseException e) {
+				System.out.println(
+						String.format("Error while parsing option '%s': %s",
+								OPTION_MAX_NODES_IN_MEMORY, e.getMessage()));
+				System.exit(1);
+			}
+		}
+
 		fileNames = FileNameDefaults.forFormat(outputFormat);
 
 		ExtractionFilesHelper.parse(line, fileNames);
@@ -173,6 +234,11 @@ public class BuildExtractionFiles extends AbstractExecutableInput
 
 		continuePreviousBuild = line.hasOption(OPTION_CONTINUE_PREVIOUS_BUILD);
 
+		buildIdIndex = line.hasOption(OPTION_ID_INDEX);
+		useNodeArray = line.hasOption(OPTION_NODE_ARRAY);
+		writeWayLocations = line.hasOption(OPTION_WAY_LOCATIONS);
+		separateSharedWays = line.hasOption(OPTION_SHARED_WAYS);
+
 		if (keepAll || keepSplitted) {
 			keepSplittedNodes = true;
 			keepSplittedWays = true;
@@ -203,6 +269,13 @@ public class BuildExtractionFiles extends AbstractExecutableInput
 		builder.setKeepRelationBatches(keepRelationBatches);
 		builder.setKeepNonTreeRelations(keepNonTreeRelations);
 		builder.setKeepUnsortedRelations(keepUnsortedRelations);
+		builder.setFanout(fanout);
+		builder.setPlanningResolution(planningResolution);
+		builder.setMaxNodesInMemory(maxNodesInMemory);
+		builder.setBuildIdIndex(buildIdIndex);
+		builder.setUseNodeArray(useNodeArray);
+		builder.setWriteWayLocations(writeWayLocations);
+		builder.setSeparateSharedWays(separateSharedWays);
 
 		builder.execute();
 	}
@@ -0,0 +1,85 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.executables;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import de.topobyte.osm4j.extra.extracts.ExtractionFileNames;
+import de.topobyte.osm4j.extra.extracts.ExtractionFilesHelper;
+import de.topobyte.osm4j.extra.extracts.ExtractionPaths;
+import de.topobyte.osm4j.extra.extracts.FileNameDefaults;
+import de.topobyte.osm4j.extra.idlocation.IdIndexBuilder;
+import de.topobyte.osm4j.utils.AbstractExecutableInput;
+import de.topobyte.utilities.apache.commons.cli.OptionHelper;
+
+public class CreateIdIndex extends AbstractExecutableInput
+{
+
+	private static final String OPTION_INPUT = "input";
+
+	@Override
+	protected String getHelpMessage()
+	{
+		return CreateIdIndex.class.getSimpleName() + " [options]";
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		CreateIdIndex task = new CreateIdIndex();
+
+		task.setup(args);
+
+		task.execute();
+	}
+
+	public CreateIdIndex()
+	{
+		// @formatter:off
+		OptionHelper.addL(options, OPTION_INPUT, true, true, "directory with extraction files");
+		ExtractionFilesHelper.addOptions(options);
+		// @formatter:on
+	}
+
+	private ExtractionFileNames fileNames;
+	private ExtractionPaths extractionPaths;
+
+	@Override
+	protected void setup(String[] args)
+	{
+		super.setup(args);
+
+		Path pathInput = Paths.get(line.getOptionValue(OPTION_INPUT));
+
+		fileNames = FileNameDefaults.forFormat(inputFormat);
+		ExtractionFilesHelper.parse(line, fileNames);
+		extractionPaths = new ExtractionPaths(pathInput, fileNames);
+	}
+
+	private void execute() throws IOException
+	{
+		IdIndexBuilder builder = new IdIndexBuilder(extractionPaths.getTree(),
+				fileNames.getTreeNames(), extractionPaths.getSimpleRelations(),
+				extractionPaths.getComplexRelations(),
+				fileNames.getRelationNames(), inputFormat,
+				extractionPaths.getIdIndex());
+		builder.execute();
+	}
+
+}
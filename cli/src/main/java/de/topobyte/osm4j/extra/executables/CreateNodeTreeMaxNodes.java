@@ -29,6 +29,7 @@ import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
 import de.topobyte.osm4j.extra.datatree.DataTreeUtil;
 import de.topobyte.osm4j.extra.datatree.nodetree.NodeTreeCreatorMaxNodes;
 import de.topobyte.osm4j.extra.datatree.nodetree.count.NodeTreeLeafCounterFactory;
+import de.topobyte.osm4j.extra.datatree.nodetree.count.ParallelNodeTreeLeafCounterFactory;
 import de.topobyte.osm4j.extra.datatree.nodetree.count.SimpleNodeTreeLeafCounterFactory;
 import de.topobyte.osm4j.extra.datatree.nodetree.count.ThreadedNodeTreeLeafCounterFactory;
 import de.topobyte.osm4j.extra.datatree.nodetree.distribute.NodeTreeDistributorFactory;
@@ -47,6 +48,8 @@ public class CreateNodeTreeMaxNodes extends
 	private static final String OPTION_OUTPUT = "output";
 	private static final String OPTION_FILE_NAMES = "filenames";
 	private static final String OPTION_MAX_NODES = "max-nodes";
+	private static final String OPTION_FANOUT = "fanout";
+	private static final String OPTION_THREADS = "threads";
 
 	private static final int SPLIT_INITIAL = 20;
 	private static final int SPLIT_ITERATION = 8;
@@ -67,6 +70,8 @@ public class CreateNodeTreeMaxNodes extends
 	}
 
 	private int maxNodes;
+	private int fanout = DataTree.DEFAULT_FANOUT;
+	private int numThreads = 1;
 	private String pathOutput;
 	private String fileNames;
 
@@ -76,6 +81,8 @@ public class CreateNodeTreeMaxNodes extends
 		OptionHelper.addL(options, OPTION_OUTPUT, true, true, "directory to store output in");
 		OptionHelper.addL(options, OPTION_MAX_NODES, true, true, "the maximum number of nodes per file");
 		OptionHelper.addL(options, OPTION_FILE_NAMES, true, true, "names of the data files to create");
+		OptionHelper.addL(options, OPTION_FANOUT, true, false, "number of children per inner tree node (power of two, default: 2)");
+		OptionHelper.addL(options, OPTION_THREADS, true, false, "number of threads for counting nodes per leaf (default: 1)");
 		// @formatter:on
 	}
 
@@ -92,6 +99,18 @@ public class CreateNodeTreeMaxNodes extends
 			System.exit(1);
 		}
 
+		if (line.hasOption(OPTION_FANOUT)) {
+			fanout = Integer.parseInt(line.getOptionValue(OPTION_FANOUT));
+		}
+
+		if (line.hasOption(OPTION_THREADS)) {
+			numThreads = Integer.parseInt(line.getOptionValue(OPTION_THREADS));
+			if (numThreads < 1) {
+				System.out.println("Please specify a number of threads >= 1");
+				System.exit(1);
+			}
+		}
+
 		pathOutput = line.getOptionValue(OPTION_OUTPUT);
 		fileNames = line.getOptionValue(OPTION_FILE_NAMES);
 	}
@@ -113,7 +132,7 @@ public class CreateNodeTreeMaxNodes extends
 
 		Path pathTree = Paths.get(pathOutput);
 
-		DataTree tree = DataTreeUtil.initNewTree(pathTree, bounds);
+		DataTree tree = DataTreeUtil.initNewTree(pathTree, bounds, fanout);
 
 		OsmOutputConfig outputConfig = new OsmOutputConfig(outputFormat,
 				pbfConfig, tboConfig, writeMetadata);
@@ -130,6 +149,10 @@ public class CreateNodeTreeMaxNodes extends
 		if (!threaded) {
 			counterFactory = new SimpleNodeTreeLeafCounterFactory();
 			distributorFactory = new SimpleNodeTreeDistributorFactory();
+		} else if (numThreads > 1) {
+			counterFactory = new ParallelNodeTreeLeafCounterFactory(
+					numThreads);
+			distributorFactory = new ThreadedNodeTreeDistributorFactory();
 		} else {
 			counterFactory = new ThreadedNodeTreeLeafCounterFactory();
 			distributorFactory = new ThreadedNodeTreeDistributorFactory();
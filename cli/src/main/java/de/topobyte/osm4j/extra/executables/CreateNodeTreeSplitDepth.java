@@ -39,6 +39,7 @@ public class CreateNodeTreeSplitDepth extends CreateNodeTreeBase
 {
 
 	private static final String OPTION_SPLIT_DEPTH = "split-depth";
+	private static final String OPTION_FANOUT = "fanout";
 
 	@Override
 	protected String getHelpMessage()
@@ -60,11 +61,13 @@ public class CreateNodeTreeSplitDepth extends CreateNodeTreeBase
 	}
 
 	private int splitDepth;
+	private int fanout = DataTree.DEFAULT_FANOUT;
 
 	public CreateNodeTreeSplitDepth()
 	{
 		// @formatter:off
 		OptionHelper.addL(options, OPTION_SPLIT_DEPTH, true, true, "how often to split the root node");
+		OptionHelper.addL(options, OPTION_FANOUT, true, false, "number of children per inner tree node (power of two, default: 2)");
 		// @formatter:on
 	}
 
@@ -80,6 +83,10 @@ public class CreateNodeTreeSplitDepth extends CreateNodeTreeBase
 			System.out.println("Please specify a positive split depth");
 			System.exit(1);
 		}
+
+		if (line.hasOption(OPTION_FANOUT)) {
+			fanout = Integer.parseInt(line.getOptionValue(OPTION_FANOUT));
+		}
 	}
 
 	private void execute() throws IOException
@@ -97,7 +104,7 @@ public class CreateNodeTreeSplitDepth extends CreateNodeTreeBase
 		OsmOutputConfig outputConfig = new OsmOutputConfig(outputFormat,
 				pbfConfig, tboConfig, writeMetadata);
 
-		DataTree tree = DataTreeUtil.initNewTree(pathTree, bounds);
+		DataTree tree = DataTreeUtil.initNewTree(pathTree, bounds, fanout);
 
 		tree.getRoot().split(splitDepth);
 		tree.print();
@@ -20,9 +20,11 @@ package de.topobyte.osm4j.extra.executables;
 import java.io.IOException;
 import java.nio.file.Paths;
 
+import de.topobyte.osm4j.extra.datatree.ways.ParallelWaysDistributor;
 import de.topobyte.osm4j.extra.datatree.ways.SimpleWaysDistributor;
 import de.topobyte.osm4j.extra.datatree.ways.ThreadedWaysDistributor;
 import de.topobyte.osm4j.extra.datatree.ways.WaysDistributor;
+import de.topobyte.osm4j.extra.threading.MemoryBudget;
 import de.topobyte.osm4j.utils.AbstractExecutableInputOutput;
 import de.topobyte.osm4j.utils.FileFormat;
 import de.topobyte.osm4j.utils.OsmOutputConfig;
@@ -37,6 +39,7 @@ public class DistributeWays extends AbstractExecutableInputOutput
 	private static final String OPTION_FILE_NAMES_WAYS = "ways";
 	private static final String OPTION_FILE_NAMES_OUTPUT_WAYS = "ways-out";
 	private static final String OPTION_FILE_NAMES_OUTPUT_NODES = "nodes-out";
+	private static final String OPTION_THREADS = "threads";
 
 	@Override
 	protected String getHelpMessage()
@@ -64,6 +67,8 @@ public class DistributeWays extends AbstractExecutableInputOutput
 	private FileFormat inputFormatNodes;
 	private FileFormat inputFormatWays;
 
+	private int numThreads = 1;
+
 	public DistributeWays()
 	{
 		// @formatter:off
@@ -73,6 +78,7 @@ public class DistributeWays extends AbstractExecutableInputOutput
 		OptionHelper.addL(options, OPTION_TREE, true, true, "tree directory to work on");
 		OptionHelper.addL(options, OPTION_FILE_NAMES_OUTPUT_WAYS, true, true, "name of files for intersecting ways");
 		OptionHelper.addL(options, OPTION_FILE_NAMES_OUTPUT_NODES, true, true, "name of files for intersecting ways' nodes");
+		OptionHelper.addL(options, OPTION_THREADS, true, false, "number of leafs to process concurrently (default: 1)");
 		// @formatter:on
 	}
 
@@ -93,6 +99,14 @@ public class DistributeWays extends AbstractExecutableInputOutput
 				.getOptionValue(OPTION_FILE_NAMES_OUTPUT_NODES);
 
 		pathTree = line.getOptionValue(OPTION_TREE);
+
+		if (line.hasOption(OPTION_THREADS)) {
+			numThreads = Integer.parseInt(line.getOptionValue(OPTION_THREADS));
+			if (numThreads < 1) {
+				System.out.println("Please specify a number of threads >= 1");
+				System.exit(1);
+			}
+		}
 	}
 
 	public void execute() throws IOException
@@ -103,7 +117,13 @@ public class DistributeWays extends AbstractExecutableInputOutput
 		boolean threaded = true;
 
 		WaysDistributor distributor;
-		if (!threaded) {
+		if (numThreads > 1) {
+			distributor = new ParallelWaysDistributor(Paths.get(pathTree),
+					fileNamesNodes1, fileNamesNodes2, fileNamesWays,
+					fileNamesOutputWays, fileNamesOutputNodes,
+					inputFormatNodes, inputFormatWays, outputConfig,
+					numThreads, MemoryBudget.ofMaxMemory(0.5));
+		} else if (!threaded) {
 			distributor = new SimpleWaysDistributor(Paths.get(pathTree),
 					fileNamesNodes1, fileNamesNodes2, fileNamesWays,
 					fileNamesOutputWays, fileNamesOutputNodes,
@@ -33,6 +33,7 @@ public class MapWaysToTreeUsingArray extends
 	private static final String OPTION_FILE_NAMES = "filenames";
 	private static final String OPTION_TREE = "tree";
 	private static final String OPTION_NODE_ARRAY = "node-array";
+	private static final String OPTION_THREADS = "threads";
 
 	@Override
 	protected String getHelpMessage()
@@ -58,12 +59,15 @@ public class MapWaysToTreeUsingArray extends
 
 	private String fileNames;
 
+	private int numThreads = 1;
+
 	public MapWaysToTreeUsingArray()
 	{
 		// @formatter:off
 		OptionHelper.addL(options, OPTION_FILE_NAMES, true, true, "names of the data files to create");
 		OptionHelper.addL(options, OPTION_TREE, true, true, "directory to store output in");
 		OptionHelper.addL(options, OPTION_NODE_ARRAY, true, true, "a path to a node array");
+		OptionHelper.addL(options, OPTION_THREADS, true, false, "number of threads for routing ways to leafs (default: 1)");
 		// @formatter:on
 	}
 
@@ -76,6 +80,14 @@ public class MapWaysToTreeUsingArray extends
 
 		pathTree = line.getOptionValue(OPTION_TREE);
 		pathNodeArray = line.getOptionValue(OPTION_NODE_ARRAY);
+
+		if (line.hasOption(OPTION_THREADS)) {
+			numThreads = Integer.parseInt(line.getOptionValue(OPTION_THREADS));
+			if (numThreads < 1) {
+				System.out.println("Please specify a number of threads >= 1");
+				System.exit(1);
+			}
+		}
 	}
 
 	public void execute() throws IOException
@@ -86,7 +98,7 @@ public class MapWaysToTreeUsingArray extends
 
 		WaysToTreeMapperUsingArray mapper = new WaysToTreeMapperUsingArray(
 				iterator, Paths.get(pathTree), fileNames,
-				Paths.get(pathNodeArray), outputConfig);
+				Paths.get(pathNodeArray), outputConfig, numThreads);
 
 		mapper.execute();
 	}
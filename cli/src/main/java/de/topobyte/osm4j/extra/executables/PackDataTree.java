@@ -0,0 +1,90 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.executables;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.topobyte.osm4j.extra.datatree.packed.DataTreePacker;
+import de.topobyte.osm4j.utils.AbstractExecutable;
+import de.topobyte.utilities.apache.commons.cli.OptionHelper;
+
+public class PackDataTree extends AbstractExecutable
+{
+
+	private static final String OPTION_TREE = "tree";
+	private static final String OPTION_FILE_NAMES = "filenames";
+	private static final String OPTION_DELETE = "delete";
+
+	@Override
+	protected String getHelpMessage()
+	{
+		return PackDataTree.class.getSimpleName() + " [options]";
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		PackDataTree task = new PackDataTree();
+
+		task.setup(args);
+
+		task.execute();
+	}
+
+	public PackDataTree()
+	{
+		// @formatter:off
+		OptionHelper.addL(options, OPTION_TREE, true, true, "directory with data tree");
+		OptionHelper.addL(options, OPTION_FILE_NAMES, true, true, "comma separated names of the leaf files to pack");
+		OptionHelper.addL(options, OPTION_DELETE, false, false, "delete leaf files and directories after packing");
+		// @formatter:on
+	}
+
+	private Path pathTree;
+	private List<String> fileNames = new ArrayList<>();
+	private boolean delete;
+
+	@Override
+	protected void setup(String[] args)
+	{
+		super.setup(args);
+
+		pathTree = Paths.get(line.getOptionValue(OPTION_TREE));
+
+		String names = line.getOptionValue(OPTION_FILE_NAMES);
+		for (String name : names.split(",")) {
+			name = name.trim();
+			if (!name.isEmpty()) {
+				fileNames.add(name);
+			}
+		}
+
+		delete = line.hasOption(OPTION_DELETE);
+	}
+
+	private void execute() throws IOException
+	{
+		DataTreePacker packer = new DataTreePacker(pathTree, fileNames,
+				delete);
+		packer.execute();
+	}
+
+}
@@ -0,0 +1,146 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.executables;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.slimjars.dist.gnu.trove.set.TLongSet;
+import com.slimjars.dist.gnu.trove.set.hash.TLongHashSet;
+
+import de.topobyte.osm4j.extra.extracts.ExtractionFileNames;
+import de.topobyte.osm4j.extra.extracts.ExtractionFilesHelper;
+import de.topobyte.osm4j.extra.extracts.ExtractionPaths;
+import de.topobyte.osm4j.extra.extracts.FileNameDefaults;
+import de.topobyte.osm4j.extra.extracts.query.IdQuery;
+import de.topobyte.osm4j.extra.idlocation.IdIndex;
+import de.topobyte.osm4j.utils.AbstractExecutableInputOutput;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+import de.topobyte.utilities.apache.commons.cli.OptionHelper;
+
+public class QueryIds extends AbstractExecutableInputOutput
+{
+
+	private static final String OPTION_INPUT = "input";
+	private static final String OPTION_OUTPUT = "output";
+	private static final String OPTION_NODES = "nodes";
+	private static final String OPTION_WAYS = "ways";
+	private static final String OPTION_RELATIONS = "relations";
+
+	@Override
+	protected String getHelpMessage()
+	{
+		return QueryIds.class.getSimpleName() + " [options]";
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		QueryIds task = new QueryIds();
+
+		task.setup(args);
+
+		task.execute();
+	}
+
+	public QueryIds()
+	{
+		// @formatter:off
+		OptionHelper.addL(options, OPTION_INPUT, true, true, "directory with extraction files");
+		OptionHelper.addL(options, OPTION_OUTPUT, true, true, "file to write the entities to");
+		OptionHelper.addL(options, OPTION_NODES, true, false, "comma separated ids of nodes to extract");
+		OptionHelper.addL(options, OPTION_WAYS, true, false, "comma separated ids of ways to extract");
+		OptionHelper.addL(options, OPTION_RELATIONS, true, false, "comma separated ids of relations to extract");
+		ExtractionFilesHelper.addOptions(options);
+		// @formatter:on
+	}
+
+	private ExtractionFileNames fileNames;
+	private ExtractionPaths extractionPaths;
+
+	private Path pathOutput;
+
+	private TLongSet nodeIds;
+	private TLongSet wayIds;
+	private TLongSet relationIds;
+
+	@Override
+	protected void setup(String[] args)
+	{
+		super.setup(args);
+
+		Path pathInput = Paths.get(line.getOptionValue(OPTION_INPUT));
+		pathOutput = Paths.get(line.getOptionValue(OPTION_OUTPUT));
+
+		fileNames = FileNameDefaults.forFormat(inputFormat);
+		ExtractionFilesHelper.parse(line, fileNames);
+		extractionPaths = new ExtractionPaths(pathInput, fileNames);
+
+		nodeIds = parseIds(OPTION_NODES);
+		wayIds = parseIds(OPTION_WAYS);
+		relationIds = parseIds(OPTION_RELATIONS);
+
+		if (nodeIds.isEmpty() && wayIds.isEmpty() && relationIds.isEmpty()) {
+			System.out.println("Please specify at least one id");
+			System.exit(1);
+		}
+	}
+
+	private TLongSet parseIds(String option)
+	{
+		TLongSet ids = new TLongHashSet();
+		if (!line.hasOption(option)) {
+			return ids;
+		}
+		for (String part : line.getOptionValue(option).split(",")) {
+			part = part.trim();
+			if (part.isEmpty()) {
+				continue;
+			}
+			try {
+				ids.add(Long.parseLong(part));
+			} catch (NumberFormatException e) {
+				System.out.println(String.format("Invalid id for '%s': '%s'",
+						option, part));
+				System.exit(1);
+			}
+		}
+		return ids;
+	}
+
+	private void execute() throws IOException
+	{
+		OsmOutputConfig outputConfig = new OsmOutputConfig(outputFormat,
+				pbfConfig, tboConfig, writeMetadata);
+
+		Path pathIndex = extractionPaths.getIdIndex();
+		if (!IdIndex.exists(pathIndex)) {
+			System.out.println("No id index found at: " + pathIndex);
+			System.out.println("Please create one with CreateIdIndex first");
+			System.exit(1);
+		}
+
+		IdIndex index = IdIndex.open(pathIndex);
+		IdQuery query = new IdQuery(index, pathOutput, extractionPaths,
+				fileNames.getTreeNames(), fileNames.getRelationNames(),
+				inputFormat, outputConfig);
+		query.execute(nodeIds, wayIds, relationIds);
+		index.close();
+	}
+
+}
@@ -0,0 +1,107 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.executables;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import de.topobyte.osm4j.extra.extracts.ExtractionFileNames;
+import de.topobyte.osm4j.extra.extracts.ExtractionFilesHelper;
+import de.topobyte.osm4j.extra.extracts.ExtractionPaths;
+import de.topobyte.osm4j.extra.extracts.ExtractionRebalancer;
+import de.topobyte.osm4j.extra.extracts.FileNameDefaults;
+import de.topobyte.osm4j.utils.AbstractExecutableInputOutput;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+import de.topobyte.utilities.apache.commons.cli.OptionHelper;
+
+public class RebalanceExtractionFiles extends AbstractExecutableInputOutput
+{
+
+	private static final String OPTION_INPUT = "input";
+	private static final String OPTION_MAX_NODES = "max-nodes";
+
+	@Override
+	protected String getHelpMessage()
+	{
+		return RebalanceExtractionFiles.class.getSimpleName() + " [options]";
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		RebalanceExtractionFiles task = new RebalanceExtractionFiles();
+
+		task.setup(args);
+
+		task.execute();
+	}
+
+	public RebalanceExtractionFiles()
+	{
+		// @formatter:off
+		OptionHelper.addL(options, OPTION_INPUT, true, true, "directory with extraction files");
+		OptionHelper.addL(options, OPTION_MAX_NODES, true, true, "the maximum number of nodes per leaf");
+		ExtractionFilesHelper.addOptions(options);
+		// @formatter:on
+	}
+
+	private ExtractionFileNames fileNames;
+	private ExtractionPaths extractionPaths;
+	private int maxNodes;
+
+	@Override
+	protected void setup(String[] args)
+	{
+		super.setup(args);
+
+		if (inputFormat != outputFormat) {
+			System.out.println(
+					"Leaf files are rewritten in place, input and output format must be the same");
+			System.exit(1);
+		}
+
+		Path pathInput = Paths.get(line.getOptionValue(OPTION_INPUT));
+
+		String argMaxNodes = line.getOptionValue(OPTION_MAX_NODES);
+		try {
+			maxNodes = Integer.parseInt(argMaxNodes);
+		} catch (NumberFormatException e) {
+			System.out.println("Please specify a valid number for maxNodes");
+			System.exit(1);
+		}
+		if (maxNodes < 1) {
+			System.out.println("Please specify a positive number for maxNodes");
+			System.exit(1);
+		}
+
+		fileNames = FileNameDefaults.forFormat(inputFormat);
+		ExtractionFilesHelper.parse(line, fileNames);
+		extractionPaths = new ExtractionPaths(pathInput, fileNames);
+	}
+
+	private void execute() throws IOException
+	{
+		OsmOutputConfig outputConfig = new OsmOutputConfig(outputFormat,
+				pbfConfig, tboConfig, writeMetadata);
+
+		ExtractionRebalancer rebalancer = new ExtractionRebalancer(
+				extractionPaths, fileNames, outputConfig, maxNodes);
+		rebalancer.execute();
+	}
+
+}
@@ -0,0 +1,108 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.executables;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import de.topobyte.osm4j.extra.datatree.spatial.SpatialLeafSorter;
+import de.topobyte.osm4j.extra.datatree.spatial.SpatialLeafWriter;
+import de.topobyte.osm4j.utils.AbstractExecutableInputOutput;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+import de.topobyte.utilities.apache.commons.cli.OptionHelper;
+
+public class SortDataTreeSpatially extends AbstractExecutableInputOutput
+{
+
+	private static final String OPTION_TREE = "tree";
+	private static final String OPTION_FILE_NAMES_NODES = "nodes";
+	private static final String OPTION_FILE_NAMES_WAYS = "ways";
+	private static final String OPTION_BLOCK_SIZE = "block-size";
+
+	@Override
+	protected String getHelpMessage()
+	{
+		return SortDataTreeSpatially.class.getSimpleName() + " [options]";
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		SortDataTreeSpatially task = new SortDataTreeSpatially();
+
+		task.setup(args);
+
+		task.execute();
+	}
+
+	public SortDataTreeSpatially()
+	{
+		// @formatter:off
+		OptionHelper.addL(options, OPTION_TREE, true, true, "directory with data tree");
+		OptionHelper.addL(options, OPTION_FILE_NAMES_NODES, true, true, "name of the node files in the tree");
+		OptionHelper.addL(options, OPTION_FILE_NAMES_WAYS, true, true, "name of the way files in the tree");
+		OptionHelper.addL(options, OPTION_BLOCK_SIZE, true, false, "number of entities per block (default: " + SpatialLeafWriter.DEFAULT_BLOCK_SIZE + ")");
+		// @formatter:on
+	}
+
+	private Path pathTree;
+	private String fileNamesNodes;
+	private String fileNamesWays;
+	private int blockSize = SpatialLeafWriter.DEFAULT_BLOCK_SIZE;
+
+	@Override
+	protected void setup(String[] args)
+	{
+		super.setup(args);
+
+		if (inputFormat != outputFormat) {
+			System.out.println(
+					"Leaf files are rewritten in place, input and output format must be the same");
+			System.exit(1);
+		}
+
+		pathTree = Paths.get(line.getOptionValue(OPTION_TREE));
+		fileNamesNodes = line.getOptionValue(OPTION_FILE_NAMES_NODES);
+		fileNamesWays = line.getOptionValue(OPTION_FILE_NAMES_WAYS);
+
+		if (line.hasOption(OPTION_BLOCK_SIZE)) {
+			String value = line.getOptionValue(OPTION_BLOCK_SIZE);
+			try {
+				blockSize = Integer.parseInt(value);
+			} catch (NumberFormatException e) {
+				System.out.println("Please specify a valid block size");
+				System.exit(1);
+			}
+			if (blockSize < 1) {
+				System.out.println("Please specify a positive block size");
+				System.exit(1);
+			}
+		}
+	}
+
+	private void execute() throws IOException
+	{
+		OsmOutputConfig outputConfig = new OsmOutputConfig(outputFormat,
+				pbfConfig, tboConfig, writeMetadata);
+
+		SpatialLeafSorter sorter = new SpatialLeafSorter(pathTree,
+				fileNamesNodes, fileNamesWays, outputConfig, blockSize);
+		sorter.execute();
+	}
+
+}
@@ -23,6 +23,7 @@ import java.nio.file.Paths;
 import de.topobyte.osm4j.core.access.OsmIterator;
 import de.topobyte.osm4j.extra.ways.SimpleWaysSorterByFirstNodeId;
 import de.topobyte.osm4j.extra.ways.ThreadedWaysSorterByFirstNodeId;
+import de.topobyte.osm4j.extra.ways.WayRunsMerger;
 import de.topobyte.osm4j.extra.ways.WaysSorterByFirstNodeId;
 import de.topobyte.osm4j.utils.AbstractExecutableSingleInputStreamOutput;
 import de.topobyte.osm4j.utils.OsmOutputConfig;
@@ -33,6 +34,8 @@ public class SortWaysByFirstNodeId extends
 {
 
 	private static final String OPTION_OUTPUT = "output";
+	private static final String OPTION_MAX_FAN_IN = "max-fan-in";
+	private static final String OPTION_THREADS = "threads";
 
 	@Override
 	protected String getHelpMessage()
@@ -54,11 +57,15 @@ public class SortWaysByFirstNodeId extends
 	}
 
 	protected String pathOutput;
+	protected int maxFanIn = WayRunsMerger.DEFAULT_MAX_FAN_IN;
+	protected int numThreads = 1;
 
 	public SortWaysByFirstNodeId()
 	{
 		// @formatter:off
 		OptionHelper.addL(options, OPTION_OUTPUT, true, true, "directory to store output in");
+		OptionHelper.addL(options, OPTION_MAX_FAN_IN, true, false, "maximum number of sorted runs to merge at once");
+		OptionHelper.addL(options, OPTION_THREADS, true, false, "number of threads sorting batches concurrently");
 		// @formatter:on
 	}
 
@@ -68,6 +75,12 @@ public class SortWaysByFirstNodeId extends
 		super.setup(args);
 
 		pathOutput = line.getOptionValue(OPTION_OUTPUT);
+		if (line.hasOption(OPTION_MAX_FAN_IN)) {
+			maxFanIn = Integer.parseInt(line.getOptionValue(OPTION_MAX_FAN_IN));
+		}
+		if (line.hasOption(OPTION_THREADS)) {
+			numThreads = Integer.parseInt(line.getOptionValue(OPTION_THREADS));
+		}
 	}
 
 	private void execute() throws IOException
@@ -83,8 +96,10 @@ public class SortWaysByFirstNodeId extends
 			sorter = new SimpleWaysSorterByFirstNodeId(iterator,
 					Paths.get(pathOutput), outputConfig);
 		} else {
-			sorter = new ThreadedWaysSorterByFirstNodeId(iterator,
-					Paths.get(pathOutput), outputConfig);
+			ThreadedWaysSorterByFirstNodeId threadedSorter = new ThreadedWaysSorterByFirstNodeId(
+					iterator, Paths.get(pathOutput), outputConfig, numThreads);
+			threadedSorter.setMaxFanIn(maxFanIn);
+			sorter = threadedSorter;
 		}
 
 		sorter.execute();
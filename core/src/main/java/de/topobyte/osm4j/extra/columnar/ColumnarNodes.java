@@ -0,0 +1,240 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.columnar;
+
+import java.util.Arrays;
+
+import com.slimjars.dist.gnu.trove.list.TIntList;
+import com.slimjars.dist.gnu.trove.list.TLongList;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+import com.slimjars.dist.gnu.trove.map.TIntObjectMap;
+import com.slimjars.dist.gnu.trove.map.hash.TIntObjectHashMap;
+
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.EntityType;
+import de.topobyte.osm4j.core.model.iface.OsmMetadata;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmRelation;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.core.model.impl.Node;
+import de.topobyte.osm4j.core.resolve.EntityNotFoundException;
+import de.topobyte.osm4j.core.resolve.OsmEntityProvider;
+import de.topobyte.osm4j.extra.sort.IndexComparator;
+import de.topobyte.osm4j.extra.sort.IndexSort;
+
+/**
+ * An in-memory set of nodes stored in columns: a sorted array of ids and two
+ * arrays of coordinates in fixed point representation with a precision of
+ * 1e-7 degrees, the precision of OSM data. Nodes are looked up by binary
+ * search.
+ * 
+ * Tags and metadata are only available if the nodes have been read with
+ * entity retention enabled. In that case, metadata is stored in columns as
+ * well and the original objects of nodes that have tags are kept and returned
+ * as they are, while all other nodes are created from the columns on demand.
+ */
+public class ColumnarNodes implements OsmEntityProvider
+{
+
+	private final static String MESSAGE_NON_NODE = "This provider contains only nodes";
+
+	private static final double SCALE = 1e7;
+
+	private long[] ids;
+	private int[] lons;
+	private int[] lats;
+	private MetadataColumns metadata;
+	private TIntObjectMap<OsmNode> entities;
+
+	private ColumnarNodes(long[] ids, int[] lons, int[] lats,
+			MetadataColumns metadata, TIntObjectMap<OsmNode> entities)
+	{
+		this.ids = ids;
+		this.lons = lons;
+		this.lats = lats;
+		this.metadata = metadata;
+		this.entities = entities;
+	}
+
+	/**
+	 * Read all nodes from the iterator.
+	 * 
+	 * @param retainEntities
+	 *            whether to keep the tags and metadata of nodes.
+	 */
+	public static ColumnarNodes read(OsmIterator iterator,
+			boolean retainEntities)
+	{
+		TLongList ids = new TLongArrayList();
+		TIntList lons = new TIntArrayList();
+		TIntList lats = new TIntArrayList();
+		MetadataColumns metadata = new MetadataColumns();
+		TIntObjectMap<OsmNode> entities = new TIntObjectHashMap<>();
+
+		boolean sorted = true;
+		long last = Long.MIN_VALUE;
+		while (iterator.hasNext()) {
+			EntityContainer container = iterator.next();
+			if (container.getType() != EntityType.Node) {
+				break;
+			}
+			OsmNode node = (OsmNode) container.getEntity();
+			if (node.getId() <= last) {
+				sorted = false;
+			}
+			last = node.getId();
+
+			OsmMetadata nodeMetadata = null;
+			if (retainEntities) {
+				nodeMetadata = node.getMetadata();
+				if (node.getNumberOfTags() > 0
+						|| !MetadataColumns.isStorable(nodeMetadata)) {
+					entities.put(ids.size(), node);
+					nodeMetadata = null;
+				}
+			}
+			metadata.add(nodeMetadata);
+			ids.add(node.getId());
+			lons.add(encode(node.getLongitude()));
+			lats.add(encode(node.getLatitude()));
+		}
+
+		ColumnarNodes nodes = new ColumnarNodes(ids.toArray(), lons.toArray(),
+				lats.toArray(), metadata, entities);
+		if (!sorted) {
+			nodes.sort();
+		}
+		return nodes;
+	}
+
+	private static int encode(double degrees)
+	{
+		return (int) Math.round(degrees * SCALE);
+	}
+
+	private static double decode(int value)
+	{
+		return value / SCALE;
+	}
+
+	private void sort()
+	{
+		int n = ids.length;
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		IndexSort.sort(order, new IndexComparator() {
+
+			@Override
+			public int compare(int a, int b)
+			{
+				return Long.compare(ids[a], ids[b]);
+			}
+		});
+
+		long[] sortedIds = new long[n];
+		int[] sortedLons = new int[n];
+		int[] sortedLats = new int[n];
+		TIntObjectMap<OsmNode> sortedEntities = new TIntObjectHashMap<>();
+		for (int i = 0; i < n; i++) {
+			int k = order[i];
+			sortedIds[i] = ids[k];
+			sortedLons[i] = lons[k];
+			sortedLats[i] = lats[k];
+			OsmNode entity = entities.get(k);
+			if (entity != null) {
+				sortedEntities.put(i, entity);
+			}
+		}
+		ids = sortedIds;
+		lons = sortedLons;
+		lats = sortedLats;
+		entities = sortedEntities;
+		metadata.permute(order);
+	}
+
+	public int size()
+	{
+		return ids.length;
+	}
+
+	/**
+	 * @return the position of the node with the specified id or a negative
+	 *         value if there is no such node.
+	 */
+	public int indexOf(long id)
+	{
+		return Arrays.binarySearch(ids, id);
+	}
+
+	public boolean contains(long id)
+	{
+		return indexOf(id) >= 0;
+	}
+
+	public long getId(int index)
+	{
+		return ids[index];
+	}
+
+	public double getLongitude(int index)
+	{
+		return decode(lons[index]);
+	}
+
+	public double getLatitude(int index)
+	{
+		return decode(lats[index]);
+	}
+
+	public OsmNode get(int index)
+	{
+		OsmNode entity = entities.get(index);
+		if (entity != null) {
+			return entity;
+		}
+		return new Node(ids[index], decode(lons[index]), decode(lats[index]),
+				metadata.get(index));
+	}
+
+	@Override
+	public OsmNode getNode(long id) throws EntityNotFoundException
+	{
+		int index = indexOf(id);
+		if (index < 0) {
+			throw new EntityNotFoundException("Node not found: " + id);
+		}
+		return get(index);
+	}
+
+	@Override
+	public OsmWay getWay(long id) throws EntityNotFoundException
+	{
+		throw new EntityNotFoundException(MESSAGE_NON_NODE);
+	}
+
+	@Override
+	public OsmRelation getRelation(long id) throws EntityNotFoundException
+	{
+		throw new EntityNotFoundException(MESSAGE_NON_NODE);
+	}
+
+}
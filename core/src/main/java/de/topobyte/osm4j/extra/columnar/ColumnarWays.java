@@ -0,0 +1,225 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.columnar;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.slimjars.dist.gnu.trove.list.TIntList;
+import com.slimjars.dist.gnu.trove.list.TLongList;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+import com.slimjars.dist.gnu.trove.map.TIntObjectMap;
+import com.slimjars.dist.gnu.trove.map.hash.TIntObjectHashMap;
+
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.EntityType;
+import de.topobyte.osm4j.core.model.iface.OsmMetadata;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmRelation;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.core.model.impl.Way;
+import de.topobyte.osm4j.core.resolve.EntityNotFoundException;
+import de.topobyte.osm4j.core.resolve.OsmEntityProvider;
+
+/**
+ * An in-memory set of ways stored in columns: the way ids in input order and
+ * the node references of all ways in a single array with an array of offsets
+ * into it. Ways are looked up by binary search if their ids are sorted.
+ * 
+ * As with {@link ColumnarNodes}, tags and metadata are only available if the
+ * ways have been read with entity retention enabled. Metadata is stored in
+ * columns, the original objects of ways with tags are kept.
+ */
+public class ColumnarWays implements OsmEntityProvider, Iterable<OsmWay>
+{
+
+	private final static String MESSAGE_NON_WAY = "This provider contains only ways";
+
+	private long[] ids;
+	private int[] offsets;
+	private long[] refs;
+	private MetadataColumns metadata;
+	private TIntObjectMap<OsmWay> entities;
+	private boolean sorted;
+
+	private ColumnarWays(long[] ids, int[] offsets, long[] refs,
+			MetadataColumns metadata, TIntObjectMap<OsmWay> entities,
+			boolean sorted)
+	{
+		this.ids = ids;
+		this.offsets = offsets;
+		this.refs = refs;
+		this.metadata = metadata;
+		this.entities = entities;
+		this.sorted = sorted;
+	}
+
+	/**
+	 * Read all ways from the iterator.
+	 * 
+	 * @param retainEntities
+	 *            whether to keep the tags and metadata of ways.
+	 */
+	public static ColumnarWays read(OsmIterator iterator,
+			boolean retainEntities)
+	{
+		TLongList ids = new TLongArrayList();
+		TIntList offsets = new TIntArrayList();
+		TLongList refs = new TLongArrayList();
+		MetadataColumns metadata = new MetadataColumns();
+		TIntObjectMap<OsmWay> entities = new TIntObjectHashMap<>();
+
+		boolean sorted = true;
+		long last = Long.MIN_VALUE;
+		while (iterator.hasNext()) {
+			EntityContainer container = iterator.next();
+			if (container.getType() != EntityType.Way) {
+				continue;
+			}
+			OsmWay way = (OsmWay) container.getEntity();
+			if (way.getId() <= last) {
+				sorted = false;
+			}
+			last = way.getId();
+
+			OsmMetadata wayMetadata = null;
+			if (retainEntities) {
+				wayMetadata = way.getMetadata();
+				if (way.getNumberOfTags() > 0
+						|| !MetadataColumns.isStorable(wayMetadata)) {
+					entities.put(ids.size(), way);
+					wayMetadata = null;
+				}
+			}
+			metadata.add(wayMetadata);
+			ids.add(way.getId());
+			offsets.add(refs.size());
+			for (int i = 0; i < way.getNumberOfNodes(); i++) {
+				refs.add(way.getNodeId(i));
+			}
+		}
+		offsets.add(refs.size());
+
+		return new ColumnarWays(ids.toArray(), offsets.toArray(),
+				refs.toArray(), metadata, entities, sorted);
+	}
+
+	public int size()
+	{
+		return ids.length;
+	}
+
+	public long getId(int index)
+	{
+		return ids[index];
+	}
+
+	public int getNumberOfNodes(int index)
+	{
+		return offsets[index + 1] - offsets[index];
+	}
+
+	public long getNodeId(int index, int n)
+	{
+		return refs[offsets[index] + n];
+	}
+
+	public OsmWay get(int index)
+	{
+		OsmWay entity = entities.get(index);
+		if (entity != null) {
+			return entity;
+		}
+		int start = offsets[index];
+		int end = offsets[index + 1];
+		TLongList nodes = new TLongArrayList(end - start);
+		for (int i = start; i < end; i++) {
+			nodes.add(refs[i]);
+		}
+		return new Way(ids[index], nodes, metadata.get(index));
+	}
+
+	/**
+	 * @return the position of the way with the specified id or a negative
+	 *         value if there is no such way.
+	 */
+	public int indexOf(long id)
+	{
+		if (sorted) {
+			int index = Arrays.binarySearch(ids, id);
+			return index < 0 ? -1 : index;
+		}
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i] == id) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public OsmNode getNode(long id) throws EntityNotFoundException
+	{
+		throw new EntityNotFoundException(MESSAGE_NON_WAY);
+	}
+
+	@Override
+	public OsmWay getWay(long id) throws EntityNotFoundException
+	{
+		int index = indexOf(id);
+		if (index < 0) {
+			throw new EntityNotFoundException("Way not found: " + id);
+		}
+		return get(index);
+	}
+
+	@Override
+	public OsmRelation getRelation(long id) throws EntityNotFoundException
+	{
+		throw new EntityNotFoundException(MESSAGE_NON_WAY);
+	}
+
+	@Override
+	public Iterator<OsmWay> iterator()
+	{
+		return new Iterator<OsmWay>() {
+
+			private int index = 0;
+
+			@Override
+			public boolean hasNext()
+			{
+				return index < ids.length;
+			}
+
+			@Override
+			public OsmWay next()
+			{
+				if (index >= ids.length) {
+					throw new NoSuchElementException();
+				}
+				return get(index++);
+			}
+
+		};
+	}
+
+}
@@ -0,0 +1,169 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.columnar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.slimjars.dist.gnu.trove.list.TIntList;
+import com.slimjars.dist.gnu.trove.list.TLongList;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+
+import de.topobyte.osm4j.core.model.iface.OsmMetadata;
+import de.topobyte.osm4j.core.model.impl.Metadata;
+
+/**
+ * The metadata of a sequence of entities stored in columns. User names are
+ * stored once in a table and referenced by index. The columns are only
+ * allocated once the first entity with metadata is added, so that data without
+ * metadata does not occupy any memory here.
+ */
+class MetadataColumns
+{
+
+	// Marks entities without metadata in the column of user indices
+	private static final int NONE = -2;
+	// Marks metadata without a user name in the column of user indices
+	private static final int NO_USER = -1;
+
+	private int size = 0;
+
+	private TIntList versions = null;
+	private TLongList timestamps;
+	private TLongList uids;
+	private TLongList changesets;
+	private TIntList users;
+
+	private List<String> userNames = new ArrayList<>();
+	private Map<String, Integer> userIndex = new HashMap<>();
+
+	/**
+	 * Check whether the metadata can be stored in columns. Deleted entities
+	 * are rare and need to be kept as objects.
+	 */
+	static boolean isStorable(OsmMetadata metadata)
+	{
+		return metadata == null || metadata.isVisible();
+	}
+
+	/**
+	 * Append the metadata of the next entity, which may be null.
+	 */
+	void add(OsmMetadata metadata)
+	{
+		if (metadata == null) {
+			if (versions != null) {
+				append(0, 0, 0, 0, NONE);
+			}
+			size++;
+			return;
+		}
+
+		if (versions == null) {
+			allocate();
+		}
+
+		int user = NO_USER;
+		String name = metadata.getUser();
+		if (name != null) {
+			Integer index = userIndex.get(name);
+			if (index == null) {
+				index = userNames.size();
+				userNames.add(name);
+				userIndex.put(name, index);
+			}
+			user = index;
+		}
+
+		append(metadata.getVersion(), metadata.getTimestamp(),
+				metadata.getUid(), metadata.getChangeset(), user);
+		size++;
+	}
+
+	private void allocate()
+	{
+		versions = new TIntArrayList();
+		timestamps = new TLongArrayList();
+		uids = new TLongArrayList();
+		changesets = new TLongArrayList();
+		users = new TIntArrayList();
+		for (int i = 0; i < size; i++) {
+			append(0, 0, 0, 0, NONE);
+		}
+	}
+
+	private void append(int version, long timestamp, long uid,
+			long changeset, int user)
+	{
+		versions.add(version);
+		timestamps.add(timestamp);
+		uids.add(uid);
+		changesets.add(changeset);
+		users.add(user);
+	}
+
+	/**
+	 * @return the metadata of the entity at the specified position or null if
+	 *         it has none.
+	 */
+	OsmMetadata get(int index)
+	{
+		if (versions == null) {
+			return null;
+		}
+		int user = users.get(index);
+		if (user == NONE) {
+			return null;
+		}
+		String name = user == NO_USER ? null : userNames.get(user);
+		return new Metadata(versions.get(index), timestamps.get(index),
+				uids.get(index), name, changesets.get(index));
+	}
+
+	/**
+	 * Reorder the entries such that the entry at position order[i] moves to
+	 * position i.
+	 */
+	void permute(int[] order)
+	{
+		if (versions == null) {
+			return;
+		}
+		TIntList sortedVersions = new TIntArrayList(order.length);
+		TLongList sortedTimestamps = new TLongArrayList(order.length);
+		TLongList sortedUids = new TLongArrayList(order.length);
+		TLongList sortedChangesets = new TLongArrayList(order.length);
+		TIntList sortedUsers = new TIntArrayList(order.length);
+		for (int k : order) {
+			sortedVersions.add(versions.get(k));
+			sortedTimestamps.add(timestamps.get(k));
+			sortedUids.add(uids.get(k));
+			sortedChangesets.add(changesets.get(k));
+			sortedUsers.add(users.get(k));
+		}
+		versions = sortedVersions;
+		timestamps = sortedTimestamps;
+		uids = sortedUids;
+		changesets = sortedChangesets;
+		users = sortedUsers;
+	}
+
+}
@@ -30,12 +30,60 @@ public class DataTree
 
 	public static final String FILENAME_INFO = "tree.info";
 	public static final String PROPERTY_BBOX = "bbox";
+	public static final String PROPERTY_FANOUT = "fanout";
+
+	public static final int DEFAULT_FANOUT = 2;
 
 	private Node root;
+	private int bits;
 
 	public DataTree(Envelope envelope)
 	{
-		root = new Node(envelope, null, 1, 0);
+		this(envelope, DEFAULT_FANOUT);
+	}
+
+	/**
+	 * Create a tree whose inner nodes have the specified number of children.
+	 * 
+	 * @param fanout
+	 *            the number of children per inner node. Must be a power of two.
+	 *            With a fan-out of 2, each split divides a node's envelope in
+	 *            the middle of its wider dimension; higher fan-outs divide the
+	 *            envelope into a grid of cells.
+	 */
+	public DataTree(Envelope envelope, int fanout)
+	{
+		bits = bitsForFanout(fanout);
+		root = new Node(envelope, null, 1, 0, bits);
+	}
+
+	public static int bitsForFanout(int fanout)
+	{
+		if (fanout < 2 || fanout > 256 || Integer.bitCount(fanout) != 1) {
+			throw new IllegalArgumentException(
+					"Fan-out must be a power of two between 2 and 256: "
+							+ fanout);
+		}
+		return Integer.numberOfTrailingZeros(fanout);
+	}
+
+	public int getFanout()
+	{
+		return 1 << bits;
+	}
+
+	public int getBitsPerLevel()
+	{
+		return bits;
+	}
+
+	/**
+	 * Convert a depth specified in levels of a binary tree to the number of
+	 * levels of this tree that provide at least the same resolution.
+	 */
+	public int levels(int binaryLevels)
+	{
+		return (binaryLevels + bits - 1) / bits;
 	}
 
 	public Node getRoot()
@@ -62,8 +110,9 @@ public class DataTree
 		if (node.isLeaf()) {
 			leafs.add(node);
 		} else {
-			getLeafs(node.getLeft(), leafs);
-			getLeafs(node.getRight(), leafs);
+			for (Node child : node.getChildren()) {
+				getLeafs(child, leafs);
+			}
 		}
 	}
 
@@ -91,8 +140,9 @@ public class DataTree
 			return;
 		}
 		inner.add(node);
-		getInner(node.getLeft(), inner);
-		getInner(node.getRight(), inner);
+		for (Node child : node.getChildren()) {
+			getInner(child, inner);
+		}
 	}
 
 	public void print()
@@ -106,8 +156,9 @@ public class DataTree
 			System.out.println(Long.toHexString(node.getPath()) + ": "
 					+ node.getEnvelope());
 		} else {
-			print(node.getLeft());
-			print(node.getRight());
+			for (Node child : node.getChildren()) {
+				print(child);
+			}
 		}
 	}
 
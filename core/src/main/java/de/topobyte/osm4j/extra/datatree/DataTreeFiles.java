@@ -17,9 +17,21 @@
 
 package de.topobyte.osm4j.extra.datatree;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 
+import de.topobyte.melon.io.StreamUtil;
+import de.topobyte.osm4j.core.access.OsmIteratorInputFactory;
+import de.topobyte.osm4j.extra.datatree.packed.PackedLeafInput;
+import de.topobyte.osm4j.extra.datatree.packed.PackedTreeFile;
+import de.topobyte.osm4j.extra.datatree.spatial.SpatialLeafFile;
+import de.topobyte.osm4j.utils.FileFormat;
+import de.topobyte.osm4j.utils.OsmFileInput;
+
 public class DataTreeFiles
 {
 
@@ -27,6 +39,9 @@ public class DataTreeFiles
 	private Path dirPath;
 	private String filename;
 
+	private boolean packChecked = false;
+	private PackedTreeFile pack = null;
+
 	public DataTreeFiles(File dir, String filename)
 	{
 		this.dirPath = dir.toPath();
@@ -75,4 +90,116 @@ public class DataTreeFiles
 		return subdir.resolve(filename);
 	}
 
+	public boolean isPacked()
+	{
+		return Files.exists(PackedTreeFile.getPackPath(dirPath, filename));
+	}
+
+	/**
+	 * Get an input for the leaf's file. If the tree's files have been packed
+	 * into a single file, the returned input reads from the packed file,
+	 * otherwise it reads from the leaf's directory. Spatially sorted leaf
+	 * files are returned sorted by id as well.
+	 */
+	public synchronized OsmIteratorInputFactory getInput(Node leaf, FileFormat format)
+			throws IOException
+	{
+		PackedTreeFile pack = getPack();
+		if (pack != null) {
+			return new PackedLeafInput(pack, leaf.getPath(), format);
+		}
+		Path path = getPath(leaf);
+		if (SpatialLeafFile.exists(path)) {
+			return SpatialLeafFile.open(path, format).createInput();
+		}
+		return new OsmFileInput(path, format);
+	}
+
+	/**
+	 * Open the leaf's file as a plain stream of bytes, from the packed file if
+	 * the tree's files have been packed. Returns null if there is no such file
+	 * for the leaf.
+	 */
+	public synchronized InputStream openStream(Node leaf) throws IOException
+	{
+		PackedTreeFile pack = getPack();
+		if (pack != null) {
+			if (!pack.contains(leaf.getPath())) {
+				return null;
+			}
+			return new BufferedInputStream(pack.openStream(leaf.getPath()));
+		}
+		Path path = getPath(leaf);
+		if (!Files.exists(path)) {
+			return null;
+		}
+		return StreamUtil.bufferedInputStream(path);
+	}
+
+	private PackedTreeFile getPack() throws IOException
+	{
+		if (!packChecked) {
+			if (isPacked()) {
+				pack = PackedTreeFile
+						.open(PackedTreeFile.getPackPath(dirPath, filename));
+			}
+			packChecked = true;
+		}
+		return pack;
+	}
+
+	/**
+	 * Get the leaf's file for reading it directly as a regular OSM file. This
+	 * is only possible as long as the tree has neither been packed nor sorted
+	 * spatially, all other readers have to use {@link #getInput}.
+	 */
+	public Path getPlainPath(Node leaf) throws IOException
+	{
+		Path path = getPath(leaf);
+		if (SpatialLeafFile.exists(path)) {
+			throw new IOException(
+					"Leaf file has been sorted spatially and cannot be read directly: "
+							+ path);
+		}
+		if (isPacked()) {
+			throw new IOException(
+					"Tree has been packed and cannot be read directly: "
+							+ dirPath);
+		}
+		return path;
+	}
+
+	/**
+	 * @see #getPlainPath(Node)
+	 */
+	public File getPlainFile(Node leaf) throws IOException
+	{
+		return getPlainPath(leaf).toFile();
+	}
+
+	/**
+	 * Get the leaf's file if it has been sorted spatially, null otherwise.
+	 */
+	public SpatialLeafFile getSpatialFile(Node leaf, FileFormat format)
+			throws IOException
+	{
+		if (isPacked()) {
+			return null;
+		}
+		Path path = getPath(leaf);
+		if (!SpatialLeafFile.exists(path)) {
+			return null;
+		}
+		return SpatialLeafFile.open(path, format);
+	}
+
+	public synchronized void close() throws IOException
+	{
+		if (pack != null) {
+			pack.close();
+			pack = null;
+		}
+		packChecked = false;
+	}
+
 }
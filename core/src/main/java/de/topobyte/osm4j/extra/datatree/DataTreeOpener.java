@@ -35,6 +35,7 @@ import org.locationtech.jts.geom.Envelope;
 
 import de.topobyte.adt.geo.BBox;
 import de.topobyte.adt.geo.BBoxString;
+import de.topobyte.osm4j.extra.datatree.packed.PackedTreeFile;
 
 public class DataTreeOpener
 {
@@ -47,6 +48,7 @@ public class DataTreeOpener
 		}
 
 		BBox bbox = null;
+		int fanout = DataTree.DEFAULT_FANOUT;
 
 		BufferedReader reader = new BufferedReader(new FileReader(fileInfo));
 		while (true) {
@@ -59,6 +61,17 @@ public class DataTreeOpener
 						DataTree.PROPERTY_BBOX.length() + 1).trim();
 				bbox = BBoxString.parse(data).toBbox();
 			}
+			if (line.startsWith(DataTree.PROPERTY_FANOUT + ":")) {
+				String data = line
+						.substring(DataTree.PROPERTY_FANOUT.length() + 1)
+						.trim();
+				try {
+					fanout = Integer.parseInt(data);
+				} catch (NumberFormatException e) {
+					reader.close();
+					throw new IOException("Invalid fan-out: " + data);
+				}
+			}
 		}
 		reader.close();
 
@@ -67,10 +80,11 @@ public class DataTreeOpener
 		}
 
 		Envelope envelope = bbox.toEnvelope();
-		DataTree tree = new DataTree(envelope);
+		DataTree tree = new DataTree(envelope, fanout);
+		int bits = tree.getBitsPerLevel();
 
-		// Find all data files by extension
-		List<File> dataFiles = new ArrayList<>();
+		// Find all leafs by their directories
+		List<Long> leafPaths = new ArrayList<>();
 
 		File[] files = dir.listFiles();
 		for (File file : files) {
@@ -79,14 +93,18 @@ public class DataTreeOpener
 			}
 			String name = file.getName();
 			try {
-				Long.parseLong(name, 16);
-				dataFiles.add(file);
+				leafPaths.add(Long.parseLong(name, 16));
 			} catch (NumberFormatException e) {
 				System.out.println("Warning: unknown directory: " + file);
 			}
 		}
 
-		if (dataFiles.isEmpty()) {
+		// If there are no leaf directories, the tree might have been packed
+		if (leafPaths.isEmpty()) {
+			leafPaths = leafPathsFromPackedFile(files);
+		}
+
+		if (leafPaths.isEmpty()) {
 			throw new IOException("No data available");
 		}
 
@@ -104,13 +122,14 @@ public class DataTreeOpener
 		// each level with at least one node on it.
 		Map<Integer, Set<Long>> layerMap = new HashMap<>();
 
-		for (File file : dataFiles) {
-			// Each directory represents a node
-			String name = file.getName();
-			// Decode the path
-			long path = Long.parseLong(name, 16);
+		for (long path : leafPaths) {
 			// Determine the level from the path
-			int level = Long.toBinaryString(path).length() - 1;
+			int length = Long.toBinaryString(path).length() - 1;
+			if (length % bits != 0) {
+				throw new IOException("Invalid path for a tree with fan-out "
+						+ fanout + ": " + Long.toHexString(path));
+			}
+			int level = length / bits;
 
 			// Put node into layer group
 			Set<Long> layer = layerMap.get(level);
@@ -145,16 +164,21 @@ public class DataTreeOpener
 				long path = iterator.next();
 				iterator.remove();
 
-				// Determine its sibling node
-				long sibling = sibling(path);
-				boolean remove = layer.remove(sibling);
-				if (!remove) {
-					throw new IOException("Missing file for node: "
-							+ Long.toHexString(sibling));
+				// Determine the parent's path
+				long parent = parent(path, bits);
+
+				// Remove its sibling nodes
+				for (long sibling : children(parent, bits)) {
+					if (sibling == path) {
+						continue;
+					}
+					boolean remove = layer.remove(sibling);
+					if (!remove) {
+						throw new IOException("Missing file for node: "
+								+ Long.toHexString(sibling));
+					}
 				}
 
-				// Determine the parent's path
-				long parent = parent(path);
 				if (above.contains(parent)) {
 					throw new IOException("Parent node shouldn't exists: "
 							+ Long.toHexString(parent));
@@ -181,24 +205,46 @@ public class DataTreeOpener
 			if (hasChildren.contains(node.getPath())) {
 				node.split();
 				// And recurse on the newly created nodes
-				work.add(node.getLeft());
-				work.add(node.getRight());
+				for (Node child : node.getChildren()) {
+					work.add(child);
+				}
 			}
 		}
 
 		return tree;
 	}
 
-	private static long parent(long path)
+	private static List<Long> leafPathsFromPackedFile(File[] files)
+			throws IOException
 	{
-		return path >> 1;
+		List<Long> leafPaths = new ArrayList<>();
+		for (File file : files) {
+			if (!file.isFile()
+					|| !file.getName().endsWith(PackedTreeFile.EXTENSION)) {
+				continue;
+			}
+			try (PackedTreeFile pack = PackedTreeFile.open(file.toPath())) {
+				for (long path : pack.getPaths()) {
+					leafPaths.add(path);
+				}
+			}
+			break;
+		}
+		return leafPaths;
 	}
 
-	private static long sibling(long path)
+	private static long parent(long path, int bits)
 	{
-		long lastBit = path & 1;
-		long siblingLastBit = (~lastBit) & 1;
-		return (path & ~1) | siblingLastBit;
+		return path >> bits;
+	}
+
+	private static long[] children(long parent, int bits)
+	{
+		long[] children = new long[1 << bits];
+		for (int i = 0; i < children.length; i++) {
+			children[i] = parent << bits | i;
+		}
+		return children;
 	}
 
 }
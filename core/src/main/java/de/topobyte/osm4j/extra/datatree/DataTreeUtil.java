@@ -43,11 +43,20 @@ public class DataTreeUtil
 
 	public static void writeTreeInfo(File dir, BBox bbox)
 			throws FileNotFoundException
+	{
+		writeTreeInfo(dir, bbox, DataTree.DEFAULT_FANOUT);
+	}
+
+	public static void writeTreeInfo(File dir, BBox bbox, int fanout)
+			throws FileNotFoundException
 	{
 		File file = new File(dir, DataTree.FILENAME_INFO);
 
 		PrintWriter pw = new PrintWriter(file);
 		pw.println(DataTree.PROPERTY_BBOX + ": " + BBoxString.create(bbox));
+		if (fanout != DataTree.DEFAULT_FANOUT) {
+			pw.println(DataTree.PROPERTY_FANOUT + ": " + fanout);
+		}
 		pw.close();
 	}
 
@@ -65,18 +74,33 @@ public class DataTreeUtil
 
 	public static DataTree initNewTree(Path dirOutput, OsmBounds bounds)
 			throws IOException
+	{
+		return initNewTree(dirOutput, bounds, DataTree.DEFAULT_FANOUT);
+	}
+
+	public static DataTree initNewTree(Path dirOutput, OsmBounds bounds,
+			int fanout) throws IOException
 	{
 		Envelope envelope = new Envelope(bounds.getLeft(), bounds.getRight(),
 				bounds.getBottom(), bounds.getTop());
 
 		BBox bbox = new BBox(envelope);
 
-		return initNewTree(dirOutput, bbox);
+		return initNewTree(dirOutput, bbox, fanout);
 	}
 
 	public static DataTree initNewTree(Path dirOutput, BBox bbox)
 			throws IOException
 	{
+		return initNewTree(dirOutput, bbox, DataTree.DEFAULT_FANOUT);
+	}
+
+	public static DataTree initNewTree(Path dirOutput, BBox bbox, int fanout)
+			throws IOException
+	{
+		// Fail early on invalid values
+		DataTree tree = new DataTree(bbox.toEnvelope(), fanout);
+
 		if (!Files.exists(dirOutput)) {
 			System.out.println("Creating output directory");
 			Files.createDirectories(dirOutput);
@@ -88,9 +112,9 @@ public class DataTreeUtil
 			throw new IOException("Output directory is not empty");
 		}
 
-		DataTreeUtil.writeTreeInfo(dirOutput.toFile(), bbox);
+		DataTreeUtil.writeTreeInfo(dirOutput.toFile(), bbox, fanout);
 
-		return new DataTree(bbox.toEnvelope());
+		return tree;
 	}
 
 	public static void mergeUnderfilledSiblings(DataTree tree, Node head,
@@ -119,10 +143,15 @@ public class DataTreeUtil
 			}
 		});
 		for (Node node : check) {
-			if (!node.getLeft().isLeaf() || !node.getRight().isLeaf()) {
+			boolean allLeafs = true;
+			long sum = 0;
+			for (Node child : node.getChildren()) {
+				allLeafs &= child.isLeaf();
+				sum += counts.get(child);
+			}
+			if (!allLeafs) {
 				continue;
 			}
-			long sum = counts.get(node.getLeft()) + counts.get(node.getRight());
 			if (sum < maxNodes) {
 				node.melt();
 				counts.put(node, sum);
@@ -58,7 +58,7 @@ public class EmptyDataTreeFromOtherCreator
 
 		Envelope envelope = tree.getRoot().getEnvelope();
 		BBox bbox = new BBox(envelope);
-		DataTreeUtil.writeTreeInfo(dirOutputTree, bbox);
+		DataTreeUtil.writeTreeInfo(dirOutputTree, bbox, tree.getFanout());
 
 		for (Node leaf : tree.getLeafs()) {
 			String subdirName = Long.toHexString(leaf.getPath());
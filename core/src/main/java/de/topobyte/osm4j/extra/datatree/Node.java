@@ -30,22 +30,29 @@ public class Node
 
 	private Envelope envelope;
 	private Node parent;
-	private Node left;
-	private Node right;
+	private Node[] children;
 	private long path;
 	private int level;
+	private int bits;
 
 	private Direction direction;
-	private double splitPoint = 0;
+
+	// Number of columns and rows that this node is split into and the
+	// coordinates of the grid lines including the envelope's boundaries
+	private int nx;
+	private int ny;
+	private double[] xs;
+	private double[] ys;
 
 	private Geometry box;
 
-	Node(Envelope envelope, Node parent, long path, int level)
+	Node(Envelope envelope, Node parent, long path, int level, int bits)
 	{
 		this.envelope = envelope;
 		this.parent = parent;
 		this.path = path;
 		this.level = level;
+		this.bits = bits;
 
 		if (envelope.getWidth() >= envelope.getHeight()) {
 			direction = Direction.HORIZONTAL;
@@ -53,6 +60,19 @@ public class Node
 			direction = Direction.VERTICAL;
 		}
 
+		// The wider dimension gets the larger number of subdivisions. With a
+		// single bit per level, this is a split in the middle of the wider
+		// dimension.
+		int more = (bits + 1) / 2;
+		int less = bits / 2;
+		if (direction == Direction.HORIZONTAL) {
+			nx = 1 << more;
+			ny = 1 << less;
+		} else {
+			nx = 1 << less;
+			ny = 1 << more;
+		}
+
 		this.box = new GeometryFactory().toGeometry(envelope);
 	}
 
@@ -66,9 +86,14 @@ public class Node
 		return parent;
 	}
 
+	/**
+	 * @return the other child of this node's parent. Only defined for trees
+	 *         with a fan-out of 2, for other trees use {@link #getParent()}
+	 *         and {@link #getChildren()}.
+	 */
 	public Node getSibling()
 	{
-		if (parent == null) {
+		if (parent == null || parent.children.length != 2) {
 			return null;
 		}
 		if (parent.getLeft() != this) {
@@ -88,19 +113,37 @@ public class Node
 		return level;
 	}
 
+	/**
+	 * @return the number of bits each level adds to a node's path, i.e. the
+	 *         logarithm of the tree's fan-out.
+	 */
+	public int getBitsPerLevel()
+	{
+		return bits;
+	}
+
 	public boolean isLeaf()
 	{
 		return isLeaf;
 	}
 
+	/**
+	 * @return this node's children, ordered row by row from the lower left
+	 *         corner of the envelope. Null for leafs.
+	 */
+	public Node[] getChildren()
+	{
+		return children;
+	}
+
 	public Node getLeft()
 	{
-		return left;
+		return children == null ? null : children[0];
 	}
 
 	public Node getRight()
 	{
-		return right;
+		return children == null ? null : children[children.length - 1];
 	}
 
 	public Direction getSplitDirection()
@@ -111,38 +154,63 @@ public class Node
 	public void melt()
 	{
 		isLeaf = true;
-		left = null;
-		right = null;
+		children = null;
+		xs = null;
+		ys = null;
+	}
+
+	/**
+	 * Determine whether this node can be split without the path of its
+	 * children exceeding 63 bits.
+	 */
+	public boolean canSplit()
+	{
+		return Long.numberOfLeadingZeros(path) > bits;
 	}
 
 	public void split()
 	{
-		Direction direction = getSplitDirection();
-		long pathL = path << 1 | 0;
-		long pathR = path << 1 | 1;
-		Envelope envLeft, envRight;
-		if (direction == Direction.HORIZONTAL) {
-			double x1 = envelope.getMinX();
-			double x3 = envelope.getMaxX();
-			double x2 = (x1 + x3) / 2;
-			double y1 = envelope.getMinY();
-			double y2 = envelope.getMaxY();
-			envLeft = new Envelope(x1, x2, y1, y2);
-			envRight = new Envelope(x2, x3, y1, y2);
-			splitPoint = x2;
-		} else {
-			double x1 = envelope.getMinX();
-			double x2 = envelope.getMaxX();
-			double y1 = envelope.getMinY();
-			double y3 = envelope.getMaxY();
-			double y2 = (y1 + y3) / 2;
-			envLeft = new Envelope(x1, x2, y1, y2);
-			envRight = new Envelope(x1, x2, y2, y3);
-			splitPoint = y2;
+		if (!canSplit()) {
+			throw new IllegalStateException(
+					"Maximum depth reached for node: " + Long.toHexString(path));
+		}
+
+		xs = gridLines(envelope.getMinX(), envelope.getMaxX(), nx);
+		ys = gridLines(envelope.getMinY(), envelope.getMaxY(), ny);
+
+		children = new Node[nx * ny];
+		for (int row = 0; row < ny; row++) {
+			for (int col = 0; col < nx; col++) {
+				int index = row * nx + col;
+				Envelope env = new Envelope(xs[col], xs[col + 1], ys[row],
+						ys[row + 1]);
+				children[index] = new Node(env, this, path << bits | index,
+						level + 1, bits);
+			}
 		}
 		isLeaf = false;
-		left = new Node(envLeft, this, pathL, level + 1);
-		right = new Node(envRight, this, pathR, level + 1);
+	}
+
+	private static double[] gridLines(double min, double max, int n)
+	{
+		// Compute lines by recursively halving intervals, this way a grid
+		// with two cells gets the same split point as a binary split
+		double[] lines = new double[n + 1];
+		lines[0] = min;
+		lines[n] = max;
+		halve(lines, 0, n);
+		return lines;
+	}
+
+	private static void halve(double[] lines, int lo, int hi)
+	{
+		if (hi - lo < 2) {
+			return;
+		}
+		int mid = (lo + hi) / 2;
+		lines[mid] = (lines[lo] + lines[hi]) / 2;
+		halve(lines, lo, mid);
+		halve(lines, mid, hi);
 	}
 
 	public void split(int depth)
@@ -151,8 +219,9 @@ public class Node
 			split();
 		}
 		if (depth > 1) {
-			left.split(depth - 1);
-			right.split(depth - 1);
+			for (Node child : children) {
+				child.split(depth - 1);
+			}
 		}
 	}
 
@@ -163,30 +232,62 @@ public class Node
 			return;
 		}
 
-		if (direction == Direction.HORIZONTAL) {
-			if (lon < splitPoint) {
-				left.query(nodes, lon, lat);
-			} else if (lon > splitPoint) {
-				right.query(nodes, lon, lat);
-			} else {
-				left.query(nodes, lon, lat);
-				right.query(nodes, lon, lat);
-			}
-		} else {
-			if (lat < splitPoint) {
-				left.query(nodes, lon, lat);
-			} else if (lat > splitPoint) {
-				right.query(nodes, lon, lat);
-			} else {
-				left.query(nodes, lon, lat);
-				right.query(nodes, lon, lat);
+		int col = cell(xs, nx, lon);
+		int row = cell(ys, ny, lat);
+
+		// Coordinates on a grid line belong to the cells on both sides
+		boolean onX = col > 0 && lon == xs[col];
+		boolean onY = row > 0 && lat == ys[row];
+
+		if (onY) {
+			if (onX) {
+				children[(row - 1) * nx + col - 1].query(nodes, lon, lat);
 			}
+			children[(row - 1) * nx + col].query(nodes, lon, lat);
+		}
+		if (onX) {
+			children[row * nx + col - 1].query(nodes, lon, lat);
+		}
+		children[row * nx + col].query(nodes, lon, lat);
+	}
+
+	/**
+	 * Find the index i of the cell with lines[i] &lt;= value &lt; lines[i + 1].
+	 * Values outside of the grid are mapped to the first or last cell.
+	 */
+	private static int cell(double[] lines, int n, double value)
+	{
+		if (n == 1) {
+			return 0;
+		}
+		int i = (int) ((value - lines[0]) / (lines[n] - lines[0]) * n);
+		if (i < 0) {
+			i = 0;
+		} else if (i >= n) {
+			i = n - 1;
+		}
+		// Correct rounding errors of the estimate
+		while (i > 0 && value < lines[i]) {
+			i--;
+		}
+		while (i < n - 1 && value >= lines[i + 1]) {
+			i++;
 		}
+		return i;
 	}
 
+	/**
+	 * Determine the side of the split line a coordinate is located on. Only
+	 * defined for trees with a fan-out of 2.
+	 */
 	public Side side(double lon, double lat)
 	{
+		if (bits != 1) {
+			throw new UnsupportedOperationException(
+					"only available for binary trees");
+		}
 		if (direction == Direction.HORIZONTAL) {
+			double splitPoint = xs[1];
 			if (lon < splitPoint) {
 				return Side.LEFT;
 			} else if (lon > splitPoint) {
@@ -195,6 +296,7 @@ public class Node
 				return Side.ON;
 			}
 		} else {
+			double splitPoint = ys[1];
 			if (lat < splitPoint) {
 				return Side.LEFT;
 			} else if (lat > splitPoint) {
@@ -216,8 +318,94 @@ public class Node
 			return;
 		}
 
-		left.query(nodes, geometry);
-		right.query(nodes, geometry);
+		for (Node child : children) {
+			child.query(nodes, geometry);
+		}
+	}
+
+	/**
+	 * Collect the leafs whose envelopes intersect the specified envelope.
+	 * Envelopes that only touch count as intersecting.
+	 */
+	public void query(List<Node> nodes, Envelope envelope)
+	{
+		if (!envelope.intersects(this.envelope)) {
+			return;
+		}
+
+		if (isLeaf()) {
+			nodes.add(this);
+			return;
+		}
+
+		for (Node child : children) {
+			child.query(nodes, envelope);
+		}
+	}
+
+	/**
+	 * Collect the leafs whose envelopes intersect the line segment between
+	 * the specified points. A segment that touches an envelope counts as
+	 * intersecting, as with JTS intersection tests.
+	 */
+	public void querySegment(List<Node> nodes, double x1, double y1,
+			double x2, double y2)
+	{
+		if (!intersectsSegment(envelope, x1, y1, x2, y2)) {
+			return;
+		}
+
+		if (isLeaf()) {
+			nodes.add(this);
+			return;
+		}
+
+		for (Node child : children) {
+			child.querySegment(nodes, x1, y1, x2, y2);
+		}
+	}
+
+	/**
+	 * Liang-Barsky clipping of the segment against the closed envelope.
+	 */
+	static boolean intersectsSegment(Envelope e, double x1, double y1,
+			double x2, double y2)
+	{
+		if (Math.max(x1, x2) < e.getMinX() || Math.min(x1, x2) > e.getMaxX()
+				|| Math.max(y1, y2) < e.getMinY()
+				|| Math.min(y1, y2) > e.getMaxY()) {
+			return false;
+		}
+
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		double[] p = { -dx, dx, -dy, dy };
+		double[] q = { x1 - e.getMinX(), e.getMaxX() - x1, y1 - e.getMinY(),
+				e.getMaxY() - y1 };
+
+		double t0 = 0;
+		double t1 = 1;
+		for (int i = 0; i < 4; i++) {
+			if (p[i] == 0) {
+				if (q[i] < 0) {
+					return false;
+				}
+				continue;
+			}
+			double r = q[i] / p[i];
+			if (p[i] < 0) {
+				if (r > t1) {
+					return false;
+				}
+				t0 = Math.max(t0, r);
+			} else {
+				if (r < t0) {
+					return false;
+				}
+				t1 = Math.min(t1, r);
+			}
+		}
+		return true;
 	}
 
 }
@@ -0,0 +1,92 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.locations;
+
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * The locations of the nodes of a way, in the order of the way's node
+ * references. Coordinates are stored as fixed point values in units of 1e-7
+ * degrees.
+ */
+public class WayLocations
+{
+
+	private static final double SCALE = 1e7;
+
+	private long id;
+	private int[] lons;
+	private int[] lats;
+
+	public WayLocations(long id, int[] lons, int[] lats)
+	{
+		this.id = id;
+		this.lons = lons;
+		this.lats = lats;
+	}
+
+	public static int encode(double degrees)
+	{
+		return (int) Math.round(degrees * SCALE);
+	}
+
+	public static double decode(int value)
+	{
+		return value / SCALE;
+	}
+
+	public long getId()
+	{
+		return id;
+	}
+
+	public int size()
+	{
+		return lons.length;
+	}
+
+	public int[] getLons()
+	{
+		return lons;
+	}
+
+	public int[] getLats()
+	{
+		return lats;
+	}
+
+	public double getLongitude(int index)
+	{
+		return decode(lons[index]);
+	}
+
+	public double getLatitude(int index)
+	{
+		return decode(lats[index]);
+	}
+
+	public Envelope getEnvelope()
+	{
+		Envelope envelope = new Envelope();
+		for (int i = 0; i < lons.length; i++) {
+			envelope.expandToInclude(decode(lons[i]), decode(lats[i]));
+		}
+		return envelope;
+	}
+
+}
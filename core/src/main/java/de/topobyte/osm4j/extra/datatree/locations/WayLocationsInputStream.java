@@ -0,0 +1,74 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.locations;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import de.topobyte.compactio.CompactReader;
+import de.topobyte.compactio.InputStreamCompactReader;
+
+public class WayLocationsInputStream
+{
+
+	private InputStream input;
+	private CompactReader reader;
+
+	private long lastId = 0;
+	private long lastLon = 0;
+	private long lastLat = 0;
+
+	public WayLocationsInputStream(InputStream input)
+	{
+		this.input = input;
+		reader = new InputStreamCompactReader(input);
+	}
+
+	public void close() throws IOException
+	{
+		input.close();
+	}
+
+	/**
+	 * @throws java.io.EOFException
+	 *             if the end of the stream has been reached.
+	 */
+	public WayLocations next() throws IOException
+	{
+		long id = lastId + readSigned();
+		lastId = id;
+
+		int n = (int) reader.readVariableLengthUnsignedInteger();
+		int[] lons = new int[n];
+		int[] lats = new int[n];
+		for (int i = 0; i < n; i++) {
+			lastLon += readSigned();
+			lastLat += readSigned();
+			lons[i] = (int) lastLon;
+			lats[i] = (int) lastLat;
+		}
+		return new WayLocations(id, lons, lats);
+	}
+
+	private long readSigned() throws IOException
+	{
+		long value = reader.readVariableLengthUnsignedInteger();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+}
@@ -0,0 +1,69 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.locations;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import de.topobyte.compactio.CompactWriter;
+import de.topobyte.compactio.OutputStreamCompactWriter;
+
+public class WayLocationsOutputStream
+{
+
+	private OutputStream output;
+	private CompactWriter writer;
+
+	private long lastId = 0;
+	private long lastLon = 0;
+	private long lastLat = 0;
+
+	public WayLocationsOutputStream(OutputStream output)
+	{
+		this.output = output;
+		writer = new OutputStreamCompactWriter(output);
+	}
+
+	public void close() throws IOException
+	{
+		output.close();
+	}
+
+	public void write(WayLocations locations) throws IOException
+	{
+		writeSigned(locations.getId() - lastId);
+		lastId = locations.getId();
+
+		int[] lons = locations.getLons();
+		int[] lats = locations.getLats();
+		writer.writeVariableLengthUnsignedInteger(lons.length);
+		for (int i = 0; i < lons.length; i++) {
+			writeSigned(lons[i] - lastLon);
+			writeSigned(lats[i] - lastLat);
+			lastLon = lons[i];
+			lastLat = lats[i];
+		}
+	}
+
+	private void writeSigned(long value) throws IOException
+	{
+		writer.writeVariableLengthUnsignedInteger(
+				(value << 1) ^ (value >> 63));
+	}
+
+}
@@ -0,0 +1,75 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.locations;
+
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmRelation;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.core.model.impl.Node;
+import de.topobyte.osm4j.core.resolve.EntityNotFoundException;
+import de.topobyte.osm4j.core.resolve.OsmEntityProvider;
+
+/**
+ * Provides the nodes of a single way from the way's embedded locations, which
+ * allows to build the way's geometry without a node data set.
+ */
+public class WayLocationsProvider implements OsmEntityProvider
+{
+
+	private final static String MESSAGE_NON_NODE = "This provider contains only nodes";
+
+	private OsmWay way;
+	private WayLocations locations;
+
+	// Nodes are usually requested in the order of the way's references
+	private int next = 0;
+
+	public WayLocationsProvider(OsmWay way, WayLocations locations)
+	{
+		this.way = way;
+		this.locations = locations;
+	}
+
+	@Override
+	public OsmNode getNode(long id) throws EntityNotFoundException
+	{
+		int n = locations.size();
+		for (int k = 0; k < n; k++) {
+			int i = (next + k) % n;
+			if (way.getNodeId(i) == id) {
+				next = (i + 1) % n;
+				return new Node(id, locations.getLongitude(i),
+						locations.getLatitude(i));
+			}
+		}
+		throw new EntityNotFoundException("Node not in way: " + id);
+	}
+
+	@Override
+	public OsmWay getWay(long id) throws EntityNotFoundException
+	{
+		throw new EntityNotFoundException(MESSAGE_NON_NODE);
+	}
+
+	@Override
+	public OsmRelation getRelation(long id) throws EntityNotFoundException
+	{
+		throw new EntityNotFoundException(MESSAGE_NON_NODE);
+	}
+
+}
@@ -0,0 +1,110 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.locations;
+
+import java.io.IOException;
+
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+
+import de.topobyte.osm4j.core.access.OsmOutputStream;
+import de.topobyte.osm4j.core.model.iface.OsmBounds;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmRelation;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+
+/**
+ * An output that records the locations of the nodes written to it and writes
+ * the locations of the ways written to it afterwards, as done by
+ * {@link WayLocationsWriter}. This allows to write the locations while the
+ * data of a leaf is being written anyway. Nodes have to be written in order of
+ * increasing id and before any ways.
+ */
+public class WayLocationsRecorder implements OsmOutputStream
+{
+
+	private WayLocationsOutputStream output;
+
+	private TLongArrayList ids = new TLongArrayList();
+	private TIntArrayList lons = new TIntArrayList();
+	private TIntArrayList lats = new TIntArrayList();
+
+	private long nWays = 0;
+	private long nIncomplete = 0;
+
+	public WayLocationsRecorder(WayLocationsOutputStream output)
+	{
+		this.output = output;
+	}
+
+	public long getNumWays()
+	{
+		return nWays;
+	}
+
+	public long getNumIncomplete()
+	{
+		return nIncomplete;
+	}
+
+	@Override
+	public void write(OsmBounds bounds) throws IOException
+	{
+		// ignore
+	}
+
+	@Override
+	public void write(OsmNode node) throws IOException
+	{
+		ids.add(node.getId());
+		lons.add(WayLocations.encode(node.getLongitude()));
+		lats.add(WayLocations.encode(node.getLatitude()));
+	}
+
+	@Override
+	public void write(OsmWay way) throws IOException
+	{
+		int n = way.getNumberOfNodes();
+		int[] wayLons = new int[n];
+		int[] wayLats = new int[n];
+		for (int i = 0; i < n; i++) {
+			int index = ids.binarySearch(way.getNodeId(i));
+			if (index < 0) {
+				nIncomplete++;
+				return;
+			}
+			wayLons[i] = lons.get(index);
+			wayLats[i] = lats.get(index);
+		}
+		output.write(new WayLocations(way.getId(), wayLons, wayLats));
+		nWays++;
+	}
+
+	@Override
+	public void write(OsmRelation relation) throws IOException
+	{
+		// ignore
+	}
+
+	@Override
+	public void complete() throws IOException
+	{
+		// the locations output is closed by the owner
+	}
+
+}
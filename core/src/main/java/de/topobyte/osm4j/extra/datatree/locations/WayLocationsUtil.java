@@ -0,0 +1,86 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.locations;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.locationtech.jts.geom.Envelope;
+
+import com.slimjars.dist.gnu.trove.map.TLongObjectMap;
+import com.slimjars.dist.gnu.trove.map.hash.TLongObjectHashMap;
+import com.slimjars.dist.gnu.trove.set.TLongSet;
+
+import de.topobyte.melon.io.StreamUtil;
+
+public class WayLocationsUtil
+{
+
+	public static final String EXTENSION = ".locations";
+
+	/**
+	 * Get the path of the locations file that accompanies the specified way
+	 * file.
+	 */
+	public static Path getLocationsPath(Path pathWays)
+	{
+		return pathWays.resolveSibling(pathWays.getFileName() + EXTENSION);
+	}
+
+	public static boolean exists(Path pathWays)
+	{
+		return Files.exists(getLocationsPath(pathWays));
+	}
+
+	/**
+	 * Read the locations file that accompanies the specified way file, keeping
+	 * only the locations of ways whose extent intersects the envelope. The
+	 * file is streamed, the ids of all other ways are added to the specified
+	 * set, so that they can be told apart from ways without locations.
+	 */
+	public static TLongObjectMap<WayLocations> read(Path pathWays,
+			Envelope envelope, TLongSet disjoint) throws IOException
+	{
+		InputStream input = StreamUtil
+				.bufferedInputStream(getLocationsPath(pathWays));
+		WayLocationsInputStream locations = new WayLocationsInputStream(input);
+		TLongObjectMap<WayLocations> map = new TLongObjectHashMap<>();
+		try {
+			while (true) {
+				WayLocations entry;
+				try {
+					entry = locations.next();
+				} catch (EOFException e) {
+					break;
+				}
+				if (entry.getEnvelope().intersects(envelope)) {
+					map.put(entry.getId(), entry);
+				} else {
+					disjoint.add(entry.getId());
+				}
+			}
+		} finally {
+			locations.close();
+		}
+		return map;
+	}
+
+}
@@ -0,0 +1,160 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.locations;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import de.topobyte.melon.io.StreamUtil;
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.access.OsmIteratorInput;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.EntityType;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.extra.columnar.ColumnarNodes;
+import de.topobyte.osm4j.extra.datatree.DataTree;
+import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
+import de.topobyte.osm4j.extra.datatree.DataTreeOpener;
+import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.threading.Task;
+import de.topobyte.osm4j.utils.FileFormat;
+
+/**
+ * Writes a locations file next to the way file of each leaf of a data tree
+ * that contains the locations of the nodes of each way of the leaf. Ways that
+ * reference nodes not available in the leaf are omitted. Queries can use
+ * these files to test a way's geometry without looking up its nodes.
+ */
+public class WayLocationsWriter implements Task
+{
+
+	private Path pathTree;
+	private String fileNamesNodes;
+	private String fileNamesWays;
+	private FileFormat inputFormat;
+
+	private long nWays = 0;
+	private long nIncomplete = 0;
+
+	public WayLocationsWriter(Path pathTree, String fileNamesNodes,
+			String fileNamesWays, FileFormat inputFormat)
+	{
+		this.pathTree = pathTree;
+		this.fileNamesNodes = fileNamesNodes;
+		this.fileNamesWays = fileNamesWays;
+		this.inputFormat = inputFormat;
+	}
+
+	@Override
+	public void execute() throws IOException
+	{
+		DataTree tree = DataTreeOpener.open(pathTree.toFile());
+		List<Node> leafs = tree.getLeafs();
+
+		DataTreeFiles filesNodes = new DataTreeFiles(pathTree, fileNamesNodes);
+		DataTreeFiles filesWays = new DataTreeFiles(pathTree, fileNamesWays);
+		if (filesWays.isPacked()) {
+			throw new IOException(
+					"Locations cannot be written for packed trees");
+		}
+
+		int i = 0;
+		for (Node leaf : leafs) {
+			System.out.println(String.format("Processing leaf %d of %d: %s",
+					++i, leafs.size(), Long.toHexString(leaf.getPath())));
+
+			Path pathWays = filesWays.getPath(leaf);
+			if (WayLocationsUtil.exists(pathWays)) {
+				System.out.println("Already written, skipping");
+				continue;
+			}
+
+			OsmIteratorInput inputNodes = filesNodes
+					.getInput(leaf, inputFormat).createIterator(false, false);
+			ColumnarNodes nodes = ColumnarNodes.read(inputNodes.getIterator(),
+					false);
+			inputNodes.close();
+
+			write(filesWays, leaf, pathWays, nodes);
+		}
+
+		filesNodes.close();
+		filesWays.close();
+
+		System.out.println(String.format(
+				"Wrote locations of %d ways, omitted %d incomplete ways",
+				nWays, nIncomplete));
+	}
+
+	private void write(DataTreeFiles filesWays, Node leaf, Path pathWays,
+			ColumnarNodes nodes) throws IOException
+	{
+		// Write to a temporary file first so that an interrupted run does not
+		// leave a truncated locations file behind
+		Path path = WayLocationsUtil.getLocationsPath(pathWays);
+		Path pathTmp = path.resolveSibling(path.getFileName() + ".tmp");
+
+		OutputStream output = StreamUtil.bufferedOutputStream(pathTmp);
+		WayLocationsOutputStream locationsOutput = new WayLocationsOutputStream(
+				output);
+
+		OsmIteratorInput inputWays = filesWays.getInput(leaf, inputFormat)
+				.createIterator(false, false);
+		OsmIterator iterator = inputWays.getIterator();
+		while (iterator.hasNext()) {
+			EntityContainer container = iterator.next();
+			if (container.getType() != EntityType.Way) {
+				continue;
+			}
+			OsmWay way = (OsmWay) container.getEntity();
+			WayLocations locations = locations(way, nodes);
+			if (locations == null) {
+				nIncomplete++;
+				continue;
+			}
+			locationsOutput.write(locations);
+			nWays++;
+		}
+		inputWays.close();
+
+		locationsOutput.close();
+		Files.move(pathTmp, path, StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private WayLocations locations(OsmWay way, ColumnarNodes nodes)
+	{
+		int n = way.getNumberOfNodes();
+		int[] lons = new int[n];
+		int[] lats = new int[n];
+		for (int i = 0; i < n; i++) {
+			int index = nodes.indexOf(way.getNodeId(i));
+			if (index < 0) {
+				return null;
+			}
+			lons[i] = WayLocations.encode(nodes.getLongitude(index));
+			lats[i] = WayLocations.encode(nodes.getLatitude(index));
+		}
+		return new WayLocations(way.getId(), lons, lats);
+	}
+
+}
@@ -21,7 +21,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -32,6 +34,8 @@ import de.topobyte.osm4j.extra.datatree.DataTree;
 import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
 import de.topobyte.osm4j.extra.datatree.DataTreeOpener;
 import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.datatree.sort.ExternalSort;
+import de.topobyte.osm4j.extra.datatree.sort.TreeFileSorter;
 import de.topobyte.osm4j.utils.FileFormat;
 import de.topobyte.osm4j.utils.OsmIoUtils;
 import de.topobyte.osm4j.utils.OsmOutputConfig;
@@ -51,6 +55,10 @@ public abstract class AbstractTreeFilesMerger implements TreeFilesMerger
 	private OsmOutputConfig outputConfig;
 
 	private boolean deleteInput;
+	private boolean skipMerged = false;
+
+	private long sortMemory = Runtime.getRuntime().maxMemory() / 8;
+	private double expansion = TreeFileSorter.DEFAULT_EXPANSION;
 
 	public AbstractTreeFilesMerger(Path pathTree, List<String> fileNamesSorted,
 			List<String> fileNamesUnsorted, String fileNamesOutput,
@@ -66,6 +74,49 @@ public abstract class AbstractTreeFilesMerger implements TreeFilesMerger
 		this.deleteInput = deleteInput;
 	}
 
+	public long getSortMemory()
+	{
+		return sortMemory;
+	}
+
+	/**
+	 * Set the estimated number of bytes an unsorted input file may occupy in
+	 * memory while being sorted. Larger files are sorted externally.
+	 */
+	public void setSortMemory(long sortMemory)
+	{
+		this.sortMemory = sortMemory;
+	}
+
+	public double getExpansion()
+	{
+		return expansion;
+	}
+
+	/**
+	 * Set the factor between the size of an unsorted input file and the
+	 * memory occupied by its data while being sorted in memory.
+	 */
+	public void setExpansion(double expansion)
+	{
+		this.expansion = expansion;
+	}
+
+	public boolean isSkipMerged()
+	{
+		return skipMerged;
+	}
+
+	/**
+	 * Skip leafs whose output file exists, i.e. leafs that have been merged
+	 * by a previous run that did not complete. The output files only appear
+	 * once a leaf has been merged completely.
+	 */
+	public void setSkipMerged(boolean skipMerged)
+	{
+		this.skipMerged = skipMerged;
+	}
+
 	protected DataTree tree;
 	protected List<Node> leafs;
 
@@ -77,19 +128,100 @@ public abstract class AbstractTreeFilesMerger implements TreeFilesMerger
 		leafs = tree.getLeafs();
 	}
 
+	/**
+	 * Get the total size of the input files of the specified leaf.
+	 */
+	protected long inputSize(Node leaf)
+	{
+		long size = 0;
+		for (String fileName : fileNamesSorted) {
+			size += new DataTreeFiles(pathTree, fileName).getFile(leaf)
+					.length();
+		}
+		for (String fileName : fileNamesUnsorted) {
+			size += new DataTreeFiles(pathTree, fileName).getFile(leaf)
+					.length();
+		}
+		return size;
+	}
+
+	/**
+	 * Estimate the number of bytes occupied while merging the files of the
+	 * specified leaf. Unsorted inputs are held in memory completely or, if
+	 * they exceed the sort memory, sorted externally using the sort memory.
+	 * Sorted inputs are streamed and not accounted for.
+	 */
+	protected long estimateMemory(Node leaf)
+	{
+		long estimate = 0;
+		for (String fileName : fileNamesUnsorted) {
+			long size = new DataTreeFiles(pathTree, fileName).getFile(leaf)
+					.length();
+			estimate += Math.min(Math.round(size * expansion), sortMemory);
+		}
+		return estimate;
+	}
+
+	/**
+	 * Merge the files of the leaf and delete the input files if requested.
+	 */
+	protected void process(Node leaf) throws IOException
+	{
+		if (skipMerged && isMerged(leaf)) {
+			System.out.println(String.format("Leaf %s has been merged before",
+					Long.toHexString(leaf.getPath())));
+		} else {
+			mergeFiles(leaf);
+		}
+
+		if (deleteInput) {
+			deleteInputFiles(leaf);
+		}
+	}
+
+	protected boolean isMerged(Node leaf)
+	{
+		return new DataTreeFiles(pathTree, fileNamesOutput).getFile(leaf)
+				.exists();
+	}
+
+	protected void deleteInputFiles(Node leaf) throws IOException
+	{
+		for (String fileName : fileNamesSorted) {
+			Files.deleteIfExists(
+					new DataTreeFiles(pathTree, fileName).getPath(leaf));
+		}
+		for (String fileName : fileNamesUnsorted) {
+			Files.deleteIfExists(
+					new DataTreeFiles(pathTree, fileName).getPath(leaf));
+		}
+	}
+
 	protected void mergeFiles(Node leaf) throws IOException
+	{
+		mergeFiles(leaf, null);
+	}
+
+	/**
+	 * Merge the files of the leaf.
+	 * 
+	 * @param copy
+	 *            an output that receives all merged entities in addition to
+	 *            the leaf's output file, may be null.
+	 */
+	protected void mergeFiles(Node leaf, OsmOutputStream copy)
+			throws IOException
 	{
 		DataTreeFiles filesOutputNodes = new DataTreeFiles(pathTree,
 				fileNamesOutput);
 
-		List<File> inputFiles = new ArrayList<>();
 		List<InputStream> inputs = new ArrayList<>();
 		List<OsmIterator> osmInputs = new ArrayList<>();
+		List<Path> tmpFiles = new ArrayList<>();
 
 		for (String fileName : fileNamesSorted) {
 			DataTreeFiles files = new DataTreeFiles(pathTree, fileName);
-			File file = files.getFile(leaf);
-			inputFiles.add(file);
+			File file = files.getPlainFile(leaf);
 
 			InputStream input = StreamUtil.bufferedInputStream(file);
 			inputs.add(input);
@@ -101,8 +233,20 @@ public abstract class AbstractTreeFilesMerger implements TreeFilesMerger
 
 		for (String fileName : fileNamesUnsorted) {
 			DataTreeFiles files = new DataTreeFiles(pathTree, fileName);
-			File file = files.getFile(leaf);
-			inputFiles.add(file);
+			File file = files.getPlainFile(leaf);
+
+			if (file.length() * expansion > sortMemory) {
+				Path sorted = sortExternally(file.toPath());
+				tmpFiles.add(sorted);
+
+				InputStream input = StreamUtil.bufferedInputStream(sorted);
+				inputs.add(input);
+
+				osmInputs.add(OsmIoUtils.setupOsmIterator(input,
+						outputConfig.getFileFormat(),
+						outputConfig.isWriteMetadata()));
+				continue;
+			}
 
 			InputStream input = StreamUtil.bufferedInputStream(file);
 			inputs.add(input);
@@ -113,12 +257,20 @@ public abstract class AbstractTreeFilesMerger implements TreeFilesMerger
 			osmInputs.add(sorted);
 		}
 
-		File fileOutputNodes = filesOutputNodes.getFile(leaf);
+		// Write to a temporary file first so that the output only exists once
+		// it is complete
+		Path pathOutput = filesOutputNodes.getPath(leaf);
+		Path pathTmp = pathOutput.resolveSibling(pathOutput.getFileName()
+				+ ".tmp");
 
-		OutputStream output = StreamUtil.bufferedOutputStream(fileOutputNodes);
+		OutputStream output = StreamUtil.bufferedOutputStream(pathTmp);
 		OsmOutputStream osmOutput = OsmIoUtils.setupOsmOutput(output,
 				outputConfig);
 
+		if (copy != null) {
+			osmOutput = new TeeOsmOutputStream(osmOutput, copy);
+		}
+
 		SortedMerge merge = new SortedMerge(osmOutput, osmInputs);
 		merge.run();
 
@@ -127,13 +279,34 @@ public abstract class AbstractTreeFilesMerger implements TreeFilesMerger
 		}
 		output.close();
 
-		if (deleteInput) {
-			for (File file : inputFiles) {
-				file.delete();
-			}
+		Files.move(pathTmp, pathOutput, StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+
+		for (Path file : tmpFiles) {
+			Files.delete(file);
 		}
 	}
 
+	private Path sortExternally(Path path) throws IOException
+	{
+		Path sorted = path.resolveSibling(path.getFileName() + ".sorted");
+
+		InputStream input = StreamUtil.bufferedInputStream(path);
+		OutputStream output = StreamUtil.bufferedOutputStream(sorted);
+		OsmIterator osmInput = OsmIoUtils.setupOsmIterator(input, inputFormat,
+				outputConfig.isWriteMetadata());
+		OsmOutputStream osmOutput = OsmIoUtils.setupOsmOutput(output,
+				outputConfig);
+
+		ExternalSort sort = new ExternalSort(sorted, outputConfig, sortMemory);
+		sort.sort(osmInput, osmOutput);
+
+		output.close();
+		input.close();
+
+		return sorted;
+	}
+
 	protected void stats(int leafsDone)
 	{
 		long now = System.currentTimeMillis();
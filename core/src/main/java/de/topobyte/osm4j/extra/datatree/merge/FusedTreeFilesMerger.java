@@ -0,0 +1,190 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.merge;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import de.topobyte.melon.io.StreamUtil;
+import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
+import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.datatree.locations.WayLocationsOutputStream;
+import de.topobyte.osm4j.extra.datatree.locations.WayLocationsRecorder;
+import de.topobyte.osm4j.extra.datatree.locations.WayLocationsUtil;
+import de.topobyte.osm4j.extra.threading.MemoryBudget;
+import de.topobyte.osm4j.utils.FileFormat;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+
+/**
+ * Merges the node files and the way files of each leaf in a single task per
+ * leaf instead of one pass over all leafs for nodes and another one for ways.
+ * The inputs are read and the outputs written exactly as by two separate
+ * passes. Optionally, the locations of the ways are recorded while the merged
+ * data is being written, which saves reading the final files again to create
+ * them. Without way locations, this merger saves no I/O compared to two
+ * {@link ThreadedTreeFilesMerger} passes.
+ * 
+ * The memory reserved per leaf covers the larger of the node and way merges,
+ * which run one after another, and the node locations held by the recorder
+ * for the whole task.
+ */
+public class FusedTreeFilesMerger extends ThreadedTreeFilesMerger
+{
+
+	/**
+	 * Factor between the size of the node files of a leaf and the memory
+	 * occupied by the node locations recorded for way locations. The recorder
+	 * keeps 16 bytes per node, which is about the size of an encoded node,
+	 * and its lists may grow to twice their content.
+	 */
+	public static final double RECORDER_EXPANSION = 2;
+
+	private SimpleTreeFilesMerger waysMerger;
+	private DataTreeFiles filesOutputWays;
+	private boolean writeWayLocations;
+
+	private long nLocations = 0;
+	private long nIncomplete = 0;
+
+	public FusedTreeFilesMerger(Path pathTree,
+			List<String> fileNamesSortedNodes,
+			List<String> fileNamesUnsortedNodes, String fileNamesOutputNodes,
+			List<String> fileNamesSortedWays,
+			List<String> fileNamesUnsortedWays, String fileNamesOutputWays,
+			FileFormat inputFormat, OsmOutputConfig outputConfig,
+			boolean deleteInput, boolean writeWayLocations, int numThreads,
+			MemoryBudget budget)
+	{
+		super(pathTree, fileNamesSortedNodes, fileNamesUnsortedNodes,
+				fileNamesOutputNodes, inputFormat, outputConfig, deleteInput,
+				numThreads, budget);
+		// Inputs of both mergers are deleted by this merger once the whole
+		// leaf is done
+		waysMerger = new SimpleTreeFilesMerger(pathTree, fileNamesSortedWays,
+				fileNamesUnsortedWays, fileNamesOutputWays, inputFormat,
+				outputConfig, false);
+		filesOutputWays = new DataTreeFiles(pathTree, fileNamesOutputWays);
+		this.writeWayLocations = writeWayLocations;
+	}
+
+	@Override
+	public void execute() throws IOException
+	{
+		super.execute();
+
+		if (writeWayLocations) {
+			System.out.println(String.format(
+					"Wrote locations of %d ways, omitted %d incomplete ways",
+					nLocations, nIncomplete));
+		}
+	}
+
+	@Override
+	protected void prepare() throws IOException
+	{
+		super.prepare();
+		waysMerger.prepare();
+	}
+
+	@Override
+	public void setSortMemory(long sortMemory)
+	{
+		super.setSortMemory(sortMemory);
+		waysMerger.setSortMemory(sortMemory);
+	}
+
+	@Override
+	public void setExpansion(double expansion)
+	{
+		super.setExpansion(expansion);
+		waysMerger.setExpansion(expansion);
+	}
+
+	@Override
+	protected long estimateMemory(Node leaf)
+	{
+		long estimate = Math.max(super.estimateMemory(leaf),
+				waysMerger.estimateMemory(leaf));
+		if (writeWayLocations) {
+			estimate += Math.round(super.inputSize(leaf) * RECORDER_EXPANSION);
+		}
+		return estimate;
+	}
+
+	@Override
+	protected long inputSize(Node leaf)
+	{
+		return super.inputSize(leaf) + waysMerger.inputSize(leaf);
+	}
+
+	@Override
+	protected boolean isMerged(Node leaf)
+	{
+		// Ways and locations are written last
+		if (!waysMerger.isMerged(leaf)) {
+			return false;
+		}
+		return !writeWayLocations || Files.exists(
+				WayLocationsUtil.getLocationsPath(filesOutputWays.getPath(leaf)));
+	}
+
+	@Override
+	protected void deleteInputFiles(Node leaf) throws IOException
+	{
+		super.deleteInputFiles(leaf);
+		waysMerger.deleteInputFiles(leaf);
+	}
+
+	@Override
+	protected void mergeFiles(Node leaf) throws IOException
+	{
+		if (!writeWayLocations) {
+			super.mergeFiles(leaf, null);
+			waysMerger.mergeFiles(leaf, null);
+			return;
+		}
+
+		Path path = WayLocationsUtil
+				.getLocationsPath(filesOutputWays.getPath(leaf));
+		Path pathTmp = path.resolveSibling(path.getFileName() + ".tmp");
+		OutputStream output = StreamUtil.bufferedOutputStream(pathTmp);
+		WayLocationsOutputStream locations = new WayLocationsOutputStream(
+				output);
+		WayLocationsRecorder recorder = new WayLocationsRecorder(locations);
+
+		// Nodes first, the recorder needs their locations for the ways
+		super.mergeFiles(leaf, recorder);
+		waysMerger.mergeFiles(leaf, recorder);
+
+		locations.close();
+		Files.move(pathTmp, path, StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		syncLocationStats(recorder);
+	}
+
+	private synchronized void syncLocationStats(WayLocationsRecorder recorder)
+	{
+		nLocations += recorder.getNumWays();
+		nIncomplete += recorder.getNumIncomplete();
+	}
+
+}
@@ -52,7 +52,7 @@ public class SimpleTreeFilesMerger extends AbstractTreeFilesMerger
 			System.out.println(String.format("Processing leaf %d/%d", ++i,
 					leafs.size()));
 
-			mergeFiles(leaf);
+			process(leaf);
 
 			stats(i);
 		}
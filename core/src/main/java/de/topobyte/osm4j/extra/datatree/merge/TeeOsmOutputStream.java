@@ -0,0 +1,79 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.merge;
+
+import java.io.IOException;
+
+import de.topobyte.osm4j.core.access.OsmOutputStream;
+import de.topobyte.osm4j.core.model.iface.OsmBounds;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmRelation;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+
+/**
+ * Writes all data to two outputs.
+ */
+public class TeeOsmOutputStream implements OsmOutputStream
+{
+
+	private OsmOutputStream output1;
+	private OsmOutputStream output2;
+
+	public TeeOsmOutputStream(OsmOutputStream output1,
+			OsmOutputStream output2)
+	{
+		this.output1 = output1;
+		this.output2 = output2;
+	}
+
+	@Override
+	public void write(OsmBounds bounds) throws IOException
+	{
+		output1.write(bounds);
+		output2.write(bounds);
+	}
+
+	@Override
+	public void write(OsmNode node) throws IOException
+	{
+		output1.write(node);
+		output2.write(node);
+	}
+
+	@Override
+	public void write(OsmWay way) throws IOException
+	{
+		output1.write(way);
+		output2.write(way);
+	}
+
+	@Override
+	public void write(OsmRelation relation) throws IOException
+	{
+		output1.write(relation);
+		output2.write(relation);
+	}
+
+	@Override
+	public void complete() throws IOException
+	{
+		output1.complete();
+		output2.complete();
+	}
+
+}
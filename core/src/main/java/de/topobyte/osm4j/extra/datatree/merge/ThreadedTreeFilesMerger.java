@@ -19,26 +19,59 @@ package de.topobyte.osm4j.extra.datatree.merge;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.threading.MemoryBudget;
 import de.topobyte.osm4j.utils.FileFormat;
 import de.topobyte.osm4j.utils.OsmOutputConfig;
-
+import de.topobyte.osm4j.utils.buffer.ParallelExecutor;
+
+/**
+ * Merges the files of the leafs with a number of workers. Leafs are processed
+ * in order of decreasing input size so that the largest leafs do not end up
+ * being processed last while other workers are idle. Unsorted inputs that
+ * exceed an equal share of the shared {@link MemoryBudget} are sorted
+ * externally. Before merging a leaf, a worker reserves the estimated memory
+ * required for all of the leaf's inputs from the budget, capped at the whole
+ * budget, and waits while other workers occupy too much of it.
+ */
 public class ThreadedTreeFilesMerger extends AbstractTreeFilesMerger
 {
 
+	private int numThreads;
+	private MemoryBudget budget;
+
 	public ThreadedTreeFilesMerger(Path pathTree, List<String> fileNamesSorted,
 			List<String> fileNamesUnsorted, String fileNamesOutput,
 			FileFormat inputFormat, OsmOutputConfig outputConfig,
 			boolean deleteInput)
+	{
+		this(pathTree, fileNamesSorted, fileNamesUnsorted, fileNamesOutput,
+				inputFormat, outputConfig, deleteInput, 0,
+				MemoryBudget.ofMaxMemory(0.5));
+	}
+
+	/**
+	 * @param numThreads
+	 *            the number of workers, pass 0 to derive the number of
+	 *            workers from the number of processors and the memory budget.
+	 */
+	public ThreadedTreeFilesMerger(Path pathTree, List<String> fileNamesSorted,
+			List<String> fileNamesUnsorted, String fileNamesOutput,
+			FileFormat inputFormat, OsmOutputConfig outputConfig,
+			boolean deleteInput, int numThreads, MemoryBudget budget)
 	{
 		super(pathTree, fileNamesSorted, fileNamesUnsorted, fileNamesOutput,
 				inputFormat, outputConfig, deleteInput);
+		this.numThreads = numThreads;
+		this.budget = budget;
 	}
 
 	@Override
@@ -49,48 +82,107 @@ public class ThreadedTreeFilesMerger extends AbstractTreeFilesMerger
 		run();
 	}
 
+	private List<Node> queue;
+	private Map<Node, Long> sizes = new HashMap<>();
+	private AtomicInteger next = new AtomicInteger();
+	private int leafsDone = 0;
+
 	public void run() throws IOException
 	{
-		BlockingQueue<Runnable> tasks = new ArrayBlockingQueue<>(10);
-		ThreadPoolExecutor exec = new ThreadPoolExecutor(3, 3, 1,
-				TimeUnit.MINUTES, tasks,
-				new ThreadPoolExecutor.CallerRunsPolicy());
+		long total = 0;
+		for (Node leaf : leafs) {
+			long size = inputSize(leaf);
+			sizes.put(leaf, size);
+			total += size;
+		}
+
+		// Largest leafs first
+		queue = new ArrayList<>(leafs);
+		Collections.sort(queue, new Comparator<Node>() {
+
+			@Override
+			public int compare(Node o1, Node o2)
+			{
+				return Long.compare(sizes.get(o2), sizes.get(o1));
+			}
+		});
+
+		int threads = numThreads;
+		if (threads < 1) {
+			threads = defaultNumThreads(total);
+		}
+		long share = budget.getBudget() / threads;
+		setSortMemory(share);
 
-		int i = 0;
-		for (final Node leaf : leafs) {
-			System.out.println(String.format("Processing leaf %d/%d", ++i,
-					leafs.size()));
+		System.out.println(String.format(
+				"Merging %d leafs with %d threads, %.3fMB of input",
+				leafs.size(), threads, total / 1024. / 1024.));
 
-			Runnable runnable = new Runnable() {
+		List<Runnable> tasks = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			tasks.add(new Runnable() {
 
 				@Override
 				public void run()
 				{
 					try {
-						mergeFiles(leaf);
-						syncStats();
-					} catch (IOException e) {
+						work();
+					} catch (IOException | InterruptedException e) {
 						throw new RuntimeException(e);
 					}
 				}
-			};
+			});
+		}
 
-			exec.execute(runnable);
+		ParallelExecutor executor = new ParallelExecutor(tasks);
+		executor.execute();
+	}
+
+	/**
+	 * Use one worker per processor, but no more workers than the average leaf
+	 * fits into the memory budget.
+	 */
+	private int defaultNumThreads(long total)
+	{
+		int processors = Runtime.getRuntime().availableProcessors();
+		if (leafs.isEmpty()) {
+			return 1;
 		}
+		double average = total / (double) leafs.size() * getExpansion();
+		int byMemory = (int) Math.min(Integer.MAX_VALUE,
+				budget.getBudget() / Math.max(1, average));
+		return Math.max(1, Math.min(processors, byMemory));
+	}
 
-		exec.shutdown();
+	private void work() throws IOException, InterruptedException
+	{
+		while (true) {
+			int index = next.getAndIncrement();
+			if (index >= queue.size()) {
+				return;
+			}
+			Node leaf = queue.get(index);
+			long size = sizes.get(leaf);
 
-		while (!exec.isTerminated()) {
+			long reserved = Math.min(estimateMemory(leaf),
+					budget.getBudget());
+			budget.acquire(reserved);
+			long start = System.currentTimeMillis();
 			try {
-				exec.awaitTermination(1, TimeUnit.MINUTES);
-			} catch (InterruptedException e) {
-				// continue waiting
+				process(leaf);
+			} finally {
+				budget.release(reserved);
 			}
+			long time = System.currentTimeMillis() - start;
+
+			System.out.println(String.format(
+					"Merged leaf %s (%.3fMB) in %.3fs",
+					Long.toHexString(leaf.getPath()), size / 1024. / 1024.,
+					time / 1000.));
+			syncStats();
 		}
 	}
 
-	private int leafsDone = 0;
-
 	private synchronized void syncStats()
 	{
 		leafsDone++;
@@ -0,0 +1,203 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.nodetree;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.slimjars.dist.gnu.trove.list.TIntList;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+
+import de.topobyte.osm4j.core.access.OsmInputAccessFactory;
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.access.OsmIteratorInput;
+import de.topobyte.osm4j.core.access.OsmStreamOutput;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.datatree.output.DataTreeOutputFactory;
+
+/**
+ * Splits an oversized leaf by loading its nodes into memory once and
+ * partitioning them recursively until every leaf contains at most the
+ * specified number of nodes. The nodes of the resulting leafs are written
+ * directly afterwards. Partitions keep the order of the input, so leaf files
+ * stay sorted by id. A leaf at the maximum depth of the tree or one that does
+ * not exceed the limit is left untouched.
+ */
+public class InMemoryLeafSplitter
+{
+
+	private Node leaf;
+	private OsmInputAccessFactory inputFactory;
+	private DataTreeOutputFactory outputFactory;
+	private long maxNodes;
+	private boolean readMetadata;
+
+	private int size = 0;
+	private OsmNode[] nodes;
+	private double[] lons;
+	private double[] lats;
+
+	private List<Node> leafs = new ArrayList<>();
+	private List<TIntList> partitions = new ArrayList<>();
+
+	public InMemoryLeafSplitter(Node leaf, OsmInputAccessFactory inputFactory,
+			DataTreeOutputFactory outputFactory, long maxNodes,
+			boolean readMetadata)
+	{
+		this.leaf = leaf;
+		this.inputFactory = inputFactory;
+		this.outputFactory = outputFactory;
+		this.maxNodes = maxNodes;
+		this.readMetadata = readMetadata;
+	}
+
+	/**
+	 * Load, split and write the leaf.
+	 * 
+	 * @param numNodes
+	 *            the number of nodes within the leaf, used to size the arrays
+	 */
+	public void execute(int numNodes) throws IOException
+	{
+		if (!leaf.canSplit()) {
+			return;
+		}
+
+		load(numNodes);
+
+		TIntList all = new TIntArrayList(size);
+		for (int i = 0; i < size; i++) {
+			all.add(i);
+		}
+		split(leaf, all);
+
+		if (isSplit()) {
+			write();
+		}
+	}
+
+	/**
+	 * Whether the leaf has been split and its nodes have been written to the
+	 * new leafs, i.e. whether the file of the original leaf is obsolete.
+	 */
+	public boolean isSplit()
+	{
+		// If split at all, the leaf itself is not among the resulting leafs
+		return !leafs.isEmpty() && leafs.get(0) != leaf;
+	}
+
+	private void load(int numNodes) throws IOException
+	{
+		nodes = new OsmNode[numNodes];
+		lons = new double[numNodes];
+		lats = new double[numNodes];
+
+		OsmIteratorInput input = inputFactory.createIterator(true,
+				readMetadata);
+		try {
+			OsmIterator iterator = input.getIterator();
+			loop: while (iterator.hasNext()) {
+				EntityContainer entityContainer = iterator.next();
+				switch (entityContainer.getType()) {
+				case Node:
+					add((OsmNode) entityContainer.getEntity());
+					break;
+				case Way:
+					break loop;
+				case Relation:
+					break loop;
+				}
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	private void add(OsmNode node)
+	{
+		if (size == nodes.length) {
+			int capacity = Math.max(16, size * 2);
+			nodes = Arrays.copyOf(nodes, capacity);
+			lons = Arrays.copyOf(lons, capacity);
+			lats = Arrays.copyOf(lats, capacity);
+		}
+		nodes[size] = node;
+		lons[size] = node.getLongitude();
+		lats[size] = node.getLatitude();
+		size++;
+	}
+
+	private void split(Node node, TIntList indices)
+	{
+		if (indices.size() <= maxNodes || !node.canSplit()) {
+			leafs.add(node);
+			partitions.add(indices);
+			return;
+		}
+
+		node.split();
+		Node[] children = node.getChildren();
+		TIntList[] childIndices = new TIntList[children.length];
+		for (int i = 0; i < children.length; i++) {
+			childIndices[i] = new TIntArrayList();
+		}
+
+		// Query each point against the node that has just been split, which
+		// yields one or more of its children. Iterating the indices in order
+		// keeps each partition in input order.
+		List<Node> result = new ArrayList<>();
+		for (int k = 0; k < indices.size(); k++) {
+			int index = indices.get(k);
+			result.clear();
+			node.query(result, lons[index], lats[index]);
+			for (Node child : result) {
+				childIndices[childNumber(child)].add(index);
+			}
+		}
+
+		for (int i = 0; i < children.length; i++) {
+			split(children[i], childIndices[i]);
+		}
+	}
+
+	private static int childNumber(Node child)
+	{
+		int bits = child.getBitsPerLevel();
+		return (int) (child.getPath() & ((1L << bits) - 1));
+	}
+
+	private void write() throws IOException
+	{
+		for (int i = 0; i < leafs.size(); i++) {
+			Node leaf = leafs.get(i);
+			TIntList indices = partitions.get(i);
+
+			OsmStreamOutput output = outputFactory.init(leaf, true);
+			for (int k = 0; k < indices.size(); k++) {
+				output.getOsmOutput().write(nodes[indices.get(k)]);
+			}
+			output.getOsmOutput().complete();
+			output.close();
+		}
+	}
+
+}
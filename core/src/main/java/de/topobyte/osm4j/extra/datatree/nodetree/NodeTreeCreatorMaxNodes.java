@@ -25,7 +25,12 @@ import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
 
+import com.slimjars.dist.gnu.trove.list.TLongList;
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+import com.slimjars.dist.gnu.trove.map.TLongLongMap;
+
 import de.topobyte.osm4j.core.access.OsmInputAccessFactory;
+import de.topobyte.osm4j.core.access.OsmIterator;
 import de.topobyte.osm4j.core.access.OsmIteratorInput;
 import de.topobyte.osm4j.extra.datatree.DataTree;
 import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
@@ -35,7 +40,12 @@ import de.topobyte.osm4j.extra.datatree.nodetree.count.NodeTreeLeafCounter;
 import de.topobyte.osm4j.extra.datatree.nodetree.count.NodeTreeLeafCounterFactory;
 import de.topobyte.osm4j.extra.datatree.nodetree.distribute.NodeTreeDistributor;
 import de.topobyte.osm4j.extra.datatree.nodetree.distribute.NodeTreeDistributorFactory;
+import de.topobyte.osm4j.extra.datatree.nodetree.raster.DensityRaster;
+import de.topobyte.osm4j.extra.datatree.nodetree.raster.DensityRasterBuilder;
+import de.topobyte.osm4j.extra.datatree.nodetree.raster.NodeTreePlanner;
 import de.topobyte.osm4j.extra.datatree.output.DataTreeOutputFactory;
+import de.topobyte.osm4j.extra.threading.BroadcastScan;
+import de.topobyte.osm4j.extra.threading.IteratorConsumer;
 import de.topobyte.osm4j.utils.OsmFileInput;
 import de.topobyte.osm4j.utils.OsmOutputConfig;
 
@@ -59,6 +69,11 @@ public class NodeTreeCreatorMaxNodes
 	private NodeTreeLeafCounterFactory counterFactory;
 	private NodeTreeDistributorFactory distributorFactory;
 
+	private int planningResolution = 0;
+	private int planningThreads = 1;
+	private int maxNodesInMemory = 0;
+	private List<IteratorConsumer> planningConsumers = new ArrayList<>();
+
 	public NodeTreeCreatorMaxNodes(DataTree tree,
 			OsmInputAccessFactory inputFactory,
 			DataTreeOutputFactory outputFactory, int maxNodes,
@@ -80,15 +95,88 @@ public class NodeTreeCreatorMaxNodes
 		this.distributorFactory = distributorFactory;
 	}
 
-	private Deque<NodeTreeLeafCounter> check = new LinkedList<>();
+	public int getPlanningResolution()
+	{
+		return planningResolution;
+	}
+
+	/**
+	 * Derive the tree layout from a density raster built in a single pass
+	 * over the input instead of splitting to {@code splitInitial} levels and
+	 * counting. The raster has 2^resolution cells. A value of 0 disables
+	 * planning.
+	 */
+	public void setPlanningResolution(int planningResolution)
+	{
+		this.planningResolution = planningResolution;
+	}
+
+	public int getPlanningThreads()
+	{
+		return planningThreads;
+	}
+
+	public void setPlanningThreads(int planningThreads)
+	{
+		this.planningThreads = planningThreads;
+	}
+
+	public int getMaxNodesInMemory()
+	{
+		return maxNodesInMemory;
+	}
+
+	/**
+	 * Oversized leafs with at most this number of nodes are split by loading
+	 * them into memory once instead of counting and distributing them again
+	 * for each iteration. A value of 0 disables splitting in memory.
+	 */
+	public void setMaxNodesInMemory(int maxNodesInMemory)
+	{
+		this.maxNodesInMemory = maxNodesInMemory;
+	}
+
+	public List<IteratorConsumer> getPlanningConsumers()
+	{
+		return planningConsumers;
+	}
+
+	/**
+	 * Additional consumers of the node input that are fed from the same pass
+	 * that builds the density raster. They receive nodes without tags and
+	 * metadata. Only used if planning is enabled.
+	 */
+	public void setPlanningConsumers(List<IteratorConsumer> planningConsumers)
+	{
+		this.planningConsumers = planningConsumers;
+	}
+
+	private static class LeafCounts
+	{
+
+		private Node head;
+		private TLongLongMap counters;
+
+		public LeafCounts(Node head, TLongLongMap counters)
+		{
+			this.head = head;
+			this.counters = counters;
+		}
+
+	}
+
+	private Deque<LeafCounts> check = new LinkedList<>();
 
 	public void buildTree() throws IOException
 	{
 		DataTreeFiles treeFiles = new DataTreeFiles(dirOutput, fileNames);
 
-		tree.getRoot().split(splitInitial);
-
-		countAndDistribute(tree.getRoot(), inputFactory);
+		if (planningResolution > 0) {
+			planAndDistribute();
+		} else {
+			tree.getRoot().split(tree.levels(splitInitial));
+			countAndDistribute(tree.getRoot(), inputFactory);
+		}
 
 		int iteration = 0;
 
@@ -97,16 +185,25 @@ public class NodeTreeCreatorMaxNodes
 			System.out.println(String.format("Iteration %d", iteration));
 
 			List<Node> largeNodes = new ArrayList<>();
-			for (NodeTreeLeafCounter counter : check) {
-				for (Node node : tree.getLeafs(counter.getHead())) {
-					long count = counter.getCounters().get(node.getPath());
+			TLongList largeCounts = new TLongArrayList();
+			for (LeafCounts counts : check) {
+				for (Node node : tree.getLeafs(counts.head)) {
+					long count = counts.counters.get(node.getPath());
 					if (count <= maxNodes) {
 						continue;
 					}
+					if (!node.canSplit()) {
+						System.out.println(String.format(
+								"Node %s has too many nodes: %d, but has"
+										+ " reached the maximum depth",
+								Long.toHexString(node.getPath()), count));
+						continue;
+					}
 					System.out.println(String.format(
 							"Node %s has too many nodes: %d",
 							Long.toHexString(node.getPath()), count));
 					largeNodes.add(node);
+					largeCounts.add(count);
 				}
 			}
 			check.clear();
@@ -115,14 +212,31 @@ public class NodeTreeCreatorMaxNodes
 					"Iteration %d: there are %d large nodes", iteration,
 					largeNodes.size()));
 
-			for (Node node : largeNodes) {
+			for (int i = 0; i < largeNodes.size(); i++) {
+				Node node = largeNodes.get(i);
+				long count = largeCounts.get(i);
 				Path path = treeFiles.getPath(node);
-				System.out.println(String.format("Splitting again: node %s",
-						Long.toHexString(node.getPath())));
-				node.split(splitIteration);
+				OsmFileInput input = new OsmFileInput(path,
+						outputConfig.getFileFormat());
 
-				countAndDistribute(node,
-						new OsmFileInput(path, outputConfig.getFileFormat()));
+				if (count <= maxNodesInMemory) {
+					System.out.println(String.format(
+							"Splitting in memory: node %s",
+							Long.toHexString(node.getPath())));
+					InMemoryLeafSplitter splitter = new InMemoryLeafSplitter(
+							node, input, outputFactory, maxNodes,
+							outputConfig.isWriteMetadata());
+					splitter.execute((int) count);
+					if (!splitter.isSplit()) {
+						continue;
+					}
+				} else {
+					System.out.println(String.format(
+							"Splitting again: node %s",
+							Long.toHexString(node.getPath())));
+					node.split(tree.levels(splitIteration));
+					countAndDistribute(node, input);
+				}
 
 				Files.delete(path);
 				Files.delete(path.getParent());
@@ -155,7 +269,73 @@ public class NodeTreeCreatorMaxNodes
 			input.close();
 		}
 
-		check.add(counter);
+		check.add(new LeafCounts(node, counter.getCounters()));
+	}
+
+	private void planAndDistribute() throws IOException
+	{
+		Node root = tree.getRoot();
+
+		DensityRaster raster = new DensityRaster(root.getEnvelope(),
+				planningResolution);
+		System.out.println(String.format("Building density raster: %d x %d",
+				raster.getCols(), raster.getRows()));
+
+		OsmIteratorInput input = inputFactory.createIterator(false, false);
+		try {
+			buildRaster(raster, input.getIterator());
+		} finally {
+			input.close();
+		}
+
+		NodeTreePlanner planner = new NodeTreePlanner(raster, maxNodes);
+		planner.plan(root);
+
+		System.out.println(String.format(
+				"Planned %d leafs, %d could not be resolved by the raster",
+				tree.getLeafs().size(), planner.getUnresolved().size()));
+
+		input = inputFactory.createIterator(true,
+				outputConfig.isWriteMetadata());
+		NodeTreeDistributor distributor = distributorFactory.createDistributor(
+				tree, root, input.getIterator(), outputFactory);
+		try {
+			distributor.execute();
+		} finally {
+			input.close();
+		}
+
+		// The estimates are exact except for nodes located right on leaf
+		// boundaries. Leafs the raster could not resolve are refined the
+		// usual way.
+		check.add(new LeafCounts(root, planner.getEstimates()));
+	}
+
+	private void buildRaster(final DensityRaster raster, OsmIterator iterator)
+			throws IOException
+	{
+		if (planningConsumers.isEmpty()) {
+			DensityRasterBuilder rasterBuilder = new DensityRasterBuilder(
+					raster, iterator, planningThreads);
+			rasterBuilder.execute();
+			return;
+		}
+
+		List<IteratorConsumer> consumers = new ArrayList<>();
+		consumers.add(new IteratorConsumer() {
+
+			@Override
+			public void consume(OsmIterator nodes) throws IOException
+			{
+				DensityRasterBuilder rasterBuilder = new DensityRasterBuilder(
+						raster, nodes, planningThreads);
+				rasterBuilder.execute();
+			}
+		});
+		consumers.addAll(planningConsumers);
+
+		BroadcastScan scan = new BroadcastScan(iterator, consumers);
+		scan.execute();
 	}
 
 }
@@ -0,0 +1,120 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.nodetree.count;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.slimjars.dist.gnu.trove.map.TLongIntMap;
+import com.slimjars.dist.gnu.trove.map.TLongLongMap;
+import com.slimjars.dist.gnu.trove.map.hash.TLongIntHashMap;
+import com.slimjars.dist.gnu.trove.map.hash.TLongLongHashMap;
+
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.extra.datatree.DataTree;
+import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.threading.CoordinateBatch;
+import de.topobyte.osm4j.extra.threading.CoordinateConsumer;
+import de.topobyte.osm4j.extra.threading.NodeCoordinateScan;
+
+/**
+ * Counts nodes per leaf with a number of worker threads. Each worker queries
+ * the tree on its own and counts into an array indexed by leaf, the arrays
+ * are summed up once all nodes have been processed.
+ */
+public class ParallelNodeTreeLeafCounter implements NodeTreeLeafCounter
+{
+
+	private Node head;
+	private OsmIterator iterator;
+	private int numThreads;
+
+	private List<Node> leafs;
+	private TLongIntMap leafIndex = new TLongIntHashMap();
+
+	private TLongLongMap counters = new TLongLongHashMap();
+
+	public ParallelNodeTreeLeafCounter(DataTree tree, Node head,
+			OsmIterator iterator, int numThreads)
+	{
+		this.head = head;
+		this.iterator = iterator;
+		this.numThreads = numThreads;
+
+		leafs = tree.getLeafs(head);
+		for (int i = 0; i < leafs.size(); i++) {
+			leafIndex.put(leafs.get(i).getPath(), i);
+		}
+	}
+
+	@Override
+	public Node getHead()
+	{
+		return head;
+	}
+
+	@Override
+	public TLongLongMap getCounters()
+	{
+		return counters;
+	}
+
+	@Override
+	public void execute() throws IOException
+	{
+		List<Counter> workers = new ArrayList<>();
+		for (int i = 0; i < numThreads; i++) {
+			workers.add(new Counter());
+		}
+
+		NodeCoordinateScan scan = new NodeCoordinateScan(iterator, workers);
+		scan.execute();
+
+		for (int i = 0; i < leafs.size(); i++) {
+			long sum = 0;
+			for (Counter worker : workers) {
+				sum += worker.counts[i];
+			}
+			counters.put(leafs.get(i).getPath(), sum);
+		}
+	}
+
+	private class Counter implements CoordinateConsumer
+	{
+
+		private long[] counts = new long[leafs.size()];
+		private List<Node> result = new ArrayList<>();
+
+		@Override
+		public void consume(CoordinateBatch batch)
+		{
+			double[] lons = batch.getLons();
+			double[] lats = batch.getLats();
+			for (int i = 0; i < batch.size(); i++) {
+				result.clear();
+				head.query(result, lons[i], lats[i]);
+				for (Node leaf : result) {
+					counts[leafIndex.get(leaf.getPath())]++;
+				}
+			}
+		}
+
+	}
+
+}
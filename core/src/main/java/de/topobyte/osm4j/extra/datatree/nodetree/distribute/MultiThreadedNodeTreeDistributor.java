@@ -66,11 +66,12 @@ public class MultiThreadedNodeTreeDistributor extends
 	@Override
 	protected void initOutputs() throws IOException
 	{
-		List<Node> leafs = tree.getLeafs();
+		List<Node> leafs = tree.getLeafs(head);
 		for (Node leaf : leafs) {
 			DataTreeOutputFactory outputFactory = outputFactories
 					.get(bucket(leaf));
-			outputFactory.init(leaf, true);
+			OsmStreamOutput output = outputFactory.init(leaf, true);
+			outputs.put(leaf, output);
 		}
 	}
 
@@ -0,0 +1,188 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.nodetree.raster;
+
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * A grid of node counts over the envelope of a data tree. The grid is
+ * obtained by halving the envelope along its wider axis for the specified
+ * number of times, which is what the tree does when splitting its nodes. This
+ * way the boundaries of tree nodes coincide with raster lines down to the
+ * resolution of the raster and the number of nodes within a tree node can be
+ * looked up from a summed-area table in constant time.
+ */
+public class DensityRaster
+{
+
+	private static final double EPSILON = 1e-6;
+
+	private Envelope envelope;
+	private int cols = 1;
+	private int rows = 1;
+	private double cellWidth;
+	private double cellHeight;
+
+	// (cols + 1) x (rows + 1) values, first row and column are zero. Holds
+	// the plain counts until integrate() has been called and the summed-area
+	// table afterwards.
+	private long[] sums;
+	private boolean integrated = false;
+
+	public DensityRaster(Envelope envelope, int resolution)
+	{
+		if (resolution < 1 || resolution > 28) {
+			throw new IllegalArgumentException(
+					"Resolution must be between 1 and 28, was " + resolution);
+		}
+		this.envelope = envelope;
+
+		double width = envelope.getWidth();
+		double height = envelope.getHeight();
+		for (int i = 0; i < resolution; i++) {
+			if (width >= height) {
+				cols *= 2;
+				width /= 2;
+			} else {
+				rows *= 2;
+				height /= 2;
+			}
+		}
+
+		cellWidth = envelope.getWidth() / cols;
+		cellHeight = envelope.getHeight() / rows;
+		sums = new long[(cols + 1) * (rows + 1)];
+	}
+
+	public Envelope getEnvelope()
+	{
+		return envelope;
+	}
+
+	public int getCols()
+	{
+		return cols;
+	}
+
+	public int getRows()
+	{
+		return rows;
+	}
+
+	public int col(double lon)
+	{
+		int col = (int) ((lon - envelope.getMinX()) / cellWidth);
+		return Math.max(0, Math.min(cols - 1, col));
+	}
+
+	public int row(double lat)
+	{
+		int row = (int) ((lat - envelope.getMinY()) / cellHeight);
+		return Math.max(0, Math.min(rows - 1, row));
+	}
+
+	/**
+	 * Add counts gathered for the cells of this raster, in row-major order.
+	 */
+	public void add(int[] counts)
+	{
+		if (integrated) {
+			throw new IllegalStateException("Raster already integrated");
+		}
+		for (int row = 0; row < rows; row++) {
+			int offset = (row + 1) * (cols + 1) + 1;
+			for (int col = 0; col < cols; col++) {
+				sums[offset + col] += counts[row * cols + col];
+			}
+		}
+	}
+
+	/**
+	 * Turn the counts into a summed-area table. Needs to be called once after
+	 * all counts have been added and before any queries.
+	 */
+	public void integrate()
+	{
+		int stride = cols + 1;
+		for (int row = 1; row <= rows; row++) {
+			for (int col = 1; col <= cols; col++) {
+				int i = row * stride + col;
+				sums[i] += sums[i - 1] + sums[i - stride]
+						- sums[i - stride - 1];
+			}
+		}
+		integrated = true;
+	}
+
+	public long getTotal()
+	{
+		return sums[sums.length - 1];
+	}
+
+	/**
+	 * Count the nodes within the cells [col1, col2) x [row1, row2).
+	 */
+	public long count(int col1, int row1, int col2, int row2)
+	{
+		int stride = cols + 1;
+		return sums[row2 * stride + col2] - sums[row1 * stride + col2]
+				- sums[row2 * stride + col1] + sums[row1 * stride + col1];
+	}
+
+	/**
+	 * Determine whether the specified envelope is made up of complete raster
+	 * cells, i.e. whether its node count can be obtained from the raster.
+	 */
+	public boolean isResolvable(Envelope env)
+	{
+		return line(env.getMinX(), envelope.getMinX(), cellWidth) >= 0
+				&& line(env.getMaxX(), envelope.getMinX(), cellWidth) >= 0
+				&& line(env.getMinY(), envelope.getMinY(), cellHeight) >= 0
+				&& line(env.getMaxY(), envelope.getMinY(), cellHeight) >= 0
+				&& env.getWidth() > cellWidth * (1 - EPSILON)
+				&& env.getHeight() > cellHeight * (1 - EPSILON);
+	}
+
+	/**
+	 * Count the nodes within the specified envelope, which has to be
+	 * resolvable.
+	 */
+	public long count(Envelope env)
+	{
+		int col1 = line(env.getMinX(), envelope.getMinX(), cellWidth);
+		int col2 = line(env.getMaxX(), envelope.getMinX(), cellWidth);
+		int row1 = line(env.getMinY(), envelope.getMinY(), cellHeight);
+		int row2 = line(env.getMaxY(), envelope.getMinY(), cellHeight);
+		if (col1 < 0 || col2 < 0 || row1 < 0 || row2 < 0) {
+			throw new IllegalArgumentException(
+					"Envelope not aligned with raster: " + env);
+		}
+		return count(col1, row1, col2, row2);
+	}
+
+	private static int line(double value, double min, double cellSize)
+	{
+		double position = (value - min) / cellSize;
+		long line = Math.round(position);
+		if (Math.abs(position - line) > EPSILON) {
+			return -1;
+		}
+		return (int) line;
+	}
+
+}
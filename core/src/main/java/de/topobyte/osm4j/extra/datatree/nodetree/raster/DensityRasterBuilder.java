@@ -0,0 +1,87 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.nodetree.raster;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.extra.threading.CoordinateBatch;
+import de.topobyte.osm4j.extra.threading.CoordinateConsumer;
+import de.topobyte.osm4j.extra.threading.NodeCoordinateScan;
+import de.topobyte.osm4j.extra.threading.Task;
+
+/**
+ * Fills a {@link DensityRaster} with the nodes of an iterator in a single
+ * pass. Each worker thread counts into a raster of its own, which are summed
+ * up once all nodes have been processed.
+ */
+public class DensityRasterBuilder implements Task
+{
+
+	private DensityRaster raster;
+	private OsmIterator iterator;
+	private int numThreads;
+
+	public DensityRasterBuilder(DensityRaster raster, OsmIterator iterator,
+			int numThreads)
+	{
+		this.raster = raster;
+		this.iterator = iterator;
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public void execute() throws IOException
+	{
+		List<Counter> counters = new ArrayList<>();
+		for (int i = 0; i < numThreads; i++) {
+			counters.add(new Counter());
+		}
+
+		NodeCoordinateScan scan = new NodeCoordinateScan(iterator, counters);
+		scan.execute();
+
+		for (Counter counter : counters) {
+			raster.add(counter.counts);
+		}
+		raster.integrate();
+	}
+
+	private class Counter implements CoordinateConsumer
+	{
+
+		private int[] counts = new int[raster.getCols() * raster.getRows()];
+
+		@Override
+		public void consume(CoordinateBatch batch)
+		{
+			int cols = raster.getCols();
+			double[] lons = batch.getLons();
+			double[] lats = batch.getLats();
+			for (int i = 0; i < batch.size(); i++) {
+				int col = raster.col(lons[i]);
+				int row = raster.row(lats[i]);
+				counts[row * cols + col]++;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,90 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.nodetree.raster;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.slimjars.dist.gnu.trove.map.TLongLongMap;
+import com.slimjars.dist.gnu.trove.map.hash.TLongLongHashMap;
+
+import de.topobyte.osm4j.extra.datatree.Node;
+
+/**
+ * Derives the layout of a node tree from a {@link DensityRaster}: nodes are
+ * split as long as the raster estimates them to contain more than the
+ * allowed number of nodes. Leaves that are still too large when the raster
+ * cannot resolve their children any further are reported as unresolved.
+ */
+public class NodeTreePlanner
+{
+
+	private DensityRaster raster;
+	private long maxNodes;
+
+	private TLongLongMap estimates = new TLongLongHashMap();
+	private List<Node> unresolved = new ArrayList<>();
+
+	public NodeTreePlanner(DensityRaster raster, long maxNodes)
+	{
+		this.raster = raster;
+		this.maxNodes = maxNodes;
+	}
+
+	/**
+	 * Estimated number of nodes per leaf, by leaf path.
+	 */
+	public TLongLongMap getEstimates()
+	{
+		return estimates;
+	}
+
+	public List<Node> getUnresolved()
+	{
+		return unresolved;
+	}
+
+	public void plan(Node head)
+	{
+		long count = raster.count(head.getEnvelope());
+		if (count <= maxNodes) {
+			estimates.put(head.getPath(), count);
+			return;
+		}
+		if (!head.canSplit()) {
+			estimates.put(head.getPath(), count);
+			unresolved.add(head);
+			return;
+		}
+
+		head.split();
+		for (Node child : head.getChildren()) {
+			if (!raster.isResolvable(child.getEnvelope())) {
+				head.melt();
+				estimates.put(head.getPath(), count);
+				unresolved.add(head);
+				return;
+			}
+		}
+
+		for (Node child : head.getChildren()) {
+			plan(child);
+		}
+	}
+
+}
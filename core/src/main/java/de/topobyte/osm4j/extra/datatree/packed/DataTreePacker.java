@@ -0,0 +1,149 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.packed;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.topobyte.osm4j.extra.datatree.DataTree;
+import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
+import de.topobyte.osm4j.extra.datatree.DataTreeOpener;
+import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.datatree.shared.SharedWaysUtil;
+import de.topobyte.osm4j.extra.datatree.spatial.SpatialLeafFile;
+
+/**
+ * Converts the files of a data tree from the directory layout (one directory
+ * per leaf) to the packed layout (one file per file name, see
+ * {@link PackedTreeFile}). The lists of shared ways referenced by the leafs
+ * are packed along with the way files, the store of shared ways itself is
+ * kept as is.
+ */
+public class DataTreePacker
+{
+
+	private Path pathTree;
+	private List<String> fileNames;
+	private boolean deleteLeafFiles;
+
+	public DataTreePacker(Path pathTree, List<String> fileNames,
+			boolean deleteLeafFiles)
+	{
+		this.pathTree = pathTree;
+		this.fileNames = fileNames;
+		this.deleteLeafFiles = deleteLeafFiles;
+	}
+
+	public void execute() throws IOException
+	{
+		DataTree tree = DataTreeOpener.open(pathTree.toFile());
+		List<Node> leafs = tree.getLeafs();
+
+		List<String> refsNames = new ArrayList<>();
+		for (String fileName : fileNames) {
+			pack(leafs, fileName, false);
+
+			// Lists of shared ways referenced by the leafs belong to the way
+			// files and are packed along with them
+			String refsName = SharedWaysUtil.getRefsFileName(fileName);
+			if (anyExists(leafs, refsName)) {
+				pack(leafs, refsName, true);
+				refsNames.add(refsName);
+			}
+		}
+
+		if (!deleteLeafFiles) {
+			return;
+		}
+
+		System.out.println("Deleting leaf files");
+		for (String fileName : fileNames) {
+			DataTreeFiles files = new DataTreeFiles(pathTree, fileName);
+			for (Node leaf : leafs) {
+				Files.delete(files.getPath(leaf));
+			}
+		}
+		for (String refsName : refsNames) {
+			DataTreeFiles files = new DataTreeFiles(pathTree, refsName);
+			for (Node leaf : leafs) {
+				Files.deleteIfExists(files.getPath(leaf));
+			}
+		}
+
+		DataTreeFiles files = new DataTreeFiles(pathTree, null);
+		for (Node leaf : leafs) {
+			Path dir = files.getSubdirPath(leaf);
+			if (dir.toFile().list().length == 0) {
+				Files.delete(dir);
+			}
+		}
+	}
+
+	private boolean anyExists(List<Node> leafs, String fileName)
+	{
+		DataTreeFiles files = new DataTreeFiles(pathTree, fileName);
+		for (Node leaf : leafs) {
+			if (Files.exists(files.getPath(leaf))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param optional
+	 *            whether leafs may lack the file, such leafs do not get an
+	 *            entry in the packed file.
+	 */
+	private void pack(List<Node> leafs, String fileName, boolean optional)
+			throws IOException
+	{
+		Path pathPack = PackedTreeFile.getPackPath(pathTree, fileName);
+		Path pathTmp = pathPack.resolveSibling(
+				pathPack.getFileName().toString() + ".tmp");
+
+		System.out.println(String.format("Packing %d files into %s",
+				leafs.size(), pathPack));
+
+		DataTreeFiles files = new DataTreeFiles(pathTree, fileName);
+
+		PackedTreeFileWriter writer = new PackedTreeFileWriter(pathTmp);
+		for (Node leaf : leafs) {
+			Path path = files.getPath(leaf);
+			if (optional && !Files.exists(path)) {
+				continue;
+			}
+			if (SpatialLeafFile.exists(path)) {
+				writer.close();
+				Files.delete(pathTmp);
+				throw new IOException(
+						"Spatially sorted leaf files cannot be packed: " + path);
+			}
+			writer.add(leaf.getPath(), path);
+		}
+		writer.close();
+
+		Files.move(pathTmp, pathPack, StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+}
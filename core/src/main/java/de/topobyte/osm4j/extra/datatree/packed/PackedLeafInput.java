@@ -0,0 +1,54 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.packed;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.access.OsmIteratorInput;
+import de.topobyte.osm4j.core.access.OsmIteratorInputFactory;
+import de.topobyte.osm4j.utils.FileFormat;
+import de.topobyte.osm4j.utils.OsmIoUtils;
+
+public class PackedLeafInput implements OsmIteratorInputFactory
+{
+
+	private PackedTreeFile pack;
+	private long path;
+	private FileFormat format;
+
+	public PackedLeafInput(PackedTreeFile pack, long path, FileFormat format)
+	{
+		this.pack = pack;
+		this.path = path;
+		this.format = format;
+	}
+
+	@Override
+	public OsmIteratorInput createIterator(boolean readTags,
+			boolean readMetadata) throws IOException
+	{
+		InputStream input = new BufferedInputStream(pack.openStream(path));
+		OsmIterator iterator = OsmIoUtils.setupOsmIterator(input, format,
+				readMetadata);
+		return new StreamOsmIteratorInput(input, iterator);
+	}
+
+}
@@ -0,0 +1,188 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.packed;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.slimjars.dist.gnu.trove.map.TLongIntMap;
+import com.slimjars.dist.gnu.trove.map.hash.TLongIntHashMap;
+
+import de.topobyte.osm4j.extra.io.ChannelRangeInputStream;
+
+/**
+ * A single file that contains the payload of one kind of file (e.g. the nodes
+ * file) for all leafs of a data tree.
+ * 
+ * The payloads are stored one after another, followed by an index that maps
+ * each leaf's path to the offset and length of its payload. The file ends with
+ * a fixed-size trailer that contains the position of the index and a magic
+ * number:
+ * 
+ * <pre>
+ * payload*
+ * int: number of entries
+ * (long: leaf path, long: offset, long: length)*
+ * long: offset of index
+ * int: magic
+ * </pre>
+ * 
+ * Payloads are read using positional reads on a single file channel, hence the
+ * streams returned by {@link #openStream(long)} can be used concurrently.
+ */
+public class PackedTreeFile implements Closeable
+{
+
+	public static final String EXTENSION = ".pack";
+
+	static final int MAGIC = 0x4f50414b;
+	static final int TRAILER_SIZE = 12;
+	static final int ENTRY_SIZE = 24;
+
+	public static Path getPackPath(Path dirTree, String filename)
+	{
+		return dirTree.resolve(filename + EXTENSION);
+	}
+
+	public static PackedTreeFile open(Path file) throws IOException
+	{
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			return new PackedTreeFile(channel);
+		} catch (IOException e) {
+			channel.close();
+			throw new IOException("Unable to open packed file: " + file, e);
+		}
+	}
+
+	private FileChannel channel;
+
+	private long[] paths;
+	private long[] offsets;
+	private long[] lengths;
+	private TLongIntMap index = new TLongIntHashMap();
+
+	private PackedTreeFile(FileChannel channel) throws IOException
+	{
+		this.channel = channel;
+
+		long size = channel.size();
+		if (size < TRAILER_SIZE) {
+			throw new IOException("File too small");
+		}
+
+		ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+		readFully(trailer, size - TRAILER_SIZE);
+		long indexOffset = trailer.getLong();
+		int magic = trailer.getInt();
+		if (magic != MAGIC) {
+			throw new IOException("Invalid magic number");
+		}
+
+		long indexSize = size - TRAILER_SIZE - indexOffset;
+		if (indexOffset < 0 || indexSize < 4) {
+			throw new IOException("Invalid index position");
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate((int) indexSize);
+		readFully(buffer, indexOffset);
+
+		int n = buffer.getInt();
+		if (indexSize != 4 + (long) n * ENTRY_SIZE) {
+			throw new IOException("Invalid index size");
+		}
+
+		paths = new long[n];
+		offsets = new long[n];
+		lengths = new long[n];
+		for (int i = 0; i < n; i++) {
+			paths[i] = buffer.getLong();
+			offsets[i] = buffer.getLong();
+			lengths[i] = buffer.getLong();
+			if (offsets[i] < 0 || offsets[i] + lengths[i] > indexOffset) {
+				throw new IOException("Invalid entry for leaf: "
+						+ Long.toHexString(paths[i]));
+			}
+			index.put(paths[i], i);
+		}
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position);
+			if (n < 0) {
+				throw new IOException("Unexpected end of file");
+			}
+			position += n;
+		}
+		buffer.flip();
+	}
+
+	public int getNumberOfEntries()
+	{
+		return paths.length;
+	}
+
+	/**
+	 * @return the paths of all leafs that have an entry in this file, in the
+	 *         order in which the payloads have been stored.
+	 */
+	public long[] getPaths()
+	{
+		return paths.clone();
+	}
+
+	public boolean contains(long path)
+	{
+		return index.containsKey(path);
+	}
+
+	public long getLength(long path) throws FileNotFoundException
+	{
+		return lengths[entry(path)];
+	}
+
+	public InputStream openStream(long path) throws FileNotFoundException
+	{
+		int i = entry(path);
+		return new ChannelRangeInputStream(channel, offsets[i], lengths[i]);
+	}
+
+	private int entry(long path) throws FileNotFoundException
+	{
+		if (!index.containsKey(path)) {
+			throw new FileNotFoundException(
+					"No entry for leaf: " + Long.toHexString(path));
+		}
+		return index.get(path);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+
+}
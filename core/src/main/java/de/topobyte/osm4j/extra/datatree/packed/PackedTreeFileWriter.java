@@ -0,0 +1,106 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.packed;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.slimjars.dist.gnu.trove.list.TLongList;
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+import com.slimjars.dist.gnu.trove.set.TLongSet;
+import com.slimjars.dist.gnu.trove.set.hash.TLongHashSet;
+
+/**
+ * Creates files in the format read by {@link PackedTreeFile}.
+ */
+public class PackedTreeFileWriter implements Closeable
+{
+
+	private FileChannel channel;
+	private long position = 0;
+
+	private TLongSet known = new TLongHashSet();
+	private TLongList paths = new TLongArrayList();
+	private TLongList offsets = new TLongArrayList();
+	private TLongList lengths = new TLongArrayList();
+
+	public PackedTreeFileWriter(Path file) throws IOException
+	{
+		channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Append the contents of the specified file as the payload for the leaf
+	 * with the specified path.
+	 */
+	public void add(long path, Path file) throws IOException
+	{
+		if (!known.add(path)) {
+			throw new IOException(
+					"Duplicate entry for leaf: " + Long.toHexString(path));
+		}
+
+		long offset = position;
+		try (FileChannel input = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			long size = input.size();
+			long done = 0;
+			while (done < size) {
+				done += input.transferTo(done, size - done, channel);
+			}
+			position += size;
+		}
+
+		paths.add(path);
+		offsets.add(offset);
+		lengths.add(position - offset);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		long indexOffset = position;
+
+		int n = paths.size();
+		ByteBuffer buffer = ByteBuffer.allocate(
+				4 + n * PackedTreeFile.ENTRY_SIZE + PackedTreeFile.TRAILER_SIZE);
+		buffer.putInt(n);
+		for (int i = 0; i < n; i++) {
+			buffer.putLong(paths.get(i));
+			buffer.putLong(offsets.get(i));
+			buffer.putLong(lengths.get(i));
+		}
+		buffer.putLong(indexOffset);
+		buffer.putInt(PackedTreeFile.MAGIC);
+		buffer.flip();
+
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position);
+			position = indexOffset + buffer.position();
+		}
+
+		channel.force(true);
+		channel.close();
+	}
+
+}
@@ -0,0 +1,303 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.shared;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import de.topobyte.melon.io.StreamUtil;
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.access.OsmIteratorInput;
+import de.topobyte.osm4j.core.access.OsmOutputStream;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.EntityType;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.extra.datatree.DataTree;
+import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
+import de.topobyte.osm4j.extra.datatree.DataTreeOpener;
+import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.datatree.spatial.SpatialLeafFile;
+import de.topobyte.osm4j.extra.idlist.IdListOutputStream;
+import de.topobyte.osm4j.extra.threading.Task;
+import de.topobyte.osm4j.utils.FileFormat;
+import de.topobyte.osm4j.utils.OsmFileInput;
+import de.topobyte.osm4j.utils.OsmIoUtils;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+import de.topobyte.osm4j.utils.merge.sorted.SortedMerge;
+
+/**
+ * Moves ways that are stored in more than one leaf of a data tree to a single
+ * id-sorted store next to the tree, see {@link SharedWaysStore}. Each affected leaf keeps a sorted list of
+ * the ids of the shared ways it references instead of copies of the ways, see
+ * {@link SharedWaysUtil}. The nodes of shared ways remain in each leaf.
+ * 
+ * The way files of the leafs have to be sorted by id and must neither be
+ * packed nor sorted spatially.
+ */
+public class SharedWaysSeparator implements Task
+{
+
+	private static final String EXTENSION_PART = ".part";
+	private static final String EXTENSION_TMP = ".tmp";
+
+	private Path pathTree;
+	private String fileNamesWays;
+	private FileFormat inputFormat;
+	private OsmOutputConfig outputConfig;
+
+	private long nShared = 0;
+	private long nReferences = 0;
+
+	public SharedWaysSeparator(Path pathTree, String fileNamesWays,
+			FileFormat inputFormat, OsmOutputConfig outputConfig)
+	{
+		this.pathTree = pathTree;
+		this.fileNamesWays = fileNamesWays;
+		this.inputFormat = inputFormat;
+		this.outputConfig = outputConfig;
+	}
+
+	@Override
+	public void execute() throws IOException
+	{
+		DataTree tree = DataTreeOpener.open(pathTree.toFile());
+		List<Node> leafs = tree.getLeafs();
+
+		DataTreeFiles filesWays = new DataTreeFiles(pathTree, fileNamesWays);
+		if (filesWays.isPacked()) {
+			throw new IOException(
+					"Shared ways cannot be separated for packed trees");
+		}
+		for (Node leaf : leafs) {
+			if (SpatialLeafFile.exists(filesWays.getPath(leaf))) {
+				throw new IOException(
+						"Shared ways have to be separated before sorting leafs spatially");
+			}
+		}
+
+		System.out.println("Finding shared ways");
+		findSharedWays(leafs, filesWays);
+		System.out.println(String.format(
+				"Found %d shared ways with %d references", nShared,
+				nReferences));
+
+		List<Path> parts = new ArrayList<>();
+		int i = 0;
+		for (Node leaf : leafs) {
+			System.out.println(String.format("Processing leaf %d of %d: %s",
+					++i, leafs.size(), Long.toHexString(leaf.getPath())));
+			Path part = separate(filesWays.getPath(leaf));
+			if (part != null) {
+				parts.add(part);
+			}
+		}
+
+		System.out.println(String.format("Merging %d files into shared store",
+				parts.size()));
+		merge(parts);
+	}
+
+	private static class LeafInput
+	{
+
+		private int index;
+		private OsmIteratorInput input;
+		private OsmIterator iterator;
+		private long next;
+
+		LeafInput(int index, OsmIteratorInput input)
+		{
+			this.index = index;
+			this.input = input;
+			iterator = input.getIterator();
+		}
+
+		boolean advance()
+		{
+			while (iterator.hasNext()) {
+				EntityContainer container = iterator.next();
+				if (container.getType() == EntityType.Way) {
+					next = container.getEntity().getId();
+					return true;
+				}
+			}
+			return false;
+		}
+
+	}
+
+	/**
+	 * Merge the id-sorted way files of all leafs and write the ids of ways
+	 * that occur in more than one leaf to the reference lists of these leafs.
+	 */
+	private void findSharedWays(List<Node> leafs, DataTreeFiles filesWays)
+			throws IOException
+	{
+		List<LeafInput> inputs = new ArrayList<>();
+		List<IdListOutputStream> outputs = new ArrayList<>();
+
+		PriorityQueue<LeafInput> queue = new PriorityQueue<>(
+				Math.max(1, leafs.size()), new Comparator<LeafInput>() {
+
+					@Override
+					public int compare(LeafInput o1, LeafInput o2)
+					{
+						return Long.compare(o1.next, o2.next);
+					}
+				});
+
+		for (int i = 0; i < leafs.size(); i++) {
+			Path path = filesWays.getPath(leafs.get(i));
+			LeafInput input = new LeafInput(i,
+					new OsmFileInput(path, inputFormat).createIterator(false,
+							false));
+			inputs.add(input);
+			OutputStream output = StreamUtil
+					.bufferedOutputStream(SharedWaysUtil.getRefsPath(path));
+			outputs.add(new IdListOutputStream(output));
+			if (input.advance()) {
+				queue.add(input);
+			}
+		}
+
+		List<LeafInput> group = new ArrayList<>();
+		while (!queue.isEmpty()) {
+			LeafInput first = queue.poll();
+			long id = first.next;
+			group.clear();
+			group.add(first);
+			while (!queue.isEmpty() && queue.peek().next == id) {
+				group.add(queue.poll());
+			}
+
+			if (group.size() > 1) {
+				nShared++;
+				nReferences += group.size();
+				for (LeafInput input : group) {
+					outputs.get(input.index).write(id);
+				}
+			}
+
+			for (LeafInput input : group) {
+				if (input.advance()) {
+					queue.add(input);
+				}
+			}
+		}
+
+		for (LeafInput input : inputs) {
+			input.input.close();
+		}
+		for (IdListOutputStream output : outputs) {
+			output.close();
+		}
+	}
+
+	/**
+	 * Rewrite the leaf's way file without the shared ways and write these to
+	 * a separate file.
+	 * 
+	 * @return the file with the leaf's shared ways or null if the leaf does
+	 *         not reference any shared ways.
+	 */
+	private Path separate(Path pathWays) throws IOException
+	{
+		long[] refs = SharedWaysUtil.readRefs(pathWays);
+		if (refs.length == 0) {
+			return null;
+		}
+
+		Path pathTmp = pathWays.resolveSibling(
+				pathWays.getFileName() + EXTENSION_TMP);
+		Path pathPart = pathWays.resolveSibling(
+				pathWays.getFileName() + EXTENSION_PART);
+
+		OutputStream outputLeaf = StreamUtil.bufferedOutputStream(pathTmp);
+		OsmOutputStream osmOutputLeaf = OsmIoUtils.setupOsmOutput(outputLeaf,
+				outputConfig);
+		OutputStream outputPart = StreamUtil.bufferedOutputStream(pathPart);
+		OsmOutputStream osmOutputPart = OsmIoUtils.setupOsmOutput(outputPart,
+				outputConfig);
+
+		OsmIteratorInput input = new OsmFileInput(pathWays, inputFormat)
+				.createIterator(true, outputConfig.isWriteMetadata());
+		OsmIterator iterator = input.getIterator();
+		while (iterator.hasNext()) {
+			EntityContainer container = iterator.next();
+			if (container.getType() != EntityType.Way) {
+				continue;
+			}
+			OsmWay way = (OsmWay) container.getEntity();
+			if (Arrays.binarySearch(refs, way.getId()) >= 0) {
+				osmOutputPart.write(way);
+			} else {
+				osmOutputLeaf.write(way);
+			}
+		}
+		input.close();
+
+		osmOutputLeaf.complete();
+		outputLeaf.close();
+		osmOutputPart.complete();
+		outputPart.close();
+
+		Files.move(pathTmp, pathWays, StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+
+		return pathPart;
+	}
+
+	private void merge(List<Path> parts) throws IOException
+	{
+		List<InputStream> inputs = new ArrayList<>();
+		List<OsmIterator> iterators = new ArrayList<>();
+		for (Path part : parts) {
+			InputStream input = StreamUtil.bufferedInputStream(part);
+			inputs.add(input);
+			iterators.add(OsmIoUtils.setupOsmIterator(input,
+					outputConfig.getFileFormat(),
+					outputConfig.isWriteMetadata()));
+		}
+
+		Path pathStore = SharedWaysUtil.getStorePath(pathTree, fileNamesWays);
+		SharedWaysStoreWriter output = new SharedWaysStoreWriter(pathStore,
+				outputConfig, SharedWaysStoreWriter.DEFAULT_BLOCK_SIZE);
+
+		// Copies of a shared way are identical, the merge keeps one of them
+		SortedMerge merge = new SortedMerge(output, iterators);
+		merge.run();
+
+		for (InputStream input : inputs) {
+			input.close();
+		}
+
+		for (Path part : parts) {
+			Files.delete(part);
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.shared;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.slimjars.dist.gnu.trove.map.TLongObjectMap;
+import com.slimjars.dist.gnu.trove.map.hash.TLongObjectHashMap;
+
+import de.topobyte.osm4j.core.access.OsmIteratorInput;
+import de.topobyte.osm4j.core.access.OsmIteratorInputFactory;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.EntityType;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.extra.datatree.spatial.SpatialBlock;
+import de.topobyte.osm4j.extra.datatree.spatial.SpatialIndex;
+import de.topobyte.osm4j.extra.datatree.spatial.SpatialLeafInput;
+import de.topobyte.osm4j.utils.FileFormat;
+import de.topobyte.osm4j.utils.OsmFileInput;
+
+/**
+ * Reads ways from the store of shared ways of a data tree. The store is
+ * written by {@link SharedWaysStoreWriter} in blocks of ways sorted by id,
+ * listed in a {@link SpatialIndex} next to the store, so that only the blocks
+ * that contain requested ways need to be decoded. Stores without an index are
+ * read completely.
+ */
+public class SharedWaysStore
+{
+
+	/**
+	 * @return the store of the tree or null if the tree does not have one.
+	 */
+	public static SharedWaysStore open(Path pathTree, String fileNamesWays,
+			FileFormat format) throws IOException
+	{
+		Path path = SharedWaysUtil.getStorePath(pathTree, fileNamesWays);
+		if (!Files.exists(path)) {
+			return null;
+		}
+		List<SpatialBlock> blocks = null;
+		Path pathIndex = SpatialIndex.getIndexPath(path);
+		if (Files.exists(pathIndex)) {
+			blocks = SpatialIndex.read(pathIndex);
+		}
+		return new SharedWaysStore(path, format, blocks);
+	}
+
+	private Path path;
+	private FileFormat format;
+	private List<SpatialBlock> blocks;
+
+	public SharedWaysStore(Path path, FileFormat format,
+			List<SpatialBlock> blocks)
+	{
+		this.path = path;
+		this.format = format;
+		this.blocks = blocks;
+	}
+
+	public Path getPath()
+	{
+		return path;
+	}
+
+	/**
+	 * @return the blocks of the store or null if the store has no index.
+	 */
+	public List<SpatialBlock> getBlocks()
+	{
+		return blocks;
+	}
+
+	/**
+	 * Get an input for all blocks, i.e. for the complete store.
+	 */
+	public OsmIteratorInputFactory createInput()
+	{
+		if (blocks == null) {
+			return new OsmFileInput(path, format);
+		}
+		return new SpatialLeafInput(path, format, blocks);
+	}
+
+	/**
+	 * Get an input for the blocks that may contain any of the specified ids.
+	 * 
+	 * @param ids
+	 *            the ids of the requested ways, sorted.
+	 */
+	public OsmIteratorInputFactory createInput(long[] ids)
+	{
+		if (blocks == null) {
+			return new OsmFileInput(path, format);
+		}
+		return new SpatialLeafInput(path, format, select(ids));
+	}
+
+	/**
+	 * Get an input for the specified subset of blocks.
+	 */
+	public OsmIteratorInputFactory createInput(List<SpatialBlock> selection)
+	{
+		return new SpatialLeafInput(path, format, selection);
+	}
+
+	private List<SpatialBlock> select(long[] ids)
+	{
+		// Blocks are ordered by id and do not overlap
+		List<SpatialBlock> selection = new ArrayList<>();
+		for (SpatialBlock block : blocks) {
+			int i = Arrays.binarySearch(ids, block.getMinId());
+			if (i < 0) {
+				i = -i - 1;
+			}
+			for (; i < ids.length && ids[i] <= block.getMaxId(); i++) {
+				if (block.mayContain(ids[i])) {
+					selection.add(block);
+					break;
+				}
+			}
+		}
+		return selection;
+	}
+
+	/**
+	 * Read the ways with the specified ids from the store.
+	 */
+	public TLongObjectMap<OsmWay> read(long[] ids, boolean readMetadata)
+			throws IOException
+	{
+		TLongObjectMap<OsmWay> ways = new TLongObjectHashMap<>();
+		if (ids.length == 0) {
+			return ways;
+		}
+
+		long[] sorted = ids.clone();
+		Arrays.sort(sorted);
+
+		OsmIteratorInput input = createInput(sorted).createIterator(true,
+				readMetadata);
+		for (EntityContainer container : input.getIterator()) {
+			if (container.getType() != EntityType.Way) {
+				continue;
+			}
+			OsmWay way = (OsmWay) container.getEntity();
+			if (Arrays.binarySearch(sorted, way.getId()) >= 0) {
+				ways.put(way.getId(), way);
+			}
+		}
+		input.close();
+		return ways;
+	}
+
+}
@@ -0,0 +1,135 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.shared;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.locationtech.jts.geom.Envelope;
+
+import de.topobyte.melon.io.StreamUtil;
+import de.topobyte.osm4j.core.access.OsmOutputStream;
+import de.topobyte.osm4j.core.model.iface.OsmBounds;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmRelation;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.extra.datatree.spatial.BlockIdFilter;
+import de.topobyte.osm4j.extra.datatree.spatial.SpatialBlock;
+import de.topobyte.osm4j.extra.datatree.spatial.SpatialIndex;
+import de.topobyte.osm4j.utils.OsmIoUtils;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+
+/**
+ * Writes the store of shared ways in blocks of a fixed number of ways. Ways
+ * have to be written in order of their ids. Each block is encoded on its own
+ * and recorded in a {@link SpatialIndex} next to the store once the output is
+ * completed. The extent of the blocks is not recorded. Other entities are
+ * ignored.
+ */
+public class SharedWaysStoreWriter implements OsmOutputStream
+{
+
+	public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+	private static final Envelope EVERYWHERE = new Envelope(
+			Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+			Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+	private Path file;
+	private OsmOutputConfig outputConfig;
+	private int blockSize;
+
+	private OutputStream output;
+	private long offset = 0;
+	private List<OsmWay> ways = new ArrayList<>();
+	private List<SpatialBlock> blocks = new ArrayList<>();
+
+	public SharedWaysStoreWriter(Path file, OsmOutputConfig outputConfig,
+			int blockSize) throws IOException
+	{
+		this.file = file;
+		this.outputConfig = outputConfig;
+		this.blockSize = blockSize;
+		output = StreamUtil.bufferedOutputStream(file);
+	}
+
+	@Override
+	public void write(OsmBounds bounds) throws IOException
+	{
+		// ignore
+	}
+
+	@Override
+	public void write(OsmNode node) throws IOException
+	{
+		// ignore
+	}
+
+	@Override
+	public void write(OsmWay way) throws IOException
+	{
+		ways.add(way);
+		if (ways.size() >= blockSize) {
+			writeBlock();
+		}
+	}
+
+	@Override
+	public void write(OsmRelation relation) throws IOException
+	{
+		// ignore
+	}
+
+	@Override
+	public void complete() throws IOException
+	{
+		if (!ways.isEmpty()) {
+			writeBlock();
+		}
+		output.close();
+
+		SpatialIndex.write(SpatialIndex.getIndexPath(file), blocks);
+	}
+
+	private void writeBlock() throws IOException
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		OsmOutputStream osmOutput = OsmIoUtils.setupOsmOutput(baos,
+				outputConfig);
+		long[] ids = new long[ways.size()];
+		for (int i = 0; i < ways.size(); i++) {
+			OsmWay way = ways.get(i);
+			osmOutput.write(way);
+			ids[i] = way.getId();
+		}
+		osmOutput.complete();
+
+		byte[] bytes = baos.toByteArray();
+		output.write(bytes);
+
+		blocks.add(new SpatialBlock(offset, bytes.length, ids.length, ids[0],
+				ids[ids.length - 1], EVERYWHERE, BlockIdFilter.create(ids)));
+		offset += bytes.length;
+		ways.clear();
+	}
+
+}
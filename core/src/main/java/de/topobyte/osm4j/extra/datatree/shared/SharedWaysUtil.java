@@ -0,0 +1,118 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.shared;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.slimjars.dist.gnu.trove.list.TLongList;
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+
+import de.topobyte.melon.io.StreamUtil;
+import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
+import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.idlist.IdListInputStream;
+
+public class SharedWaysUtil
+{
+
+	public static final String PREFIX_STORE = "shared-";
+	public static final String EXTENSION_REFS = ".shared";
+
+	/**
+	 * Get the path of the file that stores the ways shared by several leafs
+	 * of the tree.
+	 */
+	public static Path getStorePath(Path pathTree, String fileNamesWays)
+	{
+		return pathTree.resolve(PREFIX_STORE + fileNamesWays);
+	}
+
+	public static boolean hasStore(Path pathTree, String fileNamesWays)
+	{
+		return Files.exists(getStorePath(pathTree, fileNamesWays));
+	}
+
+	/**
+	 * Get the name of the leaf files that list the shared ways referenced by
+	 * the leafs, for trees whose way files have the specified name.
+	 */
+	public static String getRefsFileName(String fileNamesWays)
+	{
+		return fileNamesWays + EXTENSION_REFS;
+	}
+
+	/**
+	 * Get the path of the list of shared ways referenced by the leaf with the
+	 * specified way file.
+	 */
+	public static Path getRefsPath(Path pathWays)
+	{
+		return pathWays.resolveSibling(pathWays.getFileName() + EXTENSION_REFS);
+	}
+
+	/**
+	 * Read the sorted ids of the shared ways referenced by the leaf with the
+	 * specified way file. Returns an empty array if there is no such list.
+	 */
+	public static long[] readRefs(Path pathWays) throws IOException
+	{
+		Path path = getRefsPath(pathWays);
+		if (!Files.exists(path)) {
+			return new long[0];
+		}
+		return readRefs(StreamUtil.bufferedInputStream(path));
+	}
+
+	/**
+	 * Read the sorted ids of the shared ways referenced by the specified leaf,
+	 * from the leaf's directory or from the packed lists of the tree. Returns
+	 * an empty array if there is no such list.
+	 * 
+	 * @param filesRefs
+	 *            the files named by {@link #getRefsFileName(String)}.
+	 */
+	public static long[] readRefs(DataTreeFiles filesRefs, Node leaf)
+			throws IOException
+	{
+		InputStream input = filesRefs.openStream(leaf);
+		if (input == null) {
+			return new long[0];
+		}
+		return readRefs(input);
+	}
+
+	private static long[] readRefs(InputStream input) throws IOException
+	{
+		TLongList ids = new TLongArrayList();
+		IdListInputStream idInput = new IdListInputStream(input);
+		while (true) {
+			try {
+				ids.add(idInput.next());
+			} catch (EOFException e) {
+				break;
+			}
+		}
+		idInput.close();
+		return ids.toArray();
+	}
+
+}
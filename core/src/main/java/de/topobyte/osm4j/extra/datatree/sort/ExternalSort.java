@@ -0,0 +1,221 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.sort;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import de.topobyte.melon.io.StreamUtil;
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.access.OsmOutputStream;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.EntityType;
+import de.topobyte.osm4j.core.model.iface.OsmEntity;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmRelation;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.utils.OsmIoUtils;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+import de.topobyte.osm4j.utils.merge.sorted.SortedMerge;
+
+/**
+ * Sorts entities by type and id while keeping only an estimated maximum
+ * number of bytes in memory. Once the entities read exceed this limit, they
+ * are sorted and written to a run file. The runs are merged into the output
+ * at the end. Entities with the same type and id are written only once.
+ */
+public class ExternalSort
+{
+
+	private Path pathBase;
+	private OsmOutputConfig runConfig;
+	private long maxBytes;
+
+	private List<OsmNode> nodes = new ArrayList<>();
+	private List<OsmWay> ways = new ArrayList<>();
+	private List<OsmRelation> relations = new ArrayList<>();
+	private long bytes = 0;
+
+	private List<Path> runs = new ArrayList<>();
+	private int numRuns = 0;
+
+	/**
+	 * @param pathBase
+	 *            a path used as a prefix for the run files.
+	 * @param runConfig
+	 *            the configuration used for writing the run files.
+	 * @param maxBytes
+	 *            the estimated number of bytes that may be occupied by
+	 *            entities held in memory.
+	 */
+	public ExternalSort(Path pathBase, OsmOutputConfig runConfig,
+			long maxBytes)
+	{
+		this.pathBase = pathBase;
+		this.runConfig = runConfig;
+		this.maxBytes = maxBytes;
+	}
+
+	public int getNumberOfRuns()
+	{
+		return numRuns;
+	}
+
+	public void sort(OsmIterator input, OsmOutputStream output)
+			throws IOException
+	{
+		while (input.hasNext()) {
+			EntityContainer container = input.next();
+			OsmEntity entity = container.getEntity();
+			if (container.getType() == EntityType.Node) {
+				nodes.add((OsmNode) entity);
+			} else if (container.getType() == EntityType.Way) {
+				ways.add((OsmWay) entity);
+			} else if (container.getType() == EntityType.Relation) {
+				relations.add((OsmRelation) entity);
+			}
+			bytes += estimateSize(container);
+			if (bytes > maxBytes) {
+				spill();
+			}
+		}
+
+		if (runs.isEmpty()) {
+			write(output);
+			output.complete();
+			return;
+		}
+
+		if (bytes > 0) {
+			spill();
+		}
+		merge(output);
+	}
+
+	/**
+	 * Estimate the number of bytes occupied by the entity in memory.
+	 */
+	public static long estimateSize(EntityContainer container)
+	{
+		OsmEntity entity = container.getEntity();
+		long size = 64 + 64 * entity.getNumberOfTags();
+		if (entity.getMetadata() != null) {
+			size += 48;
+		}
+		if (container.getType() == EntityType.Way) {
+			size += 8 * ((OsmWay) entity).getNumberOfNodes();
+		} else if (container.getType() == EntityType.Relation) {
+			size += 32 * ((OsmRelation) entity).getNumberOfMembers();
+		}
+		return size;
+	}
+
+	private void spill() throws IOException
+	{
+		Path path = pathBase
+				.resolveSibling(pathBase.getFileName() + ".run" + runs.size());
+		runs.add(path);
+		numRuns++;
+
+		OutputStream output = StreamUtil.bufferedOutputStream(path);
+		OsmOutputStream osmOutput = OsmIoUtils.setupOsmOutput(output,
+				runConfig);
+		write(osmOutput);
+		osmOutput.complete();
+		output.close();
+
+		nodes.clear();
+		ways.clear();
+		relations.clear();
+		bytes = 0;
+	}
+
+	private void write(OsmOutputStream output) throws IOException
+	{
+		sort(nodes);
+		sort(ways);
+		sort(relations);
+
+		long last = Long.MIN_VALUE;
+		for (int i = 0; i < nodes.size(); i++) {
+			OsmNode node = nodes.get(i);
+			if (i == 0 || node.getId() != last) {
+				output.write(node);
+			}
+			last = node.getId();
+		}
+		for (int i = 0; i < ways.size(); i++) {
+			OsmWay way = ways.get(i);
+			if (i == 0 || way.getId() != last) {
+				output.write(way);
+			}
+			last = way.getId();
+		}
+		for (int i = 0; i < relations.size(); i++) {
+			OsmRelation relation = relations.get(i);
+			if (i == 0 || relation.getId() != last) {
+				output.write(relation);
+			}
+			last = relation.getId();
+		}
+	}
+
+	private static void sort(List<? extends OsmEntity> entities)
+	{
+		// The sort is stable, the first of several duplicates is kept
+		Collections.sort(entities, new Comparator<OsmEntity>() {
+
+			@Override
+			public int compare(OsmEntity o1, OsmEntity o2)
+			{
+				return Long.compare(o1.getId(), o2.getId());
+			}
+		});
+	}
+
+	private void merge(OsmOutputStream output) throws IOException
+	{
+		List<InputStream> inputs = new ArrayList<>();
+		List<OsmIterator> iterators = new ArrayList<>();
+		for (Path run : runs) {
+			InputStream input = StreamUtil.bufferedInputStream(run);
+			inputs.add(input);
+			iterators.add(OsmIoUtils.setupOsmIterator(input,
+					runConfig.getFileFormat(), runConfig.isWriteMetadata()));
+		}
+
+		SortedMerge merge = new SortedMerge(output, iterators);
+		merge.run();
+
+		for (InputStream input : inputs) {
+			input.close();
+		}
+		for (Path run : runs) {
+			Files.delete(run);
+		}
+		runs.clear();
+	}
+
+}
@@ -22,7 +22,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import de.topobyte.melon.io.StreamUtil;
 import de.topobyte.osm4j.core.access.OsmIterator;
@@ -31,14 +33,32 @@ import de.topobyte.osm4j.extra.datatree.DataTree;
 import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
 import de.topobyte.osm4j.extra.datatree.DataTreeOpener;
 import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.threading.MemoryBudget;
 import de.topobyte.osm4j.utils.FileFormat;
 import de.topobyte.osm4j.utils.OsmIoUtils;
 import de.topobyte.osm4j.utils.OsmOutputConfig;
+import de.topobyte.osm4j.utils.buffer.ParallelExecutor;
 import de.topobyte.osm4j.utils.sort.MemorySort;
 
+/**
+ * Sorts the files of all leafs of a data tree. Leafs are sorted concurrently
+ * by a number of workers that share a {@link MemoryBudget}. Each worker may
+ * use an equal share of the budget. Leafs whose estimated memory requirements
+ * exceed that share are sorted with an {@link ExternalSort} that spills
+ * sorted runs next to the output file.
+ * 
+ * If any of the workers fails, the others stop sorting further leafs and the
+ * failure is rethrown from {@link #execute()}.
+ */
 public class TreeFileSorter
 {
 
+	/**
+	 * Default factor between the size of a leaf file and the memory occupied
+	 * by its data once loaded.
+	 */
+	public static final double DEFAULT_EXPANSION = 10;
+
 	private Path pathTree;
 
 	private String fileNamesUnsorted;
@@ -50,9 +70,22 @@ public class TreeFileSorter
 
 	private boolean keepUnsorted;
 
+	private int numThreads;
+	private MemoryBudget budget;
+	private double expansion = DEFAULT_EXPANSION;
+
 	public TreeFileSorter(Path pathTree, String fileNamesUnsorted,
 			String fileNamesSorted, FileFormat inputFormat,
 			OsmOutputConfig outputConfig, boolean keepUnsorted)
+	{
+		this(pathTree, fileNamesUnsorted, fileNamesSorted, inputFormat,
+				outputConfig, keepUnsorted, 1, MemoryBudget.ofMaxMemory(0.5));
+	}
+
+	public TreeFileSorter(Path pathTree, String fileNamesUnsorted,
+			String fileNamesSorted, FileFormat inputFormat,
+			OsmOutputConfig outputConfig, boolean keepUnsorted,
+			int numThreads, MemoryBudget budget)
 	{
 		this.pathTree = pathTree;
 		this.fileNamesSorted = fileNamesSorted;
@@ -60,6 +93,18 @@ public class TreeFileSorter
 		this.inputFormat = inputFormat;
 		this.outputConfig = outputConfig;
 		this.keepUnsorted = keepUnsorted;
+		this.numThreads = numThreads;
+		this.budget = budget;
+	}
+
+	public double getExpansion()
+	{
+		return expansion;
+	}
+
+	public void setExpansion(double expansion)
+	{
+		this.expansion = expansion;
 	}
 
 	public void execute() throws IOException
@@ -72,6 +117,11 @@ public class TreeFileSorter
 	private DataTree tree;
 	private List<Node> leafs;
 
+	private DataTreeFiles filesUnsorted;
+	private DataTreeFiles filesSorted;
+	private AtomicInteger next = new AtomicInteger();
+	private volatile Throwable failure = null;
+
 	protected void prepare() throws IOException
 	{
 		tree = DataTreeOpener.open(pathTree.toFile());
@@ -80,32 +130,96 @@ public class TreeFileSorter
 
 	protected void sort() throws IOException
 	{
-		DataTreeFiles filesUnsorted = new DataTreeFiles(pathTree,
-				fileNamesUnsorted);
-		DataTreeFiles filesSorted = new DataTreeFiles(pathTree,
-				fileNamesSorted);
+		filesUnsorted = new DataTreeFiles(pathTree, fileNamesUnsorted);
+		filesSorted = new DataTreeFiles(pathTree, fileNamesSorted);
+
+		List<Runnable> tasks = new ArrayList<>();
+		for (int i = 0; i < numThreads; i++) {
+			tasks.add(new Runnable() {
+
+				@Override
+				public void run()
+				{
+					try {
+						work();
+					} catch (Throwable e) {
+						fail(e);
+					}
+				}
+			});
+		}
+
+		ParallelExecutor executor = new ParallelExecutor(tasks);
+		executor.execute();
+
+		if (failure != null) {
+			if (failure instanceof IOException) {
+				throw (IOException) failure;
+			}
+			throw new IOException("Error while sorting tree files", failure);
+		}
+	}
+
+	private synchronized void fail(Throwable e)
+	{
+		if (failure == null) {
+			failure = e;
+		}
+	}
+
+	private void work() throws IOException, InterruptedException
+	{
+		long share = budget.getBudget() / numThreads;
+		while (failure == null) {
+			int index = next.getAndIncrement();
+			if (index >= leafs.size()) {
+				return;
+			}
+			Node leaf = leafs.get(index);
 
-		for (Node leaf : leafs) {
-			Path unsorted = filesUnsorted.getPath(leaf);
+			Path unsorted = filesUnsorted.getPlainPath(leaf);
 			Path sorted = filesSorted.getPath(leaf);
 
-			InputStream input = StreamUtil.bufferedInputStream(unsorted);
-			OutputStream output = StreamUtil.bufferedOutputStream(sorted);
+			long estimate = Math.round(Files.size(unsorted) * expansion);
+			long reserved = Math.min(estimate, share);
+			budget.acquire(reserved);
+			try {
+				sort(unsorted, sorted, estimate > share, share);
+			} finally {
+				budget.release(reserved);
+			}
 
+			if (!keepUnsorted) {
+				Files.delete(unsorted);
+			}
+		}
+	}
+
+	private void sort(Path unsorted, Path sorted, boolean external,
+			long maxBytes) throws IOException
+	{
+		InputStream input = StreamUtil.bufferedInputStream(unsorted);
+		OutputStream output = StreamUtil.bufferedOutputStream(sorted);
+
+		try {
 			OsmIterator osmInput = OsmIoUtils.setupOsmIterator(input,
 					inputFormat, outputConfig.isWriteMetadata());
 			OsmOutputStream osmOutput = OsmIoUtils.setupOsmOutput(output,
 					outputConfig);
-			MemorySort sort = new MemorySort(osmOutput, osmInput);
-			sort.setIgnoreDuplicates(true);
-			sort.run();
-
+			if (external) {
+				ExternalSort sort = new ExternalSort(sorted, outputConfig,
+						maxBytes);
+				sort.sort(osmInput, osmOutput);
+				System.out.println(String.format("Sorted %s using %d runs",
+						unsorted, sort.getNumberOfRuns()));
+			} else {
+				MemorySort sort = new MemorySort(osmOutput, osmInput);
+				sort.setIgnoreDuplicates(true);
+				sort.run();
+			}
+		} finally {
 			output.close();
 			input.close();
-
-			if (!keepUnsorted) {
-				Files.delete(unsorted);
-			}
 		}
 	}
 
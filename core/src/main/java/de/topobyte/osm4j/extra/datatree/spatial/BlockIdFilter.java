@@ -0,0 +1,89 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.spatial;
+
+/**
+ * A Bloom filter over the ids of the entities within a block. Blocks are
+ * ordered spatially, so that the id ranges of different blocks overlap
+ * heavily and the range alone says little about whether a block contains a
+ * specific id.
+ */
+public class BlockIdFilter
+{
+
+	private static final int BITS_PER_ID = 10;
+	private static final int NUM_HASHES = 4;
+
+	public static BlockIdFilter create(long[] ids)
+	{
+		int numLongs = Math.max(1, (ids.length * BITS_PER_ID + 63) / 64);
+		BlockIdFilter filter = new BlockIdFilter(new long[numLongs]);
+		for (long id : ids) {
+			filter.add(id);
+		}
+		return filter;
+	}
+
+	private long[] bits;
+
+	public BlockIdFilter(long[] bits)
+	{
+		this.bits = bits;
+	}
+
+	public long[] getBits()
+	{
+		return bits;
+	}
+
+	private void add(long id)
+	{
+		long hash = mix(id);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		long numBits = bits.length * 64L;
+		for (int i = 0; i < NUM_HASHES; i++) {
+			long bit = ((h1 + i * h2) & 0x7fffffffL) % numBits;
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	public boolean mayContain(long id)
+	{
+		long hash = mix(id);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		long numBits = bits.length * 64L;
+		for (int i = 0; i < NUM_HASHES; i++) {
+			long bit = ((h1 + i * h2) & 0x7fffffffL) % numBits;
+			if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long mix(long id)
+	{
+		long z = id * 0x9e3779b97f4a7c15L;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+}
@@ -0,0 +1,128 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.spatial;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.OsmBounds;
+
+/**
+ * Merges a number of iterators that are each sorted by entity type and id
+ * into a single iterator sorted the same way. Bounds are taken from the
+ * first iterator that provides them.
+ */
+public class IdMergeIterator implements OsmIterator
+{
+
+	private static class Head
+	{
+
+		private EntityContainer container;
+		private OsmIterator iterator;
+
+		public Head(EntityContainer container, OsmIterator iterator)
+		{
+			this.container = container;
+			this.iterator = iterator;
+		}
+
+	}
+
+	private PriorityQueue<Head> queue;
+	private OsmBounds bounds = null;
+
+	public IdMergeIterator(List<OsmIterator> iterators)
+	{
+		queue = new PriorityQueue<>(Math.max(1, iterators.size()),
+				new Comparator<Head>() {
+
+					@Override
+					public int compare(Head o1, Head o2)
+					{
+						int cmp = o1.container.getType()
+								.compareTo(o2.container.getType());
+						if (cmp != 0) {
+							return cmp;
+						}
+						return Long.compare(o1.container.getEntity().getId(),
+								o2.container.getEntity().getId());
+					}
+				});
+
+		for (OsmIterator iterator : iterators) {
+			if (bounds == null && iterator.hasBounds()) {
+				bounds = iterator.getBounds();
+			}
+			if (iterator.hasNext()) {
+				queue.add(new Head(iterator.next(), iterator));
+			}
+		}
+	}
+
+	@Override
+	public Iterator<EntityContainer> iterator()
+	{
+		return this;
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		return !queue.isEmpty();
+	}
+
+	@Override
+	public EntityContainer next()
+	{
+		Head head = queue.poll();
+		if (head == null) {
+			throw new NoSuchElementException();
+		}
+		EntityContainer next = head.container;
+		if (head.iterator.hasNext()) {
+			head.container = head.iterator.next();
+			queue.add(head);
+		}
+		return next;
+	}
+
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean hasBounds()
+	{
+		return bounds != null;
+	}
+
+	@Override
+	public OsmBounds getBounds()
+	{
+		return bounds;
+	}
+
+}
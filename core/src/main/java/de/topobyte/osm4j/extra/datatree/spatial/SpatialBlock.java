@@ -0,0 +1,92 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.spatial;
+
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * A contiguous range of a spatially sorted leaf file that can be decoded on
+ * its own. Entities within a block are sorted by id.
+ */
+public class SpatialBlock
+{
+
+	private long offset;
+	private long length;
+	private int count;
+	private long minId;
+	private long maxId;
+	private Envelope envelope;
+	private BlockIdFilter filter;
+
+	public SpatialBlock(long offset, long length, int count, long minId,
+			long maxId, Envelope envelope, BlockIdFilter filter)
+	{
+		this.offset = offset;
+		this.length = length;
+		this.count = count;
+		this.minId = minId;
+		this.maxId = maxId;
+		this.envelope = envelope;
+		this.filter = filter;
+	}
+
+	public long getOffset()
+	{
+		return offset;
+	}
+
+	public long getLength()
+	{
+		return length;
+	}
+
+	public int getCount()
+	{
+		return count;
+	}
+
+	public long getMinId()
+	{
+		return minId;
+	}
+
+	public long getMaxId()
+	{
+		return maxId;
+	}
+
+	public Envelope getEnvelope()
+	{
+		return envelope;
+	}
+
+	public BlockIdFilter getFilter()
+	{
+		return filter;
+	}
+
+	public boolean mayContain(long id)
+	{
+		if (id < minId || id > maxId) {
+			return false;
+		}
+		return filter.mayContain(id);
+	}
+
+}
@@ -0,0 +1,114 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.spatial;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.locationtech.jts.geom.Envelope;
+
+import de.topobyte.melon.io.StreamUtil;
+
+/**
+ * The sidecar file next to a spatially sorted leaf file that lists its
+ * blocks:
+ * 
+ * <pre>
+ * int: magic
+ * int: number of blocks
+ * (long: offset, long: length, int: count, long: min id, long: max id,
+ *  double: min x, double: max x, double: min y, double: max y,
+ *  int: filter length, long[filter length]: filter bits)*
+ * </pre>
+ */
+public class SpatialIndex
+{
+
+	public static final String EXTENSION = ".blocks";
+
+	private static final int MAGIC = 0x4f534258;
+
+	public static Path getIndexPath(Path file)
+	{
+		return file.resolveSibling(file.getFileName() + EXTENSION);
+	}
+
+	public static List<SpatialBlock> read(Path file) throws IOException
+	{
+		List<SpatialBlock> blocks = new ArrayList<>();
+		try (DataInputStream input = new DataInputStream(
+				StreamUtil.bufferedInputStream(file))) {
+			int magic = input.readInt();
+			if (magic != MAGIC) {
+				throw new IOException("Invalid magic number: " + file);
+			}
+			int n = input.readInt();
+			for (int i = 0; i < n; i++) {
+				long offset = input.readLong();
+				long length = input.readLong();
+				int count = input.readInt();
+				long minId = input.readLong();
+				long maxId = input.readLong();
+				double minX = input.readDouble();
+				double maxX = input.readDouble();
+				double minY = input.readDouble();
+				double maxY = input.readDouble();
+				long[] bits = new long[input.readInt()];
+				for (int k = 0; k < bits.length; k++) {
+					bits[k] = input.readLong();
+				}
+				blocks.add(new SpatialBlock(offset, length, count, minId,
+						maxId, new Envelope(minX, maxX, minY, maxY),
+						new BlockIdFilter(bits)));
+			}
+		}
+		return blocks;
+	}
+
+	public static void write(Path file, List<SpatialBlock> blocks)
+			throws IOException
+	{
+		try (DataOutputStream output = new DataOutputStream(
+				StreamUtil.bufferedOutputStream(file))) {
+			output.writeInt(MAGIC);
+			output.writeInt(blocks.size());
+			for (SpatialBlock block : blocks) {
+				Envelope envelope = block.getEnvelope();
+				output.writeLong(block.getOffset());
+				output.writeLong(block.getLength());
+				output.writeInt(block.getCount());
+				output.writeLong(block.getMinId());
+				output.writeLong(block.getMaxId());
+				output.writeDouble(envelope.getMinX());
+				output.writeDouble(envelope.getMaxX());
+				output.writeDouble(envelope.getMinY());
+				output.writeDouble(envelope.getMaxY());
+				long[] bits = block.getFilter().getBits();
+				output.writeInt(bits.length);
+				for (long value : bits) {
+					output.writeLong(value);
+				}
+			}
+		}
+	}
+
+}
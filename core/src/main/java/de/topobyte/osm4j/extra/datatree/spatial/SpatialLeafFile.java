@@ -0,0 +1,100 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.spatial;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.locationtech.jts.geom.Envelope;
+
+import de.topobyte.osm4j.core.access.OsmIteratorInputFactory;
+import de.topobyte.osm4j.utils.FileFormat;
+
+/**
+ * A leaf file whose entities have been grouped into blocks of spatially
+ * close entities, described by a {@link SpatialIndex} next to the file.
+ */
+public class SpatialLeafFile
+{
+
+	public static boolean exists(Path file)
+	{
+		return Files.exists(SpatialIndex.getIndexPath(file));
+	}
+
+	public static SpatialLeafFile open(Path file, FileFormat format)
+			throws IOException
+	{
+		List<SpatialBlock> blocks = SpatialIndex
+				.read(SpatialIndex.getIndexPath(file));
+		return new SpatialLeafFile(file, format, blocks);
+	}
+
+	private Path file;
+	private FileFormat format;
+	private List<SpatialBlock> blocks;
+
+	public SpatialLeafFile(Path file, FileFormat format,
+			List<SpatialBlock> blocks)
+	{
+		this.file = file;
+		this.format = format;
+		this.blocks = blocks;
+	}
+
+	public Path getFile()
+	{
+		return file;
+	}
+
+	public List<SpatialBlock> getBlocks()
+	{
+		return blocks;
+	}
+
+	public List<SpatialBlock> getIntersecting(Envelope envelope)
+	{
+		List<SpatialBlock> result = new ArrayList<>();
+		for (SpatialBlock block : blocks) {
+			if (block.getEnvelope().intersects(envelope)) {
+				result.add(block);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Get an input for all blocks, i.e. for the complete leaf.
+	 */
+	public OsmIteratorInputFactory createInput()
+	{
+		return new SpatialLeafInput(file, format, blocks);
+	}
+
+	/**
+	 * Get an input for the specified subset of blocks.
+	 */
+	public OsmIteratorInputFactory createInput(List<SpatialBlock> selection)
+	{
+		return new SpatialLeafInput(file, format, selection);
+	}
+
+}
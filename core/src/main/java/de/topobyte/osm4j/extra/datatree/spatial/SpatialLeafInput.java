@@ -0,0 +1,93 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.spatial;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.access.OsmIteratorInput;
+import de.topobyte.osm4j.core.access.OsmIteratorInputFactory;
+import de.topobyte.osm4j.extra.io.ChannelRangeInputStream;
+import de.topobyte.osm4j.utils.FileFormat;
+import de.topobyte.osm4j.utils.OsmIoUtils;
+
+/**
+ * Reads a selection of blocks of a spatially sorted leaf file. The entities
+ * of all selected blocks are returned sorted by id, just like from a regular
+ * leaf file.
+ */
+public class SpatialLeafInput implements OsmIteratorInputFactory
+{
+
+	private Path file;
+	private FileFormat format;
+	private List<SpatialBlock> blocks;
+
+	public SpatialLeafInput(Path file, FileFormat format,
+			List<SpatialBlock> blocks)
+	{
+		this.file = file;
+		this.format = format;
+		this.blocks = blocks;
+	}
+
+	@Override
+	public OsmIteratorInput createIterator(boolean readTags,
+			boolean readMetadata) throws IOException
+	{
+		final FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ);
+		List<OsmIterator> iterators = new ArrayList<>();
+		try {
+			for (SpatialBlock block : blocks) {
+				InputStream input = new BufferedInputStream(
+						new ChannelRangeInputStream(channel, block.getOffset(),
+								block.getLength()));
+				iterators.add(OsmIoUtils.setupOsmIterator(input, format,
+						readMetadata));
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		final OsmIterator iterator = new IdMergeIterator(iterators);
+		return new OsmIteratorInput() {
+
+			@Override
+			public OsmIterator getIterator()
+			{
+				return iterator;
+			}
+
+			@Override
+			public void close() throws IOException
+			{
+				channel.close();
+			}
+		};
+	}
+
+}
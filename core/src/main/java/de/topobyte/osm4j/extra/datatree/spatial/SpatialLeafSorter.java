@@ -0,0 +1,208 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.spatial;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.locationtech.jts.geom.Envelope;
+
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.access.OsmIteratorInput;
+import de.topobyte.osm4j.core.access.OsmIteratorInputFactory;
+import de.topobyte.osm4j.core.dataset.InMemoryListDataSet;
+import de.topobyte.osm4j.core.dataset.ListDataSetLoader;
+import de.topobyte.osm4j.core.model.iface.OsmBounds;
+import de.topobyte.osm4j.core.model.iface.OsmEntity;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.core.resolve.EntityNotFoundException;
+import de.topobyte.osm4j.extra.datatree.DataTree;
+import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
+import de.topobyte.osm4j.extra.datatree.DataTreeOpener;
+import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+
+/**
+ * Rewrites the node and way files of all leafs of a data tree with
+ * {@link SpatialLeafWriter}. The extent of a way is computed from the nodes
+ * of the same leaf. Rewritten files are read transparently through
+ * {@link DataTreeFiles#getInput}, and leaf queries can decode only the blocks
+ * relevant to the query region.
+ */
+public class SpatialLeafSorter
+{
+
+	private Path pathTree;
+	private String fileNamesNodes;
+	private String fileNamesWays;
+	private OsmOutputConfig outputConfig;
+	private int blockSize;
+
+	public SpatialLeafSorter(Path pathTree, String fileNamesNodes,
+			String fileNamesWays, OsmOutputConfig outputConfig, int blockSize)
+	{
+		this.pathTree = pathTree;
+		this.fileNamesNodes = fileNamesNodes;
+		this.fileNamesWays = fileNamesWays;
+		this.outputConfig = outputConfig;
+		this.blockSize = blockSize;
+	}
+
+	public void execute() throws IOException
+	{
+		DataTree tree = DataTreeOpener.open(pathTree.toFile());
+		List<Node> leafs = tree.getLeafs();
+
+		DataTreeFiles filesNodes = new DataTreeFiles(pathTree, fileNamesNodes);
+		DataTreeFiles filesWays = new DataTreeFiles(pathTree, fileNamesWays);
+		if (filesNodes.isPacked() || filesWays.isPacked()) {
+			throw new IOException("Packed trees cannot be sorted spatially");
+		}
+
+		SpatialLeafWriter writer = new SpatialLeafWriter(outputConfig,
+				blockSize);
+
+		int i = 0;
+		for (Node leaf : leafs) {
+			System.out.println(String.format("Processing leaf %d of %d: %s",
+					++i, leafs.size(), Long.toHexString(leaf.getPath())));
+
+			Path pathNodes = filesNodes.getPath(leaf);
+			Path pathWays = filesWays.getPath(leaf);
+			recover(pathNodes);
+			recover(pathWays);
+
+			boolean sortNodes = !SpatialLeafFile.exists(pathNodes);
+			boolean sortWays = !SpatialLeafFile.exists(pathWays);
+			if (!sortNodes && !sortWays) {
+				System.out.println("Already sorted, skipping");
+				continue;
+			}
+
+			LeafData leafNodes = read(
+					filesNodes.getInput(leaf, outputConfig.getFileFormat()));
+			InMemoryListDataSet nodes = leafNodes.data;
+
+			if (sortNodes) {
+				List<Envelope> envelopes = new ArrayList<>();
+				for (OsmNode node : nodes.getNodes()) {
+					envelopes.add(new Envelope(node.getLongitude(),
+							node.getLongitude(), node.getLatitude(),
+							node.getLatitude()));
+				}
+				write(writer, pathNodes, leaf, leafNodes.bounds,
+						nodes.getNodes(), envelopes);
+			}
+
+			if (sortWays) {
+				LeafData leafWays = read(filesWays.getInput(leaf,
+						outputConfig.getFileFormat()));
+				InMemoryListDataSet ways = leafWays.data;
+				List<Envelope> envelopes = new ArrayList<>();
+				for (OsmWay way : ways.getWays()) {
+					envelopes.add(envelope(way, nodes));
+				}
+				write(writer, pathWays, leaf, leafWays.bounds, ways.getWays(),
+						envelopes);
+			}
+		}
+	}
+
+	private static class LeafData
+	{
+
+		private InMemoryListDataSet data;
+		private OsmBounds bounds;
+
+	}
+
+	private LeafData read(OsmIteratorInputFactory inputFactory)
+			throws IOException
+	{
+		OsmIteratorInput input = inputFactory.createIterator(true,
+				outputConfig.isWriteMetadata());
+		OsmIterator iterator = input.getIterator();
+		LeafData leafData = new LeafData();
+		// Bounds are repeated in each block so that they survive sorting
+		if (iterator.hasBounds()) {
+			leafData.bounds = iterator.getBounds();
+		}
+		leafData.data = ListDataSetLoader.read(iterator, true, true, true);
+		input.close();
+		return leafData;
+	}
+
+	private Envelope envelope(OsmWay way, InMemoryListDataSet nodes)
+	{
+		Envelope envelope = new Envelope();
+		for (int k = 0; k < way.getNumberOfNodes(); k++) {
+			try {
+				OsmNode node = nodes.getNode(way.getNodeId(k));
+				envelope.expandToInclude(node.getLongitude(),
+						node.getLatitude());
+			} catch (EntityNotFoundException e) {
+				return null;
+			}
+		}
+		return envelope;
+	}
+
+	private void write(SpatialLeafWriter writer, Path path, Node leaf,
+			OsmBounds bounds, List<? extends OsmEntity> entities,
+			List<Envelope> envelopes) throws IOException
+	{
+		// Write to temporary files first. Once the data file has been moved
+		// into place, its index is moved as well, see recover()
+		Path pathTmp = tmp(path);
+		writer.write(pathTmp, leaf.getEnvelope(), bounds, entities,
+				envelopes);
+		Files.move(pathTmp, path, StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		Files.move(SpatialIndex.getIndexPath(pathTmp),
+				SpatialIndex.getIndexPath(path),
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Complete a write that has been interrupted between moving the data file
+	 * and moving its index.
+	 */
+	private void recover(Path path) throws IOException
+	{
+		Path pathTmp = tmp(path);
+		Path indexTmp = SpatialIndex.getIndexPath(pathTmp);
+		if (Files.exists(pathTmp)) {
+			Files.delete(pathTmp);
+			Files.deleteIfExists(indexTmp);
+		} else if (Files.exists(indexTmp)) {
+			Files.move(indexTmp, SpatialIndex.getIndexPath(path),
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	private static Path tmp(Path path)
+	{
+		return path.resolveSibling(path.getFileName() + ".tmp");
+	}
+
+}
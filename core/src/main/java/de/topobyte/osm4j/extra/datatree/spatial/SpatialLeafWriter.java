@@ -0,0 +1,178 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.spatial;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.locationtech.jts.geom.Envelope;
+
+import de.topobyte.melon.io.StreamUtil;
+import de.topobyte.osm4j.core.access.OsmOutputStream;
+import de.topobyte.osm4j.core.model.iface.OsmBounds;
+import de.topobyte.osm4j.core.model.iface.OsmEntity;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmRelation;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.utils.OsmIoUtils;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+
+/**
+ * Writes entities of a leaf ordered along a Hilbert curve over the leaf's
+ * envelope, in blocks of a fixed number of entities. Each block is encoded
+ * on its own and sorted by id internally. The blocks are recorded in a
+ * {@link SpatialIndex} next to the file, together with a filter over the ids
+ * of each block.
+ */
+public class SpatialLeafWriter
+{
+
+	public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+	// 2^15 x 2^15 cells, so that curve position and list index can be
+	// packed into a single positive long
+	private static final int ORDER = 15;
+	private static final long UNKNOWN = 1L << (2 * ORDER);
+
+	private static final Envelope EVERYWHERE = new Envelope(
+			Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+			Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+	private OsmOutputConfig outputConfig;
+	private int blockSize;
+
+	public SpatialLeafWriter(OsmOutputConfig outputConfig, int blockSize)
+	{
+		this.outputConfig = outputConfig;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * @param bounds
+	 *            the bounds to write at the start of each block, may be null.
+	 * @param entities
+	 *            the entities to write, sorted by id.
+	 * @param envelopes
+	 *            the extent of each entity, or null for entities with an
+	 *            unknown extent. Blocks containing such entities will match
+	 *            any query.
+	 */
+	public void write(Path file, Envelope leafEnvelope, OsmBounds bounds,
+			List<? extends OsmEntity> entities, List<Envelope> envelopes)
+			throws IOException
+	{
+		int n = entities.size();
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			long curve = curve(leafEnvelope, envelopes.get(i));
+			keys[i] = curve << 32 | i;
+		}
+		Arrays.sort(keys);
+
+		List<SpatialBlock> blocks = new ArrayList<>();
+		long offset = 0;
+
+		try (OutputStream output = StreamUtil.bufferedOutputStream(file)) {
+			for (int start = 0; start < n; start += blockSize) {
+				int end = Math.min(n, start + blockSize);
+
+				// Restore id order within the block
+				int[] indices = new int[end - start];
+				for (int i = start; i < end; i++) {
+					indices[i - start] = (int) keys[i];
+				}
+				Arrays.sort(indices);
+
+				Envelope envelope = new Envelope();
+				for (int index : indices) {
+					Envelope e = envelopes.get(index);
+					if (e == null) {
+						envelope = EVERYWHERE;
+						break;
+					}
+					envelope.expandToInclude(e);
+				}
+
+				byte[] bytes = encode(bounds, entities, indices);
+				output.write(bytes);
+
+				long[] ids = new long[indices.length];
+				for (int k = 0; k < indices.length; k++) {
+					ids[k] = entities.get(indices[k]).getId();
+				}
+				blocks.add(new SpatialBlock(offset, bytes.length,
+						indices.length, ids[0], ids[ids.length - 1], envelope,
+						BlockIdFilter.create(ids)));
+				offset += bytes.length;
+			}
+		}
+
+		SpatialIndex.write(SpatialIndex.getIndexPath(file), blocks);
+	}
+
+	private long curve(Envelope leafEnvelope, Envelope envelope)
+	{
+		if (envelope == null) {
+			return UNKNOWN;
+		}
+		int cells = 1 << ORDER;
+		int x = cell(envelope.centre().x, leafEnvelope.getMinX(),
+				leafEnvelope.getWidth(), cells);
+		int y = cell(envelope.centre().y, leafEnvelope.getMinY(),
+				leafEnvelope.getHeight(), cells);
+		return HilbertCurve.index(ORDER, x, y);
+	}
+
+	private static int cell(double value, double min, double size, int cells)
+	{
+		if (size <= 0) {
+			return 0;
+		}
+		int cell = (int) ((value - min) / size * cells);
+		return Math.max(0, Math.min(cells - 1, cell));
+	}
+
+	private byte[] encode(OsmBounds bounds, List<? extends OsmEntity> entities,
+			int[] indices) throws IOException
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		OsmOutputStream osmOutput = OsmIoUtils.setupOsmOutput(baos,
+				outputConfig);
+		if (bounds != null) {
+			osmOutput.write(bounds);
+		}
+		for (int index : indices) {
+			OsmEntity entity = entities.get(index);
+			if (entity instanceof OsmNode) {
+				osmOutput.write((OsmNode) entity);
+			} else if (entity instanceof OsmWay) {
+				osmOutput.write((OsmWay) entity);
+			} else if (entity instanceof OsmRelation) {
+				osmOutput.write((OsmRelation) entity);
+			}
+		}
+		osmOutput.complete();
+		return baos.toByteArray();
+	}
+
+}
@@ -86,10 +86,10 @@ public abstract class AbstractMissingWayNodesFinder implements
 		leafs = tree.getLeafs();
 	}
 
-	protected MissingWayNodesFinderTask creatTask(Node leaf)
+	protected MissingWayNodesFinderTask creatTask(Node leaf) throws IOException
 	{
-		Path fileNodes = filesNodes.getPath(leaf);
-		Path fileWays = filesWays.getPath(leaf);
+		Path fileNodes = filesNodes.getPlainPath(leaf);
+		Path fileWays = filesWays.getPlainPath(leaf);
 		File fileOutput = filesOutput.getFile(leaf);
 
 		MissingWayNodesFinderTask task = new MissingWayNodesFinderTask(
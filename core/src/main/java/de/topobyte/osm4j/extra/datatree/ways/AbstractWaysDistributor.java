@@ -26,41 +26,31 @@ import java.nio.file.Path;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
-
-import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.geom.LinearRing;
-import org.locationtech.jts.geom.Polygon;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.slimjars.dist.gnu.trove.map.TLongObjectMap;
 import com.slimjars.dist.gnu.trove.map.hash.TLongObjectHashMap;
 
-import de.topobyte.jts.utils.GeometryGroup;
 import de.topobyte.largescalefileio.ClosingFileOutputStreamFactory;
 import de.topobyte.largescalefileio.SimpleClosingFileOutputStreamFactory;
 import de.topobyte.melon.io.StreamUtil;
 import de.topobyte.osm4j.core.access.OsmOutputStream;
 import de.topobyte.osm4j.core.access.OsmOutputStreamStreamOutput;
 import de.topobyte.osm4j.core.access.OsmStreamOutput;
-import de.topobyte.osm4j.core.dataset.InMemoryListDataSet;
-import de.topobyte.osm4j.core.dataset.ListDataSetLoader;
 import de.topobyte.osm4j.core.model.iface.OsmNode;
 import de.topobyte.osm4j.core.model.iface.OsmWay;
-import de.topobyte.osm4j.core.model.util.OsmModelUtil;
 import de.topobyte.osm4j.core.resolve.EntityNotFoundException;
 import de.topobyte.osm4j.core.resolve.OsmEntityProvider;
-import de.topobyte.osm4j.extra.QueryUtil;
+import de.topobyte.osm4j.extra.columnar.ColumnarNodes;
+import de.topobyte.osm4j.extra.columnar.ColumnarWays;
 import de.topobyte.osm4j.extra.datatree.DataTree;
 import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
 import de.topobyte.osm4j.extra.datatree.DataTreeOpener;
 import de.topobyte.osm4j.extra.datatree.Node;
-import de.topobyte.osm4j.geometry.WayBuilder;
-import de.topobyte.osm4j.geometry.WayBuilderResult;
 import de.topobyte.osm4j.utils.FileFormat;
 import de.topobyte.osm4j.utils.OsmIoUtils;
 import de.topobyte.osm4j.utils.OsmOutputConfig;
@@ -109,13 +99,17 @@ public abstract class AbstractWaysDistributor implements WaysDistributor
 	}
 
 	private DataTree tree;
+	private WayLeafQuery leafQuery;
 	private List<Node> leafs;
+	private DataTreeFiles filesNodes1;
+	private DataTreeFiles filesNodes2;
+	private DataTreeFiles filesWays;
 	protected Map<Node, OsmStreamOutput> outputsWays = new HashMap<>();
 	protected Map<Node, OsmStreamOutput> outputsNodes = new HashMap<>();
 
-	private long counter = 0;
-	private long noneFound = 0;
-	private long unableToBuild = 0;
+	private AtomicLong counter = new AtomicLong();
+	private AtomicLong noneFound = new AtomicLong();
+	private AtomicLong unableToBuild = new AtomicLong();
 
 	private long start = System.currentTimeMillis();
 
@@ -126,21 +120,37 @@ public abstract class AbstractWaysDistributor implements WaysDistributor
 	{
 		tree = DataTreeOpener.open(pathTree.toFile());
 		leafs = tree.getLeafs();
+		leafQuery = new WayLeafQuery(tree);
+
+		filesNodes1 = new DataTreeFiles(pathTree, fileNamesNodes1);
+		filesNodes2 = new DataTreeFiles(pathTree, fileNamesNodes2);
+		filesWays = new DataTreeFiles(pathTree, fileNamesWays);
 
-		DataTreeFiles filesWays = new DataTreeFiles(pathTree,
+		DataTreeFiles filesOutputWays = new DataTreeFiles(pathTree,
 				fileNamesOutputWays);
-		DataTreeFiles filesNodes = new DataTreeFiles(pathTree,
+		DataTreeFiles filesOutputNodes = new DataTreeFiles(pathTree,
 				fileNamesOutputNodes);
 
 		for (Node leaf : leafs) {
-			OsmStreamOutput outputWays = createOutput(filesWays.getFile(leaf));
+			OsmStreamOutput outputWays = createOutput(
+					filesOutputWays.getFile(leaf));
 			outputsWays.put(leaf, outputWays);
 			OsmStreamOutput outputNodes = createOutput(
-					filesNodes.getFile(leaf));
+					filesOutputNodes.getFile(leaf));
 			outputsNodes.put(leaf, outputNodes);
 		}
 	}
 
+	protected DataTree getTree()
+	{
+		return tree;
+	}
+
+	protected List<Node> getLeafs()
+	{
+		return leafs;
+	}
+
 	private OsmStreamOutput createOutput(File file) throws IOException
 	{
 		OutputStream output = factory.create(file);
@@ -171,12 +181,6 @@ public abstract class AbstractWaysDistributor implements WaysDistributor
 
 	protected void distribute() throws IOException
 	{
-		DataTreeFiles filesNodes1 = new DataTreeFiles(pathTree,
-				fileNamesNodes1);
-		DataTreeFiles filesNodes2 = new DataTreeFiles(pathTree,
-				fileNamesNodes2);
-		DataTreeFiles filesWays = new DataTreeFiles(pathTree, fileNamesWays);
-
 		int i = 0;
 		Iterator<Node> iterator = leafs.iterator();
 		while (!stopped && iterator.hasNext()) {
@@ -184,75 +188,86 @@ public abstract class AbstractWaysDistributor implements WaysDistributor
 			System.out.println(
 					String.format("Processing leaf %d/%d", ++i, leafs.size()));
 
-			File fileNodes1 = filesNodes1.getFile(leaf);
-			File fileNodes2 = filesNodes2.getFile(leaf);
-			File fileWays = filesWays.getFile(leaf);
+			leafData(load(leaf));
+
+			stats(i);
+		}
+	}
+
+	/**
+	 * Get the total size of the input files of the specified leaf.
+	 */
+	protected long inputSize(Node leaf)
+	{
+		return filesNodes1.getFile(leaf).length()
+				+ filesNodes2.getFile(leaf).length()
+				+ filesWays.getFile(leaf).length();
+	}
 
-			InputStream inputNodes1 = StreamUtil
-					.bufferedInputStream(fileNodes1);
-			InputStream inputNodes2 = StreamUtil
-					.bufferedInputStream(fileNodes2);
-			InputStream inputWays = StreamUtil.bufferedInputStream(fileWays);
+	protected LeafData load(Node leaf) throws IOException
+	{
+		File fileNodes1 = filesNodes1.getPlainFile(leaf);
+		File fileNodes2 = filesNodes2.getPlainFile(leaf);
+		File fileWays = filesWays.getPlainFile(leaf);
 
-			long nodesSize1 = fileNodes1.length();
-			System.out
-					.println(String.format("Loading nodes file of size: %.3fMB",
-							nodesSize1 / 1024. / 1024.));
+		InputStream inputNodes1 = StreamUtil.bufferedInputStream(fileNodes1);
+		InputStream inputNodes2 = StreamUtil.bufferedInputStream(fileNodes2);
+		InputStream inputWays = StreamUtil.bufferedInputStream(fileWays);
 
-			InMemoryListDataSet dataNodes1 = ListDataSetLoader.read(
-					OsmIoUtils.setupOsmIterator(inputNodes1, inputFormatNodes,
-							outputConfig.isWriteMetadata()),
-					true, true, true);
+		long nodesSize1 = fileNodes1.length();
+		System.out.println(String.format("Loading nodes file of size: %.3fMB",
+				nodesSize1 / 1024. / 1024.));
 
-			long nodesSize2 = fileNodes2.length();
-			System.out
-					.println(String.format("Loading nodes file of size: %.3fMB",
-							nodesSize2 / 1024. / 1024.));
+		ColumnarNodes dataNodes1 = ColumnarNodes.read(
+				OsmIoUtils.setupOsmIterator(inputNodes1, inputFormatNodes,
+						outputConfig.isWriteMetadata()),
+				true);
 
-			InMemoryListDataSet dataNodes2 = ListDataSetLoader.read(
-					OsmIoUtils.setupOsmIterator(inputNodes2, inputFormatNodes,
-							outputConfig.isWriteMetadata()),
-					true, true, true);
+		long nodesSize2 = fileNodes2.length();
+		System.out.println(String.format("Loading nodes file of size: %.3fMB",
+				nodesSize2 / 1024. / 1024.));
 
-			long waysSize = fileWays.length();
-			System.out
-					.println(String.format("Loading ways file of size: %.3fMB",
-							waysSize / 1024. / 1024.));
+		ColumnarNodes dataNodes2 = ColumnarNodes.read(
+				OsmIoUtils.setupOsmIterator(inputNodes2, inputFormatNodes,
+						outputConfig.isWriteMetadata()),
+				true);
 
-			InMemoryListDataSet dataWays = ListDataSetLoader.read(
-					OsmIoUtils.setupOsmIterator(inputWays, inputFormatWays,
-							outputConfig.isWriteMetadata()),
-					true, true, true);
+		long waysSize = fileWays.length();
+		System.out.println(String.format("Loading ways file of size: %.3fMB",
+				waysSize / 1024. / 1024.));
 
-			inputNodes1.close();
-			inputNodes2.close();
-			inputWays.close();
+		ColumnarWays dataWays = ColumnarWays.read(
+				OsmIoUtils.setupOsmIterator(inputWays, inputFormatWays,
+						outputConfig.isWriteMetadata()),
+				true);
 
-			System.out.println("Number of ways: " + dataWays.getWays().size());
+		inputNodes1.close();
+		inputNodes2.close();
+		inputWays.close();
 
-			leafData(new LeafData(leaf, dataWays, dataNodes1, dataNodes2));
+		System.out.println("Number of ways: " + dataWays.size());
 
-			stats(i);
-		}
+		return new LeafData(leaf, dataWays, dataNodes1, dataNodes2);
 	}
 
 	protected void build(Node leaf, OsmWay way,
 			OsmEntityProvider entityProvider) throws IOException
+	{
+		build(leaf, way, entityProvider, leafQuery);
+	}
+
+	protected void build(Node leaf, OsmWay way,
+			OsmEntityProvider entityProvider, WayLeafQuery leafQuery)
+			throws IOException
 	{
 		TLongObjectMap<OsmNode> nodes = new TLongObjectHashMap<>();
 		List<Node> leafs;
 		try {
-			if (way.getNumberOfNodes() == 1) {
-				leafs = buildSingleNodeWay(way, nodes, entityProvider);
-			} else if (way.getNumberOfNodes() < 4
-					|| !OsmModelUtil.isClosed(way)) {
-				leafs = buildNonClosedWay(way, nodes, entityProvider);
-			} else {
-				leafs = buildClosedWay(way, nodes, entityProvider);
-			}
+			leafs = leafQuery.query(way, nodes, entityProvider);
 		} catch (EntityNotFoundException e) {
 			System.out.println(
 					"Entity not found while building way: " + way.getId());
+			unableToBuild.incrementAndGet();
 			return;
 		}
 
@@ -265,82 +280,18 @@ public abstract class AbstractWaysDistributor implements WaysDistributor
 
 		if (leafs.size() == 0) {
 			System.out.println("No leaf found for way: " + way.getId());
+			noneFound.incrementAndGet();
 		}
 
-		counter++;
-	}
-
-	private List<Node> buildSingleNodeWay(OsmWay way,
-			TLongObjectMap<OsmNode> nodes, OsmEntityProvider entityProvider)
-			throws EntityNotFoundException
-	{
-		long nodeId = way.getNodeId(0);
-		OsmNode node = entityProvider.getNode(nodeId);
-		nodes.put(nodeId, node);
-		return tree.query(node.getLongitude(), node.getLatitude());
-	}
-
-	private GeometryFactory f = new GeometryFactory();
-	private WayBuilder wb = new WayBuilder(f);
-
-	private List<Node> buildNonClosedWay(OsmWay way,
-			TLongObjectMap<OsmNode> nodes, OsmEntityProvider entityProvider)
-			throws EntityNotFoundException
-	{
-		WayBuilderResult build = wb.build(way, entityProvider);
-		GeometryGroup group = build.toGeometryGroup(f);
-
-		QueryUtil.putNodes(way, nodes, entityProvider);
-		return tree.query(group);
-	}
-
-	private List<Node> buildClosedWay(OsmWay way, TLongObjectMap<OsmNode> nodes,
-			OsmEntityProvider entityProvider) throws EntityNotFoundException
-	{
-		WayBuilderResult build = wb.build(way, entityProvider);
-		GeometryGroup group = build.toGeometryGroup(f);
-		LinearRing ring = build.getLinearRing();
-		Polygon polygon = f.createPolygon(ring);
-		QueryUtil.putNodes(way, nodes, entityProvider);
-
-		List<Node> leafs1 = new ArrayList<>(tree.query(group));
-		List<Node> leafs2 = new ArrayList<>(tree.query(polygon));
-		if (leafs1.size() == 1 && leafs2.size() == 1
-				&& leafs1.get(0) == leafs2.get(0)) {
-			return leafs1;
-		} else {
-			List<Node> merged = merge(leafs1, leafs2);
-			if (merged.size() > leafs1.size()) {
-				System.out.println(String.format(
-						"found way that contains leafs. outline: %d polygon: %d merged: %d",
-						leafs1.size(), leafs2.size(), merged.size()));
-			}
-			return merged;
-		}
-	}
-
-	private List<Node> merge(List<Node> a, List<Node> b)
-	{
-		List<Node> result = new ArrayList<>();
-		Set<Node> set = new HashSet<>();
-		for (Node node : a) {
-			result.add(node);
-			set.add(node);
-		}
-		for (Node node : b) {
-			if (!set.contains(node)) {
-				result.add(node);
-			}
-		}
-		return result;
+		counter.incrementAndGet();
 	}
 
-	private void stats(int leafsDone)
+	protected synchronized void stats(int leafsDone)
 	{
 		System.out.println(String.format(
 				"ways: %s, no leafs found: %s, unable to build: %s",
-				format.format(counter), format.format(noneFound),
-				format.format(unableToBuild)));
+				format.format(counter.get()), format.format(noneFound.get()),
+				format.format(unableToBuild.get())));
 
 		long now = System.currentTimeMillis();
 		long past = now - start;
@@ -20,21 +20,22 @@ package de.topobyte.osm4j.extra.datatree.ways;
 import java.util.ArrayList;
 import java.util.List;
 
-import de.topobyte.osm4j.core.dataset.InMemoryListDataSet;
 import de.topobyte.osm4j.core.resolve.OsmEntityProvider;
 import de.topobyte.osm4j.core.resolve.UnionOsmEntityProvider;
+import de.topobyte.osm4j.extra.columnar.ColumnarNodes;
+import de.topobyte.osm4j.extra.columnar.ColumnarWays;
 import de.topobyte.osm4j.extra.datatree.Node;
 
 public class LeafData
 {
 
 	private Node leaf;
-	private InMemoryListDataSet dataWays;
-	private InMemoryListDataSet dataNodes1;
-	private InMemoryListDataSet dataNodes2;
+	private ColumnarWays dataWays;
+	private ColumnarNodes dataNodes1;
+	private ColumnarNodes dataNodes2;
 
-	public LeafData(Node leaf, InMemoryListDataSet dataWays,
-			InMemoryListDataSet dataNodes1, InMemoryListDataSet dataNodes2)
+	public LeafData(Node leaf, ColumnarWays dataWays,
+			ColumnarNodes dataNodes1, ColumnarNodes dataNodes2)
 	{
 		this.leaf = leaf;
 		this.dataWays = dataWays;
@@ -47,17 +48,17 @@ public class LeafData
 		return leaf;
 	}
 
-	public InMemoryListDataSet getDataWays()
+	public ColumnarWays getDataWays()
 	{
 		return dataWays;
 	}
 
-	public InMemoryListDataSet getDataNodes1()
+	public ColumnarNodes getDataNodes1()
 	{
 		return dataNodes1;
 	}
 
-	public InMemoryListDataSet getDataNodes2()
+	public ColumnarNodes getDataNodes2()
 	{
 		return dataNodes2;
 	}
@@ -20,20 +20,17 @@ package de.topobyte.osm4j.extra.datatree.ways;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
-import com.slimjars.dist.gnu.trove.iterator.TLongIterator;
-import com.slimjars.dist.gnu.trove.iterator.TLongObjectIterator;
 import com.slimjars.dist.gnu.trove.list.TLongList;
 import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
-import com.slimjars.dist.gnu.trove.set.TLongSet;
-import com.slimjars.dist.gnu.trove.set.hash.TLongHashSet;
 
 import de.topobyte.melon.io.StreamUtil;
 import de.topobyte.osm4j.core.access.OsmIdIterator;
 import de.topobyte.osm4j.core.access.OsmIdIteratorInput;
+import de.topobyte.osm4j.core.access.OsmIterator;
 import de.topobyte.osm4j.core.access.OsmIteratorInput;
-import de.topobyte.osm4j.core.dataset.InMemoryMapDataSet;
-import de.topobyte.osm4j.core.dataset.MapDataSetLoader;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
 import de.topobyte.osm4j.core.model.iface.EntityType;
 import de.topobyte.osm4j.core.model.iface.IdContainer;
 import de.topobyte.osm4j.core.model.iface.OsmWay;
@@ -90,7 +87,8 @@ public class MissingWayNodesFinderTask implements Task
 
 		OsmIdIteratorInput nodeInput = new OsmFileInput(fileNodes)
 				.createIdIterator();
-		TLongSet nodeIds = read(nodeInput.getIterator());
+		long[] nodeIds = read(nodeInput.getIterator());
+		nodeInput.close();
 
 		if (verbose) {
 			long waysSize = fileWays.getPath().toFile().length();
@@ -101,70 +99,95 @@ public class MissingWayNodesFinderTask implements Task
 
 		OsmIteratorInput wayInput = new OsmFileInput(fileWays).createIterator(
 				false, false);
-		InMemoryMapDataSet dataWays = MapDataSetLoader.read(wayInput, true,
-				true, true);
-
-		nodeInput.close();
+		long[] refs = readWayNodes(wayInput.getIterator());
 		wayInput.close();
 
 		if (verbose) {
-			System.out.println("Number of ways: " + dataWays.getWays().size());
+			System.out.println("Number of ways: " + counter);
+			System.out.println("Sorting way node references: " + refs.length);
 		}
 
-		TLongSet missingIds = new TLongHashSet();
-
-		TLongObjectIterator<OsmWay> ways = dataWays.getWays().iterator();
-		while (ways.hasNext()) {
-			ways.advance();
-			OsmWay way = ways.value();
-			build(way, nodeIds, missingIds);
-		}
-
-		if (verbose) {
-			System.out.println("Sorting id list of size: " + missingIds.size());
-		}
-
-		TLongList missingIdList = new TLongArrayList(missingIds);
-		missingIdList.sort();
+		Arrays.sort(refs);
 
 		if (verbose) {
 			System.out.println("Writing missing ids");
 		}
 		OutputStream bos = StreamUtil.bufferedOutputStream(fileOutput);
 		IdListOutputStream idOutput = new IdListOutputStream(bos);
-		TLongIterator iterator = missingIdList.iterator();
-		while (iterator.hasNext()) {
-			idOutput.write(iterator.next());
-		}
+		writeDifference(refs, nodeIds, idOutput);
 		idOutput.close();
 	}
 
-	private TLongSet read(OsmIdIterator idIterator)
+	/**
+	 * Read the node ids into an array. Node files are sorted by id, so that
+	 * sorting is only necessary if the input turns out to be unsorted.
+	 */
+	private long[] read(OsmIdIterator idIterator)
 	{
-		TLongSet ids = new TLongHashSet();
+		TLongList ids = new TLongArrayList();
+		boolean sorted = true;
+		long last = Long.MIN_VALUE;
 		while (idIterator.hasNext()) {
 			IdContainer container = idIterator.next();
 			if (container.getType() != EntityType.Node) {
 				break;
 			}
-			ids.add(container.getId());
+			long id = container.getId();
+			if (id <= last) {
+				sorted = false;
+			}
+			ids.add(id);
+			last = id;
+		}
+		long[] array = ids.toArray();
+		if (!sorted) {
+			Arrays.sort(array);
 		}
-		return ids;
+		return array;
 	}
 
-	private void build(OsmWay way, TLongSet nodeIds, TLongSet missing)
-			throws IOException
+	private long[] readWayNodes(OsmIterator iterator)
 	{
-		for (int i = 0; i < way.getNumberOfNodes(); i++) {
-			long nodeId = way.getNodeId(i);
-			if (nodeIds.contains(nodeId)) {
+		TLongList refs = new TLongArrayList();
+		while (iterator.hasNext()) {
+			EntityContainer container = iterator.next();
+			if (container.getType() != EntityType.Way) {
+				continue;
+			}
+			OsmWay way = (OsmWay) container.getEntity();
+			for (int i = 0; i < way.getNumberOfNodes(); i++) {
+				refs.add(way.getNodeId(i));
+			}
+			counter++;
+		}
+		return refs.toArray();
+	}
+
+	/**
+	 * Write the sorted set difference of the sorted references and the sorted
+	 * node ids.
+	 */
+	private void writeDifference(long[] refs, long[] nodeIds,
+			IdListOutputStream output) throws IOException
+	{
+		int k = 0;
+		boolean written = false;
+		long last = 0;
+		for (long ref : refs) {
+			while (k < nodeIds.length && nodeIds[k] < ref) {
+				k++;
+			}
+			if (k < nodeIds.length && nodeIds[k] == ref) {
 				found++;
-			} else {
-				notFound++;
-				missing.add(nodeId);
+				continue;
+			}
+			notFound++;
+			if (!written || ref != last) {
+				output.write(ref);
+				written = true;
+				last = ref;
 			}
 		}
-		counter++;
 	}
 
 }
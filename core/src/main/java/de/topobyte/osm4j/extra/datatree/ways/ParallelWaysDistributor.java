@@ -0,0 +1,213 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.ways;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.slimjars.dist.gnu.trove.map.TLongObjectMap;
+
+import de.topobyte.osm4j.core.access.OsmOutputStream;
+import de.topobyte.osm4j.core.access.OsmStreamOutput;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.core.resolve.OsmEntityProvider;
+import de.topobyte.osm4j.extra.datatree.DataTree;
+import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.threading.MemoryBudget;
+import de.topobyte.osm4j.utils.FileFormat;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+import de.topobyte.osm4j.utils.buffer.ParallelExecutor;
+
+/**
+ * A ways distributor that processes a number of leafs concurrently. Each
+ * worker loads and processes one leaf at a time. Before loading a leaf, a
+ * worker reserves an estimate of the leaf's memory requirements, derived from
+ * the size of its input files, from a shared {@link MemoryBudget}. Ways and
+ * nodes are written to the outputs of other leafs while holding the lock of
+ * the respective output.
+ * 
+ * If any of the workers fails, the others stop processing further leafs and
+ * the failure is rethrown from {@link #execute()}.
+ */
+public class ParallelWaysDistributor extends AbstractWaysDistributor
+{
+
+	/**
+	 * Default factor between the size of the input files of a leaf and the
+	 * memory occupied by its data once loaded.
+	 */
+	public static final double DEFAULT_EXPANSION = 10;
+
+	private int numThreads;
+	private MemoryBudget budget;
+	private double expansion = DEFAULT_EXPANSION;
+
+	public ParallelWaysDistributor(Path pathTree, String fileNamesNodes1,
+			String fileNamesNodes2, String fileNamesWays,
+			String fileNamesOutputWays, String fileNamesOutputNodes,
+			FileFormat inputFormatNodes, FileFormat inputFormatWays,
+			OsmOutputConfig outputConfig, int numThreads, MemoryBudget budget)
+	{
+		super(pathTree, fileNamesNodes1, fileNamesNodes2, fileNamesWays,
+				fileNamesOutputWays, fileNamesOutputNodes, inputFormatNodes,
+				inputFormatWays, outputConfig);
+		this.numThreads = numThreads;
+		this.budget = budget;
+	}
+
+	public double getExpansion()
+	{
+		return expansion;
+	}
+
+	public void setExpansion(double expansion)
+	{
+		this.expansion = expansion;
+	}
+
+	private List<Node> leafs;
+	private AtomicInteger next = new AtomicInteger();
+	private AtomicInteger done = new AtomicInteger();
+	private volatile Throwable failure = null;
+
+	@Override
+	public void execute() throws IOException
+	{
+		prepare();
+
+		DataTree tree = getTree();
+		leafs = getLeafs();
+
+		List<Runnable> tasks = new ArrayList<>();
+		for (int i = 0; i < numThreads; i++) {
+			// Each worker needs its own geometry builder and result lists
+			final WayLeafQuery leafQuery = new WayLeafQuery(tree);
+			tasks.add(new Runnable() {
+
+				@Override
+				public void run()
+				{
+					try {
+						work(leafQuery);
+					} catch (Throwable e) {
+						fail(e);
+					}
+				}
+			});
+		}
+
+		ParallelExecutor executor = new ParallelExecutor(tasks);
+		executor.execute();
+
+		if (failure != null) {
+			closeOutputs();
+			if (failure instanceof IOException) {
+				throw (IOException) failure;
+			}
+			throw new IOException("Error while distributing ways", failure);
+		}
+
+		finish();
+	}
+
+	private synchronized void fail(Throwable e)
+	{
+		if (failure == null) {
+			failure = e;
+		}
+		stopped = true;
+	}
+
+	private void closeOutputs()
+	{
+		// Release the files, the outputs are incomplete anyway
+		List<OsmStreamOutput> streams = new ArrayList<>();
+		streams.addAll(outputsWays.values());
+		streams.addAll(outputsNodes.values());
+		for (OsmStreamOutput output : streams) {
+			try {
+				output.close();
+			} catch (IOException e) {
+				// ignore, the original failure is more relevant
+			}
+		}
+	}
+
+	private void work(WayLeafQuery leafQuery)
+			throws IOException, InterruptedException
+	{
+		while (failure == null) {
+			int index = next.getAndIncrement();
+			if (index >= leafs.size()) {
+				return;
+			}
+			Node leaf = leafs.get(index);
+
+			long estimate = Math.round(inputSize(leaf) * expansion);
+			budget.acquire(estimate);
+			try {
+				process(load(leaf), leafQuery);
+			} finally {
+				budget.release(estimate);
+			}
+
+			stats(done.incrementAndGet());
+		}
+	}
+
+	@Override
+	protected void leafData(LeafData leafData) throws IOException
+	{
+		// The workers pass their own query, a query is not thread-safe
+		process(leafData, new WayLeafQuery(getTree()));
+	}
+
+	private void process(LeafData leafData, WayLeafQuery leafQuery)
+			throws IOException
+	{
+		OsmEntityProvider entityProvider = leafData.getNodeProvider();
+		for (OsmWay way : leafData.getDataWays()) {
+			if (failure != null) {
+				return;
+			}
+			build(leafData.getLeaf(), way, entityProvider, leafQuery);
+		}
+	}
+
+	@Override
+	protected void write(Node leaf, OsmWay way, TLongObjectMap<OsmNode> nodes)
+			throws IOException
+	{
+		OsmOutputStream wayOutput = outputsWays.get(leaf).getOsmOutput();
+		synchronized (wayOutput) {
+			wayOutput.write(way);
+		}
+
+		OsmOutputStream nodeOutput = outputsNodes.get(leaf).getOsmOutput();
+		synchronized (nodeOutput) {
+			for (OsmNode node : nodes.valueCollection()) {
+				nodeOutput.write(node);
+			}
+		}
+	}
+
+}
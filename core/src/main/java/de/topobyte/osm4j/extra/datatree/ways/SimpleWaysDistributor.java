@@ -48,7 +48,7 @@ public class SimpleWaysDistributor extends AbstractWaysDistributor
 	protected void leafData(LeafData leafData) throws IOException
 	{
 		OsmEntityProvider entityProvider = leafData.getNodeProvider();
-		for (OsmWay way : leafData.getDataWays().getWays()) {
+		for (OsmWay way : leafData.getDataWays()) {
 			build(leafData.getLeaf(), way, entityProvider);
 		}
 	}
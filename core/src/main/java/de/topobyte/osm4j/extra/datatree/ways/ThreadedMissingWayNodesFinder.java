@@ -41,6 +41,21 @@ public class ThreadedMissingWayNodesFinder extends
 				inputFormatWays);
 	}
 
+	// Leafs only need their node ids and way node references in memory,
+	// which allows to process a number of them concurrently
+	private int numThreads = Math.max(3,
+			Runtime.getRuntime().availableProcessors());
+
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	public void setNumThreads(int numThreads)
+	{
+		this.numThreads = numThreads;
+	}
+
 	@Override
 	public void execute() throws IOException
 	{
@@ -51,7 +66,8 @@ public class ThreadedMissingWayNodesFinder extends
 	public void processLeafs() throws IOException
 	{
 		BlockingQueue<Runnable> tasks = new ArrayBlockingQueue<>(10);
-		ThreadPoolExecutor exec = new ThreadPoolExecutor(3, 3, 1,
+		ThreadPoolExecutor exec = new ThreadPoolExecutor(numThreads,
+				numThreads, 1,
 				TimeUnit.MINUTES, tasks,
 				new ThreadPoolExecutor.CallerRunsPolicy());
 
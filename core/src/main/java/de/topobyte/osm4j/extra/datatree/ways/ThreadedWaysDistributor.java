@@ -130,7 +130,7 @@ public class ThreadedWaysDistributor extends AbstractWaysDistributor
 	private void processLeafData(LeafData leafData) throws IOException
 	{
 		OsmEntityProvider entityProvider = leafData.getNodeProvider();
-		for (OsmWay way : leafData.getDataWays().getWays()) {
+		for (OsmWay way : leafData.getDataWays()) {
 			build(leafData.getLeaf(), way, entityProvider);
 		}
 		bufferData.returnObject(leafData);
@@ -17,7 +17,6 @@
 
 package de.topobyte.osm4j.extra.datatree.ways;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -28,8 +27,6 @@ import java.util.List;
 import com.slimjars.dist.gnu.trove.map.TLongObjectMap;
 import com.slimjars.dist.gnu.trove.map.hash.TLongObjectHashMap;
 
-import de.topobyte.largescalefileio.ClosingFileOutputStreamFactory;
-import de.topobyte.largescalefileio.SimpleClosingFileOutputStreamFactory;
 import de.topobyte.osm4j.core.access.OsmIterator;
 import de.topobyte.osm4j.core.access.OsmOutputStream;
 import de.topobyte.osm4j.core.access.OsmOutputStreamStreamOutput;
@@ -39,6 +36,7 @@ import de.topobyte.osm4j.extra.datatree.DataTree;
 import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
 import de.topobyte.osm4j.extra.datatree.DataTreeOpener;
 import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.io.WriteBufferPool;
 import de.topobyte.osm4j.extra.threading.ObjectBuffer;
 import de.topobyte.osm4j.extra.threading.TaskRunnable;
 import de.topobyte.osm4j.extra.threading.write.WayWriteRequest;
@@ -113,6 +111,18 @@ public class ThreadedWaysToTreeMapper implements WaysToTreeMapper
 
 	private DataTree tree;
 
+	private WriteBufferPool writeBufferPool = new WriteBufferPool();
+
+	public WriteBufferPool getWriteBufferPool()
+	{
+		return writeBufferPool;
+	}
+
+	public void setWriteBufferPool(WriteBufferPool writeBufferPool)
+	{
+		this.writeBufferPool = writeBufferPool;
+	}
+
 	private TLongObjectMap<OsmStreamOutput> outputs = new TLongObjectHashMap<>();
 
 	private void prepare() throws IOException
@@ -124,12 +134,9 @@ public class ThreadedWaysToTreeMapper implements WaysToTreeMapper
 		List<Node> leafs = tree.getLeafs();
 
 		// Way outputs
-		ClosingFileOutputStreamFactory factoryOut = new SimpleClosingFileOutputStreamFactory();
-
 		for (Node leaf : leafs) {
 			File fileOutput = filesOutput.getFile(leaf);
-			OutputStream output = factoryOut.create(fileOutput);
-			output = new BufferedOutputStream(output);
+			OutputStream output = writeBufferPool.create(fileOutput);
 			OsmOutputStream osmOutput = OsmIoUtils.setupOsmOutput(output,
 					outputConfig, true);
 
@@ -0,0 +1,177 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.ways;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+
+import com.slimjars.dist.gnu.trove.map.TLongObjectMap;
+
+import de.topobyte.jts.utils.GeometryGroup;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.core.model.util.OsmModelUtil;
+import de.topobyte.osm4j.core.resolve.EntityNotFoundException;
+import de.topobyte.osm4j.core.resolve.OsmEntityProvider;
+import de.topobyte.osm4j.extra.QueryUtil;
+import de.topobyte.osm4j.extra.datatree.DataTree;
+import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.geometry.WayBuilder;
+import de.topobyte.osm4j.geometry.WayBuilderResult;
+
+/**
+ * Determines the set of leafs a way's geometry intersects. Each instance uses
+ * its own result lists, so that different threads can query the same tree
+ * using their own instances.
+ * 
+ * Most ways are small and lie within a single leaf, which is detected from
+ * the bounding box of their coordinates alone. Other ways are resolved by
+ * walking the tree along each of their segments. JTS geometries are only
+ * built for closed ways whose bounding box covers a complete leaf, as such a
+ * leaf might lie within the way's polygon without touching its outline.
+ */
+public class WayLeafQuery
+{
+
+	private Node root;
+
+	private GeometryFactory f = new GeometryFactory();
+	private WayBuilder wb = new WayBuilder(f);
+
+	public WayLeafQuery(DataTree tree)
+	{
+		root = tree.getRoot();
+	}
+
+	/**
+	 * Find the leafs intersected by the specified way and put the way's nodes
+	 * into the specified map.
+	 */
+	public List<Node> query(OsmWay way, TLongObjectMap<OsmNode> nodes,
+			OsmEntityProvider entityProvider) throws EntityNotFoundException
+	{
+		if (way.getNumberOfNodes() == 1) {
+			return buildSingleNodeWay(way, nodes, entityProvider);
+		}
+
+		int n = way.getNumberOfNodes();
+		double[] lons = new double[n];
+		double[] lats = new double[n];
+		Envelope envelope = new Envelope();
+		for (int i = 0; i < n; i++) {
+			long nodeId = way.getNodeId(i);
+			OsmNode node = entityProvider.getNode(nodeId);
+			nodes.put(nodeId, node);
+			lons[i] = node.getLongitude();
+			lats[i] = node.getLatitude();
+			envelope.expandToInclude(lons[i], lats[i]);
+		}
+
+		List<Node> candidates = new ArrayList<>();
+		root.query(candidates, envelope);
+		if (candidates.size() <= 1) {
+			return candidates;
+		}
+
+		boolean closed = n >= 4 && OsmModelUtil.isClosed(way);
+		if (closed) {
+			for (Node leaf : candidates) {
+				if (envelope.covers(leaf.getEnvelope())) {
+					return buildClosedWay(way, nodes, entityProvider);
+				}
+			}
+		}
+
+		Set<Node> leafs = new LinkedHashSet<>();
+		List<Node> results = new ArrayList<>();
+		for (int i = 1; i < n; i++) {
+			results.clear();
+			root.querySegment(results, lons[i - 1], lats[i - 1], lons[i],
+					lats[i]);
+			leafs.addAll(results);
+		}
+		return new ArrayList<>(leafs);
+	}
+
+	private List<Node> buildSingleNodeWay(OsmWay way,
+			TLongObjectMap<OsmNode> nodes, OsmEntityProvider entityProvider)
+			throws EntityNotFoundException
+	{
+		long nodeId = way.getNodeId(0);
+		OsmNode node = entityProvider.getNode(nodeId);
+		nodes.put(nodeId, node);
+		List<Node> leafs = new ArrayList<>();
+		if (root.getEnvelope().contains(node.getLongitude(),
+				node.getLatitude())) {
+			root.query(leafs, node.getLongitude(), node.getLatitude());
+		}
+		return leafs;
+	}
+
+	private List<Node> buildClosedWay(OsmWay way, TLongObjectMap<OsmNode> nodes,
+			OsmEntityProvider entityProvider) throws EntityNotFoundException
+	{
+		WayBuilderResult build = wb.build(way, entityProvider);
+		GeometryGroup group = build.toGeometryGroup(f);
+		LinearRing ring = build.getLinearRing();
+		Polygon polygon = f.createPolygon(ring);
+		QueryUtil.putNodes(way, nodes, entityProvider);
+
+		List<Node> leafs1 = new ArrayList<>();
+		root.query(leafs1, group);
+		List<Node> leafs2 = new ArrayList<>();
+		root.query(leafs2, polygon);
+		if (leafs1.size() == 1 && leafs2.size() == 1
+				&& leafs1.get(0) == leafs2.get(0)) {
+			return leafs1;
+		} else {
+			List<Node> merged = merge(leafs1, leafs2);
+			if (merged.size() > leafs1.size()) {
+				System.out.println(String.format(
+						"found way that contains leafs. outline: %d polygon: %d merged: %d",
+						leafs1.size(), leafs2.size(), merged.size()));
+			}
+			return merged;
+		}
+	}
+
+	private List<Node> merge(List<Node> a, List<Node> b)
+	{
+		List<Node> result = new ArrayList<>();
+		Set<Node> set = new HashSet<>();
+		for (Node node : a) {
+			result.add(node);
+			set.add(node);
+		}
+		for (Node node : b) {
+			if (!set.contains(node)) {
+				result.add(node);
+			}
+		}
+		return result;
+	}
+
+}
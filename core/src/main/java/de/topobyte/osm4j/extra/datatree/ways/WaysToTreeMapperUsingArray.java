@@ -18,15 +18,27 @@
 package de.topobyte.osm4j.extra.datatree.ways;
 
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.locationtech.jts.geom.Envelope;
 
+import com.slimjars.dist.gnu.trove.list.TLongList;
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+import com.slimjars.dist.gnu.trove.map.TLongObjectMap;
+import com.slimjars.dist.gnu.trove.map.hash.TLongObjectHashMap;
+
 import de.topobyte.largescalefileio.ClosingFileOutputStreamFactory;
 import de.topobyte.largescalefileio.SimpleClosingFileOutputStreamFactory;
 import de.topobyte.melon.io.StreamUtil;
@@ -39,18 +51,46 @@ import de.topobyte.osm4j.core.model.iface.EntityType;
 import de.topobyte.osm4j.core.model.iface.OsmNode;
 import de.topobyte.osm4j.core.model.iface.OsmWay;
 import de.topobyte.osm4j.core.model.impl.Bounds;
+import de.topobyte.osm4j.core.resolve.EntityNotFoundException;
+import de.topobyte.osm4j.core.resolve.OsmEntityProvider;
 import de.topobyte.osm4j.extra.datatree.DataTree;
 import de.topobyte.osm4j.extra.datatree.DataTreeOpener;
 import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.idlist.IdListOutputStream;
 import de.topobyte.osm4j.extra.nodearray.NodeArray;
+import de.topobyte.osm4j.extra.nodearray.NodeArrayEntityProvider;
 import de.topobyte.osm4j.extra.nodearray.NodeArrayInteger;
 import de.topobyte.osm4j.extra.progress.NodeProgress;
 import de.topobyte.osm4j.utils.OsmIoUtils;
 import de.topobyte.osm4j.utils.OsmOutputConfig;
-
+import de.topobyte.osm4j.utils.buffer.ParallelExecutor;
+
+/**
+ * Maps ways to the leafs of a tree by looking up the coordinates of their
+ * nodes in a node array.
+ * 
+ * Ways are read in chunks by a single thread and routed to leafs by a number
+ * of worker threads, each of which uses its own view on the node array. A
+ * single writer thread writes the routed chunks in input order, so that each
+ * leaf file receives its ways in the same order as the input.
+ * 
+ * By default, each way is written to the leafs containing the first of its
+ * nodes that lies within the tree. When a file name for missing node ids is
+ * configured, each way is written to all leafs its geometry intersects
+ * instead, and for each leaf the ids of the way nodes that lie outside of the
+ * leaf are collected in a sorted id list, ready to be used with the
+ * {@link MissingWayNodesExtractor}.
+ * 
+ * If any of the threads fails, the others stop waiting on the queues and the
+ * failure is rethrown from {@link #execute()}.
+ */
 public class WaysToTreeMapperUsingArray
 {
 
+	public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+	private static final WayChunk END = new WayChunk(-1);
+
 	private OsmIterator wayIterator;
 
 	private Path pathTree;
@@ -60,25 +100,90 @@ public class WaysToTreeMapperUsingArray
 
 	private OsmOutputConfig outputConfig;
 
+	private int numWorkers;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	private String fileNamesMissingNodeIds = null;
+
 	public WaysToTreeMapperUsingArray(OsmIterator wayIterator, Path pathTree,
 			String fileNames, Path pathNodeArray, OsmOutputConfig outputConfig)
+	{
+		this(wayIterator, pathTree, fileNames, pathNodeArray, outputConfig,
+				1);
+	}
+
+	public WaysToTreeMapperUsingArray(OsmIterator wayIterator, Path pathTree,
+			String fileNames, Path pathNodeArray, OsmOutputConfig outputConfig,
+			int numWorkers)
 	{
 		this.wayIterator = wayIterator;
 		this.pathTree = pathTree;
 		this.fileNames = fileNames;
 		this.pathNodeArray = pathNodeArray;
 		this.outputConfig = outputConfig;
+		this.numWorkers = numWorkers;
 	}
 
+	public int getChunkSize()
+	{
+		return chunkSize;
+	}
+
+	public void setChunkSize(int chunkSize)
+	{
+		this.chunkSize = chunkSize;
+	}
+
+	public String getFileNamesMissingNodeIds()
+	{
+		return fileNamesMissingNodeIds;
+	}
+
+	/**
+	 * Write ways to all leafs they intersect and store the ids of nodes
+	 * missing in each leaf to files with the specified name.
+	 */
+	public void setFileNamesMissingNodeIds(String fileNamesMissingNodeIds)
+	{
+		this.fileNamesMissingNodeIds = fileNamesMissingNodeIds;
+	}
+
+	private static class WayChunk
+	{
+
+		final int sequence;
+		final List<OsmWay> ways = new ArrayList<>();
+		final List<List<Node>> leafs = new ArrayList<>();
+		final List<List<long[]>> missing = new ArrayList<>();
+
+		WayChunk(int sequence)
+		{
+			this.sequence = sequence;
+		}
+
+	}
+
+	private DataTree tree;
+
+	private BlockingQueue<WayChunk> unrouted;
+	private BlockingQueue<WayChunk> routed;
+
+	private OsmStreamOutput outputNone;
+	private Map<Node, OsmStreamOutput> outputs = new HashMap<>();
+	private Map<Node, DataOutputStream> outputsIds = new HashMap<>();
+
+	private int nNone = 0;
+	private int nMultiple = 0;
+
+	private volatile Throwable failure = null;
+
+	private NodeProgress progress = new NodeProgress();
+
 	public void execute() throws IOException
 	{
-		/*
-		 * Tree, node array and way iterator
-		 */
+		tree = DataTreeOpener.open(pathTree.toFile());
 
-		NodeArray array = new NodeArrayInteger(pathNodeArray.toFile(), 1024,
-				4096);
-		DataTree tree = DataTreeOpener.open(pathTree.toFile());
+		boolean allLeafs = fileNamesMissingNodeIds != null;
 
 		// This is where we write ways to that do not contain any reference
 		// within the world bounds
@@ -88,15 +193,12 @@ public class WaysToTreeMapperUsingArray
 				.toFile());
 		OsmOutputStream osmOutputNone = OsmIoUtils.setupOsmOutput(bosNone,
 				outputConfig);
-		OsmStreamOutput outputNone = new OsmOutputStreamStreamOutput(bosNone,
-				osmOutputNone);
+		outputNone = new OsmOutputStreamStreamOutput(bosNone, osmOutputNone);
 
 		// Set up outputs
 
 		ClosingFileOutputStreamFactory outputStreamFactory = new SimpleClosingFileOutputStreamFactory();
 
-		Map<Node, OsmStreamOutput> outputs = new HashMap<>();
-
 		for (Node leaf : tree.getLeafs()) {
 			String dirname = Long.toHexString(leaf.getPath());
 			Path dir = pathTree.resolve(dirname);
@@ -113,16 +215,167 @@ public class WaysToTreeMapperUsingArray
 			Envelope box = leaf.getEnvelope();
 			osmOutput.write(new Bounds(box.getMinX(), box.getMaxX(), box
 					.getMaxY(), box.getMinY()));
+
+			if (allLeafs) {
+				Path fileIds = dir.resolve(unsortedIdsName());
+				OutputStream osIds = outputStreamFactory.create(fileIds
+						.toFile());
+				outputsIds.put(leaf, new DataOutputStream(
+						new BufferedOutputStream(osIds)));
+			}
 		}
 
 		// Process ways
 
-		int nNone = 0;
-		int nMultiple = 0;
+		unrouted = new ArrayBlockingQueue<>(numWorkers * 4);
+		routed = new ArrayBlockingQueue<>(numWorkers * 4);
+
+		List<Runnable> tasks = new ArrayList<>();
+		tasks.add(new Runnable() {
+
+			@Override
+			public void run()
+			{
+				try {
+					read();
+				} catch (Throwable e) {
+					fail(e);
+				}
+			}
+		});
+		for (int i = 0; i < numWorkers; i++) {
+			tasks.add(new Runnable() {
+
+				@Override
+				public void run()
+				{
+					try {
+						route();
+					} catch (Throwable e) {
+						fail(e);
+					}
+				}
+			});
+		}
+		tasks.add(new Runnable() {
+
+			@Override
+			public void run()
+			{
+				try {
+					write();
+				} catch (Throwable e) {
+					fail(e);
+				}
+			}
+		});
 
-		NodeProgress progress = new NodeProgress();
 		progress.printTimed(1000);
 
+		ParallelExecutor executor = new ParallelExecutor(tasks);
+		executor.execute();
+
+		progress.stop();
+
+		if (failure != null) {
+			closeOutputs();
+			if (failure instanceof IOException) {
+				throw (IOException) failure;
+			}
+			throw new IOException("Error while mapping ways", failure);
+		}
+
+		System.out.println("none: " + nNone);
+		System.out.println("multiple: " + nMultiple);
+
+		outputNone.getOsmOutput().complete();
+		outputNone.close();
+
+		for (OsmStreamOutput output : outputs.values()) {
+			output.getOsmOutput().complete();
+			output.close();
+		}
+
+		if (allLeafs) {
+			for (DataOutputStream output : outputsIds.values()) {
+				output.close();
+			}
+			sortMissingNodeIds();
+		}
+	}
+
+	private String unsortedIdsName()
+	{
+		return fileNamesMissingNodeIds + ".unsorted";
+	}
+
+	private synchronized void fail(Throwable e)
+	{
+		if (failure == null) {
+			failure = e;
+		}
+	}
+
+	private void closeOutputs()
+	{
+		// Release the files, the outputs are incomplete anyway
+		List<OsmStreamOutput> streams = new ArrayList<>();
+		streams.add(outputNone);
+		streams.addAll(outputs.values());
+		for (OsmStreamOutput output : streams) {
+			try {
+				output.close();
+			} catch (IOException e) {
+				// ignore, the original failure is more relevant
+			}
+		}
+		for (DataOutputStream output : outputsIds.values()) {
+			try {
+				output.close();
+			} catch (IOException e) {
+				// ignore, the original failure is more relevant
+			}
+		}
+	}
+
+	/**
+	 * Put the item into the queue, unless another thread fails while waiting
+	 * for space in the queue.
+	 * 
+	 * @return whether the item has been put into the queue.
+	 */
+	private <T> boolean put(BlockingQueue<T> queue, T item)
+			throws InterruptedException
+	{
+		while (failure == null) {
+			if (queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Take the next item from the queue, unless another thread fails while
+	 * waiting for an item.
+	 * 
+	 * @return the next item or null if another thread failed.
+	 */
+	private <T> T take(BlockingQueue<T> queue) throws InterruptedException
+	{
+		while (failure == null) {
+			T item = queue.poll(100, TimeUnit.MILLISECONDS);
+			if (item != null) {
+				return item;
+			}
+		}
+		return null;
+	}
+
+	private void read() throws InterruptedException
+	{
+		int sequence = 0;
+		WayChunk chunk = new WayChunk(sequence++);
 		while (wayIterator.hasNext()) {
 			EntityContainer container = wayIterator.next();
 			if (container.getType() != EntityType.Way) {
@@ -134,17 +387,161 @@ public class WaysToTreeMapperUsingArray
 				continue;
 			}
 
-			progress.increment();
+			chunk.ways.add(way);
+			if (chunk.ways.size() == chunkSize) {
+				if (!put(unrouted, chunk)) {
+					return;
+				}
+				chunk = new WayChunk(sequence++);
+			}
+		}
+		if (!chunk.ways.isEmpty()) {
+			if (!put(unrouted, chunk)) {
+				return;
+			}
+			chunk = new WayChunk(sequence++);
+		}
+
+		// If reading fails, the failure releases the other threads instead
+		for (int i = 0; i < numWorkers; i++) {
+			if (!put(unrouted, END)) {
+				return;
+			}
+		}
+		// An empty chunk tells the writer where the input ends
+		put(routed, new WayChunk(chunk.sequence));
+	}
 
-			List<Node> leafs = null;
-			for (int i = 0; i < way.getNumberOfNodes(); i++) {
-				long nodeId = way.getNodeId(i);
-				OsmNode node = array.get(nodeId);
-				leafs = tree.query(node.getLongitude(), node.getLatitude());
-				if (!leafs.isEmpty()) {
-					break;
+	private void route() throws IOException, InterruptedException
+	{
+		// The node array is not thread-safe, each worker uses its own
+		NodeArray array = new NodeArrayInteger(pathNodeArray.toFile(), 1024,
+				4096);
+		OsmEntityProvider entityProvider = new NodeArrayEntityProvider(array);
+		WayLeafQuery leafQuery = new WayLeafQuery(tree);
+		try {
+			while (true) {
+				WayChunk chunk = take(unrouted);
+				if (chunk == null || chunk == END) {
+					return;
+				}
+				for (OsmWay way : chunk.ways) {
+					if (fileNamesMissingNodeIds == null) {
+						chunk.leafs.add(route(array, way));
+						continue;
+					}
+					List<Node> leafs = routeAll(array, entityProvider,
+							leafQuery, way);
+					List<long[]> missing = new ArrayList<>(leafs.size());
+					for (Node leaf : leafs) {
+						missing.add(missingIds(array, leaf, way));
+					}
+					chunk.leafs.add(leafs);
+					chunk.missing.add(missing);
+				}
+				if (!put(routed, chunk)) {
+					return;
 				}
 			}
+		} finally {
+			array.close();
+		}
+	}
+
+	private List<Node> route(NodeArray array, OsmWay way) throws IOException
+	{
+		// DataTree.query() reuses a single result list, which is neither
+		// thread-safe nor suitable to keep, hence query the nodes directly
+		Node root = tree.getRoot();
+		List<Node> leafs = new ArrayList<>(1);
+		for (int i = 0; i < way.getNumberOfNodes(); i++) {
+			long nodeId = way.getNodeId(i);
+			// Ways may reference nodes missing in the input, even beyond the
+			// highest id of the array
+			if (array.supportsContainment() && !array.contains(nodeId)) {
+				continue;
+			}
+			OsmNode node = array.get(nodeId);
+			double lon = node.getLongitude();
+			double lat = node.getLatitude();
+			if (root.getEnvelope().contains(lon, lat)) {
+				root.query(leafs, lon, lat);
+			}
+			if (!leafs.isEmpty()) {
+				break;
+			}
+		}
+		return leafs;
+	}
+
+	private List<Node> routeAll(NodeArray array,
+			OsmEntityProvider entityProvider, WayLeafQuery leafQuery,
+			OsmWay way) throws IOException
+	{
+		TLongObjectMap<OsmNode> nodes = new TLongObjectHashMap<>();
+		try {
+			return leafQuery.query(way, nodes, entityProvider);
+		} catch (EntityNotFoundException e) {
+			// Incomplete ways cannot be built, fall back to their nodes
+			return route(array, way);
+		}
+	}
+
+	/**
+	 * Get the ids of the way's nodes that are not located in the interior of
+	 * the leaf. Nodes on the leaf's boundary are included, because they might
+	 * have been assigned to a neighboring leaf only.
+	 */
+	private long[] missingIds(NodeArray array, Node leaf, OsmWay way)
+			throws IOException
+	{
+		Envelope envelope = leaf.getEnvelope();
+		TLongList ids = new TLongArrayList();
+		for (int i = 0; i < way.getNumberOfNodes(); i++) {
+			long nodeId = way.getNodeId(i);
+			if (array.supportsContainment() && !array.contains(nodeId)) {
+				continue;
+			}
+			OsmNode node = array.get(nodeId);
+			double lon = node.getLongitude();
+			double lat = node.getLatitude();
+			if (lon > envelope.getMinX() && lon < envelope.getMaxX()
+					&& lat > envelope.getMinY() && lat < envelope.getMaxY()) {
+				continue;
+			}
+			ids.add(nodeId);
+		}
+		return ids.toArray();
+	}
+
+	private void write() throws IOException, InterruptedException
+	{
+		// Chunks arrive in any order, buffer them until it is their turn
+		Map<Integer, WayChunk> pending = new HashMap<>();
+		int next = 0;
+		while (true) {
+			WayChunk chunk = pending.remove(next);
+			if (chunk == null) {
+				chunk = take(routed);
+				if (chunk == null) {
+					return;
+				}
+				pending.put(chunk.sequence, chunk);
+				continue;
+			}
+			if (chunk.ways.isEmpty()) {
+				return;
+			}
+			write(chunk);
+			next++;
+		}
+	}
+
+	private void write(WayChunk chunk) throws IOException
+	{
+		for (int i = 0; i < chunk.ways.size(); i++) {
+			OsmWay way = chunk.ways.get(i);
+			List<Node> leafs = chunk.leafs.get(i);
 
 			if (leafs.size() == 0) {
 				outputNone.getOsmOutput().write(way);
@@ -159,21 +556,56 @@ public class WaysToTreeMapperUsingArray
 				OsmStreamOutput output = outputs.get(leaf);
 				output.getOsmOutput().write(way);
 			}
-		}
-
-		progress.stop();
 
-		System.out.println("none: " + nNone);
-		System.out.println("multiple: " + nMultiple);
+			if (fileNamesMissingNodeIds == null) {
+				continue;
+			}
+			List<long[]> missing = chunk.missing.get(i);
+			for (int k = 0; k < leafs.size(); k++) {
+				DataOutputStream output = outputsIds.get(leafs.get(k));
+				for (long id : missing.get(k)) {
+					output.writeLong(id);
+				}
+			}
+		}
+		progress.increment(chunk.ways.size());
+	}
 
-		array.close();
+	private void sortMissingNodeIds() throws IOException
+	{
+		System.out.println("Sorting missing node ids");
 
-		outputNone.getOsmOutput().complete();
-		outputNone.close();
+		for (Node leaf : tree.getLeafs()) {
+			String dirname = Long.toHexString(leaf.getPath());
+			Path dir = pathTree.resolve(dirname);
+			Path fileUnsorted = dir.resolve(unsortedIdsName());
+			Path file = dir.resolve(fileNamesMissingNodeIds);
+
+			int n = (int) (Files.size(fileUnsorted) / 8);
+			TLongList ids = new TLongArrayList(n);
+			DataInputStream input = new DataInputStream(
+					StreamUtil.bufferedInputStream(fileUnsorted.toFile()));
+			for (int i = 0; i < n; i++) {
+				ids.add(input.readLong());
+			}
+			input.close();
+
+			ids.sort();
+
+			OutputStream output = StreamUtil.bufferedOutputStream(file
+					.toFile());
+			IdListOutputStream idOutput = new IdListOutputStream(output);
+			long last = -1;
+			for (int i = 0; i < ids.size(); i++) {
+				long id = ids.get(i);
+				if (id != last) {
+					idOutput.write(id);
+					last = id;
+				}
+			}
+			idOutput.close();
 
-		for (OsmStreamOutput output : outputs.values()) {
-			output.getOsmOutput().complete();
-			output.close();
+			Files.delete(fileUnsorted);
 		}
 	}
 
@@ -0,0 +1,186 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.extracts;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.topobyte.osm4j.extra.threading.StageScheduler;
+
+/**
+ * Determines the stages of a {@link StageScheduler} that have been completed
+ * by a previous build, based on the {@link StageManifest}s of the stages.
+ * 
+ * A stage is complete if it has a manifest that matches the current
+ * parameters and all stages it depends on are complete. Later stages may
+ * delete or rewrite the outputs of earlier ones, hence the outputs of a
+ * stage only need to be intact if a stage that reads them is run again.
+ * Stages that resume on their own leaf by leaf do not need intact inputs as
+ * long as they are resumed, i.e. as long as they have been interrupted and
+ * all of their dependencies are complete.
+ */
+public class CompletedStagesFinder
+{
+
+	private StageScheduler scheduler;
+	private Path pathStages;
+	private Path pathBase;
+	private String parameters;
+
+	private Set<String> resumable = new HashSet<>();
+
+	/**
+	 * @param pathStages
+	 *            the directory containing the manifests.
+	 * @param pathBase
+	 *            the directory the outputs recorded in the manifests are
+	 *            relative to.
+	 * @param parameters
+	 *            the parameters of the current build.
+	 */
+	public CompletedStagesFinder(StageScheduler scheduler, Path pathStages,
+			Path pathBase, String parameters)
+	{
+		this.scheduler = scheduler;
+		this.pathStages = pathStages;
+		this.pathBase = pathBase;
+		this.parameters = parameters;
+	}
+
+	public static Path getManifestPath(Path pathStages, String stage)
+	{
+		return pathStages.resolve(stage.replaceAll("[^A-Za-z0-9]+", "-")
+				+ ".manifest");
+	}
+
+	/**
+	 * Declare that the specified stage skips the work it has done before
+	 * when it is run again.
+	 */
+	public void addResumable(String stage)
+	{
+		resumable.add(stage);
+	}
+
+	private Map<String, StageManifest> manifests = new HashMap<>();
+	private Set<String> recorded = new HashSet<>();
+	private Set<String> complete = new LinkedHashSet<>();
+
+	/**
+	 * Get the manifest of the specified stage, available for complete stages
+	 * after {@link #find()} has been called.
+	 */
+	public StageManifest getManifest(String stage)
+	{
+		return manifests.get(stage);
+	}
+
+	/**
+	 * Find the complete stages, in the order of the scheduler.
+	 */
+	public Set<String> find() throws IOException
+	{
+		List<String> stages = scheduler.getStages();
+
+		for (String stage : stages) {
+			Path path = getManifestPath(pathStages, stage);
+			if (!Files.exists(path)) {
+				continue;
+			}
+			StageManifest manifest = StageManifest.read(path);
+			if (!manifest.getParameters().equals(parameters)) {
+				System.out.println(String.format(
+						"Stage '%s' has been run with different parameters",
+						stage));
+				continue;
+			}
+			manifests.put(stage, manifest);
+			recorded.add(stage);
+			complete.add(stage);
+		}
+
+		// Removing a stage may invalidate the stages it depends on as well
+		// as those depending on it
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (String stage : stages) {
+				if (complete.contains(stage) && !isComplete(stage)) {
+					complete.remove(stage);
+					changed = true;
+				}
+			}
+		}
+
+		manifests.keySet().retainAll(complete);
+		return complete;
+	}
+
+	private boolean isComplete(String stage)
+	{
+		for (String dependency : scheduler.getDependencies(stage)) {
+			if (!complete.contains(dependency)) {
+				return false;
+			}
+		}
+		StageManifest manifest = manifests.get(stage);
+		for (String data : scheduler.getOutputs(stage)) {
+			if (isRead(stage, data) && !manifest.isIntact(pathBase, data)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether the specified data written by the specified stage will
+	 * be read by a stage that is run again.
+	 */
+	private boolean isRead(String stage, String data)
+	{
+		for (String reader : scheduler.getReaders(stage, data)) {
+			if (complete.contains(reader)) {
+				continue;
+			}
+			if (resumable.contains(reader) && isResumed(reader)) {
+				continue;
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Check whether the specified stage will be resumed rather than run
+	 * from scratch. A stage that has been completed before but is run again
+	 * has consumed its inputs completely and can not be resumed.
+	 */
+	public boolean isResumed(String stage)
+	{
+		return !recorded.contains(stage)
+				&& complete.containsAll(scheduler.getDependencies(stage));
+	}
+
+}
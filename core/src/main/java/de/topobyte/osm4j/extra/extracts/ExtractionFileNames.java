@@ -39,6 +39,8 @@ public class ExtractionFileNames
 	private String simpleRelationsEmpty;
 	private String complexRelationsEmpty;
 
+	private String idIndex = "ids";
+
 	private TreeFileNames treeNames;
 	private BatchFileNames relationNames;
 
@@ -167,6 +169,16 @@ public class ExtractionFileNames
 		this.complexRelationsEmpty = complexRelationsEmpty;
 	}
 
+	public String getIdIndex()
+	{
+		return idIndex;
+	}
+
+	public void setIdIndex(String idIndex)
+	{
+		this.idIndex = idIndex;
+	}
+
 	public TreeFileNames getTreeNames()
 	{
 		return treeNames;
@@ -21,44 +21,64 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
 
 import de.topobyte.adt.geo.BBox;
 import de.topobyte.adt.geo.BBoxString;
 import de.topobyte.osm4j.core.access.OsmInputException;
+import de.topobyte.osm4j.core.access.OsmIterator;
 import de.topobyte.osm4j.core.access.OsmIteratorInput;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.EntityType;
 import de.topobyte.osm4j.core.model.iface.OsmBounds;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
 import de.topobyte.osm4j.extra.batch.BatchFilesUtil;
 import de.topobyte.osm4j.extra.datatree.DataTree;
 import de.topobyte.osm4j.extra.datatree.DataTreeBoxGeometryCreator;
 import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
 import de.topobyte.osm4j.extra.datatree.DataTreeUtil;
+import de.topobyte.osm4j.extra.datatree.locations.WayLocationsUtil;
+import de.topobyte.osm4j.extra.datatree.merge.FusedTreeFilesMerger;
 import de.topobyte.osm4j.extra.datatree.merge.ThreadedTreeFilesMerger;
-import de.topobyte.osm4j.extra.datatree.merge.TreeFilesMerger;
 import de.topobyte.osm4j.extra.datatree.nodetree.NodeTreeCreatorMaxNodes;
 import de.topobyte.osm4j.extra.datatree.nodetree.count.NodeTreeLeafCounterFactory;
-import de.topobyte.osm4j.extra.datatree.nodetree.count.ThreadedNodeTreeLeafCounterFactory;
+import de.topobyte.osm4j.extra.datatree.nodetree.count.ParallelNodeTreeLeafCounterFactory;
 import de.topobyte.osm4j.extra.datatree.nodetree.distribute.NodeTreeDistributorFactory;
 import de.topobyte.osm4j.extra.datatree.nodetree.distribute.ThreadedNodeTreeDistributorFactory;
-import de.topobyte.osm4j.extra.datatree.output.ClosingDataTreeOutputFactory;
+import de.topobyte.osm4j.extra.datatree.output.PooledDataTreeOutputFactory;
 import de.topobyte.osm4j.extra.datatree.output.DataTreeOutputFactory;
+import de.topobyte.osm4j.extra.datatree.shared.SharedWaysSeparator;
+import de.topobyte.osm4j.extra.datatree.shared.SharedWaysUtil;
 import de.topobyte.osm4j.extra.datatree.sort.TreeFileSorter;
+import de.topobyte.osm4j.extra.datatree.spatial.SpatialIndex;
 import de.topobyte.osm4j.extra.datatree.ways.MissingWayNodesExtractor;
 import de.topobyte.osm4j.extra.datatree.ways.MissingWayNodesFinder;
+import de.topobyte.osm4j.extra.datatree.ways.ParallelWaysDistributor;
 import de.topobyte.osm4j.extra.datatree.ways.ThreadedMissingWayNodesFinder;
-import de.topobyte.osm4j.extra.datatree.ways.ThreadedWaysDistributor;
 import de.topobyte.osm4j.extra.datatree.ways.ThreadedWaysToTreeMapper;
 import de.topobyte.osm4j.extra.datatree.ways.WaysDistributor;
-import de.topobyte.osm4j.extra.datatree.ways.WaysToTreeMapper;
+import de.topobyte.osm4j.extra.datatree.ways.WaysToTreeMapperUsingArray;
 import de.topobyte.osm4j.extra.idbboxlist.IdBboxListGeometryCreator;
+import de.topobyte.osm4j.extra.idlocation.IdIndexBuilder;
+import de.topobyte.osm4j.extra.io.WriteBufferPool;
+import de.topobyte.osm4j.extra.nodearray.NodeArrayCreator;
+import de.topobyte.osm4j.extra.nodearray.NodeArrayType;
 import de.topobyte.osm4j.extra.relations.ComplexRelationsDistributor;
 import de.topobyte.osm4j.extra.relations.NonTreeRelationsSplitter;
 import de.topobyte.osm4j.extra.relations.RelationsMemberCollector;
 import de.topobyte.osm4j.extra.relations.RelationsSeparator;
 import de.topobyte.osm4j.extra.relations.RelationsSplitterAndMemberCollector;
 import de.topobyte.osm4j.extra.relations.SimpleRelationsDistributor;
+import de.topobyte.osm4j.extra.threading.BroadcastScan;
+import de.topobyte.osm4j.extra.threading.IteratorConsumer;
+import de.topobyte.osm4j.extra.threading.MemoryBudget;
+import de.topobyte.osm4j.extra.threading.MemoryEstimate;
+import de.topobyte.osm4j.extra.threading.StageScheduler;
+import de.topobyte.osm4j.extra.threading.Task;
 import de.topobyte.osm4j.extra.ways.ThreadedWaysSorterByFirstNodeId;
 import de.topobyte.osm4j.extra.ways.WaysSorterByFirstNodeId;
 import de.topobyte.osm4j.utils.FileFormat;
@@ -75,16 +95,18 @@ public class ExtractionFilesBuilder
 {
 
 	private static final String KEY_TOTAL = "total";
+	private static final String KEY_BOUNDS = "determine bounds";
 	private static final String KEY_SPLIT = "split";
 	private static final String KEY_COMPUTE_BBOX = "compute bbox";
 	private static final String KEY_NODE_TREE = "build nodetree";
 	private static final String KEY_SORT_WAYS = "sort ways by first node id";
+	private static final String KEY_NODE_ARRAY = "create node array";
+	private static final String KEY_MAP_WAYS_ARRAY = "map ways to tree using node array";
 	private static final String KEY_MAP_WAYS = "map ways to tree";
 	private static final String KEY_FIND_MISSING_WAY_NODES = "find missing way nodes";
 	private static final String KEY_EXTRACT_MISSING_WAY_NODES = "extract missing way nodes";
 	private static final String KEY_DISTRIBUTE_WAYS = "distribute ways";
-	private static final String KEY_MERGE_NODES = "merge tree node files";
-	private static final String KEY_MERGE_WAYS = "merge tree way files";
+	private static final String KEY_MERGE = "merge tree node and way files";
 	private static final String KEY_SEPARATE_RELATIONS = "separate simple/complex relations";
 	private static final String KEY_SPLIT_RELATIONS = "split relations, collect members";
 	private static final String KEY_DISTRIBUTE_RELATIONS = "distribute relations";
@@ -92,10 +114,35 @@ public class ExtractionFilesBuilder
 	private static final String KEY_SORT_RELATIONS = "sort non-tree relations";
 	private static final String KEY_CLEAN_UP = "clean up";
 	private static final String KEY_CREATE_GEOMETRIES = "create geometries";
+	private static final String KEY_SHARED_WAYS = "separate shared ways";
+	private static final String KEY_ID_INDEX = "build id index";
+
+	// Data read and written by the stages, used to derive the order of stages
+	private static final String DATA_BOUNDS = "bounds";
+	private static final String DATA_SPLIT = "split files";
+	private static final String DATA_TREE_LAYOUT = "tree layout";
+	private static final String DATA_INITIAL_NODES = "initial nodes";
+	private static final String DATA_INITIAL_WAYS = "initial ways";
+	private static final String DATA_MISSING_NODE_IDS = "missing node ids";
+	private static final String DATA_MISSING_NODES = "missing nodes";
+	private static final String DATA_DISTRIBUTED_WAYS = "distributed ways";
+	private static final String DATA_TREE = "tree";
+	private static final String DATA_TREE_RELATIONS = "tree relations";
+	private static final String DATA_NODE_ARRAY = "node array";
+	private static final String DATA_WAYS_BY_NODES = "ways by nodes";
+	private static final String DATA_RELATIONS = "relations";
+	private static final String DATA_RELATION_BATCHES = "relation batches";
+	private static final String DATA_NON_TREE_RELATIONS = "non-tree relations";
+	private static final String DATA_SORTED_RELATIONS = "sorted relations";
+	private static final String DATA_GEOMETRIES = "geometries";
+	private static final String DATA_ID_INDEX = "id index";
 
 	private static final int SPLIT_INITIAL = 20;
 	private static final int SPLIT_ITERATION = 8;
 
+	public static final int DEFAULT_PLANNING_RESOLUTION = 22;
+	public static final int DEFAULT_MAX_NODES_IN_MEMORY = 5000000;
+
 	private Path pathInput;
 	private FileFormat inputFormat;
 	private Path pathOutput;
@@ -134,6 +181,12 @@ public class ExtractionFilesBuilder
 	private Path pathSimpleRelationsSortedGeometry;
 	private Path pathComplexRelationsSortedGeometry;
 
+	private Path pathIdIndex;
+
+	private Path pathNodeArray;
+
+	private Path pathStages;
+
 	private boolean keepSplittedNodes = false;
 	private boolean keepSplittedWays = false;
 	private boolean keepSplittedRelations = false;
@@ -143,6 +196,14 @@ public class ExtractionFilesBuilder
 	private boolean keepNonTreeRelations = false;
 	private boolean keepUnsortedRelations = false;
 
+	private int fanout = DataTree.DEFAULT_FANOUT;
+	private int planningResolution = DEFAULT_PLANNING_RESOLUTION;
+	private int maxNodesInMemory = DEFAULT_MAX_NODES_IN_MEMORY;
+	private boolean buildIdIndex = false;
+	private boolean useNodeArray = false;
+	private boolean writeWayLocations = false;
+	private boolean separateSharedWays = false;
+
 	private TimeTable t = new TimeTable();
 
 	private OsmFileInput fileInput;
@@ -253,6 +314,12 @@ public class ExtractionFilesBuilder
 		pathSimpleRelationsSortedGeometry = pathOutput.resolve("simple.wkt");
 		pathComplexRelationsSortedGeometry = pathOutput.resolve("complex.wkt");
 
+		pathIdIndex = pathOutput.resolve(fileNames.getIdIndex());
+
+		pathNodeArray = pathOutput.resolve("nodes.array");
+
+		pathStages = pathOutput.resolve("stages");
+
 		fileInput = new OsmFileInput(pathInput, inputFormat);
 
 		fileInputNodes = new OsmFileInput(pathNodes, outputFormat);
@@ -302,30 +369,444 @@ public class ExtractionFilesBuilder
 	{
 		t.start(KEY_TOTAL);
 
-		determineBounds();
-		splitEntities();
-		calculateBoundingBox();
-		buildNodeTree();
-		sortWays();
-		mapWaysToTree();
-		findMissingWayNodes();
-		extractMissingWayNodes();
-		distributeWays();
-		mergeNodes();
-		mergeWays();
-		separateRelations();
-		splitRelations();
-		distributeRelations();
-		sortComplexTreeRelations();
-		sortNonTreeRelations();
-		cleanUp();
-		createGeometries();
+		int numThreads = Math.max(1,
+				Runtime.getRuntime().availableProcessors() - 1);
+		budget = MemoryBudget.ofMaxMemory(0.5);
+		// One pool for all stages writing many tree files, so that their
+		// write buffers share a single budget
+		writeBufferPool = new WriteBufferPool();
+
+		// Stages that use the shared budget or the pool declare only the
+		// memory they occupy outside of them
+		StageScheduler scheduler = new StageScheduler(
+				Runtime.getRuntime().availableProcessors(),
+				Runtime.getRuntime().maxMemory() - budget.getBudget()
+						- writeBufferPool.getBudget());
+		int sortWorkers = Math.min(4, numThreads);
+
+		// @formatter:off
+		addStage(scheduler, KEY_BOUNDS, 1,
+				data(),
+				data(DATA_BOUNDS));
+		addStage(scheduler, KEY_SPLIT, numThreads,
+				data(),
+				data(DATA_SPLIT, DATA_BOUNDS));
+		addStage(scheduler, KEY_COMPUTE_BBOX, 1,
+				data(DATA_SPLIT),
+				data(DATA_BOUNDS));
+		addStage(scheduler, KEY_NODE_TREE, numThreads,
+				memory(estimateNodeTreeMemory(numThreads)),
+				data(DATA_BOUNDS, DATA_SPLIT),
+				isNodeArrayPlanned()
+						? data(DATA_TREE_LAYOUT, DATA_INITIAL_NODES,
+								DATA_NODE_ARRAY)
+						: data(DATA_TREE_LAYOUT, DATA_INITIAL_NODES));
+		if (useNodeArray) {
+			addStage(scheduler, KEY_NODE_ARRAY, 1,
+					data(DATA_SPLIT),
+					data(DATA_NODE_ARRAY));
+			addStage(scheduler, KEY_MAP_WAYS_ARRAY, numThreads,
+					data(DATA_SPLIT, DATA_NODE_ARRAY, DATA_TREE_LAYOUT),
+					data(DATA_INITIAL_WAYS, DATA_MISSING_NODE_IDS,
+							DATA_NODE_ARRAY));
+			addStage(scheduler, KEY_EXTRACT_MISSING_WAY_NODES, numThreads,
+					data(DATA_SPLIT, DATA_TREE_LAYOUT, DATA_MISSING_NODE_IDS),
+					data(DATA_MISSING_NODES, DATA_MISSING_NODE_IDS));
+		} else {
+			// Runs once the node tree is built, which occupies all threads
+			// but one that is left to the single threaded relation stages
+			addStage(scheduler, KEY_SORT_WAYS, sortWorkers,
+					memory(ThreadedWaysSorterByFirstNodeId.estimateMemory(
+							sortWorkers, includeMetadata)),
+					data(DATA_SPLIT),
+					data(DATA_WAYS_BY_NODES));
+			addStage(scheduler, KEY_MAP_WAYS, numThreads,
+					data(DATA_SPLIT, DATA_WAYS_BY_NODES, DATA_TREE_LAYOUT),
+					data(DATA_INITIAL_WAYS, DATA_WAYS_BY_NODES));
+			addStage(scheduler, KEY_FIND_MISSING_WAY_NODES, numThreads,
+					data(DATA_TREE_LAYOUT, DATA_INITIAL_NODES,
+							DATA_INITIAL_WAYS),
+					data(DATA_MISSING_NODE_IDS));
+			addStage(scheduler, KEY_EXTRACT_MISSING_WAY_NODES, numThreads,
+					data(DATA_SPLIT, DATA_TREE_LAYOUT, DATA_MISSING_NODE_IDS),
+					data(DATA_MISSING_NODES, DATA_MISSING_NODE_IDS));
+			addStage(scheduler, KEY_DISTRIBUTE_WAYS, numThreads,
+					data(DATA_TREE_LAYOUT, DATA_INITIAL_NODES,
+							DATA_MISSING_NODES, DATA_INITIAL_WAYS),
+					data(DATA_DISTRIBUTED_WAYS));
+		}
+		// Deletes its inputs leaf by leaf
+		addStage(scheduler, KEY_MERGE, numThreads,
+				data(DATA_TREE_LAYOUT, DATA_INITIAL_NODES, DATA_MISSING_NODES,
+						DATA_INITIAL_WAYS, DATA_DISTRIBUTED_WAYS),
+				data(DATA_TREE, DATA_INITIAL_NODES, DATA_MISSING_NODES,
+						DATA_INITIAL_WAYS, DATA_DISTRIBUTED_WAYS));
+		addStage(scheduler, KEY_SEPARATE_RELATIONS, 1,
+				data(DATA_SPLIT),
+				data(DATA_RELATIONS));
+		addStage(scheduler, KEY_SPLIT_RELATIONS, 1,
+				new MemoryEstimate() {
+
+					@Override
+					public long getBytes() throws IOException
+					{
+						// Complex relations are held in memory for grouping
+						if (!Files.exists(pathComplexRelations)) {
+							return 0;
+						}
+						return Math.round(Files.size(pathComplexRelations)
+								* TreeFileSorter.DEFAULT_EXPANSION);
+					}
+				},
+				data(DATA_SPLIT, DATA_RELATIONS),
+				data(DATA_RELATIONS, DATA_RELATION_BATCHES));
+		addStage(scheduler, KEY_DISTRIBUTE_RELATIONS, 1,
+				data(DATA_TREE_LAYOUT, DATA_RELATION_BATCHES),
+				data(DATA_TREE_RELATIONS, DATA_NON_TREE_RELATIONS));
+		addStage(scheduler, KEY_SORT_COMPLEX_RELATIONS, numThreads,
+				data(DATA_TREE_LAYOUT, DATA_TREE_RELATIONS),
+				data(DATA_TREE_RELATIONS));
+		addStage(scheduler, KEY_SORT_RELATIONS, 1,
+				data(DATA_NON_TREE_RELATIONS, DATA_RELATION_BATCHES),
+				data(DATA_RELATION_BATCHES, DATA_SORTED_RELATIONS));
+		addStage(scheduler, KEY_CLEAN_UP, 1,
+				data(),
+				data(DATA_SPLIT, DATA_NON_TREE_RELATIONS));
+		addStage(scheduler, KEY_CREATE_GEOMETRIES, 1,
+				data(DATA_TREE_LAYOUT, DATA_SORTED_RELATIONS),
+				data(DATA_GEOMETRIES));
+		addStage(scheduler, KEY_SHARED_WAYS, 1,
+				data(DATA_TREE_LAYOUT, DATA_TREE),
+				data(DATA_TREE));
+		addStage(scheduler, KEY_ID_INDEX, 1,
+				data(DATA_TREE_LAYOUT, DATA_TREE, DATA_TREE_RELATIONS,
+						DATA_SORTED_RELATIONS),
+				data(DATA_ID_INDEX));
+		// @formatter:on
+
+		for (String stage : scheduler.getStages()) {
+			t.setDependencies(stage, scheduler.getDependencies(stage));
+		}
+
+		parameters = createParameters();
+		Files.createDirectories(pathStages);
+		if (continuePreviousBuild) {
+			skipCompletedStages(scheduler);
+		}
+
+		scheduler.execute();
 
 		t.stop(KEY_TOTAL);
 		printInfo();
+		printCriticalPath();
+	}
+
+	private MemoryBudget budget;
+	private WriteBufferPool writeBufferPool;
+
+	private static String[] data(String... names)
+	{
+		return names;
+	}
+
+	private static MemoryEstimate memory(final long bytes)
+	{
+		return new MemoryEstimate() {
+
+			@Override
+			public long getBytes()
+			{
+				return bytes;
+			}
+		};
+	}
+
+	/**
+	 * Estimate the memory occupied by building the node tree outside of the
+	 * shared budget: the density rasters of the planning pass and the nodes
+	 * of a leaf that is split in memory.
+	 */
+	private long estimateNodeTreeMemory(int numThreads)
+	{
+		long bytes = maxNodesInMemory * 128L;
+		if (planningResolution > 0) {
+			// A raster of sums and a raster of counters per thread
+			bytes += (1L << planningResolution) * (8 + 4 * numThreads);
+		}
+		return bytes;
+	}
+
+	private void addStage(StageScheduler scheduler, String key, int threads,
+			String[] inputs, String[] outputs)
+	{
+		addStage(scheduler, key, threads, memory(0), inputs, outputs);
+	}
+
+	private void addStage(StageScheduler scheduler, final String key,
+			int threads, MemoryEstimate memory, final String[] inputs,
+			final String[] outputs)
+	{
+		scheduler.add(key, threads, memory, inputs, outputs, new Task() {
+
+			@Override
+			public void execute() throws IOException
+			{
+				try {
+					executeStage(key);
+				} catch (OsmInputException e) {
+					throw new IOException(e);
+				}
+				writeManifest(key, inputs, outputs);
+			}
+		});
+	}
+
+	private static final String VALUE_BBOX = "bbox";
+
+	private String parameters;
+	private boolean resumeMerge = false;
+
+	/**
+	 * Describe the input and the parameters that influence the results of
+	 * the stages. Manifests created with different parameters are not valid
+	 * for the current build.
+	 */
+	private String createParameters() throws IOException
+	{
+		return String.format("input=%s (%d bytes), format=%s, maxNodes=%d,"
+				+ " metadata=%b, maxMembersSimple=%d, maxMembersComplex=%d,"
+				+ " computeBbox=%b, fanout=%d, planningResolution=%d,"
+				+ " maxNodesInMemory=%d, nodeArray=%b, wayLocations=%b,"
+				+ " sharedWays=%b, idIndex=%b", pathInput.toAbsolutePath(),
+				Files.size(pathInput), outputFormat, maxNodes, includeMetadata,
+				maxMembersSimple, maxMembersComplex, computeBbox, fanout,
+				planningResolution, maxNodesInMemory, useNodeArray,
+				writeWayLocations, separateSharedWays, buildIdIndex);
+	}
+
+	private Path getManifestPath(String key)
+	{
+		return CompletedStagesFinder.getManifestPath(pathStages, key);
+	}
+
+	/**
+	 * Get the files that make up the specified data. Each file belongs to
+	 * exactly one data, so that each stage records only the files of the
+	 * data it writes.
+	 */
+	private List<Path> getDataFiles(String data) throws IOException
+	{
+		switch (data) {
+		default:
+			return new ArrayList<>();
+		case DATA_SPLIT:
+			return Arrays.asList(pathNodes, pathWays, pathRelations);
+		case DATA_TREE_LAYOUT:
+			return Arrays.asList(pathTree.resolve(DataTree.FILENAME_INFO));
+		case DATA_INITIAL_NODES:
+			return getLeafFiles(fileNamesInitialNodes);
+		case DATA_INITIAL_WAYS:
+			return getLeafFiles(fileNamesInitialWays);
+		case DATA_MISSING_NODE_IDS:
+			return getLeafFiles(fileNamesMissingWayNodeIds);
+		case DATA_MISSING_NODES:
+			return getLeafFiles(fileNamesMissingNodes);
+		case DATA_DISTRIBUTED_WAYS:
+			return getLeafFiles(fileNamesDistributedWays,
+					fileNamesDistributedNodes);
+		case DATA_TREE: {
+			List<Path> files = getLeafFiles(fileNamesFinalNodes,
+					fileNamesFinalWays,
+					fileNamesFinalWays + WayLocationsUtil.EXTENSION,
+					SharedWaysUtil.getRefsFileName(fileNamesFinalWays));
+			Path pathStore = SharedWaysUtil.getStorePath(pathTree,
+					fileNamesFinalWays);
+			files.add(pathStore);
+			files.add(SpatialIndex.getIndexPath(pathStore));
+			return files;
+		}
+		case DATA_TREE_RELATIONS:
+			return getLeafFiles(fileNamesFinalRelationsSimple,
+					fileNamesRelationsComplexUnsorted,
+					fileNamesFinalRelationsComplex);
+		case DATA_NODE_ARRAY:
+			return Arrays.asList(pathNodeArray);
+		case DATA_WAYS_BY_NODES:
+			return Arrays.asList(pathWaysByNodes);
+		case DATA_RELATIONS:
+			return Arrays.asList(pathSimpleRelations, pathComplexRelations);
+		case DATA_RELATION_BATCHES:
+			return Arrays.asList(pathSimpleRelationsDir,
+					pathComplexRelationsDir);
+		case DATA_NON_TREE_RELATIONS:
+			return Arrays.asList(pathSimpleRelationsEmpty,
+					pathComplexRelationsEmpty, pathSimpleRelationsNonTree,
+					pathComplexRelationsNonTree,
+					pathSimpleRelationsNonTreeBboxes,
+					pathComplexRelationsNonTreeBboxes);
+		case DATA_SORTED_RELATIONS:
+			return Arrays.asList(pathSimpleRelationsSorted,
+					pathComplexRelationsSorted,
+					pathSimpleRelationsSortedBboxes,
+					pathComplexRelationsSortedBboxes);
+		case DATA_GEOMETRIES:
+			return Arrays.asList(pathTreeGeometry,
+					pathSimpleRelationsSortedGeometry,
+					pathComplexRelationsSortedGeometry);
+		case DATA_ID_INDEX:
+			return Arrays.asList(pathIdIndex);
+		}
+	}
+
+	private List<Path> getLeafFiles(String... fileNames) throws IOException
+	{
+		List<Path> files = new ArrayList<>();
+		if (!Files.isDirectory(pathTree)) {
+			return files;
+		}
+		for (String name : fileNames) {
+			files.addAll(BatchFilesUtil.getPaths(pathTree, name));
+		}
+		return files;
+	}
+
+	private void writeManifest(String key, String[] inputs, String[] outputs)
+			throws IOException
+	{
+		StageManifest manifest = new StageManifest(key, parameters);
+		manifest.getInputs().addAll(Arrays.asList(inputs));
+		for (String data : outputs) {
+			for (Path path : getDataFiles(data)) {
+				manifest.addOutput(data, pathOutput, path);
+			}
+		}
+		if (bbox != null) {
+			manifest.setValue(VALUE_BBOX, BBoxString.create(bbox));
+		}
+		manifest.write(getManifestPath(key));
+	}
+
+	/**
+	 * Mark the stages that have been completed by a previous build as done.
+	 * The merge resumes leaf by leaf, hence its inputs do not need to be
+	 * intact as long as it is resumed.
+	 */
+	private void skipCompletedStages(StageScheduler scheduler)
+			throws IOException
+	{
+		CompletedStagesFinder finder = new CompletedStagesFinder(scheduler,
+				pathStages, pathOutput, parameters);
+		finder.addResumable(KEY_MERGE);
+		Set<String> complete = finder.find();
+
+		for (String stage : complete) {
+			System.out.println(String.format(
+					"Stage '%s' has been completed by a previous build",
+					stage));
+			String value = finder.getManifest(stage).getValue(VALUE_BBOX);
+			if (value != null) {
+				bbox = BBoxString.parse(value).toBbox();
+			}
+			scheduler.skip(stage);
+		}
+
+		if (complete.contains(KEY_COMPUTE_BBOX)) {
+			bboxComputed = true;
+		}
+		if (complete.contains(KEY_NODE_TREE) && isNodeArrayPlanned()) {
+			nodeArrayCreated = true;
+		}
+
+		// Leafs merged before are only valid if the merge inputs are still
+		// those of the previous build
+		resumeMerge = finder.isResumed(KEY_MERGE);
+	}
+
+	/**
+	 * Check whether the node array is written while planning the node tree.
+	 */
+	private boolean isNodeArrayPlanned()
+	{
+		return useNodeArray && planningResolution > 0;
+	}
+
+	private void executeStage(String key)
+			throws IOException, OsmInputException
+	{
+		switch (key) {
+		case KEY_BOUNDS:
+			determineBounds();
+			break;
+		case KEY_SPLIT:
+			splitEntities();
+			break;
+		case KEY_COMPUTE_BBOX:
+			calculateBoundingBox();
+			break;
+		case KEY_NODE_TREE:
+			buildNodeTree();
+			break;
+		case KEY_NODE_ARRAY:
+			if (!nodeArrayCreated) {
+				createNodeArray();
+			}
+			break;
+		case KEY_MAP_WAYS_ARRAY:
+			mapWaysToTreeUsingArray();
+			break;
+		case KEY_SORT_WAYS:
+			sortWays();
+			break;
+		case KEY_MAP_WAYS:
+			mapWaysToTree();
+			break;
+		case KEY_FIND_MISSING_WAY_NODES:
+			findMissingWayNodes();
+			break;
+		case KEY_EXTRACT_MISSING_WAY_NODES:
+			extractMissingWayNodes();
+			break;
+		case KEY_DISTRIBUTE_WAYS:
+			distributeWays();
+			break;
+		case KEY_MERGE:
+			mergeTreeFiles();
+			break;
+		case KEY_SEPARATE_RELATIONS:
+			separateRelations();
+			break;
+		case KEY_SPLIT_RELATIONS:
+			splitRelations();
+			break;
+		case KEY_DISTRIBUTE_RELATIONS:
+			distributeRelations();
+			break;
+		case KEY_SORT_COMPLEX_RELATIONS:
+			sortComplexTreeRelations();
+			break;
+		case KEY_SORT_RELATIONS:
+			sortNonTreeRelations();
+			break;
+		case KEY_CLEAN_UP:
+			cleanUp();
+			break;
+		case KEY_CREATE_GEOMETRIES:
+			createGeometries();
+			break;
+		case KEY_SHARED_WAYS:
+			separateSharedWays();
+			break;
+		case KEY_ID_INDEX:
+			buildIdIndex();
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown stage: " + key);
+		}
 	}
 
 	private BBox bbox = null;
+	private boolean bboxComputed = false;
+	private boolean nodeArrayCreated = false;
 
 	private void determineBounds() throws IOException
 	{
@@ -352,21 +833,37 @@ public class ExtractionFilesBuilder
 
 	private void splitEntities() throws IOException
 	{
-		if (Files.exists(pathNodes) || Files.exists(pathWays)
-				|| Files.exists(pathRelations)) {
-			return;
-		}
-
 		// Split entities
 		t.start(KEY_SPLIT);
 
 		OsmIteratorInput input = fileInput.createIterator(true,
 				includeMetadata);
 
-		ThreadedEntitySplitter splitter = new ThreadedEntitySplitter(
-				input.getIterator(), pathNodes, pathWays, pathRelations,
-				outputConfigSplit, 10000, 200);
-		splitter.execute();
+		if (computeBbox) {
+			// Compute the bounding box from the same pass over the input
+			List<IteratorConsumer> consumers = new ArrayList<>();
+			consumers.add(new IteratorConsumer() {
+
+				@Override
+				public void consume(OsmIterator iterator) throws IOException
+				{
+					split(iterator);
+				}
+			});
+			consumers.add(new IteratorConsumer() {
+
+				@Override
+				public void consume(OsmIterator iterator) throws IOException
+				{
+					computeBoundingBox(iterator);
+				}
+			});
+			BroadcastScan scan = new BroadcastScan(input.getIterator(),
+					consumers);
+			scan.execute();
+		} else {
+			split(input.getIterator());
+		}
 
 		input.close();
 
@@ -374,11 +871,44 @@ public class ExtractionFilesBuilder
 		printInfo();
 	}
 
+	private void split(OsmIterator iterator) throws IOException
+	{
+		ThreadedEntitySplitter splitter = new ThreadedEntitySplitter(iterator,
+				pathNodes, pathWays, pathRelations, outputConfigSplit, 10000,
+				200);
+		splitter.execute();
+	}
+
+	private void computeBoundingBox(OsmIterator iterator)
+	{
+		double minLon = Double.POSITIVE_INFINITY;
+		double maxLon = Double.NEGATIVE_INFINITY;
+		double minLat = Double.POSITIVE_INFINITY;
+		double maxLat = Double.NEGATIVE_INFINITY;
+		while (iterator.hasNext()) {
+			EntityContainer container = iterator.next();
+			if (container.getType() != EntityType.Node) {
+				// Nodes come first, the rest of the input is not needed
+				break;
+			}
+			OsmNode node = (OsmNode) container.getEntity();
+			minLon = Math.min(minLon, node.getLongitude());
+			maxLon = Math.max(maxLon, node.getLongitude());
+			minLat = Math.min(minLat, node.getLatitude());
+			maxLat = Math.max(maxLat, node.getLatitude());
+		}
+		if (minLon > maxLon) {
+			return;
+		}
+		bbox = new BBox(minLon, minLat, maxLon, maxLat);
+		bboxComputed = true;
+	}
+
 	private void calculateBoundingBox() throws IOException
 	{
 		// Calculate bounding box
 		t.start(KEY_COMPUTE_BBOX);
-		if (computeBbox) {
+		if (computeBbox && !bboxComputed) {
 			bbox = OsmUtils.computeBBox(fileInputNodes);
 
 			System.out.println("computed bounds: " + BBoxString.create(bbox));
@@ -391,20 +921,50 @@ public class ExtractionFilesBuilder
 		// Create node tree
 		t.start(KEY_NODE_TREE);
 
-		DataTree tree = DataTreeUtil.initNewTree(pathTree, bbox);
+		if (Files.exists(pathTree)) {
+			// Left over from a previous build that did not complete this stage
+			FileUtils.deleteDirectory(pathTree.toFile());
+		}
+
+		DataTree tree = DataTreeUtil.initNewTree(pathTree, bbox, fanout);
 
 		DataTreeFiles treeFiles = new DataTreeFiles(pathTree,
 				fileNamesInitialNodes);
-		DataTreeOutputFactory dataTreeOutputFactory = new ClosingDataTreeOutputFactory(
-				treeFiles, outputConfigTree);
+		DataTreeOutputFactory dataTreeOutputFactory = new PooledDataTreeOutputFactory(
+				treeFiles, outputConfigTree, writeBufferPool);
+
+		int numThreads = Math.max(1,
+				Runtime.getRuntime().availableProcessors() - 1);
 
-		NodeTreeLeafCounterFactory counterFactory = new ThreadedNodeTreeLeafCounterFactory();
+		NodeTreeLeafCounterFactory counterFactory = new ParallelNodeTreeLeafCounterFactory(
+				numThreads);
 		NodeTreeDistributorFactory distributorFactory = new ThreadedNodeTreeDistributorFactory();
 
 		NodeTreeCreatorMaxNodes creator = new NodeTreeCreatorMaxNodes(tree,
 				fileInputNodes, dataTreeOutputFactory, maxNodes, SPLIT_INITIAL,
 				SPLIT_ITERATION, pathTree, fileNamesInitialNodes,
 				outputConfigTree, counterFactory, distributorFactory);
+		creator.setPlanningResolution(planningResolution);
+		creator.setPlanningThreads(numThreads);
+		creator.setMaxNodesInMemory(maxNodesInMemory);
+
+		if (isNodeArrayPlanned()) {
+			// Write the node array from the pass that builds the density
+			// raster instead of reading the nodes once more
+			List<IteratorConsumer> consumers = new ArrayList<>();
+			consumers.add(new IteratorConsumer() {
+
+				@Override
+				public void consume(OsmIterator iterator) throws IOException
+				{
+					NodeArrayCreator arrayCreator = new NodeArrayCreator(
+							iterator, pathNodeArray, NodeArrayType.INTEGER);
+					arrayCreator.execute();
+				}
+			});
+			creator.setPlanningConsumers(consumers);
+			nodeArrayCreated = true;
+		}
 
 		creator.buildTree();
 
@@ -420,8 +980,13 @@ public class ExtractionFilesBuilder
 		OsmIteratorInput inputWays = fileInputWays.createIterator(true,
 				includeMetadata);
 
+		// Each sorting worker holds a complete batch of ways in memory
+		int numWorkers = Math.max(1,
+				Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
 		WaysSorterByFirstNodeId waysSorter = new ThreadedWaysSorterByFirstNodeId(
-				inputWays.getIterator(), pathWaysByNodes, outputConfigWays);
+				inputWays.getIterator(), pathWaysByNodes, outputConfigWays,
+				numWorkers);
 		waysSorter.execute();
 
 		inputWays.close();
@@ -437,9 +1002,10 @@ public class ExtractionFilesBuilder
 		OsmIteratorInput inputNodes = fileInputNodes.createIterator(true,
 				includeMetadata);
 
-		WaysToTreeMapper waysMapper = new ThreadedWaysToTreeMapper(
+		ThreadedWaysToTreeMapper waysMapper = new ThreadedWaysToTreeMapper(
 				inputNodes.getIterator(), pathTree, pathWaysByNodes,
 				outputFormat, fileNamesInitialWays, outputConfigTree);
+		waysMapper.setWriteBufferPool(writeBufferPool);
 		waysMapper.execute();
 
 		inputNodes.close();
@@ -452,6 +1018,53 @@ public class ExtractionFilesBuilder
 		printInfo();
 	}
 
+	private void createNodeArray() throws IOException
+	{
+		// Create an array of node coordinates indexed by node id
+		t.start(KEY_NODE_ARRAY);
+
+		OsmIteratorInput inputNodes = fileInputNodes.createIterator(false,
+				false);
+
+		NodeArrayCreator creator = new NodeArrayCreator(
+				inputNodes.getIterator(), pathNodeArray, NodeArrayType.INTEGER);
+		creator.execute();
+
+		inputNodes.close();
+
+		t.stop(KEY_NODE_ARRAY);
+		printInfo();
+	}
+
+	private void mapWaysToTreeUsingArray() throws IOException
+	{
+		// Map ways to all leafs they intersect and collect the ids of nodes
+		// missing in each leaf
+		t.start(KEY_MAP_WAYS_ARRAY);
+
+		OsmIteratorInput inputWays = fileInputWays.createIterator(true,
+				includeMetadata);
+
+		int numThreads = Math.max(1,
+				Runtime.getRuntime().availableProcessors() - 1);
+
+		WaysToTreeMapperUsingArray waysMapper = new WaysToTreeMapperUsingArray(
+				inputWays.getIterator(), pathTree, fileNamesInitialWays,
+				pathNodeArray, outputConfigTree, numThreads);
+		waysMapper.setFileNamesMissingNodeIds(fileNamesMissingWayNodeIds);
+		waysMapper.execute();
+
+		inputWays.close();
+
+		Files.delete(pathNodeArray);
+		// Ways without any node within the tree are not part of the
+		// extraction files, just as with the default way mapping
+		Files.deleteIfExists(pathTree.resolve("non-matched-ways.tbo"));
+
+		t.stop(KEY_MAP_WAYS_ARRAY);
+		printInfo();
+	}
+
 	private void findMissingWayNodes() throws IOException
 	{
 		// Find missing way nodes
@@ -497,51 +1110,68 @@ public class ExtractionFilesBuilder
 		// Distribute ways
 		t.start(KEY_DISTRIBUTE_WAYS);
 
-		WaysDistributor waysDistributor = new ThreadedWaysDistributor(pathTree,
+		int numThreads = Math.max(1,
+				Runtime.getRuntime().availableProcessors() - 1);
+		// Leave the other half of the heap for the buffers of the outputs,
+		// the budget is shared with stages running concurrently
+		WaysDistributor waysDistributor = new ParallelWaysDistributor(pathTree,
 				fileNamesInitialNodes, fileNamesMissingNodes,
 				fileNamesInitialWays, fileNamesDistributedWays,
 				fileNamesDistributedNodes, outputFormat, outputFormat,
-				outputConfigTree);
+				outputConfigTree, numThreads, budget);
 		waysDistributor.execute();
 
 		t.stop(KEY_DISTRIBUTE_WAYS);
 		printInfo();
 	}
 
-	private void mergeNodes() throws IOException
+	private void mergeTreeFiles() throws IOException
 	{
-		// Merge nodes
-		t.start(KEY_MERGE_NODES);
+		// Merge nodes and ways, one leaf at a time
+		t.start(KEY_MERGE);
 
 		List<String> fileNamesSortedNodes = new ArrayList<>();
 		List<String> fileNamesUnsortedNodes = new ArrayList<>();
 		fileNamesSortedNodes.add(fileNamesInitialNodes);
 		fileNamesSortedNodes.add(fileNamesMissingNodes);
-		fileNamesUnsortedNodes.add(fileNamesDistributedNodes);
-		TreeFilesMerger nodesMerger = new ThreadedTreeFilesMerger(pathTree,
-				fileNamesSortedNodes, fileNamesUnsortedNodes,
-				fileNamesFinalNodes, outputFormat, outputConfigTreeFinal, true);
-		nodesMerger.execute();
-
-		t.stop(KEY_MERGE_NODES);
-		printInfo();
-	}
-
-	private void mergeWays() throws IOException
-	{
-		// Merge ways
-		t.start(KEY_MERGE_WAYS);
+		if (!useNodeArray) {
+			fileNamesUnsortedNodes.add(fileNamesDistributedNodes);
+		}
 
 		List<String> fileNamesSortedWays = new ArrayList<>();
 		List<String> fileNamesUnsortedWays = new ArrayList<>();
 		fileNamesUnsortedWays.add(fileNamesInitialWays);
-		fileNamesUnsortedWays.add(fileNamesDistributedWays);
-		TreeFilesMerger waysMerger = new ThreadedTreeFilesMerger(pathTree,
-				fileNamesSortedWays, fileNamesUnsortedWays, fileNamesFinalWays,
-				outputFormat, outputConfigTreeFinal, true);
-		waysMerger.execute();
+		if (!useNodeArray) {
+			fileNamesUnsortedWays.add(fileNamesDistributedWays);
+		}
+
+		if (writeWayLocations) {
+			// Record the locations while writing the final files instead of
+			// reading them again afterwards
+			FusedTreeFilesMerger merger = new FusedTreeFilesMerger(pathTree,
+					fileNamesSortedNodes, fileNamesUnsortedNodes,
+					fileNamesFinalNodes, fileNamesSortedWays,
+					fileNamesUnsortedWays, fileNamesFinalWays, outputFormat,
+					outputConfigTreeFinal, true, true, 0, budget);
+			merger.setSkipMerged(resumeMerge);
+			merger.execute();
+		} else {
+			ThreadedTreeFilesMerger nodesMerger = new ThreadedTreeFilesMerger(
+					pathTree, fileNamesSortedNodes, fileNamesUnsortedNodes,
+					fileNamesFinalNodes, outputFormat, outputConfigTreeFinal,
+					true, 0, budget);
+			nodesMerger.setSkipMerged(resumeMerge);
+			nodesMerger.execute();
+
+			ThreadedTreeFilesMerger waysMerger = new ThreadedTreeFilesMerger(
+					pathTree, fileNamesSortedWays, fileNamesUnsortedWays,
+					fileNamesFinalWays, outputFormat, outputConfigTreeFinal,
+					true, 0, budget);
+			waysMerger.setSkipMerged(resumeMerge);
+			waysMerger.execute();
+		}
 
-		t.stop(KEY_MERGE_WAYS);
+		t.stop(KEY_MERGE);
 		printInfo();
 	}
 
@@ -600,6 +1230,7 @@ public class ExtractionFilesBuilder
 				pathSimpleRelationsNonTree, pathSimpleRelationsNonTreeBboxes,
 				fileNamesRelations, fileNamesWays, fileNamesNodes,
 				fileNamesFinalRelationsSimple, outputFormat, outputConfigTree);
+		simpleRelationsDistributor.setWriteBufferPool(writeBufferPool);
 		simpleRelationsDistributor.execute();
 
 		ComplexRelationsDistributor complexRelationsDistributor = new ComplexRelationsDistributor(
@@ -608,6 +1239,7 @@ public class ExtractionFilesBuilder
 				fileNamesRelations, fileNamesWays, fileNamesNodes,
 				fileNamesRelationsComplexUnsorted, outputFormat,
 				outputConfigTree);
+		complexRelationsDistributor.setWriteBufferPool(writeBufferPool);
 		complexRelationsDistributor.execute();
 
 		t.stop(KEY_DISTRIBUTE_RELATIONS);
@@ -619,10 +1251,13 @@ public class ExtractionFilesBuilder
 		// Sort complex tree relations
 		t.start(KEY_SORT_COMPLEX_RELATIONS);
 
+		int numThreads = Math.max(1,
+				Runtime.getRuntime().availableProcessors() - 1);
 		TreeFileSorter sorter = new TreeFileSorter(pathTree,
 				fileNamesRelationsComplexUnsorted,
 				fileNamesFinalRelationsComplex, outputFormat,
-				outputConfigRelations, keepUnsortedRelations);
+				outputConfigRelations, keepUnsortedRelations, numThreads,
+				budget);
 		sorter.execute();
 
 		t.stop(KEY_SORT_COMPLEX_RELATIONS);
@@ -698,21 +1333,62 @@ public class ExtractionFilesBuilder
 		t.stop(KEY_CREATE_GEOMETRIES);
 	}
 
-	public void printInfo()
+	private void separateSharedWays() throws IOException
+	{
+		if (!separateSharedWays) {
+			return;
+		}
+
+		t.start(KEY_SHARED_WAYS);
+
+		SharedWaysSeparator separator = new SharedWaysSeparator(pathTree,
+				fileNamesFinalWays, outputFormat, outputConfigTreeFinal);
+		separator.execute();
+
+		t.stop(KEY_SHARED_WAYS);
+	}
+
+	private void buildIdIndex() throws IOException
+	{
+		if (!buildIdIndex) {
+			return;
+		}
+
+		t.start(KEY_ID_INDEX);
+
+		IdIndexBuilder idIndexBuilder = new IdIndexBuilder(pathTree,
+				fileNames.getTreeNames(), pathSimpleRelationsSorted,
+				pathComplexRelationsSorted, fileNames.getRelationNames(),
+				outputFormat, pathIdIndex);
+		idIndexBuilder.execute();
+
+		t.stop(KEY_ID_INDEX);
+	}
+
+	public synchronized void printInfo()
 	{
 		String[] keys = new String[] { KEY_TOTAL, KEY_SPLIT, KEY_COMPUTE_BBOX,
-				KEY_NODE_TREE, KEY_SORT_WAYS, KEY_MAP_WAYS,
-				KEY_FIND_MISSING_WAY_NODES, KEY_EXTRACT_MISSING_WAY_NODES,
-				KEY_DISTRIBUTE_WAYS, KEY_MERGE_NODES, KEY_MERGE_WAYS,
+				KEY_NODE_TREE, KEY_SORT_WAYS, KEY_MAP_WAYS, KEY_NODE_ARRAY,
+				KEY_MAP_WAYS_ARRAY, KEY_FIND_MISSING_WAY_NODES,
+				KEY_EXTRACT_MISSING_WAY_NODES, KEY_DISTRIBUTE_WAYS, KEY_MERGE,
 				KEY_SEPARATE_RELATIONS, KEY_SPLIT_RELATIONS,
 				KEY_DISTRIBUTE_RELATIONS, KEY_SORT_COMPLEX_RELATIONS,
-				KEY_SORT_RELATIONS, KEY_CLEAN_UP, KEY_CREATE_GEOMETRIES };
+				KEY_SORT_RELATIONS, KEY_CLEAN_UP, KEY_CREATE_GEOMETRIES,
+				KEY_SHARED_WAYS, KEY_ID_INDEX };
 
 		for (String key : keys) {
 			System.out.println(String.format("%s: %s", key, t.htime(key)));
 		}
 	}
 
+	public void printCriticalPath()
+	{
+		List<String> path = t.criticalPath();
+		System.out.println(String.format("critical path: %s (%s of %s)",
+				String.join(" -> ", path), t.htime(t.criticalPathTime()),
+				t.htime(KEY_TOTAL)));
+	}
+
 	public boolean isKeepSplittedNodes()
 	{
 		return keepSplittedNodes;
@@ -793,4 +1469,90 @@ public class ExtractionFilesBuilder
 		this.keepUnsortedRelations = keepUnsortedRelations;
 	}
 
+	public int getFanout()
+	{
+		return fanout;
+	}
+
+	public void setFanout(int fanout)
+	{
+		this.fanout = fanout;
+	}
+
+	public int getPlanningResolution()
+	{
+		return planningResolution;
+	}
+
+	public void setPlanningResolution(int planningResolution)
+	{
+		this.planningResolution = planningResolution;
+	}
+
+	public int getMaxNodesInMemory()
+	{
+		return maxNodesInMemory;
+	}
+
+	public void setMaxNodesInMemory(int maxNodesInMemory)
+	{
+		this.maxNodesInMemory = maxNodesInMemory;
+	}
+
+	public boolean isBuildIdIndex()
+	{
+		return buildIdIndex;
+	}
+
+	public void setBuildIdIndex(boolean buildIdIndex)
+	{
+		this.buildIdIndex = buildIdIndex;
+	}
+
+	public boolean isUseNodeArray()
+	{
+		return useNodeArray;
+	}
+
+	/**
+	 * Map ways to the tree using an array of node coordinates. This replaces
+	 * sorting ways by first node, mapping, finding missing nodes and
+	 * distributing ways with a single pass over the ways, at the expense of
+	 * a temporary file of 8 bytes per node id up to the highest id.
+	 */
+	public void setUseNodeArray(boolean useNodeArray)
+	{
+		this.useNodeArray = useNodeArray;
+	}
+
+	public boolean isWriteWayLocations()
+	{
+		return writeWayLocations;
+	}
+
+	/**
+	 * Write the locations of each way's nodes next to the way files of the
+	 * tree. Queries use these to test way geometries without looking up
+	 * nodes.
+	 */
+	public void setWriteWayLocations(boolean writeWayLocations)
+	{
+		this.writeWayLocations = writeWayLocations;
+	}
+
+	public boolean isSeparateSharedWays()
+	{
+		return separateSharedWays;
+	}
+
+	/**
+	 * Store ways that belong to more than one leaf once in a shared store
+	 * instead of copying them to each leaf. The id index covers the ways in
+	 * the shared store with the numbers of the blocks that contain them.
+	 */
+	public void setSeparateSharedWays(boolean separateSharedWays)
+	{
+		this.separateSharedWays = separateSharedWays;
+	}
+
 }
@@ -30,6 +30,7 @@ public class ExtractionFilesHelper
 	private static final String OPTION_COMPLEX_RELATIONS = "complex-relations";
 	private static final String OPTION_SIMPLE_RELATIONS_BBOXES = "simple-relations-bboxes";
 	private static final String OPTION_COMPLEX_RELATIONS_BBOXES = "complex-relations-bboxes";
+	private static final String OPTION_ID_INDEX = "id-index";
 	private static final String OPTION_FILE_NAMES_TREE_NODES = "tree-nodes";
 	private static final String OPTION_FILE_NAMES_TREE_WAYS = "tree-ways";
 	private static final String OPTION_FILE_NAMES_TREE_RELATIONS_SIMPLE = "tree-simple-relations";
@@ -46,6 +47,7 @@ public class ExtractionFilesHelper
 		OptionHelper.addL(options, OPTION_COMPLEX_RELATIONS, true, false, "relative path to complex relation batches");
 		OptionHelper.addL(options, OPTION_SIMPLE_RELATIONS_BBOXES, true, false, "relative path to simple relation batches bboxes");
 		OptionHelper.addL(options, OPTION_COMPLEX_RELATIONS_BBOXES, true, false, "relative path to complex relation batches bboxes");
+		OptionHelper.addL(options, OPTION_ID_INDEX, true, false, "relative path to the id index");
 		OptionHelper.addL(options, OPTION_FILE_NAMES_TREE_NODES, true, false, "name of node files in tree");
 		OptionHelper.addL(options, OPTION_FILE_NAMES_TREE_WAYS, true, false, "name of way files in tree");
 		OptionHelper.addL(options, OPTION_FILE_NAMES_TREE_RELATIONS_SIMPLE, true, false, "name of simple relations in tree");
@@ -80,6 +82,9 @@ public class ExtractionFilesHelper
 			fileNames.setComplexRelationsBboxes(line
 					.getOptionValue(OPTION_COMPLEX_RELATIONS_BBOXES));
 		}
+		if (line.hasOption(OPTION_ID_INDEX)) {
+			fileNames.setIdIndex(line.getOptionValue(OPTION_ID_INDEX));
+		}
 		if (line.hasOption(OPTION_FILE_NAMES_TREE_NODES)) {
 			treeNames.setNodes(line
 					.getOptionValue(OPTION_FILE_NAMES_TREE_NODES));
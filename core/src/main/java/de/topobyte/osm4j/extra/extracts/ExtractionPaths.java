@@ -38,6 +38,8 @@ public class ExtractionPaths
 	private Path simpleRelationsEmpty;
 	private Path complexRelationsEmpty;
 
+	private Path idIndex;
+
 	public ExtractionPaths(Path base, ExtractionFileNames fileNames)
 	{
 		splitNodes = base.resolve(fileNames.getSplitNodes());
@@ -58,6 +60,8 @@ public class ExtractionPaths
 				.resolve(fileNames.getSimpleRelationsEmpty());
 		complexRelationsEmpty = base.resolve(fileNames
 				.getComplexRelationsEmpty());
+
+		idIndex = base.resolve(fileNames.getIdIndex());
 	}
 
 	public Path getSplitNodes()
@@ -170,4 +174,14 @@ public class ExtractionPaths
 		this.complexRelationsEmpty = complexRelationsEmpty;
 	}
 
+	public Path getIdIndex()
+	{
+		return idIndex;
+	}
+
+	public void setIdIndex(Path idIndex)
+	{
+		this.idIndex = idIndex;
+	}
+
 }
@@ -0,0 +1,988 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.extracts;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.locationtech.jts.geom.Envelope;
+
+import com.slimjars.dist.gnu.trove.list.TIntList;
+import com.slimjars.dist.gnu.trove.list.TLongList;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+import com.slimjars.dist.gnu.trove.map.TLongLongMap;
+import com.slimjars.dist.gnu.trove.map.TLongObjectMap;
+import com.slimjars.dist.gnu.trove.map.hash.TLongLongHashMap;
+import com.slimjars.dist.gnu.trove.map.hash.TLongObjectHashMap;
+import com.slimjars.dist.gnu.trove.set.TLongSet;
+import com.slimjars.dist.gnu.trove.set.hash.TLongHashSet;
+
+import de.topobyte.melon.io.StreamUtil;
+import de.topobyte.osm4j.core.access.OsmIteratorInput;
+import de.topobyte.osm4j.core.access.OsmIteratorInputFactory;
+import de.topobyte.osm4j.core.access.OsmOutputStream;
+import de.topobyte.osm4j.core.dataset.InMemoryMapDataSet;
+import de.topobyte.osm4j.core.dataset.MapDataSetLoader;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.EntityType;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmRelation;
+import de.topobyte.osm4j.core.model.iface.OsmRelationMember;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.core.resolve.EntityNotFoundException;
+import de.topobyte.osm4j.core.resolve.OsmEntityProvider;
+import de.topobyte.osm4j.extra.QueryUtil;
+import de.topobyte.osm4j.extra.datatree.DataTree;
+import de.topobyte.osm4j.extra.datatree.DataTreeBoxGeometryCreator;
+import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
+import de.topobyte.osm4j.extra.datatree.DataTreeOpener;
+import de.topobyte.osm4j.extra.datatree.DataTreeUtil;
+import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.datatree.shared.SharedWaysStore;
+import de.topobyte.osm4j.extra.datatree.shared.SharedWaysUtil;
+import de.topobyte.osm4j.extra.datatree.ways.WayLeafQuery;
+import de.topobyte.osm4j.extra.idbboxlist.IdBboxEntry;
+import de.topobyte.osm4j.extra.idbboxlist.IdBboxListOutputStream;
+import de.topobyte.osm4j.extra.idbboxlist.IdBboxUtil;
+import de.topobyte.osm4j.extra.idlocation.IdIndex;
+import de.topobyte.osm4j.extra.idlist.IdListOutputStream;
+import de.topobyte.osm4j.extra.idlocation.IdIndexBuilder;
+import de.topobyte.osm4j.extra.relations.Group;
+import de.topobyte.osm4j.extra.relations.RelationGraph;
+import de.topobyte.osm4j.utils.OsmIoUtils;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+
+/**
+ * Rebalances the data tree of an existing extraction database. Leafs with
+ * more than the specified number of nodes are split and groups of sibling
+ * leafs with less nodes in total are merged, the same way
+ * {@link DataTreeUtil#mergeUnderfilledSiblings} does while building.
+ * 
+ * Only the affected leafs are rewritten. Ways of a split leaf are assigned to
+ * all new leafs their geometry intersects. Relations of a split leaf are
+ * assigned to the new leaf that contains them. Relations that do not fit into
+ * a single new leaf anymore are moved to a new relation batch. The new leafs
+ * and batches are written first and swapped in at the end, an id index is
+ * rebuilt if the database has one.
+ * 
+ * Before swapping, a journal listing all replaced and created leafs and
+ * batches is written next to the tree. Replaced leafs are moved aside, the
+ * new ones moved into place and only then the old ones deleted. A run that
+ * finds a journal completes the interrupted swap first, a run that finds new
+ * leafs or batches without a journal discards them.
+ * 
+ * If the tree has a store of shared ways, the store is left unchanged. The
+ * shared ways referenced by an affected leaf are read from the store and the
+ * new leafs get their own lists of references to them, written into the new
+ * leaf directories so that they are swapped in along with the leafs.
+ * 
+ * The data of each affected leaf is processed in memory.
+ */
+public class ExtractionRebalancer
+{
+
+	private static final String SUFFIX_NEW = ".new";
+	private static final String SUFFIX_OLD = ".old";
+	private static final String FILENAME_JOURNAL = "rebalance.journal";
+
+	private static final String JOURNAL_REMOVE = "remove";
+	private static final String JOURNAL_CREATE = "create";
+	private static final String JOURNAL_SIMPLE = "simple";
+	private static final String JOURNAL_COMPLEX = "complex";
+
+	private ExtractionPaths paths;
+	private TreeFileNames treeNames;
+	private BatchFileNames relationNames;
+	private OsmOutputConfig outputConfig;
+	private int maxNodes;
+
+	private DataTree tree;
+	private DataTreeFiles filesNodes;
+	private DataTreeFiles filesWays;
+	private DataTreeFiles filesSimpleRelations;
+	private DataTreeFiles filesComplexRelations;
+
+	private SharedWaysStore sharedWays;
+	private TLongSet sharedIds = new TLongHashSet();
+
+	private TLongList removedLeafs = new TLongArrayList();
+	private TLongList createdLeafs = new TLongArrayList();
+
+	private long nextSimpleBatch;
+	private long nextComplexBatch;
+	private List<IdBboxEntry> simpleBatches = new ArrayList<>();
+	private List<IdBboxEntry> complexBatches = new ArrayList<>();
+
+	public ExtractionRebalancer(ExtractionPaths paths,
+			ExtractionFileNames fileNames, OsmOutputConfig outputConfig,
+			int maxNodes)
+	{
+		this.paths = paths;
+		this.treeNames = fileNames.getTreeNames();
+		this.relationNames = fileNames.getRelationNames();
+		this.outputConfig = outputConfig;
+		this.maxNodes = maxNodes;
+	}
+
+	public void execute() throws IOException
+	{
+		Path pathTree = paths.getTree();
+
+		Path pathJournal = getJournalPath();
+		if (Files.exists(pathJournal)) {
+			System.out.println("Completing interrupted rebalancing");
+			readJournal(pathJournal);
+			swap();
+			updateDerivedFiles();
+			Files.delete(pathJournal);
+			removedLeafs.clear();
+			createdLeafs.clear();
+			simpleBatches.clear();
+			complexBatches.clear();
+		} else {
+			deleteUncommitted(pathTree);
+			deleteUncommitted(paths.getSimpleRelations());
+			deleteUncommitted(paths.getComplexRelations());
+		}
+
+		tree = DataTreeOpener.open(pathTree.toFile());
+
+		filesNodes = new DataTreeFiles(pathTree, treeNames.getNodes());
+		filesWays = new DataTreeFiles(pathTree, treeNames.getWays());
+		filesSimpleRelations = new DataTreeFiles(pathTree,
+				treeNames.getSimpleRelations());
+		filesComplexRelations = new DataTreeFiles(pathTree,
+				treeNames.getComplexRelations());
+		if (filesNodes.isPacked()) {
+			throw new IOException("Packed trees cannot be rebalanced");
+		}
+		sharedWays = SharedWaysStore.open(pathTree, treeNames.getWays(),
+				outputConfig.getFileFormat());
+
+		List<Node> leafs = tree.getLeafs();
+		TLongLongMap counts = count(leafs);
+
+		// Determine the leafs to split before merging modifies the tree
+		List<Node> overfull = new ArrayList<>();
+		TLongSet leafPaths = new TLongHashSet();
+		for (Node leaf : leafs) {
+			leafPaths.add(leaf.getPath());
+			if (counts.get(leaf.getPath()) > maxNodes && leaf.canSplit()) {
+				overfull.add(leaf);
+			}
+		}
+
+		DataTreeUtil.mergeUnderfilledSiblings(tree, tree.getRoot(), maxNodes,
+				counts);
+
+		List<Node> merged = new ArrayList<>();
+		for (Node leaf : tree.getLeafs()) {
+			if (!leafPaths.contains(leaf.getPath())) {
+				merged.add(leaf);
+			}
+		}
+
+		System.out.println(String.format("Leafs to split: %d",
+				overfull.size()));
+		System.out.println(String.format("Leafs created by merging: %d",
+				merged.size()));
+		if (overfull.isEmpty() && merged.isEmpty()) {
+			System.out.println("Nothing to do");
+			return;
+		}
+
+		nextSimpleBatch = nextBatchId(paths.getSimpleRelations());
+		nextComplexBatch = nextBatchId(paths.getComplexRelations());
+
+		for (Node leaf : merged) {
+			merge(leaf, descendants(leaf, leafs));
+		}
+		for (Node leaf : overfull) {
+			split(leaf);
+		}
+
+		writeJournal(pathJournal);
+		swap();
+		updateDerivedFiles();
+		Files.delete(pathJournal);
+	}
+
+	private TLongLongMap count(List<Node> leafs) throws IOException
+	{
+		TLongLongMap counts = new TLongLongHashMap();
+		int i = 0;
+		for (Node leaf : leafs) {
+			System.out.println(String.format("Counting leaf %d of %d: %s",
+					++i, leafs.size(), Long.toHexString(leaf.getPath())));
+			Envelope envelope = leaf.getEnvelope();
+			long count = 0;
+			OsmIteratorInput input = filesNodes
+					.getInput(leaf, outputConfig.getFileFormat())
+					.createIterator(false, false);
+			for (EntityContainer container : input.getIterator()) {
+				if (container.getType() != EntityType.Node) {
+					continue;
+				}
+				OsmNode node = (OsmNode) container.getEntity();
+				if (envelope.contains(node.getLongitude(),
+						node.getLatitude())) {
+					count++;
+				}
+			}
+			input.close();
+			counts.put(leaf.getPath(), count);
+		}
+		return counts;
+	}
+
+	private static List<Node> descendants(Node node, List<Node> leafs)
+	{
+		long path = node.getPath();
+		int length = 63 - Long.numberOfLeadingZeros(path);
+		List<Node> descendants = new ArrayList<>();
+		for (Node leaf : leafs) {
+			int shift = 63 - Long.numberOfLeadingZeros(leaf.getPath())
+					- length;
+			if (shift > 0 && (leaf.getPath() >>> shift) == path) {
+				descendants.add(leaf);
+			}
+		}
+		return descendants;
+	}
+
+	private static class LeafData implements OsmEntityProvider
+	{
+
+		TLongObjectMap<OsmNode> nodes = new TLongObjectHashMap<>();
+		TLongObjectMap<OsmWay> ways = new TLongObjectHashMap<>();
+		TLongObjectMap<OsmRelation> simpleRelations = new TLongObjectHashMap<>();
+		TLongObjectMap<OsmRelation> complexRelations = new TLongObjectHashMap<>();
+
+		void addWay(OsmWay way, LeafData source)
+		{
+			ways.put(way.getId(), way);
+			for (int i = 0; i < way.getNumberOfNodes(); i++) {
+				long id = way.getNodeId(i);
+				OsmNode node = source.nodes.get(id);
+				if (node != null) {
+					nodes.put(id, node);
+				}
+			}
+		}
+
+		@Override
+		public OsmNode getNode(long id) throws EntityNotFoundException
+		{
+			OsmNode node = nodes.get(id);
+			if (node == null) {
+				throw new EntityNotFoundException("Node not found: " + id);
+			}
+			return node;
+		}
+
+		@Override
+		public OsmWay getWay(long id) throws EntityNotFoundException
+		{
+			OsmWay way = ways.get(id);
+			if (way == null) {
+				throw new EntityNotFoundException("Way not found: " + id);
+			}
+			return way;
+		}
+
+		@Override
+		public OsmRelation getRelation(long id) throws EntityNotFoundException
+		{
+			OsmRelation relation = simpleRelations.get(id);
+			if (relation == null) {
+				relation = complexRelations.get(id);
+			}
+			if (relation == null) {
+				throw new EntityNotFoundException(
+						"Relation not found: " + id);
+			}
+			return relation;
+		}
+
+		void addMembers(OsmRelation relation, LeafData source)
+		{
+			for (int i = 0; i < relation.getNumberOfMembers(); i++) {
+				OsmRelationMember member = relation.getMember(i);
+				long id = member.getId();
+				if (member.getType() == EntityType.Node) {
+					OsmNode node = source.nodes.get(id);
+					if (node != null) {
+						nodes.put(id, node);
+					}
+				} else if (member.getType() == EntityType.Way) {
+					OsmWay way = source.ways.get(id);
+					if (way != null) {
+						addWay(way, source);
+					}
+				}
+			}
+		}
+
+	}
+
+	private LeafData read(Node leaf) throws IOException
+	{
+		LeafData data = new LeafData();
+		read(leaf, data);
+		return data;
+	}
+
+	private void read(Node leaf, LeafData data) throws IOException
+	{
+		InMemoryMapDataSet nodes = read(filesNodes, leaf);
+		InMemoryMapDataSet ways = read(filesWays, leaf);
+		InMemoryMapDataSet simple = read(filesSimpleRelations, leaf);
+		InMemoryMapDataSet complex = read(filesComplexRelations, leaf);
+		data.nodes.putAll(nodes.getNodes());
+		data.ways.putAll(ways.getWays());
+		data.simpleRelations.putAll(simple.getRelations());
+		data.complexRelations.putAll(complex.getRelations());
+
+		if (sharedWays != null) {
+			long[] refs = SharedWaysUtil.readRefs(filesWays.getPath(leaf));
+			data.ways.putAll(
+					sharedWays.read(refs, outputConfig.isWriteMetadata()));
+			sharedIds.addAll(refs);
+		}
+	}
+
+	private InMemoryMapDataSet read(DataTreeFiles files, Node leaf)
+			throws IOException
+	{
+		OsmIteratorInputFactory inputFactory = files.getInput(leaf,
+				outputConfig.getFileFormat());
+		OsmIteratorInput input = inputFactory.createIterator(true,
+				outputConfig.isWriteMetadata());
+		InMemoryMapDataSet data = MapDataSetLoader.read(input.getIterator(),
+				true, true, true);
+		input.close();
+		return data;
+	}
+
+	private void merge(Node leaf, List<Node> sources) throws IOException
+	{
+		System.out.println(String.format("Merging %d leafs into %s",
+				sources.size(), Long.toHexString(leaf.getPath())));
+
+		LeafData data = new LeafData();
+		for (Node source : sources) {
+			read(source, data);
+		}
+		write(leaf, data);
+
+		for (Node source : sources) {
+			removedLeafs.add(source.getPath());
+		}
+		createdLeafs.add(leaf.getPath());
+	}
+
+	private void split(Node leaf) throws IOException
+	{
+		System.out.println(String.format("Splitting leaf %s",
+				Long.toHexString(leaf.getPath())));
+
+		LeafData data = read(leaf);
+
+		// Only nodes located within the leaf decide how it is split, the
+		// other ones have been added as nodes of ways.
+		long[] ids = data.nodes.keys();
+		Arrays.sort(ids);
+		Envelope envelope = leaf.getEnvelope();
+		List<OsmNode> located = new ArrayList<>();
+		for (long id : ids) {
+			OsmNode node = data.nodes.get(id);
+			if (envelope.contains(node.getLongitude(), node.getLatitude())) {
+				located.add(node);
+			}
+		}
+
+		TIntList all = new TIntArrayList(located.size());
+		for (int i = 0; i < located.size(); i++) {
+			all.add(i);
+		}
+		List<Node> leafs = new ArrayList<>();
+		List<TIntList> partitions = new ArrayList<>();
+		split(leaf, located, all, leafs, partitions);
+
+		System.out.println(String.format("Split into %d leafs", leafs.size()));
+
+		TLongObjectMap<LeafData> childData = new TLongObjectHashMap<>();
+		for (int i = 0; i < leafs.size(); i++) {
+			Node child = leafs.get(i);
+			TIntList partition = partitions.get(i);
+
+			LeafData cd = new LeafData();
+			for (int k = 0; k < partition.size(); k++) {
+				OsmNode node = located.get(partition.get(k));
+				cd.nodes.put(node.getId(), node);
+			}
+			childData.put(child.getPath(), cd);
+		}
+
+		assignWays(data, childData, leafs);
+
+		LeafData simpleBatch = new LeafData();
+		Envelope simpleEnvelope = new Envelope();
+		for (OsmRelation relation : data.simpleRelations.valueCollection()) {
+			Envelope box = new Envelope();
+			expand(box, relation, data);
+			LeafData target = target(box, childData, leafs);
+			if (target != null) {
+				target.simpleRelations.put(relation.getId(), relation);
+			} else {
+				simpleBatch.simpleRelations.put(relation.getId(), relation);
+				simpleBatch.addMembers(relation, data);
+				simpleEnvelope.expandToInclude(box);
+			}
+		}
+
+		LeafData complexBatch = new LeafData();
+		Envelope complexEnvelope = new Envelope();
+		for (List<OsmRelation> group : groups(data.complexRelations)) {
+			Envelope box = new Envelope();
+			for (OsmRelation relation : group) {
+				expand(box, relation, data);
+			}
+			LeafData target = target(box, childData, leafs);
+			for (OsmRelation relation : group) {
+				if (target != null) {
+					target.complexRelations.put(relation.getId(), relation);
+				} else {
+					complexBatch.complexRelations.put(relation.getId(),
+							relation);
+					complexBatch.addMembers(relation, data);
+				}
+			}
+			if (target == null) {
+				complexEnvelope.expandToInclude(box);
+			}
+		}
+
+		for (Node child : leafs) {
+			write(child, childData.get(child.getPath()));
+		}
+
+		if (!simpleBatch.simpleRelations.isEmpty()) {
+			long id = nextSimpleBatch++;
+			writeBatch(newBatchDir(paths.getSimpleRelations(), id),
+					simpleBatch, simpleBatch.simpleRelations);
+			simpleBatches.add(new IdBboxEntry(id, simpleEnvelope,
+					simpleBatch.nodes.size()));
+		}
+		if (!complexBatch.complexRelations.isEmpty()) {
+			long id = nextComplexBatch++;
+			writeBatch(newBatchDir(paths.getComplexRelations(), id),
+					complexBatch, complexBatch.complexRelations);
+			complexBatches.add(new IdBboxEntry(id, complexEnvelope,
+					complexBatch.nodes.size()));
+		}
+
+		removedLeafs.add(leaf.getPath());
+		for (Node child : leafs) {
+			createdLeafs.add(child.getPath());
+		}
+	}
+
+	/**
+	 * Assign ways to all new leafs their geometry intersects, including ways
+	 * that cross a leaf without having a node within it. Ways whose geometry
+	 * cannot be built fall back to the leafs that contain one of their nodes.
+	 */
+	private void assignWays(LeafData data, TLongObjectMap<LeafData> childData,
+			List<Node> leafs)
+	{
+		WayLeafQuery query = new WayLeafQuery(tree);
+		TLongObjectMap<OsmNode> wayNodes = new TLongObjectHashMap<>();
+
+		for (OsmWay way : data.ways.valueCollection()) {
+			List<LeafData> targets = new ArrayList<>();
+			try {
+				wayNodes.clear();
+				for (Node hit : query.query(way, wayNodes, data)) {
+					LeafData target = childData.get(hit.getPath());
+					if (target != null) {
+						targets.add(target);
+					}
+				}
+			} catch (EntityNotFoundException e) {
+				for (Node child : leafs) {
+					LeafData target = childData.get(child.getPath());
+					if (anyNodeIn(way, target)) {
+						targets.add(target);
+					}
+				}
+			}
+			if (targets.isEmpty()) {
+				// Keep ways without any known location in the tree
+				targets.add(childData.get(leafs.get(0).getPath()));
+			}
+			for (LeafData target : targets) {
+				target.addWay(way, data);
+			}
+		}
+	}
+
+	private static boolean anyNodeIn(OsmWay way, LeafData data)
+	{
+		for (int i = 0; i < way.getNumberOfNodes(); i++) {
+			if (data.nodes.containsKey(way.getNodeId(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void split(Node node, List<OsmNode> located, TIntList indices,
+			List<Node> leafs, List<TIntList> partitions)
+	{
+		if (indices.size() <= maxNodes || !node.canSplit()) {
+			leafs.add(node);
+			partitions.add(indices);
+			return;
+		}
+
+		node.split();
+		Node[] children = node.getChildren();
+		TIntList[] childIndices = new TIntList[children.length];
+		for (int i = 0; i < children.length; i++) {
+			childIndices[i] = new TIntArrayList();
+		}
+
+		List<Node> result = new ArrayList<>();
+		for (int k = 0; k < indices.size(); k++) {
+			int index = indices.get(k);
+			OsmNode osmNode = located.get(index);
+			result.clear();
+			node.query(result, osmNode.getLongitude(), osmNode.getLatitude());
+			for (Node child : result) {
+				int bits = child.getBitsPerLevel();
+				int number = (int) (child.getPath() & ((1L << bits) - 1));
+				childIndices[number].add(index);
+			}
+		}
+
+		for (int i = 0; i < children.length; i++) {
+			split(children[i], located, childIndices[i], leafs, partitions);
+		}
+	}
+
+	/**
+	 * Find the data of the single new leaf that contains the box, or null if
+	 * the box is empty or does not fit into a single new leaf.
+	 */
+	private LeafData target(Envelope box, TLongObjectMap<LeafData> childData,
+			List<Node> leafs)
+	{
+		if (box.isNull()) {
+			// Keep relations without any known nodes in the tree
+			return childData.get(leafs.get(0).getPath());
+		}
+		List<Node> hits = tree.query(box);
+		if (hits.size() != 1) {
+			return null;
+		}
+		return childData.get(hits.get(0).getPath());
+	}
+
+	private void expand(Envelope box, OsmRelation relation, LeafData data)
+	{
+		for (int i = 0; i < relation.getNumberOfMembers(); i++) {
+			OsmRelationMember member = relation.getMember(i);
+			if (member.getType() == EntityType.Node) {
+				expand(box, data.nodes.get(member.getId()));
+			} else if (member.getType() == EntityType.Way) {
+				OsmWay way = data.ways.get(member.getId());
+				if (way == null) {
+					continue;
+				}
+				for (int k = 0; k < way.getNumberOfNodes(); k++) {
+					expand(box, data.nodes.get(way.getNodeId(k)));
+				}
+			}
+		}
+	}
+
+	private void expand(Envelope box, OsmNode node)
+	{
+		if (node != null) {
+			box.expandToInclude(node.getLongitude(), node.getLatitude());
+		}
+	}
+
+	/**
+	 * Complex relations are stored as groups of relations connected via
+	 * relation membership. Groups need to stay together.
+	 */
+	private List<List<OsmRelation>> groups(
+			TLongObjectMap<OsmRelation> relations) throws IOException
+	{
+		RelationGraph graph = new RelationGraph(false, true);
+		graph.build(relations.valueCollection());
+
+		List<List<OsmRelation>> groups = new ArrayList<>();
+		TLongSet grouped = new TLongHashSet();
+		for (Group group : graph.buildGroups()) {
+			List<OsmRelation> list = new ArrayList<>();
+			for (long id : group.getRelationIds().toArray()) {
+				OsmRelation relation = relations.get(id);
+				if (relation != null) {
+					list.add(relation);
+					grouped.add(id);
+				}
+			}
+			if (!list.isEmpty()) {
+				groups.add(list);
+			}
+		}
+		for (OsmRelation relation : relations.valueCollection()) {
+			if (!grouped.contains(relation.getId())) {
+				List<OsmRelation> list = new ArrayList<>();
+				list.add(relation);
+				groups.add(list);
+			}
+		}
+		return groups;
+	}
+
+	private Path leafDir(long leaf, String suffix)
+	{
+		return paths.getTree().resolve(Long.toHexString(leaf) + suffix);
+	}
+
+	private Path newLeafDir(Node leaf)
+	{
+		return leafDir(leaf.getPath(), SUFFIX_NEW);
+	}
+
+	private static Path newBatchDir(Path dir, long id)
+	{
+		return dir.resolve(Long.toString(id) + SUFFIX_NEW);
+	}
+
+	private void write(Node leaf, LeafData data) throws IOException
+	{
+		Path dir = newLeafDir(leaf);
+		Files.createDirectories(dir);
+
+		TLongObjectMap<OsmWay> noWays = new TLongObjectHashMap<>();
+		TLongObjectMap<OsmNode> noNodes = new TLongObjectHashMap<>();
+		TLongObjectMap<OsmRelation> noRelations = new TLongObjectHashMap<>();
+
+		write(dir.resolve(treeNames.getNodes()), data.nodes, noWays,
+				noRelations);
+		write(dir.resolve(treeNames.getWays()), noNodes, leafWays(dir, data),
+				noRelations);
+		write(dir.resolve(treeNames.getSimpleRelations()), noNodes, noWays,
+				data.simpleRelations);
+		write(dir.resolve(treeNames.getComplexRelations()), noNodes, noWays,
+				data.complexRelations);
+	}
+
+	/**
+	 * Get the ways to store in the leaf with the specified new directory.
+	 * Ways from the store of shared ways are excluded, instead their ids are
+	 * written to the leaf's list of references.
+	 */
+	private TLongObjectMap<OsmWay> leafWays(Path dir, LeafData data)
+			throws IOException
+	{
+		if (sharedWays == null) {
+			return data.ways;
+		}
+
+		TLongObjectMap<OsmWay> ways = new TLongObjectHashMap<>();
+		TLongList refs = new TLongArrayList();
+		for (OsmWay way : data.ways.valueCollection()) {
+			if (sharedIds.contains(way.getId())) {
+				refs.add(way.getId());
+			} else {
+				ways.put(way.getId(), way);
+			}
+		}
+
+		if (!refs.isEmpty()) {
+			refs.sort();
+			Path path = SharedWaysUtil
+					.getRefsPath(dir.resolve(treeNames.getWays()));
+			IdListOutputStream output = new IdListOutputStream(
+					StreamUtil.bufferedOutputStream(path));
+			for (int i = 0; i < refs.size(); i++) {
+				output.write(refs.get(i));
+			}
+			output.close();
+		}
+		return ways;
+	}
+
+	private void writeBatch(Path dir, LeafData data,
+			TLongObjectMap<OsmRelation> relations) throws IOException
+	{
+		Files.createDirectories(dir);
+
+		TLongObjectMap<OsmWay> noWays = new TLongObjectHashMap<>();
+		TLongObjectMap<OsmNode> noNodes = new TLongObjectHashMap<>();
+		TLongObjectMap<OsmRelation> noRelations = new TLongObjectHashMap<>();
+
+		write(dir.resolve(relationNames.getNodes()), data.nodes, noWays,
+				noRelations);
+		write(dir.resolve(relationNames.getWays()), noNodes, data.ways,
+				noRelations);
+		write(dir.resolve(relationNames.getRelations()), noNodes, noWays,
+				relations);
+	}
+
+	private void write(Path path, TLongObjectMap<OsmNode> nodes,
+			TLongObjectMap<OsmWay> ways, TLongObjectMap<OsmRelation> relations)
+			throws IOException
+	{
+		OutputStream output = StreamUtil.bufferedOutputStream(path);
+		OsmOutputStream osmOutput = OsmIoUtils.setupOsmOutput(output,
+				outputConfig);
+		QueryUtil.writeNodes(nodes, osmOutput);
+		QueryUtil.writeWays(ways, osmOutput);
+		QueryUtil.writeRelations(relations, osmOutput);
+		osmOutput.complete();
+		output.close();
+	}
+
+	private static long nextBatchId(Path dir) throws IOException
+	{
+		long max = -1;
+		if (!Files.isDirectory(dir)) {
+			return 0;
+		}
+		try (DirectoryStream<Path> directories = Files
+				.newDirectoryStream(dir)) {
+			for (Path path : directories) {
+				try {
+					max = Math.max(max,
+							Long.parseLong(path.getFileName().toString()));
+				} catch (NumberFormatException e) {
+					continue;
+				}
+			}
+		}
+		return max + 1;
+	}
+
+	private Path getJournalPath()
+	{
+		return paths.getTree().resolveSibling(FILENAME_JOURNAL);
+	}
+
+	/**
+	 * Delete leafs or batches written by a run that has been interrupted
+	 * before writing its journal.
+	 */
+	private static void deleteUncommitted(Path dir) throws IOException
+	{
+		if (!Files.isDirectory(dir)) {
+			return;
+		}
+		List<Path> uncommitted = new ArrayList<>();
+		try (DirectoryStream<Path> directories = Files
+				.newDirectoryStream(dir)) {
+			for (Path path : directories) {
+				if (path.getFileName().toString().endsWith(SUFFIX_NEW)) {
+					uncommitted.add(path);
+				}
+			}
+		}
+		for (Path path : uncommitted) {
+			System.out.println("Deleting uncommitted data: " + path);
+			FileUtils.deleteDirectory(path.toFile());
+		}
+	}
+
+	private void writeJournal(Path path) throws IOException
+	{
+		Path pathTmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (PrintWriter writer = new PrintWriter(
+				Files.newBufferedWriter(pathTmp, StandardCharsets.UTF_8))) {
+			for (long leaf : removedLeafs.toArray()) {
+				writer.println(JOURNAL_REMOVE + " " + Long.toHexString(leaf));
+			}
+			for (long leaf : createdLeafs.toArray()) {
+				writer.println(JOURNAL_CREATE + " " + Long.toHexString(leaf));
+			}
+			for (IdBboxEntry entry : simpleBatches) {
+				writer.println(JOURNAL_SIMPLE + " " + format(entry));
+			}
+			for (IdBboxEntry entry : complexBatches) {
+				writer.println(JOURNAL_COMPLEX + " " + format(entry));
+			}
+		}
+		Files.move(pathTmp, path, StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static String format(IdBboxEntry entry)
+	{
+		Envelope e = entry.getEnvelope();
+		return entry.getId() + " " + e.getMinX() + " " + e.getMaxX() + " "
+				+ e.getMinY() + " " + e.getMaxY() + " " + entry.getSize();
+	}
+
+	private void readJournal(Path path) throws IOException
+	{
+		for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+			String[] parts = line.trim().split(" ");
+			if (parts[0].equals(JOURNAL_REMOVE)) {
+				removedLeafs.add(Long.parseLong(parts[1], 16));
+			} else if (parts[0].equals(JOURNAL_CREATE)) {
+				createdLeafs.add(Long.parseLong(parts[1], 16));
+			} else if (parts[0].equals(JOURNAL_SIMPLE)) {
+				simpleBatches.add(parse(parts));
+			} else if (parts[0].equals(JOURNAL_COMPLEX)) {
+				complexBatches.add(parse(parts));
+			} else if (!line.trim().isEmpty()) {
+				throw new IOException("Invalid journal entry: " + line);
+			}
+		}
+	}
+
+	private static IdBboxEntry parse(String[] parts)
+	{
+		Envelope envelope = new Envelope(Double.parseDouble(parts[2]),
+				Double.parseDouble(parts[3]), Double.parseDouble(parts[4]),
+				Double.parseDouble(parts[5]));
+		return new IdBboxEntry(Long.parseLong(parts[1]), envelope,
+				Integer.parseInt(parts[6]));
+	}
+
+	/**
+	 * Replace the leafs and add the batches recorded in the journal. Each step
+	 * checks what has been done already, so that the swap can be repeated
+	 * after an interruption.
+	 */
+	private void swap() throws IOException
+	{
+		System.out.println("Replacing leafs");
+		for (long leaf : removedLeafs.toArray()) {
+			Path dir = leafDir(leaf, "");
+			if (Files.exists(dir)) {
+				Files.move(dir, leafDir(leaf, SUFFIX_OLD),
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+		}
+		for (long leaf : createdLeafs.toArray()) {
+			Path dirNew = leafDir(leaf, SUFFIX_NEW);
+			if (Files.exists(dirNew)) {
+				Files.move(dirNew, leafDir(leaf, ""),
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+		}
+
+		addBatches(paths.getSimpleRelations(),
+				paths.getSimpleRelationsBboxes(), simpleBatches);
+		addBatches(paths.getComplexRelations(),
+				paths.getComplexRelationsBboxes(), complexBatches);
+
+		for (long leaf : removedLeafs.toArray()) {
+			FileUtils.deleteDirectory(leafDir(leaf, SUFFIX_OLD).toFile());
+		}
+	}
+
+	private void addBatches(Path dir, Path pathBboxes,
+			List<IdBboxEntry> entries) throws IOException
+	{
+		if (entries.isEmpty()) {
+			return;
+		}
+		for (IdBboxEntry entry : entries) {
+			Path dirNew = newBatchDir(dir, entry.getId());
+			if (Files.exists(dirNew)) {
+				Files.move(dirNew, dir.resolve(Long.toString(entry.getId())),
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+		}
+
+		// Skip entries that have been added before an interruption
+		TLongSet present = new TLongHashSet();
+		if (Files.exists(pathBboxes)) {
+			for (IdBboxEntry entry : IdBboxUtil.read(pathBboxes)) {
+				present.add(entry.getId());
+			}
+		}
+		List<IdBboxEntry> missing = new ArrayList<>();
+		for (IdBboxEntry entry : entries) {
+			if (!present.contains(entry.getId())) {
+				missing.add(entry);
+			}
+		}
+		append(pathBboxes, missing);
+	}
+
+	private void append(Path path, List<IdBboxEntry> entries)
+			throws IOException
+	{
+		if (entries.isEmpty()) {
+			return;
+		}
+		System.out.println(String.format("Adding %d batches to %s",
+				entries.size(), path));
+		OutputStream output = new BufferedOutputStream(
+				new FileOutputStream(path.toFile(), true));
+		IdBboxListOutputStream bboxes = new IdBboxListOutputStream(output);
+		for (IdBboxEntry entry : entries) {
+			bboxes.write(entry);
+		}
+		bboxes.close();
+	}
+
+	private void updateDerivedFiles() throws IOException
+	{
+		Path pathTreeGeometry = paths.getTree().resolveSibling("tree.wkt");
+		if (Files.exists(pathTreeGeometry)) {
+			System.out.println("Updating tree geometry");
+			DataTreeBoxGeometryCreator creator = new DataTreeBoxGeometryCreator(
+					paths.getTree().toFile(), pathTreeGeometry.toFile());
+			creator.execute();
+		}
+
+		Path pathIdIndex = paths.getIdIndex();
+		if (IdIndex.exists(pathIdIndex)) {
+			System.out.println("Rebuilding id index");
+			FileUtils.deleteDirectory(pathIdIndex.toFile());
+			IdIndexBuilder builder = new IdIndexBuilder(paths.getTree(),
+					treeNames, paths.getSimpleRelations(),
+					paths.getComplexRelations(), relationNames,
+					outputConfig.getFileFormat(), pathIdIndex);
+			builder.execute();
+		}
+	}
+
+}
@@ -0,0 +1,230 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.extracts;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+
+import de.topobyte.melon.io.StreamUtil;
+
+/**
+ * Records the completion of a build stage: the parameters it has been run
+ * with, the data it has read and the files it has written along with their
+ * sizes and the data they belong to. A manifest is written once a stage has
+ * completed, so that a resumed build can tell which stages do not need to be
+ * run again.
+ */
+public class StageManifest
+{
+
+	private static final String KEY_STAGE = "stage";
+	private static final String KEY_PARAMETERS = "parameters";
+	private static final String KEY_INPUTS = "inputs";
+	private static final String PREFIX_VALUE = "value.";
+	private static final String PREFIX_OUTPUT = "output.";
+	private static final String PREFIX_DATA = "data.";
+
+	private String stage;
+	private String parameters;
+	private List<String> inputs = new ArrayList<>();
+	private Map<String, String> values = new TreeMap<>();
+	private Map<String, Long> outputs = new TreeMap<>();
+	private Map<String, String> outputData = new TreeMap<>();
+
+	public StageManifest(String stage, String parameters)
+	{
+		this.stage = stage;
+		this.parameters = parameters;
+	}
+
+	public String getStage()
+	{
+		return stage;
+	}
+
+	public String getParameters()
+	{
+		return parameters;
+	}
+
+	public List<String> getInputs()
+	{
+		return inputs;
+	}
+
+	public Map<String, Long> getOutputs()
+	{
+		return outputs;
+	}
+
+	public String getValue(String key)
+	{
+		return values.get(key);
+	}
+
+	public void setValue(String key, String value)
+	{
+		values.put(key, value);
+	}
+
+	/**
+	 * Get the data the specified output file belongs to.
+	 */
+	public String getOutputData(String name)
+	{
+		return outputData.get(name);
+	}
+
+	/**
+	 * Record the specified file or all files within the specified directory
+	 * as output belonging to the specified data. Files that do not exist are
+	 * not recorded.
+	 */
+	public void addOutput(String data, Path base, Path path)
+	{
+		File file = path.toFile();
+		if (file.isDirectory()) {
+			for (File child : FileUtils.listFiles(file, null, true)) {
+				addOutputFile(data, base, child);
+			}
+		} else if (file.exists()) {
+			addOutputFile(data, base, file);
+		}
+	}
+
+	private void addOutputFile(String data, Path base, File file)
+	{
+		String name = base.relativize(file.toPath()).toString();
+		outputs.put(name, file.length());
+		outputData.put(name, data);
+	}
+
+	/**
+	 * Check whether all recorded outputs still exist with their recorded
+	 * sizes.
+	 */
+	public boolean isIntact(Path base)
+	{
+		for (String name : outputs.keySet()) {
+			if (!isFileIntact(base, name)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether the recorded outputs belonging to the specified data
+	 * still exist with their recorded sizes.
+	 */
+	public boolean isIntact(Path base, String data)
+	{
+		for (String name : outputs.keySet()) {
+			if (data.equals(outputData.get(name))
+					&& !isFileIntact(base, name)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isFileIntact(Path base, String name)
+	{
+		File file = base.resolve(name).toFile();
+		return file.isFile() && file.length() == outputs.get(name);
+	}
+
+	public void write(Path path) throws IOException
+	{
+		Properties properties = new Properties();
+		properties.setProperty(KEY_STAGE, stage);
+		properties.setProperty(KEY_PARAMETERS, parameters);
+		properties.setProperty(KEY_INPUTS, String.join(",", inputs));
+		for (String key : values.keySet()) {
+			properties.setProperty(PREFIX_VALUE + key, values.get(key));
+		}
+		for (String name : outputs.keySet()) {
+			properties.setProperty(PREFIX_OUTPUT + name,
+					Long.toString(outputs.get(name)));
+			properties.setProperty(PREFIX_DATA + name, outputData.get(name));
+		}
+
+		// The manifest must only appear once it has been written completely
+		Path pathTmp = path.resolveSibling(path.getFileName() + ".tmp");
+		OutputStream output = StreamUtil.bufferedOutputStream(pathTmp);
+		properties.store(output, null);
+		output.close();
+
+		Files.move(pathTmp, path, StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	public static StageManifest read(Path path) throws IOException
+	{
+		Properties properties = new Properties();
+		InputStream input = StreamUtil.bufferedInputStream(path);
+		properties.load(input);
+		input.close();
+
+		String stage = properties.getProperty(KEY_STAGE);
+		String parameters = properties.getProperty(KEY_PARAMETERS);
+		if (stage == null || parameters == null) {
+			throw new IOException("Invalid stage manifest: " + path);
+		}
+
+		StageManifest manifest = new StageManifest(stage, parameters);
+		String inputs = properties.getProperty(KEY_INPUTS, "");
+		if (!inputs.isEmpty()) {
+			manifest.inputs.addAll(Arrays.asList(inputs.split(",")));
+		}
+		for (String key : properties.stringPropertyNames()) {
+			String value = properties.getProperty(key);
+			if (key.startsWith(PREFIX_VALUE)) {
+				manifest.values.put(key.substring(PREFIX_VALUE.length()),
+						value);
+			} else if (key.startsWith(PREFIX_OUTPUT)) {
+				try {
+					manifest.outputs.put(
+							key.substring(PREFIX_OUTPUT.length()),
+							Long.parseLong(value));
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid stage manifest: " + path,
+							e);
+				}
+			} else if (key.startsWith(PREFIX_DATA)) {
+				manifest.outputData.put(key.substring(PREFIX_DATA.length()),
+						value);
+			}
+		}
+		return manifest;
+	}
+
+}
@@ -17,7 +17,11 @@
 
 package de.topobyte.osm4j.extra.extracts;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.joda.time.Duration;
@@ -30,18 +34,19 @@ public class TimeTable
 
 	private Map<String, Long> starts = new HashMap<>();
 	private Map<String, Long> stops = new HashMap<>();
+	private Map<String, List<String>> dependencies = new LinkedHashMap<>();
 
-	public void start(String key)
+	public synchronized void start(String key)
 	{
 		starts.put(key, System.currentTimeMillis());
 	}
 
-	public void stop(String key)
+	public synchronized void stop(String key)
 	{
 		stops.put(key, System.currentTimeMillis());
 	}
 
-	public long time(String key)
+	public synchronized long time(String key)
 	{
 		if (!starts.containsKey(key)) {
 			return 0;
@@ -62,7 +67,64 @@ public class TimeTable
 
 	public String htime(String key)
 	{
-		long millis = time(key);
+		return htime(time(key));
+	}
+
+	/**
+	 * Declare the keys that need to be finished before the specified key can
+	 * be started. Keys need to be declared after the keys they depend on.
+	 */
+	public synchronized void setDependencies(String key, List<String> keys)
+	{
+		dependencies.put(key, new ArrayList<>(keys));
+	}
+
+	/**
+	 * Get the chain of dependent keys with the largest sum of times, i.e. the
+	 * keys that determine the total time when running independent keys
+	 * concurrently.
+	 */
+	public synchronized List<String> criticalPath()
+	{
+		Map<String, Long> totals = new HashMap<>();
+		Map<String, String> predecessors = new HashMap<>();
+
+		String last = null;
+		for (String key : dependencies.keySet()) {
+			long before = 0;
+			for (String dependency : dependencies.get(key)) {
+				Long total = totals.get(dependency);
+				if (total != null && total > before) {
+					before = total;
+					predecessors.put(key, dependency);
+				}
+			}
+			long total = before + time(key);
+			totals.put(key, total);
+			if (last == null || total > totals.get(last)) {
+				last = key;
+			}
+		}
+
+		List<String> path = new ArrayList<>();
+		for (String key = last; key != null; key = predecessors.get(key)) {
+			path.add(key);
+		}
+		Collections.reverse(path);
+		return path;
+	}
+
+	public synchronized long criticalPathTime()
+	{
+		long sum = 0;
+		for (String key : criticalPath()) {
+			sum += time(key);
+		}
+		return sum;
+	}
+
+	public String htime(long millis)
+	{
 		Duration duration = new Duration(millis);
 		Period period = duration.toPeriod();
 
@@ -23,6 +23,7 @@ import java.nio.file.Path;
 
 import de.topobyte.melon.io.StreamUtil;
 import de.topobyte.osm4j.core.access.OsmIteratorInput;
+import de.topobyte.osm4j.core.access.OsmIteratorInputFactory;
 import de.topobyte.osm4j.core.access.OsmOutputStream;
 import de.topobyte.osm4j.core.access.OsmOutputStreamStreamOutput;
 import de.topobyte.osm4j.core.access.OsmStreamOutput;
@@ -79,7 +80,12 @@ public abstract class AbstractQuery
 
 	protected InMemoryListDataSet read(Path path) throws IOException
 	{
-		OsmFileInput fileInput = new OsmFileInput(path, inputFormat);
+		return read(new OsmFileInput(path, inputFormat));
+	}
+
+	protected InMemoryListDataSet read(OsmIteratorInputFactory fileInput)
+			throws IOException
+	{
 		OsmIteratorInput input = fileInput.createIterator(true,
 				outputConfig.isWriteMetadata());
 		InMemoryListDataSet data = ListDataSetLoader.read(input.getIterator(),
@@ -0,0 +1,356 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.extracts.query;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.slimjars.dist.gnu.trove.map.TIntObjectMap;
+import com.slimjars.dist.gnu.trove.map.TLongObjectMap;
+import com.slimjars.dist.gnu.trove.map.hash.TIntObjectHashMap;
+import com.slimjars.dist.gnu.trove.map.hash.TLongObjectHashMap;
+import com.slimjars.dist.gnu.trove.set.TIntSet;
+import com.slimjars.dist.gnu.trove.set.TLongSet;
+import com.slimjars.dist.gnu.trove.set.hash.TIntHashSet;
+import com.slimjars.dist.gnu.trove.set.hash.TLongHashSet;
+
+import de.topobyte.osm4j.core.access.OsmIteratorInput;
+import de.topobyte.osm4j.core.access.OsmIteratorInputFactory;
+import de.topobyte.osm4j.core.access.OsmStreamOutput;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.EntityType;
+import de.topobyte.osm4j.core.model.iface.OsmEntity;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmRelation;
+import de.topobyte.osm4j.core.model.iface.OsmRelationMember;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.extra.QueryUtil;
+import de.topobyte.osm4j.extra.datatree.DataTree;
+import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
+import de.topobyte.osm4j.extra.datatree.DataTreeOpener;
+import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.datatree.shared.SharedWaysStore;
+import de.topobyte.osm4j.extra.datatree.spatial.SpatialBlock;
+import de.topobyte.osm4j.extra.datatree.spatial.SpatialLeafFile;
+import de.topobyte.osm4j.extra.extracts.BatchFileNames;
+import de.topobyte.osm4j.extra.extracts.ExtractionPaths;
+import de.topobyte.osm4j.extra.extracts.TreeFileNames;
+import de.topobyte.osm4j.extra.idlocation.IdIndex;
+import de.topobyte.osm4j.extra.idlocation.IdLocation;
+import de.topobyte.osm4j.extra.idlocation.Location;
+import de.topobyte.osm4j.utils.FileFormat;
+import de.topobyte.osm4j.utils.OsmFileInput;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+
+/**
+ * Extract entities by id from an extraction database using its
+ * {@link IdIndex}. The output contains the requested entities, the members of
+ * requested relations (recursively) and the nodes of all contained ways. Only
+ * the files of the locations that hold these entities are read, and of
+ * spatially sorted leaf files and the store of shared ways only the relevant
+ * blocks.
+ */
+public class IdQuery extends AbstractQuery
+{
+
+	private IdIndex index;
+	private Path pathOutput;
+
+	private DataTreeFiles filesNodes;
+	private DataTreeFiles filesWays;
+	private DataTreeFiles filesSimpleRelations;
+	private DataTreeFiles filesComplexRelations;
+	private Path pathSimpleRelations;
+	private Path pathComplexRelations;
+	private BatchFileNames relationNames;
+	private SharedWaysStore sharedWays;
+
+	private TLongObjectMap<Node> leafs = new TLongObjectHashMap<>();
+
+	private TLongObjectMap<OsmNode> nodes = new TLongObjectHashMap<>();
+	private TLongObjectMap<OsmWay> ways = new TLongObjectHashMap<>();
+	private TLongObjectMap<OsmRelation> relations = new TLongObjectHashMap<>();
+
+	private int nMissingNodes = 0;
+	private int nMissingWays = 0;
+	private int nMissingRelations = 0;
+
+	public IdQuery(IdIndex index, Path pathOutput, ExtractionPaths paths,
+			TreeFileNames treeNames, BatchFileNames relationNames,
+			FileFormat inputFormat, OsmOutputConfig outputConfig)
+			throws IOException
+	{
+		super(inputFormat, outputConfig, outputConfig);
+		this.index = index;
+		this.pathOutput = pathOutput;
+		this.relationNames = relationNames;
+
+		Path pathTree = paths.getTree();
+		filesNodes = new DataTreeFiles(pathTree, treeNames.getNodes());
+		filesWays = new DataTreeFiles(pathTree, treeNames.getWays());
+		filesSimpleRelations = new DataTreeFiles(pathTree,
+				treeNames.getSimpleRelations());
+		filesComplexRelations = new DataTreeFiles(pathTree,
+				treeNames.getComplexRelations());
+		pathSimpleRelations = paths.getSimpleRelations();
+		pathComplexRelations = paths.getComplexRelations();
+		sharedWays = SharedWaysStore.open(pathTree, treeNames.getWays(),
+				inputFormat);
+
+		DataTree tree = DataTreeOpener.open(pathTree.toFile());
+		for (Node leaf : tree.getLeafs()) {
+			leafs.put(leaf.getPath(), leaf);
+		}
+	}
+
+	public void execute(TLongSet nodeIds, TLongSet wayIds,
+			TLongSet relationIds) throws IOException
+	{
+		try {
+			query(nodeIds, wayIds, relationIds);
+		} finally {
+			// Also release the tree files, e.g. an open pack, on failure
+			closeTree();
+		}
+	}
+
+	private void query(TLongSet nodeIds, TLongSet wayIds,
+			TLongSet relationIds) throws IOException
+	{
+		TLongSet queryNodes = new TLongHashSet(nodeIds);
+		TLongSet queryWays = new TLongHashSet(wayIds);
+
+		// Resolve relations level by level, collecting their members
+		TLongSet queryRelations = new TLongHashSet(relationIds);
+		TLongSet queried = new TLongHashSet();
+		while (!queryRelations.isEmpty()) {
+			queried.addAll(queryRelations);
+			List<OsmEntity> found = fetch(EntityType.Relation,
+					queryRelations);
+			nMissingRelations += queryRelations.size() - found.size();
+
+			TLongSet next = new TLongHashSet();
+			for (OsmEntity entity : found) {
+				OsmRelation relation = (OsmRelation) entity;
+				relations.put(relation.getId(), relation);
+				for (int i = 0; i < relation.getNumberOfMembers(); i++) {
+					OsmRelationMember member = relation.getMember(i);
+					long id = member.getId();
+					switch (member.getType()) {
+					case Node:
+						queryNodes.add(id);
+						break;
+					case Way:
+						queryWays.add(id);
+						break;
+					case Relation:
+						if (!queried.contains(id)) {
+							next.add(id);
+						}
+						break;
+					}
+				}
+			}
+			queryRelations = next;
+		}
+
+		List<OsmEntity> foundWays = fetch(EntityType.Way, queryWays);
+		nMissingWays += queryWays.size() - foundWays.size();
+		for (OsmEntity entity : foundWays) {
+			OsmWay way = (OsmWay) entity;
+			ways.put(way.getId(), way);
+			for (int i = 0; i < way.getNumberOfNodes(); i++) {
+				queryNodes.add(way.getNodeId(i));
+			}
+		}
+
+		List<OsmEntity> foundNodes = fetch(EntityType.Node, queryNodes);
+		nMissingNodes += queryNodes.size() - foundNodes.size();
+		for (OsmEntity entity : foundNodes) {
+			nodes.put(entity.getId(), (OsmNode) entity);
+		}
+
+		System.out.println(String.format(
+				"Found %d nodes, %d ways, %d relations", nodes.size(),
+				ways.size(), relations.size()));
+		System.out.println(String.format(
+				"Missing %d nodes, %d ways, %d relations", nMissingNodes,
+				nMissingWays, nMissingRelations));
+
+		OsmStreamOutput output = createFinalOutput(pathOutput);
+		QueryUtil.writeNodes(nodes, output.getOsmOutput());
+		QueryUtil.writeWays(ways, output.getOsmOutput());
+		QueryUtil.writeRelations(relations, output.getOsmOutput());
+		finish(output);
+	}
+
+	private void closeTree() throws IOException
+	{
+		filesNodes.close();
+		filesWays.close();
+		filesSimpleRelations.close();
+		filesComplexRelations.close();
+	}
+
+	private List<OsmEntity> fetch(EntityType type, TLongSet ids)
+			throws IOException
+	{
+		// Group the ids by location, looking them up in increasing order so
+		// that each index page is decoded only once
+		long[] sorted = ids.toArray();
+		Arrays.sort(sorted);
+
+		TIntObjectMap<TLongSet> idsByLocation = new TIntObjectHashMap<>();
+		TIntObjectMap<TIntSet> blocksByLocation = new TIntObjectHashMap<>();
+		for (long id : sorted) {
+			IdLocation location = index.lookup(type, id);
+			if (location == null) {
+				continue;
+			}
+			TLongSet locationIds = idsByLocation.get(location.getLocation());
+			if (locationIds == null) {
+				locationIds = new TLongHashSet();
+				idsByLocation.put(location.getLocation(), locationIds);
+				blocksByLocation.put(location.getLocation(),
+						new TIntHashSet());
+			}
+			locationIds.add(id);
+			blocksByLocation.get(location.getLocation())
+					.add(location.getBlock());
+		}
+
+		List<OsmEntity> results = new ArrayList<>();
+
+		int[] locations = idsByLocation.keys();
+		Arrays.sort(locations);
+		for (int i : locations) {
+			Location location = index.getLocation(i);
+			TLongSet wanted = idsByLocation.get(i);
+			for (OsmIteratorInputFactory input : inputs(location, type,
+					blocksByLocation.get(i))) {
+				read(input, type, wanted, results);
+			}
+		}
+
+		return results;
+	}
+
+	private void read(OsmIteratorInputFactory inputFactory, EntityType type,
+			TLongSet wanted, List<OsmEntity> results) throws IOException
+	{
+		OsmIteratorInput input = inputFactory.createIterator(true,
+				outputConfig.isWriteMetadata());
+		for (EntityContainer container : input.getIterator()) {
+			if (container.getType() != type) {
+				continue;
+			}
+			OsmEntity entity = container.getEntity();
+			if (wanted.remove(entity.getId())) {
+				results.add(entity);
+			}
+		}
+		input.close();
+	}
+
+	private List<OsmIteratorInputFactory> inputs(Location location,
+			EntityType type, TIntSet blocks) throws IOException
+	{
+		List<OsmIteratorInputFactory> inputs = new ArrayList<>();
+		switch (location.getType()) {
+		case LEAF:
+			Node leaf = leafs.get(location.getLeaf());
+			if (leaf == null) {
+				throw new IOException("Id index refers to unknown leaf: "
+						+ Long.toHexString(location.getLeaf()));
+			}
+			switch (type) {
+			case Node:
+				inputs.add(input(filesNodes, leaf, blocks));
+				break;
+			case Way:
+				inputs.add(input(filesWays, leaf, blocks));
+				break;
+			case Relation:
+				inputs.add(filesSimpleRelations.getInput(leaf, inputFormat));
+				inputs.add(filesComplexRelations.getInput(leaf, inputFormat));
+				break;
+			}
+			break;
+		case SIMPLE_RELATIONS:
+			inputs.add(new OsmFileInput(
+					pathSimpleRelations.resolve(location.getBatch())
+							.resolve(relationNames.getRelations()),
+					inputFormat));
+			break;
+		case COMPLEX_RELATIONS:
+			inputs.add(new OsmFileInput(
+					pathComplexRelations.resolve(location.getBatch())
+							.resolve(relationNames.getRelations()),
+					inputFormat));
+			break;
+		case SHARED_WAYS:
+			if (sharedWays == null) {
+				throw new IOException(
+						"Id index refers to missing store of shared ways: "
+								+ location.getBatch());
+			}
+			inputs.add(input(sharedWays, blocks));
+			break;
+		}
+		return inputs;
+	}
+
+	private OsmIteratorInputFactory input(DataTreeFiles files, Node leaf,
+			TIntSet blocks) throws IOException
+	{
+		if (!blocks.contains(-1)) {
+			SpatialLeafFile spatial = files.getSpatialFile(leaf, inputFormat);
+			if (spatial != null) {
+				List<SpatialBlock> all = spatial.getBlocks();
+				List<SpatialBlock> selection = new ArrayList<>();
+				for (int i = 0; i < all.size(); i++) {
+					if (blocks.contains(i)) {
+						selection.add(all.get(i));
+					}
+				}
+				return spatial.createInput(selection);
+			}
+		}
+		return files.getInput(leaf, inputFormat);
+	}
+
+	private OsmIteratorInputFactory input(SharedWaysStore store,
+			TIntSet blocks)
+	{
+		List<SpatialBlock> all = store.getBlocks();
+		if (all == null || blocks.contains(-1)) {
+			return store.createInput();
+		}
+		List<SpatialBlock> selection = new ArrayList<>();
+		for (int i = 0; i < all.size(); i++) {
+			if (blocks.contains(i)) {
+				selection.add(all.get(i));
+			}
+		}
+		return store.createInput(selection);
+	}
+
+}
@@ -19,10 +19,16 @@ package de.topobyte.osm4j.extra.extracts.query;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.GeometryFactory;
 
+import com.slimjars.dist.gnu.trove.list.TLongList;
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
 import com.slimjars.dist.gnu.trove.map.TLongObjectMap;
 import com.slimjars.dist.gnu.trove.map.hash.TLongObjectHashMap;
 import com.slimjars.dist.gnu.trove.set.TLongSet;
@@ -30,14 +36,26 @@ import com.slimjars.dist.gnu.trove.set.hash.TLongHashSet;
 
 import de.topobyte.jts.utils.GeometryGroup;
 import de.topobyte.jts.utils.predicate.PredicateEvaluator;
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.access.OsmIteratorInput;
 import de.topobyte.osm4j.core.access.OsmStreamOutput;
 import de.topobyte.osm4j.core.dataset.InMemoryListDataSet;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.EntityType;
 import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmRelation;
+import de.topobyte.osm4j.core.model.iface.OsmRelationMember;
 import de.topobyte.osm4j.core.model.iface.OsmWay;
 import de.topobyte.osm4j.core.resolve.EntityNotFoundException;
+import de.topobyte.osm4j.core.resolve.OsmEntityProvider;
 import de.topobyte.osm4j.extra.QueryUtil;
 import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
 import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.datatree.locations.WayLocations;
+import de.topobyte.osm4j.extra.datatree.locations.WayLocationsProvider;
+import de.topobyte.osm4j.extra.datatree.locations.WayLocationsUtil;
+import de.topobyte.osm4j.extra.datatree.spatial.SpatialBlock;
+import de.topobyte.osm4j.extra.datatree.spatial.SpatialLeafFile;
 import de.topobyte.osm4j.geometry.WayBuilder;
 import de.topobyte.osm4j.geometry.WayBuilderResult;
 import de.topobyte.osm4j.utils.FileFormat;
@@ -46,6 +64,7 @@ import de.topobyte.osm4j.utils.OsmOutputConfig;
 public class LeafQuery extends AbstractQuery
 {
 
+	private Envelope queryEnvelope;
 	private PredicateEvaluator test;
 
 	private DataTreeFiles filesTreeNodes;
@@ -55,7 +74,8 @@ public class LeafQuery extends AbstractQuery
 
 	private boolean fastRelationTests;
 
-	public LeafQuery(PredicateEvaluator test, DataTreeFiles filesTreeNodes,
+	public LeafQuery(Envelope queryEnvelope, PredicateEvaluator test,
+			DataTreeFiles filesTreeNodes,
 			DataTreeFiles filesTreeWays, DataTreeFiles filesTreeSimpleRelations,
 			DataTreeFiles filesTreeComplexRelations, FileFormat inputFormat,
 			OsmOutputConfig outputConfigIntermediate,
@@ -63,6 +83,7 @@ public class LeafQuery extends AbstractQuery
 	{
 		super(inputFormat, outputConfigIntermediate, outputConfig);
 
+		this.queryEnvelope = queryEnvelope;
 		this.test = test;
 		this.filesTreeNodes = filesTreeNodes;
 		this.filesTreeWays = filesTreeWays;
@@ -88,6 +109,12 @@ public class LeafQuery extends AbstractQuery
 	private InMemoryListDataSet dataSimpleRelations;
 	private InMemoryListDataSet dataComplexRelations;
 
+	private TLongObjectMap<WayLocations> wayLocations = null;
+	private TLongSet disjointWays = null;
+
+	private List<OsmWay> sharedWays = null;
+	private TLongSet selectedSharedWays;
+
 	private TLongSet nodeIds = new TLongHashSet();
 	private TLongSet wayIds = new TLongHashSet();
 
@@ -97,6 +124,18 @@ public class LeafQuery extends AbstractQuery
 	private GeometryFactory factory = new GeometryFactory();
 	private WayBuilder wayBuilder = new WayBuilder(factory);
 
+	/**
+	 * Set the ways from the tree's shared store that are referenced by the
+	 * leaf. Shared ways that are part of the result are not written to the
+	 * leaf's output but added to the specified set instead.
+	 */
+	public void setSharedWays(List<OsmWay> sharedWays,
+			TLongSet selectedSharedWays)
+	{
+		this.sharedWays = sharedWays;
+		this.selectedSharedWays = selectedSharedWays;
+	}
+
 	public QueryResult execute(Node leaf, Path pathOutNodes, Path pathOutWays,
 			Path pathOutSimpleRelations, Path pathOutComplexRelations,
 			Path pathOutAdditionalNodes, Path pathOutAdditionalWays)
@@ -120,6 +159,11 @@ public class LeafQuery extends AbstractQuery
 		System.out.println("querying ways");
 		queryWays();
 
+		if (sharedWays != null) {
+			System.out.println("querying shared ways");
+			querySharedWays();
+		}
+
 		System.out.println("querying simple relations");
 		RelationQueryBag queryBagSimple = new RelationQueryBag(
 				outSimpleRelations, additionalNodes, additionalWays, nodeIds,
@@ -171,10 +215,179 @@ public class LeafQuery extends AbstractQuery
 
 	private void readData(Node leaf) throws IOException
 	{
-		dataNodes = read(filesTreeNodes.getPath(leaf));
-		dataWays = read(filesTreeWays.getPath(leaf));
-		dataSimpleRelations = read(filesTreeSimpleRelations.getPath(leaf));
-		dataComplexRelations = read(filesTreeComplexRelations.getPath(leaf));
+		dataSimpleRelations = read(
+				filesTreeSimpleRelations.getInput(leaf, inputFormat));
+		dataComplexRelations = read(
+				filesTreeComplexRelations.getInput(leaf, inputFormat));
+
+		SpatialLeafFile spatialNodes = filesTreeNodes.getSpatialFile(leaf,
+				inputFormat);
+		SpatialLeafFile spatialWays = filesTreeWays.getSpatialFile(leaf,
+				inputFormat);
+		// The extent of shared ways is unknown to the spatial index
+		boolean hasSharedWays = sharedWays != null && !sharedWays.isEmpty();
+		if (spatialNodes != null && spatialWays != null && !hasSharedWays) {
+			readData(spatialNodes, spatialWays);
+			return;
+		}
+
+		dataWays = read(filesTreeWays.getInput(leaf, inputFormat));
+
+		if (!filesTreeWays.isPacked()) {
+			Path pathWays = filesTreeWays.getPath(leaf);
+			if (WayLocationsUtil.exists(pathWays)) {
+				disjointWays = new TLongHashSet();
+				wayLocations = WayLocationsUtil.read(pathWays, queryEnvelope,
+						disjointWays);
+				dataNodes = readNodes(leaf);
+				return;
+			}
+		}
+
+		dataNodes = read(filesTreeNodes.getInput(leaf, inputFormat));
+	}
+
+	/**
+	 * Read only the nodes that may be needed: nodes within the query
+	 * envelope, nodes of ways that are not known to be disjoint with the
+	 * query envelope and nodes referenced by relations, directly or through
+	 * their member ways.
+	 */
+	private InMemoryListDataSet readNodes(Node leaf) throws IOException
+	{
+		TLongSet needed = new TLongHashSet();
+		TLongList memberNodeIds = new TLongArrayList();
+		TLongList memberWayIds = new TLongArrayList();
+		collectMembers(dataSimpleRelations, memberNodeIds, memberWayIds);
+		collectMembers(dataComplexRelations, memberNodeIds, memberWayIds);
+		needed.addAll(memberNodeIds);
+		TLongSet memberWays = new TLongHashSet(memberWayIds);
+
+		for (OsmWay way : dataWays.getWays()) {
+			if (disjointWays.contains(way.getId())
+					&& !memberWays.contains(way.getId())) {
+				continue;
+			}
+			addNodes(needed, way);
+		}
+		if (sharedWays != null) {
+			for (OsmWay way : sharedWays) {
+				addNodes(needed, way);
+			}
+		}
+
+		InMemoryListDataSet data = new InMemoryListDataSet();
+		List<OsmNode> nodes = data.getNodes();
+		OsmIteratorInput input = filesTreeNodes.getInput(leaf, inputFormat)
+				.createIterator(true, outputConfig.isWriteMetadata());
+		OsmIterator iterator = input.getIterator();
+		int total = 0;
+		while (iterator.hasNext()) {
+			EntityContainer container = iterator.next();
+			if (container.getType() != EntityType.Node) {
+				continue;
+			}
+			total++;
+			OsmNode node = (OsmNode) container.getEntity();
+			if (needed.contains(node.getId()) || queryEnvelope
+					.contains(node.getLongitude(), node.getLatitude())) {
+				nodes.add(node);
+			}
+		}
+		input.close();
+
+		System.out.println(String.format("kept %d of %d nodes, %d of %d ways "
+				+ "are disjoint with the query envelope", nodes.size(), total,
+				disjointWays.size(), dataWays.getWays().size()));
+		return data;
+	}
+
+	private static void addNodes(TLongSet ids, OsmWay way)
+	{
+		for (int i = 0; i < way.getNumberOfNodes(); i++) {
+			ids.add(way.getNodeId(i));
+		}
+	}
+
+	/**
+	 * Read only those blocks of spatially sorted node and way files that are
+	 * relevant to the query: ways whose extent intersects the query envelope,
+	 * ways referenced by relations of the leaf and all nodes these ways and
+	 * relations refer to.
+	 */
+	private void readData(SpatialLeafFile spatialNodes,
+			SpatialLeafFile spatialWays) throws IOException
+	{
+		TLongList memberNodeIds = new TLongArrayList();
+		TLongList memberWayIds = new TLongArrayList();
+		collectMembers(dataSimpleRelations, memberNodeIds, memberWayIds);
+		collectMembers(dataComplexRelations, memberNodeIds, memberWayIds);
+		long[] nodeIds = memberNodeIds.toArray();
+		long[] wayIds = memberWayIds.toArray();
+		Arrays.sort(nodeIds);
+		Arrays.sort(wayIds);
+
+		// The nodes of a way are located within the extent of its block
+		Envelope envelope = new Envelope(queryEnvelope);
+
+		List<SpatialBlock> wayBlocks = new ArrayList<>();
+		for (SpatialBlock block : spatialWays.getBlocks()) {
+			if (block.getEnvelope().intersects(queryEnvelope)
+					|| containsAny(block, wayIds)) {
+				wayBlocks.add(block);
+				envelope.expandToInclude(block.getEnvelope());
+			}
+		}
+
+		List<SpatialBlock> nodeBlocks = new ArrayList<>();
+		for (SpatialBlock block : spatialNodes.getBlocks()) {
+			if (block.getEnvelope().intersects(envelope)
+					|| containsAny(block, nodeIds)) {
+				nodeBlocks.add(block);
+			}
+		}
+
+		System.out.println(String.format(
+				"reading %d of %d node blocks, %d of %d way blocks",
+				nodeBlocks.size(), spatialNodes.getBlocks().size(),
+				wayBlocks.size(), spatialWays.getBlocks().size()));
+
+		dataNodes = read(spatialNodes.createInput(nodeBlocks));
+		dataWays = read(spatialWays.createInput(wayBlocks));
+	}
+
+	private void collectMembers(InMemoryListDataSet data, TLongList nodeIds,
+			TLongList wayIds)
+	{
+		for (OsmRelation relation : data.getRelations()) {
+			for (int i = 0; i < relation.getNumberOfMembers(); i++) {
+				OsmRelationMember member = relation.getMember(i);
+				if (member.getType() == EntityType.Node) {
+					nodeIds.add(member.getId());
+				} else if (member.getType() == EntityType.Way) {
+					wayIds.add(member.getId());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test whether the block may contain any of the sorted ids. The id ranges
+	 * of spatially ordered blocks overlap, so each id within the range is
+	 * tested against the block's id filter.
+	 */
+	private static boolean containsAny(SpatialBlock block, long[] ids)
+	{
+		int index = Arrays.binarySearch(ids, block.getMinId());
+		if (index < 0) {
+			index = -index - 1;
+		}
+		for (int i = index; i < ids.length && ids[i] <= block.getMaxId(); i++) {
+			if (block.mayContain(ids[i])) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	private void queryNodes() throws IOException
@@ -191,17 +404,13 @@ public class LeafQuery extends AbstractQuery
 	private void queryWays() throws IOException
 	{
 		for (OsmWay way : dataWays.getWays()) {
+			// Nodes of such ways have not been loaded
+			if (disjointWays != null && disjointWays.contains(way.getId())) {
+				continue;
+			}
 			boolean in = QueryUtil.anyNodeContainedIn(way, nodeIds);
 			if (!in && way.getNumberOfNodes() > 1) {
-				try {
-					WayBuilderResult result = wayBuilder.build(way, dataNodes);
-					GeometryGroup group = result.toGeometryGroup(factory);
-					if (test.intersects(group)) {
-						in = true;
-					}
-				} catch (EntityNotFoundException e) {
-					System.out.println("Unable to build way: " + way.getId());
-				}
+				in = intersects(way);
 			}
 			if (!in) {
 				continue;
@@ -217,6 +426,54 @@ public class LeafQuery extends AbstractQuery
 		}
 	}
 
+	private void querySharedWays()
+	{
+		for (OsmWay way : sharedWays) {
+			boolean in = QueryUtil.anyNodeContainedIn(way, nodeIds);
+			if (!in && way.getNumberOfNodes() > 1) {
+				in = intersects(way);
+			}
+			if (!in) {
+				continue;
+			}
+			wayIds.add(way.getId());
+			selectedSharedWays.add(way.getId());
+			try {
+				QueryUtil.putNodes(way, additionalNodes, dataNodes, nodeIds);
+			} catch (EntityNotFoundException e) {
+				System.out.println(
+						"Unable to find all nodes for way: " + way.getId());
+			}
+		}
+
+		// Relations of the leaf may reference shared ways
+		dataWays.getWays().addAll(sharedWays);
+		dataWays.sort();
+	}
+
+	private boolean intersects(OsmWay way)
+	{
+		// Use the embedded locations if available. Only locations of ways
+		// whose extent intersects the query envelope have been kept.
+		OsmEntityProvider provider = dataNodes;
+		WayLocations locations = null;
+		if (wayLocations != null) {
+			locations = wayLocations.get(way.getId());
+		}
+		if (locations != null) {
+			provider = new WayLocationsProvider(way, locations);
+		}
+
+		try {
+			WayBuilderResult result = wayBuilder.build(way, provider);
+			GeometryGroup group = result.toGeometryGroup(factory);
+			return test.intersects(group);
+		} catch (EntityNotFoundException e) {
+			System.out.println("Unable to build way: " + way.getId());
+			return false;
+		}
+	}
+
 	private void writeAdditionalNodes() throws IOException
 	{
 		OsmStreamOutput output = createOutput(pathOutAdditionalNodes);
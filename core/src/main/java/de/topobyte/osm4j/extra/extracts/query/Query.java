@@ -22,7 +22,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileAttribute;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
 import org.locationtech.jts.geom.Coordinate;
@@ -30,11 +32,15 @@ import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
 
+import com.slimjars.dist.gnu.trove.map.TLongObjectMap;
+import com.slimjars.dist.gnu.trove.map.hash.TLongObjectHashMap;
 import com.slimjars.dist.gnu.trove.set.TLongSet;
+import com.slimjars.dist.gnu.trove.set.hash.TLongHashSet;
 
 import de.topobyte.jts.utils.predicate.PredicateEvaluator;
 import de.topobyte.osm4j.core.access.OsmIterator;
 import de.topobyte.osm4j.core.access.OsmIteratorInput;
+import de.topobyte.osm4j.core.access.OsmIteratorInputFactory;
 import de.topobyte.osm4j.core.access.OsmStreamOutput;
 import de.topobyte.osm4j.core.dataset.InMemoryListDataSet;
 import de.topobyte.osm4j.core.model.iface.OsmNode;
@@ -44,6 +50,8 @@ import de.topobyte.osm4j.extra.datatree.DataTree;
 import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
 import de.topobyte.osm4j.extra.datatree.DataTreeOpener;
 import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.datatree.shared.SharedWaysStore;
+import de.topobyte.osm4j.extra.datatree.shared.SharedWaysUtil;
 import de.topobyte.osm4j.extra.extracts.BatchFileNames;
 import de.topobyte.osm4j.extra.extracts.ExtractionPaths;
 import de.topobyte.osm4j.extra.extracts.TreeFileNames;
@@ -156,16 +164,21 @@ public class Query extends AbstractQuery
 	private DataTreeFiles filesTreeComplexRelations;
 
 	// Lists of files that need to be merged in the end
-	private List<OsmFileInput> filesNodes = new ArrayList<>();
-	private List<OsmFileInput> filesWays = new ArrayList<>();
-	private List<OsmFileInput> filesSimpleRelations = new ArrayList<>();
-	private List<OsmFileInput> filesComplexRelations = new ArrayList<>();
+	private List<OsmIteratorInputFactory> filesNodes = new ArrayList<>();
+	private List<OsmIteratorInputFactory> filesWays = new ArrayList<>();
+	private List<OsmIteratorInputFactory> filesSimpleRelations = new ArrayList<>();
+	private List<OsmIteratorInputFactory> filesComplexRelations = new ArrayList<>();
 
 	private int nNodes = 0;
 	private int nWays = 0;
 	private int nSimpleRelations = 0;
 	private int nComplexRelations = 0;
 
+	// Ways stored once for all leafs, if the tree has a shared way store
+	private TLongObjectMap<OsmWay> sharedWays = null;
+	private Map<Node, long[]> sharedRefs = new HashMap<>();
+	private TLongSet selectedSharedWays = new TLongHashSet();
+
 	private int tmpIndexTree = 0;
 	private int tmpIndexSimple = 0;
 	private int tmpIndexComplex = 0;
@@ -177,10 +190,27 @@ public class Query extends AbstractQuery
 		// Query setup
 
 		openTree();
+		try {
+			query();
+		} finally {
+			// Also release the tree files, e.g. an open pack, on failure
+			closeTree();
+		}
+
+		// Delete intermediate files
+
+		if (!keepTmp) {
+			FileUtils.deleteDirectory(pathTmp.toFile());
+		}
+	}
 
+	private void query() throws IOException
+	{
 		Geometry box = factory.toGeometry(queryEnvelope);
 		List<Node> leafs = tree.query(box);
 
+		loadSharedWays(leafs);
+
 		// Query data tree
 
 		for (Node leaf : leafs) {
@@ -270,11 +300,13 @@ public class Query extends AbstractQuery
 			}
 		}
 
+		writeSharedWays();
+
 		// Merge intermediate files
 
 		OsmStreamOutput output = createFinalOutput(pathOutput);
 
-		List<OsmFileInput> mergeFiles = new ArrayList<>();
+		List<OsmIteratorInputFactory> mergeFiles = new ArrayList<>();
 
 		mergeFiles.addAll(filesNodes);
 		mergeFiles.addAll(filesWays);
@@ -286,7 +318,7 @@ public class Query extends AbstractQuery
 
 		List<OsmIteratorInput> mergeIteratorInputs = new ArrayList<>();
 		List<OsmIterator> mergeIterators = new ArrayList<>();
-		for (OsmFileInput input : mergeFiles) {
+		for (OsmIteratorInputFactory input : mergeFiles) {
 			OsmIteratorInput iteratorInput = input.createIterator(true,
 					outputConfig.isWriteMetadata());
 			mergeIteratorInputs.add(iteratorInput);
@@ -302,12 +334,6 @@ public class Query extends AbstractQuery
 		}
 
 		output.close();
-
-		// Delete intermediate files
-
-		if (!keepTmp) {
-			FileUtils.deleteDirectory(pathTmp.toFile());
-		}
 	}
 
 	private void createTemporaryDirectory() throws IOException
@@ -383,6 +409,82 @@ public class Query extends AbstractQuery
 				treeNames.getComplexRelations());
 	}
 
+	private void closeTree() throws IOException
+	{
+		filesTreeNodes.close();
+		filesTreeWays.close();
+		filesTreeSimpleRelations.close();
+		filesTreeComplexRelations.close();
+	}
+
+	/**
+	 * Read the shared ways referenced by any of the specified leafs from the
+	 * shared store, each one exactly once.
+	 */
+	private void loadSharedWays(List<Node> leafs) throws IOException
+	{
+		SharedWaysStore store = SharedWaysStore.open(paths.getTree(),
+				treeNames.getWays(), inputFormat);
+		if (store == null) {
+			return;
+		}
+
+		// The lists of references may have been packed along with the ways
+		DataTreeFiles filesRefs = new DataTreeFiles(paths.getTree(),
+				SharedWaysUtil.getRefsFileName(treeNames.getWays()));
+		TLongSet ids = new TLongHashSet();
+		for (Node leaf : leafs) {
+			long[] refs = SharedWaysUtil.readRefs(filesRefs, leaf);
+			sharedRefs.put(leaf, refs);
+			ids.addAll(refs);
+		}
+		filesRefs.close();
+
+		// Only the blocks of the store that contain referenced ways are read
+		sharedWays = store.read(ids.toArray(), outputConfig.isWriteMetadata());
+
+		System.out.println(
+				String.format("Loaded %d shared ways", sharedWays.size()));
+	}
+
+	private List<OsmWay> getSharedWays(Node leaf)
+	{
+		List<OsmWay> ways = new ArrayList<>();
+		for (long id : sharedRefs.get(leaf)) {
+			OsmWay way = sharedWays.get(id);
+			if (way != null) {
+				ways.add(way);
+			}
+		}
+		return ways;
+	}
+
+	private void writeSharedWays() throws IOException
+	{
+		if (selectedSharedWays.isEmpty()) {
+			return;
+		}
+
+		TLongObjectMap<OsmWay> selected = new TLongObjectHashMap<>();
+		for (long id : selectedSharedWays.toArray()) {
+			OsmWay way = sharedWays.get(id);
+			if (way != null) {
+				selected.put(id, way);
+			}
+		}
+
+		System.out.println(
+				String.format("Writing %d shared ways", selected.size()));
+
+		tmpIndexTree++;
+		Path path = pathTmpTreeWays.resolve(filename(tmpIndexTree));
+		OsmStreamOutput output = createOutput(path);
+		QueryUtil.writeWays(selected, output.getOsmOutput());
+		finish(output);
+
+		filesWays.add(intermediate(path));
+	}
+
 	private OsmFileInput input(Path path)
 	{
 		return new OsmFileInput(path, inputFormat);
@@ -393,21 +495,29 @@ public class Query extends AbstractQuery
 		return new OsmFileInput(path, outputConfigIntermediate.getFileFormat());
 	}
 
-	private void addCompletelyContainedLeaf(Node leaf)
+	private void addCompletelyContainedLeaf(Node leaf) throws IOException
 	{
-		filesNodes.add(input(filesTreeNodes.getPath(leaf)));
-		filesWays.add(input(filesTreeWays.getPath(leaf)));
-		filesSimpleRelations.add(input(filesTreeSimpleRelations.getPath(leaf)));
+		filesNodes.add(filesTreeNodes.getInput(leaf, inputFormat));
+		filesWays.add(filesTreeWays.getInput(leaf, inputFormat));
+		if (sharedWays != null) {
+			selectedSharedWays.addAll(sharedRefs.get(leaf));
+		}
+		filesSimpleRelations
+				.add(filesTreeSimpleRelations.getInput(leaf, inputFormat));
 		filesComplexRelations
-				.add(input(filesTreeComplexRelations.getPath(leaf)));
+				.add(filesTreeComplexRelations.getInput(leaf, inputFormat));
 	}
 
 	private void addIntersectingLeaf(Node leaf) throws IOException
 	{
-		LeafQuery leafQuery = new LeafQuery(test, filesTreeNodes, filesTreeWays,
+		LeafQuery leafQuery = new LeafQuery(queryEnvelope, test,
+				filesTreeNodes, filesTreeWays,
 				filesTreeSimpleRelations, filesTreeComplexRelations,
 				inputFormat, outputConfigIntermediate, outputConfig,
 				fastRelationTests);
+		if (sharedWays != null) {
+			leafQuery.setSharedWays(getSharedWays(leaf), selectedSharedWays);
+		}
 
 		tmpIndexTree++;
 
@@ -450,7 +560,7 @@ public class Query extends AbstractQuery
 	}
 
 	private void addCompletelyContainedBatch(Path pathRelations, long id,
-			List<OsmFileInput> filesRelations)
+			List<OsmIteratorInputFactory> filesRelations)
 	{
 		Path path = pathRelations.resolve(Long.toString(id));
 		filesNodes.add(input(path.resolve(relationNames.getNodes())));
@@ -0,0 +1,152 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.idlocation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.topobyte.osm4j.core.model.iface.EntityType;
+
+/**
+ * An index of the nodes, ways and relations of an extraction database. It
+ * consists of a table of locations and one {@link IdLocationIndex} per entity
+ * type, all stored in a common directory.
+ */
+public class IdIndex
+{
+
+	public static final String FILE_LOCATIONS = "locations.txt";
+	public static final String FILE_NODES = "nodes.idx";
+	public static final String FILE_WAYS = "ways.idx";
+	public static final String FILE_RELATIONS = "relations.idx";
+
+	public static String getFileName(EntityType type)
+	{
+		switch (type) {
+		default:
+		case Node:
+			return FILE_NODES;
+		case Way:
+			return FILE_WAYS;
+		case Relation:
+			return FILE_RELATIONS;
+		}
+	}
+
+	public static boolean exists(Path dir)
+	{
+		return Files.exists(dir.resolve(FILE_LOCATIONS));
+	}
+
+	public static IdIndex open(Path dir) throws IOException
+	{
+		List<Location> locations = readLocations(dir.resolve(FILE_LOCATIONS));
+		IdLocationIndex nodes = new IdLocationIndex(dir.resolve(FILE_NODES));
+		IdLocationIndex ways = new IdLocationIndex(dir.resolve(FILE_WAYS));
+		IdLocationIndex relations = new IdLocationIndex(
+				dir.resolve(FILE_RELATIONS));
+		return new IdIndex(locations, nodes, ways, relations);
+	}
+
+	private List<Location> locations;
+	private IdLocationIndex nodes;
+	private IdLocationIndex ways;
+	private IdLocationIndex relations;
+
+	public IdIndex(List<Location> locations, IdLocationIndex nodes,
+			IdLocationIndex ways, IdLocationIndex relations)
+	{
+		this.locations = locations;
+		this.nodes = nodes;
+		this.ways = ways;
+		this.relations = relations;
+	}
+
+	public List<Location> getLocations()
+	{
+		return locations;
+	}
+
+	public Location getLocation(int index)
+	{
+		return locations.get(index);
+	}
+
+	public IdLocationIndex getIndex(EntityType type)
+	{
+		switch (type) {
+		default:
+		case Node:
+			return nodes;
+		case Way:
+			return ways;
+		case Relation:
+			return relations;
+		}
+	}
+
+	public IdLocation lookup(EntityType type, long id) throws IOException
+	{
+		return getIndex(type).lookup(id);
+	}
+
+	public void close() throws IOException
+	{
+		nodes.close();
+		ways.close();
+		relations.close();
+	}
+
+	public static List<Location> readLocations(Path file) throws IOException
+	{
+		List<Location> locations = new ArrayList<>();
+		try (BufferedReader reader = Files.newBufferedReader(file,
+				StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				Location location = Location.parse(line);
+				if (location == null) {
+					throw new IOException("Invalid location: '" + line + "'");
+				}
+				locations.add(location);
+			}
+		}
+		return locations;
+	}
+
+	public static void writeLocations(Path file, List<Location> locations)
+			throws IOException
+	{
+		try (PrintWriter pw = new PrintWriter(
+				Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+			for (Location location : locations) {
+				pw.println(location.toString());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,364 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.idlocation;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import com.slimjars.dist.gnu.trove.list.TLongList;
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+import com.slimjars.dist.gnu.trove.map.TLongIntMap;
+import com.slimjars.dist.gnu.trove.map.hash.TLongIntHashMap;
+
+import de.topobyte.melon.io.StreamUtil;
+import de.topobyte.osm4j.core.access.OsmIteratorInput;
+import de.topobyte.osm4j.core.access.OsmIteratorInputFactory;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.EntityType;
+import de.topobyte.osm4j.extra.batch.BatchFilesUtil;
+import de.topobyte.osm4j.extra.datatree.DataTree;
+import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
+import de.topobyte.osm4j.extra.datatree.DataTreeOpener;
+import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.datatree.shared.SharedWaysStore;
+import de.topobyte.osm4j.extra.datatree.spatial.SpatialBlock;
+import de.topobyte.osm4j.extra.datatree.spatial.SpatialLeafFile;
+import de.topobyte.osm4j.extra.extracts.BatchFileNames;
+import de.topobyte.osm4j.extra.extracts.TreeFileNames;
+import de.topobyte.osm4j.utils.FileFormat;
+import de.topobyte.osm4j.utils.OsmFileInput;
+
+/**
+ * Creates an {@link IdIndex} for an extraction database.
+ * 
+ * The ids of each location are collected, sorted and written to a temporary
+ * run file. The runs are then merged into the final index files, in several
+ * passes if there are too many runs to keep all of them open at once.
+ * Nodes are indexed from the data tree only, ways from the data tree and its
+ * store of shared ways, relations from the data tree and the relation
+ * batches. Entities that are stored in more than one
+ * location are mapped to the first of them.
+ */
+public class IdIndexBuilder
+{
+
+	private static final int MAX_MERGE_INPUTS = 256;
+
+	private Path pathTree;
+	private TreeFileNames treeNames;
+	private Path pathSimpleRelations;
+	private Path pathComplexRelations;
+	private BatchFileNames relationNames;
+	private FileFormat inputFormat;
+	private Path pathOutput;
+
+	private Path pathRuns;
+	private int numRuns = 0;
+
+	public IdIndexBuilder(Path pathTree, TreeFileNames treeNames,
+			Path pathSimpleRelations, Path pathComplexRelations,
+			BatchFileNames relationNames, FileFormat inputFormat,
+			Path pathOutput)
+	{
+		this.pathTree = pathTree;
+		this.treeNames = treeNames;
+		this.pathSimpleRelations = pathSimpleRelations;
+		this.pathComplexRelations = pathComplexRelations;
+		this.relationNames = relationNames;
+		this.inputFormat = inputFormat;
+		this.pathOutput = pathOutput;
+	}
+
+	public void execute() throws IOException
+	{
+		Files.createDirectories(pathOutput);
+		pathRuns = Files.createTempDirectory(pathOutput, "runs");
+
+		DataTree tree = DataTreeOpener.open(pathTree.toFile());
+		List<Node> leafs = tree.getLeafs();
+
+		DataTreeFiles filesNodes = new DataTreeFiles(pathTree,
+				treeNames.getNodes());
+		DataTreeFiles filesWays = new DataTreeFiles(pathTree,
+				treeNames.getWays());
+		DataTreeFiles filesSimpleRelations = new DataTreeFiles(pathTree,
+				treeNames.getSimpleRelations());
+		DataTreeFiles filesComplexRelations = new DataTreeFiles(pathTree,
+				treeNames.getComplexRelations());
+
+		List<Location> locations = new ArrayList<>();
+		List<Path> runsNodes = new ArrayList<>();
+		List<Path> runsWays = new ArrayList<>();
+		List<Path> runsRelations = new ArrayList<>();
+
+		int i = 0;
+		for (Node leaf : leafs) {
+			System.out.println(String.format("Indexing leaf %d of %d: %s",
+					++i, leafs.size(), Long.toHexString(leaf.getPath())));
+
+			int location = locations.size();
+			locations.add(Location.leaf(leaf.getPath()));
+
+			runsNodes.add(writeRun(
+					collect(filesNodes, leaf, EntityType.Node), location));
+			runsWays.add(writeRun(collect(filesWays, leaf, EntityType.Way),
+					location));
+
+			LocationIds relations = new LocationIds(false);
+			collect(filesSimpleRelations, leaf, EntityType.Relation,
+					relations);
+			collect(filesComplexRelations, leaf, EntityType.Relation,
+					relations);
+			runsRelations.add(writeRun(relations, location));
+		}
+
+		filesNodes.close();
+		filesWays.close();
+		filesSimpleRelations.close();
+		filesComplexRelations.close();
+
+		collectSharedWays(locations, runsWays);
+
+		collectBatches(LocationType.SIMPLE_RELATIONS, pathSimpleRelations,
+				locations, runsRelations);
+		collectBatches(LocationType.COMPLEX_RELATIONS, pathComplexRelations,
+				locations, runsRelations);
+
+		IdIndex.writeLocations(pathOutput.resolve(IdIndex.FILE_LOCATIONS),
+				locations);
+
+		System.out.println("Merging node runs");
+		merge(runsNodes, pathOutput.resolve(IdIndex.FILE_NODES));
+		System.out.println("Merging way runs");
+		merge(runsWays, pathOutput.resolve(IdIndex.FILE_WAYS));
+		System.out.println("Merging relation runs");
+		merge(runsRelations, pathOutput.resolve(IdIndex.FILE_RELATIONS));
+
+		FileUtils.deleteDirectory(pathRuns.toFile());
+	}
+
+	private static class LocationIds
+	{
+
+		TLongList ids = new TLongArrayList();
+		TLongIntMap blocks;
+
+		LocationIds(boolean withBlocks)
+		{
+			if (withBlocks) {
+				blocks = new TLongIntHashMap();
+			}
+		}
+
+	}
+
+	private LocationIds collect(DataTreeFiles files, Node leaf,
+			EntityType type) throws IOException
+	{
+		SpatialLeafFile spatial = files.getSpatialFile(leaf, inputFormat);
+		if (spatial == null) {
+			LocationIds ids = new LocationIds(false);
+			collect(files, leaf, type, ids);
+			return ids;
+		}
+
+		LocationIds ids = new LocationIds(true);
+		List<SpatialBlock> blocks = spatial.getBlocks();
+		for (int i = 0; i < blocks.size(); i++) {
+			collect(spatial.createInput(
+					Collections.singletonList(blocks.get(i))), type, i, ids);
+		}
+		return ids;
+	}
+
+	private void collect(DataTreeFiles files, Node leaf, EntityType type,
+			LocationIds ids) throws IOException
+	{
+		if (!files.isPacked() && !Files.exists(files.getPath(leaf))) {
+			return;
+		}
+		collect(files.getInput(leaf, inputFormat), type, -1, ids);
+	}
+
+	private void collect(OsmIteratorInputFactory inputFactory,
+			EntityType type, int block, LocationIds ids) throws IOException
+	{
+		OsmIteratorInput input = inputFactory.createIterator(false, false);
+		for (EntityContainer container : input.getIterator()) {
+			if (container.getType() != type) {
+				continue;
+			}
+			long id = container.getEntity().getId();
+			ids.ids.add(id);
+			if (ids.blocks != null) {
+				ids.blocks.put(id, block);
+			}
+		}
+		input.close();
+	}
+
+	private void collectSharedWays(List<Location> locations, List<Path> runs)
+			throws IOException
+	{
+		SharedWaysStore store = SharedWaysStore.open(pathTree,
+				treeNames.getWays(), inputFormat);
+		if (store == null) {
+			return;
+		}
+		System.out.println("Indexing shared ways");
+
+		int location = locations.size();
+		locations.add(Location
+				.sharedWays(store.getPath().getFileName().toString()));
+
+		List<SpatialBlock> blocks = store.getBlocks();
+		LocationIds ids;
+		if (blocks == null) {
+			ids = new LocationIds(false);
+			collect(store.createInput(), EntityType.Way, -1, ids);
+		} else {
+			ids = new LocationIds(true);
+			for (int i = 0; i < blocks.size(); i++) {
+				collect(store.createInput(
+						Collections.singletonList(blocks.get(i))),
+						EntityType.Way, i, ids);
+			}
+		}
+		runs.add(writeRun(ids, location));
+	}
+
+	private void collectBatches(LocationType type, Path dir,
+			List<Location> locations, List<Path> runs) throws IOException
+	{
+		if (!Files.isDirectory(dir)) {
+			return;
+		}
+		List<Path> files = BatchFilesUtil.getPaths(dir,
+				relationNames.getRelations());
+		Collections.sort(files);
+		for (Path file : files) {
+			String batch = file.getParent().getFileName().toString();
+			System.out.println(String.format("Indexing %s batch %s",
+					type.getKey(), batch));
+
+			int location = locations.size();
+			locations.add(Location.batch(type, batch));
+
+			LocationIds ids = new LocationIds(false);
+			collect(new OsmFileInput(file, inputFormat), EntityType.Relation,
+					-1, ids);
+			runs.add(writeRun(ids, location));
+		}
+	}
+
+	private Path createRunPath()
+	{
+		return pathRuns.resolve(String.format("run-%d", numRuns++));
+	}
+
+	private Path writeRun(LocationIds ids, int location) throws IOException
+	{
+		Path path = createRunPath();
+		OutputStream output = StreamUtil.bufferedOutputStream(path);
+		IdLocationListOutputStream run = new IdLocationListOutputStream(
+				output);
+
+		ids.ids.sort();
+		long last = 0;
+		for (int i = 0; i < ids.ids.size(); i++) {
+			long id = ids.ids.get(i);
+			if (i > 0 && id == last) {
+				continue;
+			}
+			int block = ids.blocks == null ? -1 : ids.blocks.get(id);
+			run.write(id, location, block);
+			last = id;
+		}
+
+		run.close();
+		return path;
+	}
+
+	private void merge(List<Path> runs, Path output) throws IOException
+	{
+		while (runs.size() > MAX_MERGE_INPUTS) {
+			List<Path> merged = new ArrayList<>();
+			for (int i = 0; i < runs.size(); i += MAX_MERGE_INPUTS) {
+				List<Path> group = runs.subList(i,
+						Math.min(runs.size(), i + MAX_MERGE_INPUTS));
+				Path path = createRunPath();
+				IdLocationListOutputStream run = new IdLocationListOutputStream(
+						StreamUtil.bufferedOutputStream(path));
+				IdLocationInput input = open(group);
+				try {
+					while (true) {
+						run.write(input.next());
+					}
+				} catch (EOFException e) {
+					// all entries merged
+				}
+				input.close();
+				run.close();
+				delete(group);
+				merged.add(path);
+			}
+			runs = merged;
+		}
+
+		IdLocationIndexWriter writer = new IdLocationIndexWriter(
+				StreamUtil.bufferedOutputStream(output));
+		IdLocationInput input = open(runs);
+		try {
+			while (true) {
+				writer.write(input.next());
+			}
+		} catch (EOFException e) {
+			// all entries merged
+		}
+		input.close();
+		writer.close();
+		delete(runs);
+	}
+
+	private IdLocationInput open(List<Path> runs) throws IOException
+	{
+		List<IdLocationInput> inputs = new ArrayList<>();
+		for (Path path : runs) {
+			InputStream input = StreamUtil.bufferedInputStream(path);
+			inputs.add(new IdLocationListInputStream(input));
+		}
+		return new MergedIdLocationInput(inputs);
+	}
+
+	private void delete(List<Path> runs) throws IOException
+	{
+		for (Path path : runs) {
+			Files.delete(path);
+		}
+	}
+
+}
@@ -0,0 +1,48 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.idlocation;
+
+/**
+ * The location of an entity within an extraction database: an index into the
+ * database's location table and the number of the block within the
+ * location's file that contains the entity, or -1 if the file is not divided
+ * into blocks.
+ */
+public class IdLocation
+{
+
+	private int location;
+	private int block;
+
+	public IdLocation(int location, int block)
+	{
+		this.location = location;
+		this.block = block;
+	}
+
+	public int getLocation()
+	{
+		return location;
+	}
+
+	public int getBlock()
+	{
+		return block;
+	}
+
+}
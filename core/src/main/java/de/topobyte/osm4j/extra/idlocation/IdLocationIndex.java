@@ -0,0 +1,160 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.idlocation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import de.topobyte.compactio.CompactReader;
+import de.topobyte.compactio.InputStreamCompactReader;
+
+/**
+ * Read access to an index of entity ids to locations written by
+ * {@link IdLocationIndexWriter}. Only the page directory is kept in memory, a
+ * lookup reads and decodes a single page. The most recently decoded page is
+ * cached, so looking up ids in increasing order is cheap.
+ */
+public class IdLocationIndex
+{
+
+	public static final int MAGIC = 0x4f534944;
+
+	private static final int FOOTER_SIZE = 24;
+
+	private FileChannel channel;
+
+	private long[] firstIds;
+	private long[] offsets;
+	private long count;
+
+	private int cachedPage = -1;
+	private long[] pageIds;
+	private int[] pageLocations;
+	private int[] pageBlocks;
+
+	public IdLocationIndex(Path file) throws IOException
+	{
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+
+		long size = channel.size();
+		if (size < FOOTER_SIZE) {
+			channel.close();
+			throw new IOException("Not an id index: " + file);
+		}
+		ByteBuffer footer = read(size - FOOTER_SIZE, FOOTER_SIZE);
+		long directory = footer.getLong();
+		int numPages = footer.getInt();
+		count = footer.getLong();
+		int magic = footer.getInt();
+		if (magic != MAGIC) {
+			channel.close();
+			throw new IOException("Not an id index: " + file);
+		}
+
+		firstIds = new long[numPages];
+		offsets = new long[numPages + 1];
+		ByteBuffer dir = read(directory, numPages * 16);
+		for (int i = 0; i < numPages; i++) {
+			firstIds[i] = dir.getLong();
+			offsets[i] = dir.getLong();
+		}
+		offsets[numPages] = directory;
+	}
+
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+
+	public long getNumberOfEntries()
+	{
+		return count;
+	}
+
+	/**
+	 * Find the location of the entity with the specified id.
+	 * 
+	 * @return the location or null if the id is not part of the index.
+	 */
+	public synchronized IdLocation lookup(long id) throws IOException
+	{
+		int page = findPage(id);
+		if (page < 0) {
+			return null;
+		}
+		if (page != cachedPage) {
+			loadPage(page);
+		}
+		int index = Arrays.binarySearch(pageIds, id);
+		if (index < 0) {
+			return null;
+		}
+		return new IdLocation(pageLocations[index], pageBlocks[index]);
+	}
+
+	private int findPage(long id)
+	{
+		int index = Arrays.binarySearch(firstIds, id);
+		if (index >= 0) {
+			return index;
+		}
+		// index of the last page starting before the id
+		return -index - 2;
+	}
+
+	private void loadPage(int page) throws IOException
+	{
+		int length = (int) (offsets[page + 1] - offsets[page]);
+		ByteBuffer buffer = read(offsets[page], length);
+
+		CompactReader reader = new InputStreamCompactReader(
+				new ByteArrayInputStream(buffer.array()));
+		int n = (int) reader.readVariableLengthUnsignedInteger();
+		pageIds = new long[n];
+		pageLocations = new int[n];
+		pageBlocks = new int[n];
+		long id = firstIds[page];
+		for (int i = 0; i < n; i++) {
+			id += reader.readVariableLengthUnsignedInteger();
+			pageIds[i] = id;
+			pageLocations[i] = (int) reader.readVariableLengthUnsignedInteger();
+			pageBlocks[i] = (int) reader.readVariableLengthUnsignedInteger()
+					- 1;
+		}
+		cachedPage = page;
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			int r = channel.read(buffer, position + buffer.position());
+			if (r < 0) {
+				throw new IOException("Unexpected end of id index");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+}
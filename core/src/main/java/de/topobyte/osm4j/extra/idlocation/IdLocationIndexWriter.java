@@ -0,0 +1,140 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.idlocation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.slimjars.dist.gnu.trove.list.TLongList;
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+
+import de.topobyte.compactio.CompactWriter;
+import de.topobyte.compactio.OutputStreamCompactWriter;
+
+/**
+ * Writes an {@link IdLocationIndex}. Entries need to be added in strictly
+ * increasing order of ids.
+ * 
+ * The entries are stored in pages of delta encoded variable length numbers.
+ * The pages are followed by a directory with the first id and the offset of
+ * each page and a fixed size footer that points to the directory.
+ */
+public class IdLocationIndexWriter
+{
+
+	public static final int DEFAULT_PAGE_SIZE = 4096;
+
+	private DataOutputStream output;
+	private int pageSize;
+
+	private TLongList firstIds = new TLongArrayList();
+	private TLongList offsets = new TLongArrayList();
+
+	private long offset = 0;
+	private long count = 0;
+
+	private ByteArrayOutputStream page = new ByteArrayOutputStream();
+	private CompactWriter pageWriter = new OutputStreamCompactWriter(page);
+	private long[] pageIds;
+	private int[] pageLocations;
+	private int[] pageBlocks;
+	private int pageCount = 0;
+
+	private long last = 0;
+
+	public IdLocationIndexWriter(OutputStream output)
+	{
+		this(output, DEFAULT_PAGE_SIZE);
+	}
+
+	public IdLocationIndexWriter(OutputStream output, int pageSize)
+	{
+		this.output = new DataOutputStream(output);
+		this.pageSize = pageSize;
+		pageIds = new long[pageSize];
+		pageLocations = new int[pageSize];
+		pageBlocks = new int[pageSize];
+	}
+
+	public void write(long id, int location, int block) throws IOException
+	{
+		if (count > 0 && id <= last) {
+			throw new IOException(String.format(
+					"ids must be strictly monotonically increasing (%d <= %d)",
+					id, last));
+		}
+		pageIds[pageCount] = id;
+		pageLocations[pageCount] = location;
+		pageBlocks[pageCount] = block;
+		pageCount++;
+		count++;
+		last = id;
+
+		if (pageCount == pageSize) {
+			writePage();
+		}
+	}
+
+	public void write(IdLocationEntry entry) throws IOException
+	{
+		write(entry.getId(), entry.getLocation(), entry.getBlock());
+	}
+
+	private void writePage() throws IOException
+	{
+		page.reset();
+		pageWriter.writeVariableLengthUnsignedInteger(pageCount);
+		long previous = pageIds[0];
+		for (int i = 0; i < pageCount; i++) {
+			pageWriter.writeVariableLengthUnsignedInteger(
+					pageIds[i] - previous);
+			pageWriter.writeVariableLengthUnsignedInteger(pageLocations[i]);
+			pageWriter.writeVariableLengthUnsignedInteger(pageBlocks[i] + 1);
+			previous = pageIds[i];
+		}
+
+		firstIds.add(pageIds[0]);
+		offsets.add(offset);
+
+		page.writeTo(output);
+		offset += page.size();
+		pageCount = 0;
+	}
+
+	public void close() throws IOException
+	{
+		if (pageCount > 0) {
+			writePage();
+		}
+
+		long directory = offset;
+		for (int i = 0; i < firstIds.size(); i++) {
+			output.writeLong(firstIds.get(i));
+			output.writeLong(offsets.get(i));
+		}
+
+		output.writeLong(directory);
+		output.writeInt(firstIds.size());
+		output.writeLong(count);
+		output.writeInt(IdLocationIndex.MAGIC);
+		output.close();
+	}
+
+}
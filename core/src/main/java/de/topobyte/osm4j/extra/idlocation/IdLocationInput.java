@@ -0,0 +1,35 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.idlocation;
+
+import java.io.IOException;
+
+public interface IdLocationInput
+{
+
+	public void close() throws IOException;
+
+	/**
+	 * Get the next entry.
+	 * 
+	 * @throws java.io.EOFException
+	 *             if there are no more entries.
+	 */
+	public IdLocationEntry next() throws IOException;
+
+}
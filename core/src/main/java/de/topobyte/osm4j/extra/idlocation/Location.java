@@ -0,0 +1,102 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.idlocation;
+
+/**
+ * A place in an extraction database that holds entities: either a leaf of
+ * the data tree, a batch directory of simple or complex relations or the
+ * store of ways shared by several leafs.
+ */
+public class Location
+{
+
+	private LocationType type;
+	private long leaf;
+	private String batch;
+
+	public static Location leaf(long path)
+	{
+		return new Location(LocationType.LEAF, path, null);
+	}
+
+	public static Location batch(LocationType type, String batch)
+	{
+		return new Location(type, 0, batch);
+	}
+
+	public static Location sharedWays(String file)
+	{
+		return new Location(LocationType.SHARED_WAYS, 0, file);
+	}
+
+	private Location(LocationType type, long leaf, String batch)
+	{
+		this.type = type;
+		this.leaf = leaf;
+		this.batch = batch;
+	}
+
+	public LocationType getType()
+	{
+		return type;
+	}
+
+	/**
+	 * The path of the leaf, for locations of type {@link LocationType#LEAF}.
+	 */
+	public long getLeaf()
+	{
+		return leaf;
+	}
+
+	/**
+	 * The name of the batch directory, for relation batch locations, or the
+	 * name of the store file, for the location of shared ways.
+	 */
+	public String getBatch()
+	{
+		return batch;
+	}
+
+	@Override
+	public String toString()
+	{
+		if (type == LocationType.LEAF) {
+			return type.getKey() + " " + Long.toHexString(leaf);
+		}
+		return type.getKey() + " " + batch;
+	}
+
+	public static Location parse(String string)
+	{
+		int space = string.indexOf(' ');
+		if (space < 0) {
+			return null;
+		}
+		LocationType type = LocationType.fromKey(string.substring(0, space));
+		String value = string.substring(space + 1);
+		if (type == null) {
+			return null;
+		}
+		if (type == LocationType.LEAF) {
+			return leaf(Long.parseLong(value, 16));
+		}
+		return batch(type, value);
+	}
+
+}
@@ -0,0 +1,117 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.idlocation;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges a number of inputs sorted by id into a single input sorted by id. If
+ * an id occurs in more than one input, only the entry with the lowest
+ * location is returned.
+ */
+public class MergedIdLocationInput implements IdLocationInput
+{
+
+	private static class Head
+	{
+
+		IdLocationEntry entry;
+		IdLocationInput input;
+
+		Head(IdLocationEntry entry, IdLocationInput input)
+		{
+			this.entry = entry;
+			this.input = input;
+		}
+
+	}
+
+	private List<IdLocationInput> inputs;
+
+	private PriorityQueue<Head> queue;
+
+	public MergedIdLocationInput(Collection<IdLocationInput> inputs)
+			throws IOException
+	{
+		this.inputs = new ArrayList<>(inputs);
+
+		queue = new PriorityQueue<>(Math.max(1, inputs.size()),
+				new Comparator<Head>() {
+
+					@Override
+					public int compare(Head o1, Head o2)
+					{
+						int cmp = Long.compare(o1.entry.getId(),
+								o2.entry.getId());
+						if (cmp != 0) {
+							return cmp;
+						}
+						return Integer.compare(o1.entry.getLocation(),
+								o2.entry.getLocation());
+					}
+
+				});
+
+		for (IdLocationInput input : inputs) {
+			try {
+				queue.add(new Head(input.next(), input));
+			} catch (EOFException e) {
+				continue;
+			}
+		}
+	}
+
+	private boolean first = true;
+	private long last = 0;
+
+	@Override
+	public IdLocationEntry next() throws IOException
+	{
+		while (!queue.isEmpty()) {
+			Head head = queue.poll();
+			IdLocationEntry next = head.entry;
+			try {
+				head.entry = head.input.next();
+				queue.add(head);
+			} catch (EOFException e) {
+				// input exhausted
+			}
+			if (first || next.getId() != last) {
+				first = false;
+				last = next.getId();
+				return next;
+			}
+		}
+		throw new EOFException();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		for (IdLocationInput input : inputs) {
+			input.close();
+		}
+	}
+
+}
@@ -0,0 +1,120 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An input stream that reads a fixed range of bytes from a file channel using
+ * positional reads. Since the channel's position is never modified, multiple
+ * streams can read concurrently from the same channel. Closing the stream does
+ * not close the underlying channel.
+ */
+public class ChannelRangeInputStream extends InputStream
+{
+
+	private FileChannel channel;
+	private long position;
+	private long end;
+	private long mark;
+
+	public ChannelRangeInputStream(FileChannel channel, long offset,
+			long length)
+	{
+		this.channel = channel;
+		this.position = offset;
+		this.end = offset + length;
+		this.mark = offset;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		byte[] buffer = new byte[1];
+		int n = read(buffer, 0, 1);
+		if (n <= 0) {
+			return -1;
+		}
+		return buffer[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if (len == 0) {
+			return 0;
+		}
+		long remaining = end - position;
+		if (remaining <= 0) {
+			return -1;
+		}
+		int n = (int) Math.min(len, remaining);
+		ByteBuffer buffer = ByteBuffer.wrap(b, off, n);
+		int read = channel.read(buffer, position);
+		if (read < 0) {
+			return -1;
+		}
+		position += read;
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		if (n <= 0) {
+			return 0;
+		}
+		long skip = Math.min(n, end - position);
+		position += skip;
+		return skip;
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		return (int) Math.min(Integer.MAX_VALUE, end - position);
+	}
+
+	@Override
+	public boolean markSupported()
+	{
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit)
+	{
+		mark = position;
+	}
+
+	@Override
+	public synchronized void reset() throws IOException
+	{
+		position = mark;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		// The channel is owned by whoever created this stream
+	}
+
+}
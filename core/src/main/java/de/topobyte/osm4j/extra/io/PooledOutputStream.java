@@ -0,0 +1,176 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An output stream that buffers its data in chunks of a
+ * {@link WriteBufferPool}. Data reaches the file when the pool needs to
+ * reclaim memory and when the stream gets closed; {@link #flush()} does not
+ * force a write.
+ * 
+ * Writes lock the stream itself; the pool locks a stream the same way while
+ * flushing it on behalf of another stream.
+ */
+class PooledOutputStream extends OutputStream
+{
+
+	private WriteBufferPool pool;
+	private Path file;
+
+	private boolean created = false;
+	private boolean closed = false;
+
+	private ReentrantLock lock = new ReentrantLock();
+
+	private List<byte[]> chunks = new ArrayList<>();
+	// Read by the pool without holding the lock to pick streams to flush
+	private volatile int numChunks = 0;
+	// Number of bytes used in the last chunk
+	private int position = 0;
+
+	PooledOutputStream(WriteBufferPool pool, Path file)
+	{
+		this.pool = pool;
+		this.file = file;
+	}
+
+	Path getFile()
+	{
+		return file;
+	}
+
+	boolean isCreated()
+	{
+		return created;
+	}
+
+	void setCreated()
+	{
+		created = true;
+	}
+
+	boolean tryLock()
+	{
+		return lock.tryLock();
+	}
+
+	void unlock()
+	{
+		lock.unlock();
+	}
+
+	int getNumChunks()
+	{
+		return numChunks;
+	}
+
+	List<ByteBuffer> buffers()
+	{
+		List<ByteBuffer> buffers = new ArrayList<>();
+		for (int i = 0; i < chunks.size(); i++) {
+			byte[] chunk = chunks.get(i);
+			int length = i == chunks.size() - 1 ? position : chunk.length;
+			buffers.add(ByteBuffer.wrap(chunk, 0, length));
+		}
+		return buffers;
+	}
+
+	List<byte[]> clear()
+	{
+		List<byte[]> released = chunks;
+		chunks = new ArrayList<>();
+		numChunks = 0;
+		position = 0;
+		return released;
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		lock.lock();
+		try {
+			byte[] chunk = chunk();
+			chunk[position++] = (byte) b;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		lock.lock();
+		try {
+			while (len > 0) {
+				byte[] chunk = chunk();
+				int n = Math.min(len, chunk.length - position);
+				System.arraycopy(b, off, chunk, position, n);
+				position += n;
+				off += n;
+				len -= n;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the chunk to write to, allocating a new one if the current one is
+	 * full. Allocation may flush this stream, so the state has to be looked
+	 * at after allocating.
+	 */
+	private byte[] chunk() throws IOException
+	{
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		if (chunks.isEmpty()
+				|| position == chunks.get(chunks.size() - 1).length) {
+			byte[] chunk = pool.allocate();
+			chunks.add(chunk);
+			numChunks = chunks.size();
+			position = 0;
+			return chunk;
+		}
+		return chunks.get(chunks.size() - 1);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			pool.close(this);
+			closed = true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
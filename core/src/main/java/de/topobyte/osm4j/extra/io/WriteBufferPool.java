@@ -0,0 +1,302 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Creates output streams for a large number of files that share a global
+ * memory budget. Data written to the streams is kept in chunks taken from a
+ * common pool. Once the budget is exhausted, the streams holding the most
+ * data are flushed to their files first. Files are appended to through a
+ * small set of open handles that are closed in least recently used order,
+ * so neither memory nor the number of file descriptors depends on the
+ * number of files.
+ * 
+ * Each stream has its own lock, streams may thus be written from different
+ * threads. The pool itself is only locked for the bookkeeping of chunks and
+ * handles, writing to the files happens outside of that lock so that
+ * flushing one stream does not block writers of other streams. A stream
+ * chosen for flushing by another thread is skipped if it is currently being
+ * written to.
+ */
+public class WriteBufferPool
+{
+
+	public static final long DEFAULT_BUDGET = 256 * 1024 * 1024;
+	public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+	public static final int DEFAULT_MAX_OPEN_FILES = 128;
+
+	private long budget;
+	private int chunkSize;
+	private int maxOpenFiles;
+
+	private long numChunks = 0;
+	private Deque<byte[]> freeChunks = new ArrayDeque<>();
+
+	private Set<PooledOutputStream> streams = new HashSet<>();
+
+	// Guarded by itself, handles in use by a flush are never evicted
+	private Map<PooledOutputStream, FileChannel> handles = new LinkedHashMap<>(
+			16, 0.75f, true);
+	private Set<PooledOutputStream> handlesInUse = new HashSet<>();
+
+	public WriteBufferPool()
+	{
+		this(DEFAULT_BUDGET, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_OPEN_FILES);
+	}
+
+	public WriteBufferPool(long budget, int chunkSize, int maxOpenFiles)
+	{
+		this.budget = budget;
+		this.chunkSize = chunkSize;
+		this.maxOpenFiles = maxOpenFiles;
+	}
+
+	public long getBudget()
+	{
+		return budget;
+	}
+
+	public int getChunkSize()
+	{
+		return chunkSize;
+	}
+
+	public int getMaxOpenFiles()
+	{
+		return maxOpenFiles;
+	}
+
+	/**
+	 * Check whether the pool currently holds an open handle for the file of
+	 * the specified stream.
+	 */
+	boolean isOpen(OutputStream stream)
+	{
+		synchronized (handles) {
+			return handles.containsKey(stream);
+		}
+	}
+
+	public OutputStream create(File file)
+	{
+		return create(file.toPath());
+	}
+
+	public synchronized OutputStream create(Path file)
+	{
+		PooledOutputStream stream = new PooledOutputStream(this, file);
+		streams.add(stream);
+		return stream;
+	}
+
+	/**
+	 * Get a free chunk. Called by a stream while holding its own lock. If the
+	 * budget is exhausted, the largest streams are flushed first, outside of
+	 * the pool lock.
+	 */
+	byte[] allocate() throws IOException
+	{
+		synchronized (this) {
+			byte[] chunk = take();
+			if (chunk != null) {
+				return chunk;
+			}
+		}
+
+		flushLargest();
+
+		synchronized (this) {
+			byte[] chunk = take();
+			if (chunk != null) {
+				return chunk;
+			}
+			// Nothing could be flushed, exceed the budget rather than fail
+			numChunks++;
+			return new byte[chunkSize];
+		}
+	}
+
+	private byte[] take()
+	{
+		if (!freeChunks.isEmpty()) {
+			return freeChunks.pop();
+		}
+		if ((numChunks + 1) * chunkSize <= budget) {
+			numChunks++;
+			return new byte[chunkSize];
+		}
+		return null;
+	}
+
+	private void flushLargest() throws IOException
+	{
+		// Free about a quarter of the budget at once, so that a single
+		// allocation does not trigger a scan of all streams each time.
+		Set<PooledOutputStream> busy = new HashSet<>();
+		while (true) {
+			PooledOutputStream largest = null;
+			synchronized (this) {
+				long target = numChunks / 4 + 1;
+				if (freeChunks.size() >= target) {
+					return;
+				}
+				for (PooledOutputStream stream : streams) {
+					if (busy.contains(stream)) {
+						continue;
+					}
+					if (largest == null
+							|| stream.getNumChunks() > largest.getNumChunks()) {
+						largest = stream;
+					}
+				}
+			}
+			if (largest == null || largest.getNumChunks() == 0) {
+				return;
+			}
+			// Only flush streams that are not being written to right now,
+			// waiting for them could deadlock with their writers which might
+			// be waiting for the stream held by the current thread.
+			if (!largest.tryLock()) {
+				busy.add(largest);
+				continue;
+			}
+			try {
+				flush(largest);
+			} finally {
+				largest.unlock();
+			}
+			busy.add(largest);
+		}
+	}
+
+	/**
+	 * Write the data of a stream to its file. The caller has to hold the lock
+	 * of the stream.
+	 */
+	void flush(PooledOutputStream stream) throws IOException
+	{
+		if (stream.getNumChunks() == 0) {
+			return;
+		}
+		FileChannel channel = acquireHandle(stream);
+		try {
+			for (ByteBuffer buffer : stream.buffers()) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+		} finally {
+			releaseHandle(stream);
+		}
+		List<byte[]> released = stream.clear();
+		synchronized (this) {
+			for (byte[] chunk : released) {
+				freeChunks.push(chunk);
+			}
+		}
+	}
+
+	/**
+	 * Flush a stream and release its file handle. The caller has to hold the
+	 * lock of the stream.
+	 */
+	void close(PooledOutputStream stream) throws IOException
+	{
+		flush(stream);
+		if (!stream.isCreated()) {
+			// Create empty files as well
+			acquireHandle(stream);
+			releaseHandle(stream);
+		}
+		FileChannel channel;
+		synchronized (handles) {
+			channel = handles.remove(stream);
+		}
+		if (channel != null) {
+			channel.close();
+		}
+		synchronized (this) {
+			streams.remove(stream);
+		}
+	}
+
+	private FileChannel acquireHandle(PooledOutputStream stream)
+			throws IOException
+	{
+		synchronized (handles) {
+			FileChannel channel = handles.get(stream);
+			if (channel == null) {
+				evict();
+				if (stream.isCreated()) {
+					channel = FileChannel.open(stream.getFile(),
+							StandardOpenOption.WRITE,
+							StandardOpenOption.APPEND);
+				} else {
+					channel = FileChannel.open(stream.getFile(),
+							StandardOpenOption.WRITE,
+							StandardOpenOption.CREATE,
+							StandardOpenOption.TRUNCATE_EXISTING);
+					stream.setCreated();
+				}
+				handles.put(stream, channel);
+			}
+			handlesInUse.add(stream);
+			return channel;
+		}
+	}
+
+	private void releaseHandle(PooledOutputStream stream)
+	{
+		synchronized (handles) {
+			handlesInUse.remove(stream);
+		}
+	}
+
+	private void evict() throws IOException
+	{
+		// Close the least recently used handles that are not in use. If all
+		// of them are in use, the limit is exceeded temporarily.
+		Iterator<Map.Entry<PooledOutputStream, FileChannel>> iterator = handles
+				.entrySet().iterator();
+		while (handles.size() >= maxOpenFiles && iterator.hasNext()) {
+			Map.Entry<PooledOutputStream, FileChannel> entry = iterator.next();
+			if (handlesInUse.contains(entry.getKey())) {
+				continue;
+			}
+			iterator.remove();
+			entry.getValue().close();
+		}
+	}
+
+}
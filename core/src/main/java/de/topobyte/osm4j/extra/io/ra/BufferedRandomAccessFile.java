@@ -107,6 +107,9 @@ public class BufferedRandomAccessFile implements RandomAccess
 	private Page readPage(long pageNumber) throws IOException
 	{
 		long pageOffset = pageNumber * pageSize;
+		if (pageOffset >= fileSize) {
+			throw new EOFException();
+		}
 		int size = (int) Math.min(pageSize, fileSize - pageOffset);
 		byte[] buffer = new byte[size];
 		file.seek(pageOffset);
@@ -17,6 +17,7 @@
 
 package de.topobyte.osm4j.extra.nodearray;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 
@@ -73,10 +74,15 @@ public class NodeArrayDouble implements NodeArray
 	@Override
 	public boolean contains(long id) throws IOException
 	{
-		f.seek(id * 16);
-		long lon = f.readLong();
-		long lat = f.readLong();
-		return lon != NULL && lat != NULL;
+		try {
+			f.seek(id * 16);
+			long lon = f.readLong();
+			long lat = f.readLong();
+			return lon != NULL && lat != NULL;
+		} catch (EOFException e) {
+			// Beyond the highest id of the array
+			return false;
+		}
 	}
 
 	@Override
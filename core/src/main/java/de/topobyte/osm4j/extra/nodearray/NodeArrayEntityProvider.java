@@ -41,6 +41,9 @@ public class NodeArrayEntityProvider implements OsmEntityProvider
 	public OsmNode getNode(long id) throws EntityNotFoundException
 	{
 		try {
+			if (nodeArray.supportsContainment() && !nodeArray.contains(id)) {
+				throw new EntityNotFoundException("Node not found: " + id);
+			}
 			return nodeArray.get(id);
 		} catch (IOException e) {
 			throw new EntityNotFoundException(
@@ -17,6 +17,7 @@
 
 package de.topobyte.osm4j.extra.nodearray;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 
@@ -73,10 +74,15 @@ public class NodeArrayInteger implements NodeArray
 	@Override
 	public boolean contains(long id) throws IOException
 	{
-		f.seek(id * 8);
-		int lon = f.readInt();
-		int lat = f.readInt();
-		return lon != NULL && lat != NULL;
+		try {
+			f.seek(id * 8);
+			int lon = f.readInt();
+			int lat = f.readInt();
+			return lon != NULL && lat != NULL;
+		} catch (EOFException e) {
+			// Beyond the highest id of the array
+			return false;
+		}
 	}
 
 	@Override
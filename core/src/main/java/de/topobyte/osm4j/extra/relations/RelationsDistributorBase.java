@@ -17,7 +17,6 @@
 
 package de.topobyte.osm4j.extra.relations;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -33,8 +32,6 @@ import java.util.Map;
 
 import org.locationtech.jts.geom.Envelope;
 
-import de.topobyte.largescalefileio.ClosingFileOutputStreamFactory;
-import de.topobyte.largescalefileio.SimpleClosingFileOutputStreamFactory;
 import de.topobyte.melon.io.StreamUtil;
 import de.topobyte.osm4j.core.access.OsmIterator;
 import de.topobyte.osm4j.core.access.OsmOutputStream;
@@ -48,6 +45,7 @@ import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
 import de.topobyte.osm4j.extra.datatree.DataTreeOpener;
 import de.topobyte.osm4j.extra.datatree.Node;
 import de.topobyte.osm4j.extra.idbboxlist.IdBboxListOutputStream;
+import de.topobyte.osm4j.extra.io.WriteBufferPool;
 import de.topobyte.osm4j.utils.FileFormat;
 import de.topobyte.osm4j.utils.OsmIoUtils;
 import de.topobyte.osm4j.utils.OsmOutputConfig;
@@ -78,6 +76,8 @@ public abstract class RelationsDistributorBase
 	protected OsmStreamOutput outputNonTree;
 	protected Map<Node, OsmStreamOutput> outputs = new HashMap<>();
 
+	protected WriteBufferPool writeBufferPool = new WriteBufferPool();
+
 	protected IdBboxListOutputStream outputBboxes;
 
 	public RelationsDistributorBase(Path pathTree, Path pathData,
@@ -100,6 +100,16 @@ public abstract class RelationsDistributorBase
 		this.outputConfig = outputConfig;
 	}
 
+	public WriteBufferPool getWriteBufferPool()
+	{
+		return writeBufferPool;
+	}
+
+	public void setWriteBufferPool(WriteBufferPool writeBufferPool)
+	{
+		this.writeBufferPool = writeBufferPool;
+	}
+
 	protected void init() throws IOException
 	{
 		if (!Files.isDirectory(pathData)) {
@@ -171,11 +181,9 @@ public abstract class RelationsDistributorBase
 
 		// Setup output for tree relations
 
-		ClosingFileOutputStreamFactory factory = new SimpleClosingFileOutputStreamFactory();
-
 		for (Node leaf : tree.getLeafs()) {
 			File file = treeFilesRelations.getFile(leaf);
-			OutputStream out = new BufferedOutputStream(factory.create(file));
+			OutputStream out = writeBufferPool.create(file);
 			OsmOutputStream osmOutput = OsmIoUtils.setupOsmOutput(out,
 					outputConfig, true);
 
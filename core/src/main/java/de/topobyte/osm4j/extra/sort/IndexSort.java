@@ -0,0 +1,117 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.sort;
+
+/**
+ * Sorts a permutation of indices by the elements they refer to, e.g. by the
+ * values of some primitive arrays, without boxing the indices.
+ * 
+ * This is a quicksort with three-way partitioning, hence runs of equal
+ * elements, such as duplicate ids, are partitioned in linear time. The sort
+ * is not stable.
+ */
+public class IndexSort
+{
+
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
+	public static void sort(int[] order, IndexComparator comparator)
+	{
+		sort(order, 0, order.length, comparator);
+	}
+
+	/**
+	 * Sort the range of the permutation from the index {@code from},
+	 * inclusive, to the index {@code to}, exclusive.
+	 */
+	public static void sort(int[] order, int from, int to,
+			IndexComparator comparator)
+	{
+		int lo = from;
+		int hi = to - 1;
+		while (hi - lo >= INSERTION_SORT_THRESHOLD) {
+			int pivot = median(order, lo, (lo + hi) >>> 1, hi, comparator);
+
+			// Elements in [lo, lt) are less than the pivot, elements in
+			// [lt, i) equal to it and elements in (gt, hi] greater than it
+			int lt = lo;
+			int gt = hi;
+			int i = lo;
+			while (i <= gt) {
+				int cmp = comparator.compare(order[i], pivot);
+				if (cmp < 0) {
+					swap(order, lt++, i++);
+				} else if (cmp > 0) {
+					swap(order, i, gt--);
+				} else {
+					i++;
+				}
+			}
+
+			// Recurse into the smaller part to bound the stack depth
+			if (lt - lo < hi - gt) {
+				sort(order, lo, lt, comparator);
+				lo = gt + 1;
+			} else {
+				sort(order, gt + 1, hi + 1, comparator);
+				hi = lt - 1;
+			}
+		}
+		insertionSort(order, lo, hi, comparator);
+	}
+
+	private static int median(int[] order, int a, int b, int c,
+			IndexComparator comparator)
+	{
+		int x = order[a];
+		int y = order[b];
+		int z = order[c];
+		if (comparator.compare(x, y) < 0) {
+			if (comparator.compare(y, z) < 0) {
+				return y;
+			}
+			return comparator.compare(x, z) < 0 ? z : x;
+		}
+		if (comparator.compare(x, z) < 0) {
+			return x;
+		}
+		return comparator.compare(y, z) < 0 ? z : y;
+	}
+
+	private static void insertionSort(int[] order, int lo, int hi,
+			IndexComparator comparator)
+	{
+		for (int i = lo + 1; i <= hi; i++) {
+			int v = order[i];
+			int j = i - 1;
+			while (j >= lo && comparator.compare(order[j], v) > 0) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = v;
+		}
+	}
+
+	private static void swap(int[] order, int i, int j)
+	{
+		int tmp = order[i];
+		order[i] = order[j];
+		order[j] = tmp;
+	}
+
+}
@@ -0,0 +1,222 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.threading;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.OsmBounds;
+import de.topobyte.osm4j.utils.buffer.ParallelExecutor;
+
+/**
+ * Decodes an iterator once and hands every entity to each of a number of
+ * consumers that run in parallel, so that several stages that need to read
+ * the same file can share a single pass over it. Entities are passed on in
+ * batches through a bounded queue per consumer. The reader blocks while any
+ * consumer that is still running has a full queue, hence the scan proceeds at
+ * the pace of the slowest consumer.
+ */
+public class BroadcastScan implements Task
+{
+
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+	public static final int DEFAULT_QUEUE_SIZE = 4;
+
+	private static final List<EntityContainer> END = Collections.emptyList();
+
+	private OsmIterator iterator;
+	private List<? extends IteratorConsumer> consumers;
+	private int batchSize;
+	private int queueSize;
+
+	private List<Channel> channels = new ArrayList<>();
+	private Throwable failure = null;
+
+	public BroadcastScan(OsmIterator iterator,
+			List<? extends IteratorConsumer> consumers)
+	{
+		this(iterator, consumers, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_SIZE);
+	}
+
+	public BroadcastScan(OsmIterator iterator,
+			List<? extends IteratorConsumer> consumers, int batchSize,
+			int queueSize)
+	{
+		this.iterator = iterator;
+		this.consumers = consumers;
+		this.batchSize = batchSize;
+		this.queueSize = queueSize;
+	}
+
+	@Override
+	public void execute() throws IOException
+	{
+		List<Runnable> tasks = new ArrayList<>();
+		tasks.add(new Runnable() {
+
+			@Override
+			public void run()
+			{
+				try {
+					read();
+				} catch (Throwable e) {
+					fail(e);
+				}
+			}
+		});
+		for (final IteratorConsumer consumer : consumers) {
+			final Channel channel = new Channel();
+			channels.add(channel);
+			tasks.add(new Runnable() {
+
+				@Override
+				public void run()
+				{
+					try {
+						consumer.consume(channel);
+					} catch (Throwable e) {
+						fail(e);
+					} finally {
+						channel.finished = true;
+					}
+				}
+			});
+		}
+
+		ParallelExecutor executor = new ParallelExecutor(tasks);
+		executor.execute();
+
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		} else if (failure != null) {
+			throw new IOException("Error during broadcast scan", failure);
+		}
+	}
+
+	private synchronized void fail(Throwable e)
+	{
+		if (failure == null) {
+			failure = e;
+		}
+	}
+
+	private void read() throws InterruptedException
+	{
+		try {
+			List<EntityContainer> batch = new ArrayList<>(batchSize);
+			while (iterator.hasNext()) {
+				batch.add(iterator.next());
+				if (batch.size() == batchSize) {
+					publish(batch);
+					batch = new ArrayList<>(batchSize);
+				}
+			}
+			if (!batch.isEmpty()) {
+				publish(batch);
+			}
+		} finally {
+			// Always release the consumers, even if reading failed
+			publish(END);
+		}
+	}
+
+	private void publish(List<EntityContainer> batch)
+			throws InterruptedException
+	{
+		for (Channel channel : channels) {
+			// Consumers that stopped reading do not hold up the others
+			while (!channel.finished
+					&& !channel.queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+				// retry
+			}
+		}
+	}
+
+	private class Channel implements OsmIterator
+	{
+
+		private BlockingQueue<List<EntityContainer>> queue = new ArrayBlockingQueue<>(
+				queueSize);
+		private volatile boolean finished = false;
+
+		private List<EntityContainer> batch = null;
+		private int index = 0;
+		private boolean done = false;
+
+		@Override
+		public Iterator<EntityContainer> iterator()
+		{
+			return this;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			while (!done && (batch == null || index >= batch.size())) {
+				try {
+					batch = queue.take();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				index = 0;
+				if (batch == END) {
+					done = true;
+				}
+			}
+			return !done;
+		}
+
+		@Override
+		public EntityContainer next()
+		{
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return batch.get(index++);
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean hasBounds()
+		{
+			return iterator.hasBounds();
+		}
+
+		@Override
+		public OsmBounds getBounds()
+		{
+			return iterator.getBounds();
+		}
+
+	}
+
+}
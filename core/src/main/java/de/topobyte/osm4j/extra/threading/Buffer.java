@@ -45,7 +45,7 @@ public class Buffer<T> implements Iterable<T>, Iterator<T>
 	{
 		synchronized (sync) {
 			numberOfObjects--;
-			sync.notify();
+			sync.notifyAll();
 		}
 	}
 
@@ -63,7 +63,7 @@ public class Buffer<T> implements Iterable<T>, Iterator<T>
 	{
 		synchronized (sync) {
 			done = true;
-			sync.notify();
+			sync.notifyAll();
 		}
 	}
 
@@ -74,7 +74,7 @@ public class Buffer<T> implements Iterable<T>, Iterator<T>
 				if (numberOfObjects < maxNumberOfObjects) {
 					buffer.add(object);
 					numberOfObjects++;
-					sync.notify();
+					sync.notifyAll();
 					return;
 				} else {
 					try {
@@ -121,7 +121,7 @@ public class Buffer<T> implements Iterable<T>, Iterator<T>
 			while (valid) {
 				if (!buffer.isEmpty()) {
 					T object = buffer.remove();
-					sync.notify();
+					sync.notifyAll();
 					return object;
 				} else if (done) {
 					throw new NoSuchElementException();
@@ -136,6 +136,32 @@ public class Buffer<T> implements Iterable<T>, Iterator<T>
 		throw new NoSuchElementException();
 	}
 
+	/**
+	 * Retrieve the next object or null if the buffer has been completed and
+	 * is empty. Unlike the hasNext()/next() pair, this is a single atomic
+	 * operation and can be used by multiple consuming threads.
+	 */
+	public T take()
+	{
+		synchronized (sync) {
+			while (valid) {
+				if (!buffer.isEmpty()) {
+					T object = buffer.remove();
+					sync.notifyAll();
+					return object;
+				} else if (done) {
+					return null;
+				}
+				try {
+					sync.wait();
+				} catch (InterruptedException e) {
+					// continue
+				}
+			}
+		}
+		return null;
+	}
+
 	@Override
 	public void remove()
 	{
@@ -0,0 +1,65 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.threading;
+
+public class CoordinateBatch
+{
+
+	private double[] lons;
+	private double[] lats;
+	private int size = 0;
+
+	public CoordinateBatch(int capacity)
+	{
+		lons = new double[capacity];
+		lats = new double[capacity];
+	}
+
+	public boolean isFull()
+	{
+		return size == lons.length;
+	}
+
+	public void add(double lon, double lat)
+	{
+		lons[size] = lon;
+		lats[size] = lat;
+		size++;
+	}
+
+	public void clear()
+	{
+		size = 0;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public double[] getLons()
+	{
+		return lons;
+	}
+
+	public double[] getLats()
+	{
+		return lats;
+	}
+
+}
@@ -0,0 +1,74 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.threading;
+
+/**
+ * A budget of bytes shared by a number of threads. Threads reserve an
+ * estimated amount of memory before loading data and release it afterwards,
+ * blocking while the budget is exhausted. A single reservation that exceeds
+ * the whole budget is granted once no other reservation is active, so that
+ * large items are processed alone instead of not at all.
+ */
+public class MemoryBudget
+{
+
+	private long budget;
+	private long used = 0;
+	private int active = 0;
+
+	public MemoryBudget(long budget)
+	{
+		this.budget = budget;
+	}
+
+	/**
+	 * Create a budget of the specified fraction of the maximum heap size.
+	 */
+	public static MemoryBudget ofMaxMemory(double fraction)
+	{
+		return new MemoryBudget(
+				(long) (Runtime.getRuntime().maxMemory() * fraction));
+	}
+
+	public long getBudget()
+	{
+		return budget;
+	}
+
+	public synchronized long getUsed()
+	{
+		return used;
+	}
+
+	public synchronized void acquire(long bytes) throws InterruptedException
+	{
+		while (active > 0 && used + bytes > budget) {
+			wait();
+		}
+		used += bytes;
+		active++;
+	}
+
+	public synchronized void release(long bytes)
+	{
+		used -= bytes;
+		active--;
+		notifyAll();
+	}
+
+}
@@ -0,0 +1,192 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.threading;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.extra.progress.NodeProgress;
+import de.topobyte.osm4j.utils.buffer.ParallelExecutor;
+
+/**
+ * Reads the nodes of an iterator in one thread and hands their coordinates
+ * in batches to a number of consumers that run in parallel. Batches are
+ * recycled so that the scan runs with constant memory. If a consumer fails,
+ * reading stops, the remaining batches are drained and the first error is
+ * thrown from {@link #execute()}.
+ */
+public class NodeCoordinateScan implements Task
+{
+
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+
+	private static final CoordinateBatch END = new CoordinateBatch(0);
+
+	private OsmIterator iterator;
+	private List<? extends CoordinateConsumer> consumers;
+	private int batchSize;
+
+	private BlockingQueue<CoordinateBatch> full;
+	private BlockingQueue<CoordinateBatch> free;
+
+	private NodeProgress counter = new NodeProgress();
+
+	private volatile Throwable failure = null;
+
+	public NodeCoordinateScan(OsmIterator iterator,
+			List<? extends CoordinateConsumer> consumers)
+	{
+		this(iterator, consumers, DEFAULT_BATCH_SIZE);
+	}
+
+	public NodeCoordinateScan(OsmIterator iterator,
+			List<? extends CoordinateConsumer> consumers, int batchSize)
+	{
+		this.iterator = iterator;
+		this.consumers = consumers;
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public void execute() throws IOException
+	{
+		int numConsumers = consumers.size();
+		int capacity = numConsumers * 4;
+		int numBatches = capacity + numConsumers + 1;
+
+		full = new ArrayBlockingQueue<>(capacity + numConsumers);
+		free = new ArrayBlockingQueue<>(numBatches);
+		for (int i = 0; i < numBatches; i++) {
+			free.add(new CoordinateBatch(batchSize));
+		}
+
+		List<Runnable> tasks = new ArrayList<>();
+		tasks.add(new Runnable() {
+
+			@Override
+			public void run()
+			{
+				try {
+					read();
+				} catch (Throwable e) {
+					fail(e);
+				}
+			}
+		});
+		for (final CoordinateConsumer consumer : consumers) {
+			tasks.add(new Runnable() {
+
+				@Override
+				public void run()
+				{
+					try {
+						consume(consumer);
+					} catch (Throwable e) {
+						fail(e);
+					}
+				}
+			});
+		}
+
+		counter.printTimed(1000);
+		try {
+			ParallelExecutor executor = new ParallelExecutor(tasks);
+			executor.execute();
+		} finally {
+			counter.stop();
+		}
+
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		} else if (failure != null) {
+			throw new IOException("Error while scanning nodes", failure);
+		}
+	}
+
+	private synchronized void fail(Throwable e)
+	{
+		if (failure == null) {
+			failure = e;
+		}
+	}
+
+	private void read() throws IOException, InterruptedException
+	{
+		CoordinateBatch batch = free.take();
+		try {
+			loop: while (failure == null && iterator.hasNext()) {
+				EntityContainer entityContainer = iterator.next();
+				switch (entityContainer.getType()) {
+				case Node:
+					OsmNode node = (OsmNode) entityContainer.getEntity();
+					batch.add(node.getLongitude(), node.getLatitude());
+					if (batch.isFull()) {
+						// Consumers clear the batch once they are done
+						int size = batch.size();
+						full.put(batch);
+						counter.increment(size);
+						batch = free.take();
+					}
+					break;
+				case Way:
+					break loop;
+				case Relation:
+					break loop;
+				}
+			}
+			int size = batch.size();
+			if (size > 0) {
+				full.put(batch);
+				counter.increment(size);
+			}
+		} finally {
+			// Always release the consumers, even if reading failed
+			for (int i = 0; i < consumers.size(); i++) {
+				full.put(END);
+			}
+		}
+	}
+
+	private void consume(CoordinateConsumer consumer)
+			throws InterruptedException
+	{
+		while (true) {
+			CoordinateBatch batch = full.take();
+			if (batch == END) {
+				return;
+			}
+			try {
+				if (failure == null) {
+					consumer.consume(batch);
+				}
+			} catch (Throwable e) {
+				// Keep draining so that the reader does not block
+				fail(e);
+			}
+			batch.clear();
+			free.put(batch);
+		}
+	}
+
+}
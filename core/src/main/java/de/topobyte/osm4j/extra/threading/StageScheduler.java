@@ -0,0 +1,316 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.threading;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs a number of stages that declare the data they read and write. A stage
+ * depends on the earlier stages that write data it reads or writes and on
+ * the earlier stages that read data it writes, hence the stages are executed
+ * in the order they have been added wherever it matters, and concurrently
+ * otherwise.
+ * 
+ * Each stage declares the number of threads it uses and the memory it
+ * occupies. Stages are started in the order they have been added as long as
+ * neither the sum of threads nor the sum of memory of the running stages
+ * exceeds the respective capacity. A stage that requires more than a whole
+ * capacity is run once no other stage is running. The memory of a stage is
+ * estimated once all of its dependencies have finished, so that the estimate
+ * may depend on the data written by them.
+ */
+public class StageScheduler implements Task
+{
+
+	private static class Stage
+	{
+
+		private String name;
+		private int threads;
+		private MemoryEstimate memory;
+		private Task task;
+		private List<String> outputs;
+		private Set<Stage> dependencies = new LinkedHashSet<>();
+		// The stage that has last written each of the inputs
+		private Map<String, Stage> sources = new HashMap<>();
+
+		private boolean started = false;
+		private boolean finished = false;
+		private long bytes = -1;
+
+		public Stage(String name, int threads, MemoryEstimate memory,
+				Task task)
+		{
+			this.name = name;
+			this.threads = threads;
+			this.memory = memory;
+			this.task = task;
+		}
+
+	}
+
+	private static final MemoryEstimate NO_MEMORY = new MemoryEstimate() {
+
+		@Override
+		public long getBytes()
+		{
+			return 0;
+		}
+	};
+
+	private int capacity;
+	private long memoryCapacity;
+
+	private List<Stage> stages = new ArrayList<>();
+	private Map<String, Stage> names = new HashMap<>();
+	private Map<String, List<Stage>> writers = new HashMap<>();
+	private Map<String, List<Stage>> readers = new HashMap<>();
+
+	private int used = 0;
+	private long usedMemory = 0;
+	private int running = 0;
+	private IOException failure = null;
+
+	/**
+	 * Create a scheduler that does not limit the memory of running stages.
+	 */
+	public StageScheduler(int capacity)
+	{
+		this(capacity, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param capacity
+	 *            the number of threads available to the stages.
+	 * @param memoryCapacity
+	 *            the number of bytes available to the stages.
+	 */
+	public StageScheduler(int capacity, long memoryCapacity)
+	{
+		this.capacity = capacity;
+		this.memoryCapacity = memoryCapacity;
+	}
+
+	/**
+	 * Add a stage that does not occupy a notable amount of memory.
+	 */
+	public void add(String name, int threads, String[] inputs,
+			String[] outputs, Task task)
+	{
+		add(name, threads, NO_MEMORY, inputs, outputs, task);
+	}
+
+	public void add(String name, int threads, MemoryEstimate memory,
+			String[] inputs, String[] outputs, Task task)
+	{
+		if (names.containsKey(name)) {
+			throw new IllegalArgumentException("Duplicate stage: " + name);
+		}
+
+		Stage stage = new Stage(name, threads, memory, task);
+		stage.outputs = Arrays.asList(outputs);
+		for (String input : inputs) {
+			List<Stage> inputWriters = get(writers, input);
+			stage.dependencies.addAll(inputWriters);
+			if (!inputWriters.isEmpty()) {
+				stage.sources.put(input,
+						inputWriters.get(inputWriters.size() - 1));
+			}
+		}
+		for (String output : outputs) {
+			stage.dependencies.addAll(get(writers, output));
+			stage.dependencies.addAll(get(readers, output));
+		}
+
+		for (String input : inputs) {
+			get(readers, input).add(stage);
+		}
+		for (String output : outputs) {
+			get(writers, output).add(stage);
+		}
+
+		stages.add(stage);
+		names.put(name, stage);
+	}
+
+	private List<Stage> get(Map<String, List<Stage>> map, String data)
+	{
+		List<Stage> list = map.get(data);
+		if (list == null) {
+			list = new ArrayList<>();
+			map.put(data, list);
+		}
+		return list;
+	}
+
+	/**
+	 * Mark the specified stage as done without running it, e.g. because it
+	 * has been completed before.
+	 */
+	public synchronized void skip(String name)
+	{
+		Stage stage = names.get(name);
+		stage.started = true;
+		stage.finished = true;
+	}
+
+	/**
+	 * Get the names of the stages that the specified stage directly depends
+	 * on.
+	 */
+	public List<String> getDependencies(String name)
+	{
+		List<String> result = new ArrayList<>();
+		for (Stage stage : names.get(name).dependencies) {
+			result.add(stage.name);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the data written by the specified stage.
+	 */
+	public List<String> getOutputs(String name)
+	{
+		return new ArrayList<>(names.get(name).outputs);
+	}
+
+	/**
+	 * Get the names of the stages that read the specified data as written by
+	 * the specified stage, i.e. that read the data and have been added after
+	 * the stage but before any other stage writing the data.
+	 */
+	public List<String> getReaders(String name, String data)
+	{
+		Stage writer = names.get(name);
+		List<String> result = new ArrayList<>();
+		for (Stage stage : stages) {
+			if (stage.sources.get(data) == writer) {
+				result.add(stage.name);
+			}
+		}
+		return result;
+	}
+
+	public List<String> getStages()
+	{
+		List<String> result = new ArrayList<>();
+		for (Stage stage : stages) {
+			result.add(stage.name);
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized void execute() throws IOException
+	{
+		while (true) {
+			if (failure == null) {
+				try {
+					for (Stage stage : stages) {
+						if (canStart(stage)) {
+							start(stage);
+						}
+					}
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+
+			if (running == 0) {
+				break;
+			}
+
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while running stages", e);
+			}
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private boolean canStart(Stage stage) throws IOException
+	{
+		if (stage.started) {
+			return false;
+		}
+		for (Stage dependency : stage.dependencies) {
+			if (!dependency.finished) {
+				return false;
+			}
+		}
+		if (stage.bytes < 0) {
+			stage.bytes = stage.memory.getBytes();
+		}
+		if (running == 0) {
+			return true;
+		}
+		return used + stage.threads <= capacity
+				&& usedMemory + stage.bytes <= memoryCapacity;
+	}
+
+	private void start(final Stage stage)
+	{
+		stage.started = true;
+		used += stage.threads;
+		usedMemory += stage.bytes;
+		running++;
+
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run()
+			{
+				IOException error = null;
+				try {
+					stage.task.execute();
+				} catch (IOException e) {
+					error = e;
+				} catch (Throwable e) {
+					error = new IOException("Error in stage " + stage.name, e);
+				}
+				finish(stage, error);
+			}
+		}, stage.name);
+		thread.start();
+	}
+
+	private synchronized void finish(Stage stage, IOException error)
+	{
+		stage.finished = error == null;
+		used -= stage.threads;
+		usedMemory -= stage.bytes;
+		running--;
+		if (error != null && failure == null) {
+			failure = error;
+		}
+		notifyAll();
+	}
+
+}
@@ -24,9 +24,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import de.topobyte.melon.io.StreamUtil;
 import de.topobyte.osm4j.core.access.OsmIterator;
@@ -40,19 +41,73 @@ import de.topobyte.osm4j.utils.buffer.ParallelExecutor;
 public class ThreadedWaysSorterByFirstNodeId implements WaysSorterByFirstNodeId
 {
 
+	/**
+	 * The maximum number of ways of a batch.
+	 */
+	public static final int BATCH_MAX_WAYS = 800 * 1000;
+
+	/**
+	 * The maximum number of way node references of a batch.
+	 */
+	public static final int BATCH_MAX_WAY_NODES = 10 * 1000 * 1000;
+
+	/**
+	 * Estimate the number of bytes occupied by the batches of a sorter with
+	 * the specified number of workers. Each worker holds a batch and one more
+	 * batch is being built by the reading thread. Ways are assumed to carry
+	 * about one tag each.
+	 */
+	public static long estimateMemory(int numWorkers, boolean metadata)
+	{
+		long perWay = 128 + (metadata ? 48 : 0);
+		long perBatch = BATCH_MAX_WAYS * perWay + BATCH_MAX_WAY_NODES * 8L;
+		return (numWorkers + 1) * perBatch;
+	}
+
 	private OsmIterator input;
 	private Path dirOutput;
 
 	private OsmOutputConfig outputConfig;
 
-	private Buffer<WayBatch> buffer = new Buffer<>(1);
+	private int numWorkers;
+	private int maxFanIn = WayRunsMerger.DEFAULT_MAX_FAN_IN;
+
+	private Buffer<WayBatch> buffer;
 
 	public ThreadedWaysSorterByFirstNodeId(OsmIterator input, Path dirOutput,
 			OsmOutputConfig outputConfig)
+	{
+		this(input, dirOutput, outputConfig, 1);
+	}
+
+	/**
+	 * Create a sorter that sorts and writes up to numWorkers batches
+	 * concurrently. Each worker holds one batch in memory while another batch
+	 * is being built by the reading thread.
+	 */
+	public ThreadedWaysSorterByFirstNodeId(OsmIterator input, Path dirOutput,
+			OsmOutputConfig outputConfig, int numWorkers)
 	{
 		this.input = input;
 		this.dirOutput = dirOutput;
 		this.outputConfig = outputConfig;
+		this.numWorkers = numWorkers;
+		buffer = new Buffer<>(numWorkers);
+	}
+
+	public int getMaxFanIn()
+	{
+		return maxFanIn;
+	}
+
+	/**
+	 * Set the maximum number of sorted runs to leave in the output directory.
+	 * Whenever sorting produces more runs than this, runs get merged in
+	 * additional passes reading at most this many files at once.
+	 */
+	public void setMaxFanIn(int maxFanIn)
+	{
+		this.maxFanIn = maxFanIn;
 	}
 
 	@Override
@@ -61,14 +116,20 @@ public class ThreadedWaysSorterByFirstNodeId implements WaysSorterByFirstNodeId
 		init();
 
 		RunnableWayBatchBuilder batchBuilder = new RunnableWayBatchBuilder(
-				input, 800 * 1000, 10 * 1000 * 1000, buffer);
+				input, BATCH_MAX_WAYS, BATCH_MAX_WAY_NODES, buffer);
 
 		List<Runnable> tasks = new ArrayList<>();
 		tasks.add(batchBuilder);
-		tasks.add(sorterWriter);
+		for (int i = 0; i < numWorkers; i++) {
+			tasks.add(sorterWriter);
+		}
 
 		ParallelExecutor executor = new ParallelExecutor(tasks);
 		executor.execute();
+
+		WayRunsMerger merger = new WayRunsMerger(dirOutput, outputConfig,
+				maxFanIn);
+		merger.execute();
 	}
 
 	private void init() throws IOException
@@ -102,42 +163,44 @@ public class ThreadedWaysSorterByFirstNodeId implements WaysSorterByFirstNodeId
 
 	private void run() throws IOException
 	{
-		for (WayBatch batch : buffer) {
-			process(batch);
+		WayBatchSorter sorter = new WayBatchSorter();
+		WayBatch batch;
+		while ((batch = buffer.take()) != null) {
+			process(sorter, batch);
 			status();
 			buffer.returnObject(batch);
 		}
 	}
 
-	private int batchCount = 0;
-	private int wayCount = 0;
+	private AtomicInteger batchCount = new AtomicInteger();
+	private AtomicLong wayCount = new AtomicLong();
 
 	private long start = System.currentTimeMillis();
 	private NumberFormat format = NumberFormat.getNumberInstance(Locale.US);
 
-	private void status()
+	private synchronized void status()
 	{
 		long now = System.currentTimeMillis();
 		long past = now - start;
 
 		double seconds = past / 1000;
-		long perSecond = Math.round(wayCount / seconds);
+		long ways = wayCount.get();
+		long perSecond = Math.round(ways / seconds);
 
 		System.out.println(String.format(
 				"Processed: %s ways, time passed: %.2f per second: %s",
-				format.format(wayCount), past / 1000 / 60.,
+				format.format(ways), past / 1000 / 60.,
 				format.format(perSecond)));
 	}
 
-	private void process(WayBatch batch) throws IOException
+	private void process(WayBatchSorter sorter, WayBatch batch)
+			throws IOException
 	{
-		List<OsmWay> ways = batch.getElements();
-
-		Collections.sort(ways, new WayNodeIdComparator());
+		List<OsmWay> ways = sorter.sort(batch.getElements());
 
-		batchCount++;
+		int run = batchCount.incrementAndGet();
 
-		String filename = String.format("%d%s", batchCount,
+		String filename = String.format("%d%s", run,
 				OsmIoUtils.extension(outputConfig.getFileFormat()));
 		Path path = dirOutput.resolve(filename);
 		File file = path.toFile();
@@ -152,7 +215,7 @@ public class ThreadedWaysSorterByFirstNodeId implements WaysSorterByFirstNodeId
 		osmOutput.complete();
 		output.close();
 
-		wayCount += ways.size();
+		wayCount.addAndGet(ways.size());
 	}
 
 }
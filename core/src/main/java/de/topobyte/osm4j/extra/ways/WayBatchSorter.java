@@ -0,0 +1,84 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.ways;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.extra.sort.IndexComparator;
+import de.topobyte.osm4j.extra.sort.IndexSort;
+
+/**
+ * Sorts ways by first node id and way id, the same order as defined by
+ * {@link WayNodeIdComparator}. The sort keys are extracted into primitive
+ * arrays once and an index permutation is sorted on those arrays using an
+ * {@link IndexSort}, which avoids calling into the ways for each comparison.
+ */
+public class WayBatchSorter
+{
+
+	private long[] firstNodes;
+	private long[] ids;
+	private int[] order;
+
+	private IndexComparator comparator = new IndexComparator() {
+
+		@Override
+		public int compare(int a, int b)
+		{
+			int cmp = Long.compare(firstNodes[a], firstNodes[b]);
+			if (cmp != 0) {
+				return cmp;
+			}
+			return Long.compare(ids[a], ids[b]);
+		}
+	};
+
+	public List<OsmWay> sort(List<OsmWay> ways)
+	{
+		int n = ways.size();
+		ensureCapacity(n);
+
+		for (int i = 0; i < n; i++) {
+			OsmWay way = ways.get(i);
+			firstNodes[i] = way.getNodeId(0);
+			ids[i] = way.getId();
+			order[i] = i;
+		}
+
+		IndexSort.sort(order, 0, n, comparator);
+
+		List<OsmWay> sorted = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			sorted.add(ways.get(order[i]));
+		}
+		return sorted;
+	}
+
+	private void ensureCapacity(int n)
+	{
+		if (order != null && order.length >= n) {
+			return;
+		}
+		firstNodes = new long[n];
+		ids = new long[n];
+		order = new int[n];
+	}
+
+}
@@ -0,0 +1,174 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.ways;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import de.topobyte.melon.io.StreamUtil;
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.access.OsmOutputStream;
+import de.topobyte.osm4j.core.dataset.sort.IdComparator;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.EntityType;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.extra.threading.Task;
+import de.topobyte.osm4j.utils.OsmIoUtils;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+import de.topobyte.osm4j.utils.merge.sorted.SortedMergeIterator;
+
+/**
+ * Reduces the number of sorted way runs within a directory by merging groups
+ * of at most maxFanIn runs into a single run, until no more than maxFanIn runs
+ * remain. The remaining runs can then be merged by a single streaming
+ * SortedMergeIterator without opening an unbounded number of files.
+ */
+public class WayRunsMerger implements Task
+{
+
+	public static final int DEFAULT_MAX_FAN_IN = 64;
+
+	private Path dir;
+	private OsmOutputConfig outputConfig;
+	private int maxFanIn;
+
+	private int runCount = 0;
+
+	public WayRunsMerger(Path dir, OsmOutputConfig outputConfig, int maxFanIn)
+	{
+		this.dir = dir;
+		this.outputConfig = outputConfig;
+		this.maxFanIn = maxFanIn;
+		if (maxFanIn < 2) {
+			throw new IllegalArgumentException("fan-in must be at least 2");
+		}
+	}
+
+	@Override
+	public void execute() throws IOException
+	{
+		List<Path> runs = listRuns();
+
+		int pass = 0;
+		while (runs.size() > maxFanIn) {
+			pass++;
+			System.out.println(String.format("Merge pass %d: %d runs", pass,
+					runs.size()));
+
+			List<Path> merged = new ArrayList<>();
+			// Merge as few groups as necessary so that at most maxFanIn runs
+			// remain after this pass, merging the smallest runs first.
+			Collections.sort(runs, new Comparator<Path>() {
+
+				@Override
+				public int compare(Path a, Path b)
+				{
+					return Long.compare(a.toFile().length(),
+							b.toFile().length());
+				}
+
+			});
+			int excess = runs.size() - maxFanIn;
+			int i = 0;
+			while (excess > 0 && i < runs.size()) {
+				int n = Math.min(maxFanIn, Math.min(excess + 1,
+						runs.size() - i));
+				if (n < 2) {
+					break;
+				}
+				List<Path> group = runs.subList(i, i + n);
+				merged.add(merge(group, pass));
+				excess -= n - 1;
+				i += n;
+			}
+			merged.addAll(runs.subList(i, runs.size()));
+			runs = merged;
+		}
+
+		System.out.println(String.format("Sorted runs: %d", runs.size()));
+	}
+
+	private List<Path> listRuns() throws IOException
+	{
+		List<Path> runs = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path path : stream) {
+				if (Files.isRegularFile(path)) {
+					runs.add(path);
+				}
+			}
+		}
+		return runs;
+	}
+
+	private Path merge(List<Path> group, int pass) throws IOException
+	{
+		String extension = OsmIoUtils.extension(outputConfig.getFileFormat());
+		Path output = dir.resolve(
+				String.format("merged-%d-%d%s", pass, ++runCount, extension));
+
+		List<InputStream> inputs = new ArrayList<>();
+		List<OsmIterator> iterators = new ArrayList<>();
+		for (Path path : group) {
+			InputStream input = StreamUtil.bufferedInputStream(path.toFile());
+			inputs.add(input);
+			iterators.add(OsmIoUtils.setupOsmIterator(input,
+					outputConfig.getFileFormat(),
+					outputConfig.isWriteMetadata()));
+		}
+
+		SortedMergeIterator iterator = new SortedMergeIterator(iterators,
+				new IdComparator(), new WayNodeIdComparator(),
+				new IdComparator());
+
+		File file = output.toFile();
+		OutputStream out = StreamUtil.bufferedOutputStream(file);
+		OsmOutputStream osmOutput = OsmIoUtils.setupOsmOutput(out,
+				outputConfig);
+
+		while (iterator.hasNext()) {
+			EntityContainer c = iterator.next();
+			if (c.getType() != EntityType.Way) {
+				continue;
+			}
+			osmOutput.write((OsmWay) c.getEntity());
+		}
+
+		osmOutput.complete();
+		out.close();
+
+		for (InputStream input : inputs) {
+			input.close();
+		}
+		for (Path path : group) {
+			Files.delete(path);
+		}
+
+		return output;
+	}
+
+}
@@ -0,0 +1,87 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.topobyte.osm4j.core.access.OsmOutputStream;
+import de.topobyte.osm4j.core.model.iface.OsmBounds;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmRelation;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+
+public class EntityCollector implements OsmOutputStream
+{
+
+	private List<OsmNode> nodes = new ArrayList<>();
+	private List<OsmWay> ways = new ArrayList<>();
+	private List<OsmRelation> relations = new ArrayList<>();
+	private boolean complete = false;
+
+	public List<OsmNode> getNodes()
+	{
+		return nodes;
+	}
+
+	public List<OsmWay> getWays()
+	{
+		return ways;
+	}
+
+	public List<OsmRelation> getRelations()
+	{
+		return relations;
+	}
+
+	public boolean isComplete()
+	{
+		return complete;
+	}
+
+	@Override
+	public void write(OsmBounds bounds)
+	{
+		// ignore
+	}
+
+	@Override
+	public void write(OsmNode node)
+	{
+		nodes.add(node);
+	}
+
+	@Override
+	public void write(OsmWay way)
+	{
+		ways.add(way);
+	}
+
+	@Override
+	public void write(OsmRelation relation)
+	{
+		relations.add(relation);
+	}
+
+	@Override
+	public void complete()
+	{
+		complete = true;
+	}
+
+}
@@ -0,0 +1,84 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.EntityType;
+import de.topobyte.osm4j.core.model.iface.OsmBounds;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+
+public class EntityListIterator implements OsmIterator
+{
+
+	private List<EntityContainer> containers = new ArrayList<>();
+	private int index = 0;
+
+	public EntityListIterator(List<? extends OsmNode> nodes,
+			List<? extends OsmWay> ways)
+	{
+		for (OsmNode node : nodes) {
+			containers.add(new EntityContainer(EntityType.Node, node));
+		}
+		for (OsmWay way : ways) {
+			containers.add(new EntityContainer(EntityType.Way, way));
+		}
+	}
+
+	@Override
+	public Iterator<EntityContainer> iterator()
+	{
+		return this;
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		return index < containers.size();
+	}
+
+	@Override
+	public EntityContainer next()
+	{
+		return containers.get(index++);
+	}
+
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean hasBounds()
+	{
+		return false;
+	}
+
+	@Override
+	public OsmBounds getBounds()
+	{
+		return null;
+	}
+
+}
@@ -0,0 +1,155 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.columnar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+
+import de.topobyte.osm4j.core.model.iface.OsmMetadata;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.core.model.impl.Metadata;
+import de.topobyte.osm4j.core.model.impl.Node;
+import de.topobyte.osm4j.core.model.impl.Way;
+import de.topobyte.osm4j.extra.EntityListIterator;
+
+public class TestColumnar
+{
+
+	private static OsmMetadata metadata(long id)
+	{
+		String user = id % 5 == 0 ? null : "user" + (id % 3);
+		return new Metadata((int) (id % 7), id * 1000, id % 3, user, id * 2);
+	}
+
+	private static void assertMetadata(long id, OsmMetadata metadata)
+	{
+		OsmMetadata expected = metadata(id);
+		assertEquals(expected.getVersion(), metadata.getVersion());
+		assertEquals(expected.getTimestamp(), metadata.getTimestamp());
+		assertEquals(expected.getUid(), metadata.getUid());
+		assertEquals(expected.getUser(), metadata.getUser());
+		assertEquals(expected.getChangeset(), metadata.getChangeset());
+	}
+
+	@Test
+	public void testNodesSorted()
+	{
+		Random random = new Random(1);
+		List<Long> ids = new ArrayList<>();
+		for (long id = 1; id <= 5000; id++) {
+			ids.add(id * 3);
+		}
+		Collections.shuffle(ids, random);
+
+		List<OsmNode> nodes = new ArrayList<>();
+		for (long id : ids) {
+			// Only some of the nodes have metadata
+			OsmMetadata metadata = id % 2 == 0 ? metadata(id) : null;
+			nodes.add(new Node(id, id / 10000., -id / 10000., metadata));
+		}
+
+		ColumnarNodes columnar = ColumnarNodes.read(
+				new EntityListIterator(nodes, new ArrayList<OsmWay>()), true);
+		assertEquals(5000, columnar.size());
+		for (int i = 0; i < columnar.size(); i++) {
+			long id = (i + 1) * 3;
+			assertEquals(id, columnar.getId(i));
+			assertEquals(id / 10000., columnar.getLongitude(i), 1e-7);
+			assertEquals(-id / 10000., columnar.getLatitude(i), 1e-7);
+
+			OsmNode node = columnar.get(i);
+			if (id % 2 == 0) {
+				assertMetadata(id, node.getMetadata());
+			} else {
+				assertNull(node.getMetadata());
+			}
+		}
+		assertFalse(columnar.contains(4));
+	}
+
+	@Test
+	public void testNodesWithoutRetention()
+	{
+		List<OsmNode> nodes = new ArrayList<>();
+		nodes.add(new Node(2, 1, 1, metadata(2)));
+		nodes.add(new Node(1, 1, 1, metadata(1)));
+
+		ColumnarNodes columnar = ColumnarNodes.read(
+				new EntityListIterator(nodes, new ArrayList<OsmWay>()), false);
+		assertEquals(1, columnar.getId(0));
+		assertNull(columnar.get(0).getMetadata());
+		assertNull(columnar.get(1).getMetadata());
+	}
+
+	@Test
+	public void testDeletedNodesKept()
+	{
+		OsmMetadata deleted = new Metadata(2, 1000, 1, "user", 1, false);
+		OsmNode node = new Node(1, 1, 1, deleted);
+		List<OsmNode> nodes = new ArrayList<>();
+		nodes.add(node);
+
+		ColumnarNodes columnar = ColumnarNodes.read(
+				new EntityListIterator(nodes, new ArrayList<OsmWay>()), true);
+		assertSame(node, columnar.get(0));
+	}
+
+	@Test
+	public void testWays()
+	{
+		List<OsmWay> ways = new ArrayList<>();
+		for (long id = 1; id <= 100; id++) {
+			TLongArrayList refs = new TLongArrayList();
+			for (int i = 0; i < id % 4 + 2; i++) {
+				refs.add(id * 10 + i);
+			}
+			OsmMetadata metadata = id > 50 ? metadata(id) : null;
+			ways.add(new Way(id, refs, metadata));
+		}
+
+		ColumnarWays columnar = ColumnarWays.read(
+				new EntityListIterator(new ArrayList<OsmNode>(), ways), true);
+		assertEquals(100, columnar.size());
+		for (int i = 0; i < columnar.size(); i++) {
+			long id = i + 1;
+			OsmWay way = columnar.get(i);
+			assertEquals(id, way.getId());
+			assertEquals(id % 4 + 2, way.getNumberOfNodes());
+			assertEquals(id * 10 + 1, way.getNodeId(1));
+			if (id > 50) {
+				assertMetadata(id, way.getMetadata());
+			} else {
+				assertNull(way.getMetadata());
+			}
+		}
+		assertEquals(41, columnar.indexOf(42));
+	}
+
+}
@@ -0,0 +1,115 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+
+public class TestNodeRouting
+{
+
+	@Test
+	public void testBinary()
+	{
+		test(new Envelope(-180, 180, -90, 90), 2, 8);
+		test(new Envelope(10, 20, -8, 24), 2, 5);
+	}
+
+	@Test
+	public void testQuad()
+	{
+		test(new Envelope(-180, 180, -90, 90), 4, 4);
+		test(new Envelope(10, 20, -8, 24), 4, 3);
+	}
+
+	@Test
+	public void testHigherFanout()
+	{
+		test(new Envelope(-180, 180, -90, 90), 8, 3);
+		test(new Envelope(-180, 180, -90, 90), 16, 2);
+	}
+
+	@Test
+	public void testBinaryPaths()
+	{
+		DataTree tree = new DataTree(new Envelope(0, 4, 0, 2));
+		tree.getRoot().split(2);
+		List<Node> leafs = tree.getLeafs();
+		assertEquals(4, leafs.size());
+		assertEquals(0b100, leafs.get(0).getPath());
+		assertEquals(new Envelope(0, 1, 0, 2), leafs.get(0).getEnvelope());
+		assertEquals(0b111, leafs.get(3).getPath());
+		assertEquals(new Envelope(3, 4, 0, 2), leafs.get(3).getEnvelope());
+	}
+
+	@Test
+	public void testLevels()
+	{
+		assertEquals(20, new DataTree(new Envelope(0, 1, 0, 1)).levels(20));
+		assertEquals(10, new DataTree(new Envelope(0, 1, 0, 1), 4).levels(20));
+		assertEquals(5, new DataTree(new Envelope(0, 1, 0, 1), 16).levels(20));
+		assertEquals(3, new DataTree(new Envelope(0, 1, 0, 1), 8).levels(8));
+	}
+
+	private void test(Envelope envelope, int fanout, int depth)
+	{
+		DataTree tree = new DataTree(envelope, fanout);
+		tree.getRoot().split(depth);
+
+		List<Node> leafs = tree.getLeafs();
+		int expected = 1 << (tree.getBitsPerLevel() * depth);
+		assertEquals(expected, leafs.size());
+
+		Random random = new Random(1);
+		List<double[]> points = new ArrayList<>();
+		for (int i = 0; i < 10000; i++) {
+			double lon = envelope.getMinX()
+					+ random.nextDouble() * envelope.getWidth();
+			double lat = envelope.getMinY()
+					+ random.nextDouble() * envelope.getHeight();
+			points.add(new double[] { lon, lat });
+		}
+		// Points on the boundaries of leafs
+		for (Node leaf : leafs) {
+			Envelope e = leaf.getEnvelope();
+			points.add(new double[] { e.getMinX(), e.getMinY() });
+			points.add(new double[] { e.getMinX(), e.centre().y });
+			points.add(new double[] { e.centre().x, e.getMaxY() });
+		}
+
+		for (double[] point : points) {
+			Set<Node> expectedLeafs = new HashSet<>();
+			for (Node leaf : leafs) {
+				if (leaf.getEnvelope().contains(point[0], point[1])) {
+					expectedLeafs.add(leaf);
+				}
+			}
+			Set<Node> found = new HashSet<>(tree.query(point[0], point[1]));
+			assertEquals(expectedLeafs, found);
+		}
+	}
+
+}
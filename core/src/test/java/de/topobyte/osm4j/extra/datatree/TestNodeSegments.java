@@ -0,0 +1,116 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+
+public class TestNodeSegments
+{
+
+	private Envelope box = new Envelope(0, 10, 0, 10);
+
+	@Test
+	public void testInside()
+	{
+		assertTrue(Node.intersectsSegment(box, 1, 1, 2, 2));
+	}
+
+	@Test
+	public void testCrossing()
+	{
+		assertTrue(Node.intersectsSegment(box, -5, 5, 15, 5));
+		assertTrue(Node.intersectsSegment(box, 5, -5, 5, 15));
+		assertTrue(Node.intersectsSegment(box, -5, -5, 15, 15));
+	}
+
+	@Test
+	public void testOneEndInside()
+	{
+		assertTrue(Node.intersectsSegment(box, 5, 5, 20, 30));
+		assertTrue(Node.intersectsSegment(box, 20, 30, 5, 5));
+	}
+
+	@Test
+	public void testTouching()
+	{
+		assertTrue(Node.intersectsSegment(box, 10, -5, 10, 15));
+		assertTrue(Node.intersectsSegment(box, -5, 5, 0, 5));
+		assertTrue(Node.intersectsSegment(box, -5, 5, 5, 15));
+	}
+
+	@Test
+	public void testDisjoint()
+	{
+		assertFalse(Node.intersectsSegment(box, 11, 0, 20, 10));
+		assertFalse(Node.intersectsSegment(box, -5, 11, 15, 11));
+	}
+
+	@Test
+	public void testDiagonalPassingCorner()
+	{
+		// The bounding box of the segment overlaps the envelope, the segment
+		// itself passes by the upper right corner
+		assertFalse(Node.intersectsSegment(box, 5, 20, 20, 5));
+		assertTrue(Node.intersectsSegment(box, 5, 15, 15, 5));
+	}
+
+	@Test
+	public void testPoint()
+	{
+		assertTrue(Node.intersectsSegment(box, 3, 3, 3, 3));
+		assertFalse(Node.intersectsSegment(box, 13, 3, 13, 3));
+	}
+
+	@Test
+	public void testQuerySegment()
+	{
+		DataTree tree = new DataTree(new Envelope(0, 8, 0, 8), 4);
+		Node root = tree.getRoot();
+		root.split();
+		for (Node child : root.getChildren()) {
+			child.split();
+		}
+
+		// A diagonal must not hit the leafs in the other two corners
+		List<Node> hits = new ArrayList<>();
+		root.querySegment(hits, 0.5, 0.5, 7.5, 7.5);
+
+		Set<Node> expected = new HashSet<>();
+		for (Node leaf : tree.getLeafs()) {
+			Envelope envelope = leaf.getEnvelope();
+			double c = envelope.getMinX() - envelope.getMinY();
+			if (Math.abs(c) <= envelope.getWidth()) {
+				expected.add(leaf);
+			}
+		}
+		assertEquals(expected, new HashSet<>(hits));
+		assertEquals(hits.size(), new HashSet<>(hits).size());
+		assertTrue(hits.size() < tree.getLeafs().size());
+	}
+
+}
@@ -0,0 +1,284 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.merge;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+
+import de.topobyte.adt.geo.BBox;
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.access.OsmOutputStream;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.impl.Node;
+import de.topobyte.osm4j.core.model.impl.Way;
+import de.topobyte.osm4j.extra.datatree.DataTree;
+import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
+import de.topobyte.osm4j.extra.datatree.DataTreeUtil;
+import de.topobyte.osm4j.extra.datatree.locations.WayLocations;
+import de.topobyte.osm4j.extra.datatree.locations.WayLocationsInputStream;
+import de.topobyte.osm4j.extra.datatree.locations.WayLocationsUtil;
+import de.topobyte.osm4j.extra.threading.MemoryBudget;
+import de.topobyte.osm4j.utils.FileFormat;
+import de.topobyte.osm4j.utils.OsmIoUtils;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+import de.topobyte.osm4j.utils.config.TboConfig;
+
+public class TestFusedTreeFilesMerger
+{
+
+	private static final String SORTED_NODES = "nodes-sorted.tbo";
+	private static final String UNSORTED_NODES = "nodes-unsorted.tbo";
+	private static final String UNSORTED_WAYS = "ways-unsorted.tbo";
+	private static final String NODES = "nodes.tbo";
+	private static final String WAYS = "ways.tbo";
+
+	private Path dir;
+	private OsmOutputConfig config = new OsmOutputConfig(FileFormat.TBO, null,
+			new TboConfig(), false);
+
+	private List<de.topobyte.osm4j.extra.datatree.Node> leafs;
+
+	@Before
+	public void setup() throws IOException
+	{
+		dir = Files.createTempDirectory("fused-merger");
+	}
+
+	@After
+	public void cleanup() throws IOException
+	{
+		FileUtils.deleteDirectory(dir.toFile());
+	}
+
+	@Test
+	public void testMergeWithLocations() throws IOException
+	{
+		Path tree = dir.resolve("tree");
+		createTree(tree);
+
+		merger(tree, true).execute();
+
+		de.topobyte.osm4j.extra.datatree.Node leaf = leafs.get(0);
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L),
+				ids(tree, NODES, leaf));
+		assertEquals(Arrays.asList(10L, 20L, 30L), ids(tree, WAYS, leaf));
+		assertEquals(Arrays.asList(6L), ids(tree, NODES, leafs.get(1)));
+		assertEquals(Arrays.asList(40L), ids(tree, WAYS, leafs.get(1)));
+
+		// Inputs are deleted
+		for (String name : inputs()) {
+			assertFalse(Files.exists(path(tree, name, leaf)));
+		}
+
+		// Way 30 references a node that is not available
+		List<WayLocations> locations = locations(tree, leaf);
+		assertEquals(2, locations.size());
+		assertEquals(10, locations.get(0).getId());
+		assertEquals(4, locations.get(0).getLongitude(0), 1e-6);
+		assertEquals(5, locations.get(0).getLongitude(1), 1e-6);
+		assertEquals(20, locations.get(1).getId());
+		assertEquals(3, locations.get(1).size());
+		assertEquals(1, locations(tree, leafs.get(1)).size());
+	}
+
+	@Test
+	public void testSameAsSeparatePasses() throws IOException
+	{
+		Path tree1 = dir.resolve("tree1");
+		Path tree2 = dir.resolve("tree2");
+		createTree(tree1);
+		createTree(tree2);
+
+		merger(tree1, false).execute();
+
+		MemoryBudget budget = new MemoryBudget(1000000);
+		new ThreadedTreeFilesMerger(tree2, list(SORTED_NODES),
+				list(UNSORTED_NODES), NODES, FileFormat.TBO, config, true, 2,
+				budget).execute();
+		new ThreadedTreeFilesMerger(tree2, new ArrayList<String>(),
+				list(UNSORTED_WAYS), WAYS, FileFormat.TBO, config, true, 2,
+				budget).execute();
+
+		for (de.topobyte.osm4j.extra.datatree.Node leaf : leafs) {
+			for (String name : new String[] { NODES, WAYS }) {
+				assertArrayEquals(Files.readAllBytes(path(tree2, name, leaf)),
+						Files.readAllBytes(path(tree1, name, leaf)));
+			}
+			assertFalse(WayLocationsUtil.exists(path(tree1, WAYS, leaf)));
+		}
+	}
+
+	@Test
+	public void testSkipMerged() throws IOException
+	{
+		Path tree = dir.resolve("tree");
+		createTree(tree);
+		de.topobyte.osm4j.extra.datatree.Node leaf = leafs.get(0);
+
+		merger(tree, true).execute();
+
+		// Pretend the first leaf has been merged before and the second leaf
+		// has been interrupted before its locations have been written
+		createLeafs(tree);
+		write(tree, UNSORTED_WAYS, leaf, new Way(50, nodes(1)));
+		Files.delete(WayLocationsUtil
+				.getLocationsPath(path(tree, WAYS, leafs.get(1))));
+
+		FusedTreeFilesMerger merger = merger(tree, true);
+		merger.setSkipMerged(true);
+		merger.execute();
+
+		assertEquals(Arrays.asList(10L, 20L, 30L), ids(tree, WAYS, leaf));
+		assertEquals(1, locations(tree, leafs.get(1)).size());
+		for (String name : inputs()) {
+			assertFalse(Files.exists(path(tree, name, leaf)));
+			assertFalse(Files.exists(path(tree, name, leafs.get(1))));
+		}
+	}
+
+	private FusedTreeFilesMerger merger(Path tree, boolean locations)
+	{
+		return new FusedTreeFilesMerger(tree, list(SORTED_NODES),
+				list(UNSORTED_NODES), NODES, new ArrayList<String>(),
+				list(UNSORTED_WAYS), WAYS, FileFormat.TBO, config, true,
+				locations, 2, new MemoryBudget(1000000));
+	}
+
+	private void createTree(Path tree) throws IOException
+	{
+		DataTree dataTree = DataTreeUtil.initNewTree(tree,
+				new BBox(new Envelope(0, 20, 0, 10)), 2);
+		dataTree.getRoot().split();
+		leafs = dataTree.getLeafs();
+		for (de.topobyte.osm4j.extra.datatree.Node leaf : leafs) {
+			Files.createDirectories(path(tree, NODES, leaf).getParent());
+		}
+		createLeafs(tree);
+	}
+
+	private void createLeafs(Path tree) throws IOException
+	{
+		de.topobyte.osm4j.extra.datatree.Node leaf = leafs.get(0);
+		write(tree, SORTED_NODES, leaf, new Node(1, 1, 1), new Node(3, 3, 1),
+				new Node(5, 5, 1));
+		write(tree, UNSORTED_NODES, leaf, new Node(4, 4, 1),
+				new Node(2, 2, 1));
+		write(tree, UNSORTED_WAYS, leaf, new Way(20, nodes(1, 2, 3)),
+				new Way(10, nodes(4, 5)), new Way(30, nodes(1, 99)));
+
+		leaf = leafs.get(1);
+		write(tree, SORTED_NODES, leaf, new Node(6, 16, 1));
+		write(tree, UNSORTED_NODES, leaf);
+		write(tree, UNSORTED_WAYS, leaf, new Way(40, nodes(6)));
+	}
+
+	private List<String> inputs()
+	{
+		return Arrays.asList(SORTED_NODES, UNSORTED_NODES, UNSORTED_WAYS);
+	}
+
+	private List<String> list(String name)
+	{
+		List<String> list = new ArrayList<>();
+		list.add(name);
+		return list;
+	}
+
+	private TLongArrayList nodes(long... ids)
+	{
+		return new TLongArrayList(ids);
+	}
+
+	private Path path(Path tree, String name,
+			de.topobyte.osm4j.extra.datatree.Node leaf)
+	{
+		return new DataTreeFiles(tree, name).getPath(leaf);
+	}
+
+	private void write(Path tree, String name,
+			de.topobyte.osm4j.extra.datatree.Node leaf, Object... entities)
+			throws IOException
+	{
+		OutputStream output = Files.newOutputStream(path(tree, name, leaf));
+		OsmOutputStream osmOutput = OsmIoUtils.setupOsmOutput(output, config);
+		for (Object entity : entities) {
+			if (entity instanceof Node) {
+				osmOutput.write((Node) entity);
+			} else {
+				osmOutput.write((Way) entity);
+			}
+		}
+		osmOutput.complete();
+		output.close();
+	}
+
+	private List<Long> ids(Path tree, String name,
+			de.topobyte.osm4j.extra.datatree.Node leaf) throws IOException
+	{
+		List<Long> ids = new ArrayList<>();
+		InputStream input = Files.newInputStream(path(tree, name, leaf));
+		OsmIterator iterator = OsmIoUtils.setupOsmIterator(input,
+				FileFormat.TBO, false);
+		while (iterator.hasNext()) {
+			EntityContainer container = iterator.next();
+			ids.add(container.getEntity().getId());
+		}
+		input.close();
+		return ids;
+	}
+
+	private List<WayLocations> locations(Path tree,
+			de.topobyte.osm4j.extra.datatree.Node leaf) throws IOException
+	{
+		Path path = WayLocationsUtil.getLocationsPath(path(tree, WAYS, leaf));
+		assertTrue(Files.exists(path));
+		List<WayLocations> locations = new ArrayList<>();
+		WayLocationsInputStream input = new WayLocationsInputStream(
+				Files.newInputStream(path));
+		try {
+			while (true) {
+				locations.add(input.next());
+			}
+		} catch (EOFException e) {
+			// end of file
+		}
+		input.close();
+		return locations;
+	}
+
+}
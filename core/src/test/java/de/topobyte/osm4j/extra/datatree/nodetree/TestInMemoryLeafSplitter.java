@@ -0,0 +1,82 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.nodetree;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+
+import de.topobyte.osm4j.core.access.OsmStreamOutput;
+import de.topobyte.osm4j.extra.datatree.DataTree;
+import de.topobyte.osm4j.extra.datatree.Node;
+import de.topobyte.osm4j.extra.datatree.output.DataTreeOutputFactory;
+
+public class TestInMemoryLeafSplitter
+{
+
+	private DataTreeOutputFactory noOutput = new DataTreeOutputFactory() {
+
+		@Override
+		public OsmStreamOutput init(Node leaf, boolean writeBounds)
+				throws IOException
+		{
+			throw new AssertionError("Unexpected output for leaf "
+					+ Long.toHexString(leaf.getPath()));
+		}
+	};
+
+	@Test
+	public void testMaxDepthBinary() throws IOException
+	{
+		testMaxDepth(2);
+	}
+
+	@Test
+	public void testMaxDepthQuad() throws IOException
+	{
+		testMaxDepth(4);
+	}
+
+	private void testMaxDepth(int fanout) throws IOException
+	{
+		DataTree tree = new DataTree(new Envelope(-180, 180, -90, 90),
+				fanout);
+		Node leaf = tree.getRoot();
+		while (leaf.canSplit()) {
+			leaf.split();
+			leaf = leaf.getChildren()[0];
+		}
+		int numLeafs = tree.getLeafs().size();
+
+		// Neither input nor output may be touched for a leaf that can not be
+		// split, its file needs to stay where it is
+		InMemoryLeafSplitter splitter = new InMemoryLeafSplitter(leaf, null,
+				noOutput, 1, false);
+		splitter.execute(1000);
+
+		assertFalse(splitter.isSplit());
+		assertFalse(leaf.canSplit());
+		assertTrue(tree.getLeafs().contains(leaf));
+		assertTrue(tree.getLeafs().size() == numLeafs);
+	}
+
+}
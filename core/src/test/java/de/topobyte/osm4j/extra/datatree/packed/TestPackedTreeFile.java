@@ -0,0 +1,126 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.packed;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPackedTreeFile
+{
+
+	private Path dir;
+
+	@Before
+	public void setup() throws IOException
+	{
+		dir = Files.createTempDirectory("packed-tree");
+	}
+
+	@After
+	public void cleanup() throws IOException
+	{
+		FileUtils.deleteDirectory(dir.toFile());
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		long[] paths = { 0x7, 0x4, 0x1f, 0x5 };
+		byte[][] payloads = { bytes(100, 1), bytes(0, 2), bytes(70000, 3),
+				bytes(1, 4) };
+
+		Path file = dir.resolve("data" + PackedTreeFile.EXTENSION);
+		PackedTreeFileWriter writer = new PackedTreeFileWriter(file);
+		for (int i = 0; i < paths.length; i++) {
+			Path input = dir.resolve("input" + i);
+			Files.write(input, payloads[i]);
+			writer.add(paths[i], input);
+		}
+		writer.close();
+
+		PackedTreeFile packed = PackedTreeFile.open(file);
+		assertEquals(paths.length, packed.getNumberOfEntries());
+		assertArrayEquals(paths, packed.getPaths());
+		for (int i = 0; i < paths.length; i++) {
+			assertTrue(packed.contains(paths[i]));
+			assertEquals(payloads[i].length, packed.getLength(paths[i]));
+			InputStream input = packed.openStream(paths[i]);
+			assertArrayEquals(payloads[i], IOUtils.toByteArray(input));
+			input.close();
+		}
+		assertFalse(packed.contains(0x6));
+		try {
+			packed.openStream(0x6);
+			fail("stream for unknown leaf");
+		} catch (FileNotFoundException e) {
+			// expected
+		}
+		packed.close();
+	}
+
+	@Test
+	public void testDuplicate() throws IOException
+	{
+		Path input = dir.resolve("input");
+		Files.write(input, bytes(10, 1));
+
+		PackedTreeFileWriter writer = new PackedTreeFileWriter(
+				dir.resolve("data" + PackedTreeFile.EXTENSION));
+		writer.add(1, input);
+		try {
+			writer.add(1, input);
+			fail("duplicate leaf accepted");
+		} catch (IOException e) {
+			// expected
+		}
+		writer.close();
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalid() throws IOException
+	{
+		Path file = dir.resolve("data" + PackedTreeFile.EXTENSION);
+		Files.write(file, bytes(100, 5));
+		PackedTreeFile.open(file);
+	}
+
+	private static byte[] bytes(int n, int seed)
+	{
+		byte[] bytes = new byte[n];
+		for (int i = 0; i < n; i++) {
+			bytes[i] = (byte) (i * 31 + seed);
+		}
+		return bytes;
+	}
+
+}
@@ -0,0 +1,99 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.shared;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+import com.slimjars.dist.gnu.trove.map.TLongObjectMap;
+
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.core.model.impl.Way;
+import de.topobyte.osm4j.utils.FileFormat;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+import de.topobyte.osm4j.utils.config.TboConfig;
+
+public class TestSharedWaysStore
+{
+
+	private static final String WAYS = "ways.tbo";
+
+	private Path dir;
+	private OsmOutputConfig config = new OsmOutputConfig(FileFormat.TBO, null,
+			new TboConfig(), false);
+
+	@Before
+	public void setup() throws IOException
+	{
+		dir = Files.createTempDirectory("shared-ways");
+	}
+
+	@After
+	public void cleanup() throws IOException
+	{
+		FileUtils.deleteDirectory(dir.toFile());
+	}
+
+	@Test
+	public void testMissing() throws IOException
+	{
+		assertNull(SharedWaysStore.open(dir, WAYS, FileFormat.TBO));
+	}
+
+	@Test
+	public void testRead() throws IOException
+	{
+		SharedWaysStoreWriter writer = new SharedWaysStoreWriter(
+				SharedWaysUtil.getStorePath(dir, WAYS), config, 100);
+		for (long id = 1; id <= 1050; id++) {
+			TLongArrayList refs = new TLongArrayList();
+			refs.add(id * 10);
+			refs.add(id * 10 + 1);
+			writer.write(new Way(id * 2, refs));
+		}
+		writer.complete();
+
+		SharedWaysStore store = SharedWaysStore.open(dir, WAYS,
+				FileFormat.TBO);
+		assertEquals(11, store.getBlocks().size());
+		assertEquals(50, store.getBlocks().get(10).getCount());
+
+		long[] ids = { 2100, 4, 3, 1000 };
+		TLongObjectMap<OsmWay> ways = store.read(ids, false);
+		assertEquals(3, ways.size());
+		assertTrue(ways.containsKey(4));
+		assertTrue(ways.containsKey(1000));
+		assertTrue(ways.containsKey(2100));
+		assertEquals(10500, ways.get(2100).getNodeId(0));
+
+		assertEquals(0, store.read(new long[] { 1, 2101 }, false).size());
+		assertEquals(0, store.read(new long[0], false).size());
+	}
+
+}
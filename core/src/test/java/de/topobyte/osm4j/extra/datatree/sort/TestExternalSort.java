@@ -0,0 +1,169 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.sort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.core.model.impl.Node;
+import de.topobyte.osm4j.core.model.impl.Way;
+import de.topobyte.osm4j.extra.EntityCollector;
+import de.topobyte.osm4j.extra.EntityListIterator;
+import de.topobyte.osm4j.utils.FileFormat;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+import de.topobyte.osm4j.utils.config.TboConfig;
+
+public class TestExternalSort
+{
+
+	private Path dir;
+	private OsmOutputConfig config = new OsmOutputConfig(FileFormat.TBO, null,
+			new TboConfig(), false);
+
+	@Before
+	public void setup() throws IOException
+	{
+		dir = Files.createTempDirectory("external-sort");
+	}
+
+	@After
+	public void cleanup() throws IOException
+	{
+		FileUtils.deleteDirectory(dir.toFile());
+	}
+
+	@Test
+	public void testInMemory() throws IOException
+	{
+		List<OsmNode> nodes = new ArrayList<>();
+		List<OsmWay> ways = new ArrayList<>();
+		create(new Random(1), nodes, ways, 1000, 200);
+
+		ExternalSort sort = new ExternalSort(dir.resolve("sorted"), config,
+				Long.MAX_VALUE);
+		EntityCollector output = new EntityCollector();
+		sort.sort(new EntityListIterator(nodes, ways), output);
+
+		assertEquals(0, sort.getNumberOfRuns());
+		assertTrue(output.isComplete());
+		check(nodes, ways, output);
+	}
+
+	@Test
+	public void testDuplicates() throws IOException
+	{
+		List<OsmNode> nodes = new ArrayList<>();
+		nodes.add(new Node(3, 1, 0));
+		nodes.add(new Node(1, 1, 0));
+		nodes.add(new Node(3, 2, 0));
+		nodes.add(new Node(2, 1, 0));
+		nodes.add(new Node(1, 2, 0));
+
+		ExternalSort sort = new ExternalSort(dir.resolve("sorted"), config,
+				Long.MAX_VALUE);
+		EntityCollector output = new EntityCollector();
+		sort.sort(new EntityListIterator(nodes, new ArrayList<OsmWay>()),
+				output);
+
+		// The first of several entities with the same id is kept
+		assertEquals(3, output.getNodes().size());
+		for (int i = 0; i < 3; i++) {
+			OsmNode node = output.getNodes().get(i);
+			assertEquals(i + 1, node.getId());
+			assertEquals(1, node.getLongitude(), 0);
+		}
+	}
+
+	@Test
+	public void testRuns() throws IOException
+	{
+		List<OsmNode> nodes = new ArrayList<>();
+		List<OsmWay> ways = new ArrayList<>();
+		create(new Random(2), nodes, ways, 5000, 1000);
+
+		// Room for about 100 entities per run
+		ExternalSort sort = new ExternalSort(dir.resolve("sorted"), config,
+				100 * 80);
+		EntityCollector output = new EntityCollector();
+		sort.sort(new EntityListIterator(nodes, ways), output);
+
+		assertTrue(sort.getNumberOfRuns() > 10);
+		check(nodes, ways, output);
+
+		// Run files are removed after merging
+		assertEquals(0, dir.toFile().list().length);
+	}
+
+	private static void create(Random random, List<OsmNode> nodes,
+			List<OsmWay> ways, int numNodes, int numWays)
+	{
+		List<Long> ids = new ArrayList<>();
+		for (long id = 1; id <= numNodes; id++) {
+			ids.add(id * 2);
+		}
+		Collections.shuffle(ids, random);
+		for (long id : ids) {
+			nodes.add(new Node(id, random.nextDouble(), random.nextDouble()));
+		}
+
+		ids.clear();
+		for (long id = 1; id <= numWays; id++) {
+			ids.add(id * 3);
+		}
+		Collections.shuffle(ids, random);
+		for (long id : ids) {
+			TLongArrayList refs = new TLongArrayList();
+			refs.add(id);
+			refs.add(id + 1);
+			ways.add(new Way(id, refs));
+		}
+	}
+
+	private static void check(List<OsmNode> nodes, List<OsmWay> ways,
+			EntityCollector output)
+	{
+		assertEquals(nodes.size(), output.getNodes().size());
+		assertEquals(ways.size(), output.getWays().size());
+		for (int i = 0; i < nodes.size(); i++) {
+			assertEquals((i + 1) * 2, output.getNodes().get(i).getId());
+		}
+		for (int i = 0; i < ways.size(); i++) {
+			OsmWay way = output.getWays().get(i);
+			assertEquals((i + 1) * 3, way.getId());
+			assertEquals(way.getId() + 1, way.getNodeId(1));
+		}
+	}
+
+}
@@ -0,0 +1,178 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.sort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+
+import de.topobyte.adt.geo.BBox;
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.access.OsmOutputStream;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.impl.Node;
+import de.topobyte.osm4j.extra.datatree.DataTree;
+import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
+import de.topobyte.osm4j.extra.datatree.DataTreeUtil;
+import de.topobyte.osm4j.extra.threading.MemoryBudget;
+import de.topobyte.osm4j.utils.FileFormat;
+import de.topobyte.osm4j.utils.OsmIoUtils;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+import de.topobyte.osm4j.utils.config.TboConfig;
+
+public class TestTreeFileSorter
+{
+
+	private static final String UNSORTED = "unsorted.tbo";
+	private static final String SORTED = "sorted.tbo";
+
+	private Path dir;
+	private OsmOutputConfig config = new OsmOutputConfig(FileFormat.TBO, null,
+			new TboConfig(), false);
+
+	private DataTreeFiles filesUnsorted;
+	private DataTreeFiles filesSorted;
+	private List<de.topobyte.osm4j.extra.datatree.Node> leafs;
+
+	@Before
+	public void setup() throws IOException
+	{
+		dir = Files.createTempDirectory("tree-sort");
+		filesUnsorted = new DataTreeFiles(dir, UNSORTED);
+		filesSorted = new DataTreeFiles(dir, SORTED);
+	}
+
+	@After
+	public void cleanup() throws IOException
+	{
+		FileUtils.deleteDirectory(dir.toFile());
+	}
+
+	@Test
+	public void testSort() throws IOException
+	{
+		// One small leaf that is sorted in memory and one large leaf that
+		// exceeds the share of the budget and is sorted externally
+		int[] sizes = { 10, 5000, 0, 300 };
+		createTree(sizes);
+
+		TreeFileSorter sorter = new TreeFileSorter(dir, UNSORTED, SORTED,
+				FileFormat.TBO, config, false, 2, new MemoryBudget(100000));
+		sorter.execute();
+
+		for (int i = 0; i < sizes.length; i++) {
+			assertFalse(Files.exists(filesUnsorted.getPath(leafs.get(i))));
+			check(filesSorted.getPath(leafs.get(i)), sizes[i]);
+		}
+	}
+
+	@Test
+	public void testKeepUnsorted() throws IOException
+	{
+		int[] sizes = { 100, 200 };
+		createTree(sizes);
+
+		TreeFileSorter sorter = new TreeFileSorter(dir, UNSORTED, SORTED,
+				FileFormat.TBO, config, true, 1, new MemoryBudget(1000000));
+		sorter.execute();
+
+		for (int i = 0; i < sizes.length; i++) {
+			assertTrue(Files.exists(filesUnsorted.getPath(leafs.get(i))));
+			check(filesSorted.getPath(leafs.get(i)), sizes[i]);
+		}
+	}
+
+	@Test
+	public void testFailure() throws IOException
+	{
+		int[] sizes = { 100, 200, 300, 400 };
+		createTree(sizes);
+		Files.delete(filesUnsorted.getPath(leafs.get(1)));
+
+		TreeFileSorter sorter = new TreeFileSorter(dir, UNSORTED, SORTED,
+				FileFormat.TBO, config, false, 2, new MemoryBudget(1000000));
+		try {
+			sorter.execute();
+			fail("expected the failure of a worker to be rethrown");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private void createTree(int[] sizes) throws IOException
+	{
+		DataTree tree = DataTreeUtil.initNewTree(dir,
+				new BBox(new Envelope(0, 10, 0, 10)),
+				sizes.length);
+		tree.getRoot().split();
+		leafs = tree.getLeafs();
+
+		Random random = new Random(1);
+		for (int i = 0; i < sizes.length; i++) {
+			Path path = filesUnsorted.getPath(leafs.get(i));
+			Files.createDirectories(path.getParent());
+
+			List<Long> ids = new ArrayList<>();
+			for (long id = 1; id <= sizes[i]; id++) {
+				ids.add(id);
+			}
+			Collections.shuffle(ids, random);
+
+			OutputStream output = Files.newOutputStream(path);
+			OsmOutputStream osmOutput = OsmIoUtils.setupOsmOutput(output,
+					config);
+			for (long id : ids) {
+				osmOutput.write(new Node(id, 1, 1));
+			}
+			osmOutput.complete();
+			output.close();
+		}
+	}
+
+	private void check(Path path, int size) throws IOException
+	{
+		InputStream input = Files.newInputStream(path);
+		OsmIterator iterator = OsmIoUtils.setupOsmIterator(input,
+				FileFormat.TBO, false);
+		long expected = 1;
+		while (iterator.hasNext()) {
+			EntityContainer container = iterator.next();
+			assertEquals(expected++, container.getEntity().getId());
+		}
+		input.close();
+		assertEquals(size + 1, expected);
+	}
+
+}
@@ -0,0 +1,179 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.ways;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+
+import de.topobyte.adt.geo.BBox;
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.access.OsmOutputStream;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.EntityType;
+import de.topobyte.osm4j.core.model.impl.Node;
+import de.topobyte.osm4j.core.model.impl.Way;
+import de.topobyte.osm4j.extra.datatree.DataTree;
+import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
+import de.topobyte.osm4j.extra.datatree.DataTreeUtil;
+import de.topobyte.osm4j.extra.threading.MemoryBudget;
+import de.topobyte.osm4j.utils.FileFormat;
+import de.topobyte.osm4j.utils.OsmIoUtils;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+import de.topobyte.osm4j.utils.config.TboConfig;
+
+public class TestParallelWaysDistributor
+{
+
+	private static final String NODES1 = "nodes1.tbo";
+	private static final String NODES2 = "nodes2.tbo";
+	private static final String WAYS = "ways.tbo";
+	private static final String OUTPUT_WAYS = "dways.tbo";
+	private static final String OUTPUT_NODES = "dnodes.tbo";
+
+	private Path dir;
+	private OsmOutputConfig config = new OsmOutputConfig(FileFormat.TBO, null,
+			new TboConfig(), false);
+
+	private List<de.topobyte.osm4j.extra.datatree.Node> leafs;
+
+	@Before
+	public void setup() throws IOException
+	{
+		dir = Files.createTempDirectory("ways-distributor");
+		DataTree tree = DataTreeUtil.initNewTree(dir,
+				new BBox(new Envelope(0, 10, 0, 10)), 2);
+		tree.getRoot().split();
+		leafs = tree.getLeafs();
+		for (de.topobyte.osm4j.extra.datatree.Node leaf : leafs) {
+			Path path = new DataTreeFiles(dir, NODES1).getPath(leaf);
+			Files.createDirectories(path.getParent());
+		}
+	}
+
+	@After
+	public void cleanup() throws IOException
+	{
+		FileUtils.deleteDirectory(dir.toFile());
+	}
+
+	@Test
+	public void testDistribute() throws IOException
+	{
+		createFirstLeaf();
+		createSecondLeaf();
+
+		distributor(2).execute();
+
+		// The way crosses into the second leaf
+		assertEquals(1, count(OUTPUT_WAYS, 1, EntityType.Way));
+		assertEquals(2, count(OUTPUT_NODES, 1, EntityType.Node));
+		assertEquals(0, count(OUTPUT_WAYS, 0, EntityType.Way));
+	}
+
+	@Test
+	public void testFailure() throws IOException
+	{
+		// The files of the second leaf are missing
+		createFirstLeaf();
+
+		try {
+			distributor(2).execute();
+			fail("expected the failure of a worker to be rethrown");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private ParallelWaysDistributor distributor(int threads)
+	{
+		return new ParallelWaysDistributor(dir, NODES1, NODES2, WAYS,
+				OUTPUT_WAYS, OUTPUT_NODES, FileFormat.TBO, FileFormat.TBO,
+				config, threads, new MemoryBudget(1000000));
+	}
+
+	private void createFirstLeaf() throws IOException
+	{
+		// A way from the first leaf into the second one, with its node of
+		// the second leaf collected as a missing node
+		de.topobyte.osm4j.extra.datatree.Node leaf = leafs.get(0);
+		write(NODES1, leaf, new Node(1, 1, 1));
+		write(NODES2, leaf, new Node(2, 8, 8));
+		write(WAYS, leaf,
+				new Way(1, new TLongArrayList(new long[] { 1, 2 })));
+	}
+
+	private void createSecondLeaf() throws IOException
+	{
+		de.topobyte.osm4j.extra.datatree.Node leaf = leafs.get(1);
+		write(NODES1, leaf, new Node(2, 8, 8));
+		write(NODES2, leaf);
+		write(WAYS, leaf);
+	}
+
+	private void write(String fileNames,
+			de.topobyte.osm4j.extra.datatree.Node leaf, Object... entities)
+			throws IOException
+	{
+		Path path = new DataTreeFiles(dir, fileNames).getPath(leaf);
+		OutputStream output = Files.newOutputStream(path);
+		OsmOutputStream osmOutput = OsmIoUtils.setupOsmOutput(output, config);
+		for (Object entity : entities) {
+			if (entity instanceof Node) {
+				osmOutput.write((Node) entity);
+			} else {
+				osmOutput.write((Way) entity);
+			}
+		}
+		osmOutput.complete();
+		output.close();
+	}
+
+	private int count(String fileNames, int index, EntityType type)
+			throws IOException
+	{
+		Path path = new DataTreeFiles(dir, fileNames).getPath(leafs.get(index));
+		InputStream input = Files.newInputStream(path);
+		OsmIterator iterator = OsmIoUtils.setupOsmIterator(input,
+				FileFormat.TBO, false);
+		int count = 0;
+		while (iterator.hasNext()) {
+			EntityContainer container = iterator.next();
+			if (container.getType() == type) {
+				count++;
+			}
+		}
+		input.close();
+		return count;
+	}
+
+}
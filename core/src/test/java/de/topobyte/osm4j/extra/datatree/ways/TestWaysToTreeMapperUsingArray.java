@@ -0,0 +1,191 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.datatree.ways;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+
+import de.topobyte.adt.geo.BBox;
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.EntityType;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.core.model.impl.Node;
+import de.topobyte.osm4j.core.model.impl.Way;
+import de.topobyte.osm4j.extra.EntityListIterator;
+import de.topobyte.osm4j.extra.datatree.DataTree;
+import de.topobyte.osm4j.extra.datatree.DataTreeFiles;
+import de.topobyte.osm4j.extra.datatree.DataTreeUtil;
+import de.topobyte.osm4j.extra.idlist.IdListInputStream;
+import de.topobyte.osm4j.extra.nodearray.NodeArrayCreator;
+import de.topobyte.osm4j.extra.nodearray.NodeArrayType;
+import de.topobyte.osm4j.utils.FileFormat;
+import de.topobyte.osm4j.utils.OsmIoUtils;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+import de.topobyte.osm4j.utils.config.TboConfig;
+
+public class TestWaysToTreeMapperUsingArray
+{
+
+	private static final String WAYS = "ways.tbo";
+	private static final String MISSING = "missing.ids";
+
+	private Path dir;
+	private Path pathTree;
+	private Path pathNodeArray;
+	private OsmOutputConfig config = new OsmOutputConfig(FileFormat.TBO, null,
+			new TboConfig(), false);
+
+	private List<de.topobyte.osm4j.extra.datatree.Node> leafs;
+
+	@Before
+	public void setup() throws IOException
+	{
+		dir = Files.createTempDirectory("ways-mapper");
+		pathTree = dir.resolve("tree");
+		pathNodeArray = dir.resolve("nodes.array");
+
+		DataTree tree = DataTreeUtil.initNewTree(pathTree,
+				new BBox(new Envelope(0, 10, 0, 10)), 2);
+		tree.getRoot().split();
+		leafs = tree.getLeafs();
+		DataTreeFiles files = new DataTreeFiles(pathTree, WAYS);
+		for (de.topobyte.osm4j.extra.datatree.Node leaf : leafs) {
+			Files.createDirectories(files.getPath(leaf).getParent());
+		}
+
+		List<OsmNode> nodes = new ArrayList<>();
+		nodes.add(new Node(1, 1, 1));
+		nodes.add(new Node(2, 2, 1));
+		nodes.add(new Node(3, 8, 1));
+		List<OsmWay> ways = new ArrayList<>();
+		new NodeArrayCreator(new EntityListIterator(nodes, ways),
+				pathNodeArray, NodeArrayType.INTEGER).execute();
+	}
+
+	@After
+	public void cleanup() throws IOException
+	{
+		FileUtils.deleteDirectory(dir.toFile());
+	}
+
+	private List<OsmWay> ways()
+	{
+		List<OsmWay> ways = new ArrayList<>();
+		// References a node beyond the highest id of the node array first
+		ways.add(new Way(1, new TLongArrayList(new long[] { 1000, 1, 2 })));
+		ways.add(new Way(2, new TLongArrayList(new long[] { 2, 3, 1000 })));
+		// Only references nodes beyond the node array
+		ways.add(new Way(3, new TLongArrayList(new long[] { 1000, 1001 })));
+		return ways;
+	}
+
+	@Test
+	public void testFirstNode() throws IOException
+	{
+		WaysToTreeMapperUsingArray mapper = new WaysToTreeMapperUsingArray(
+				new EntityListIterator(new ArrayList<OsmNode>(), ways()),
+				pathTree, WAYS, pathNodeArray, config, 2);
+		mapper.execute();
+
+		DataTreeFiles files = new DataTreeFiles(pathTree, WAYS);
+		assertEquals(ids(1, 2), wayIds(files.getPath(leafs.get(0))));
+		assertEquals(ids(), wayIds(files.getPath(leafs.get(1))));
+		assertEquals(ids(3),
+				wayIds(pathTree.resolve("non-matched-ways.tbo")));
+	}
+
+	@Test
+	public void testMissingNodeIds() throws IOException
+	{
+		WaysToTreeMapperUsingArray mapper = new WaysToTreeMapperUsingArray(
+				new EntityListIterator(new ArrayList<OsmNode>(), ways()),
+				pathTree, WAYS, pathNodeArray, config, 2);
+		mapper.setFileNamesMissingNodeIds(MISSING);
+		mapper.execute();
+
+		DataTreeFiles files = new DataTreeFiles(pathTree, WAYS);
+		assertEquals(ids(1, 2), wayIds(files.getPath(leafs.get(0))));
+		assertEquals(ids(), wayIds(files.getPath(leafs.get(1))));
+		assertEquals(ids(3),
+				wayIds(pathTree.resolve("non-matched-ways.tbo")));
+
+		// The nodes beyond the array are not available in any leaf
+		DataTreeFiles filesMissing = new DataTreeFiles(pathTree, MISSING);
+		assertEquals(ids(3), ids(filesMissing.getPath(leafs.get(0))));
+		assertEquals(ids(), ids(filesMissing.getPath(leafs.get(1))));
+	}
+
+	private List<Long> ids(long... ids)
+	{
+		List<Long> result = new ArrayList<>();
+		for (long id : ids) {
+			result.add(id);
+		}
+		return result;
+	}
+
+	private List<Long> wayIds(Path path) throws IOException
+	{
+		List<Long> result = new ArrayList<>();
+		InputStream input = Files.newInputStream(path);
+		OsmIterator iterator = OsmIoUtils.setupOsmIterator(input,
+				FileFormat.TBO, false);
+		while (iterator.hasNext()) {
+			EntityContainer container = iterator.next();
+			if (container.getType() == EntityType.Way) {
+				result.add(container.getEntity().getId());
+			}
+		}
+		input.close();
+		return result;
+	}
+
+	private List<Long> ids(Path path) throws IOException
+	{
+		List<Long> result = new ArrayList<>();
+		IdListInputStream input = new IdListInputStream(
+				Files.newInputStream(path));
+		try {
+			while (true) {
+				result.add(input.next());
+			}
+		} catch (EOFException e) {
+			// end of list
+		}
+		input.close();
+		return result;
+	}
+
+}
@@ -0,0 +1,261 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.extracts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.topobyte.osm4j.extra.threading.StageScheduler;
+import de.topobyte.osm4j.extra.threading.Task;
+
+public class TestCompletedStagesFinder
+{
+
+	private static final String PARAMETERS = "parameters";
+
+	private Path dir;
+	private Path dirStages;
+	private StageScheduler scheduler;
+	private Map<String, List<String>> dataFiles = new HashMap<>();
+
+	@Before
+	public void setup() throws IOException
+	{
+		dir = Files.createTempDirectory("completed-stages");
+		dirStages = dir.resolve("stages");
+		Files.createDirectories(dirStages);
+
+		// A simplified version of the stages building the extraction files
+		scheduler = new StageScheduler(4);
+		add("tree", data(), data("layout", "initial"));
+		add("map", data("layout"), data("ways"));
+		add("merge", data("layout", "initial", "ways"),
+				data("final", "initial", "ways"));
+		add("shared", data("layout", "final"), data("final"));
+		add("index", data("layout", "final"), data("index"));
+
+		dataFiles.put("layout", Arrays.asList("tree/tree.info"));
+		dataFiles.put("initial",
+				Arrays.asList("tree/1/initial", "tree/2/initial"));
+		dataFiles.put("ways", Arrays.asList("tree/1/ways", "tree/2/ways"));
+		dataFiles.put("final", Arrays.asList("tree/1/final", "tree/2/final"));
+		dataFiles.put("index", Arrays.asList("index"));
+	}
+
+	@After
+	public void cleanup() throws IOException
+	{
+		FileUtils.deleteDirectory(dir.toFile());
+	}
+
+	private static String[] data(String... names)
+	{
+		return names;
+	}
+
+	private void add(String stage, String[] inputs, String[] outputs)
+	{
+		scheduler.add(stage, 1, inputs, outputs, new Task() {
+
+			@Override
+			public void execute()
+			{
+				// not run
+			}
+		});
+	}
+
+	private void create(String data, int size) throws IOException
+	{
+		for (String name : dataFiles.get(data)) {
+			Path path = dir.resolve(name);
+			Files.createDirectories(path.getParent());
+			Files.write(path, new byte[size]);
+		}
+	}
+
+	private void delete(String data) throws IOException
+	{
+		for (String name : dataFiles.get(data)) {
+			Files.deleteIfExists(dir.resolve(name));
+		}
+	}
+
+	/**
+	 * Simulate running the specified stage to completion.
+	 */
+	private void completeWith(String parameters, String stage)
+			throws IOException
+	{
+		for (String data : scheduler.getOutputs(stage)) {
+			if (data.equals("initial") && stage.equals("merge")
+					|| data.equals("ways") && stage.equals("merge")) {
+				delete(data);
+				continue;
+			}
+			create(data, stage.equals("shared") ? 20 : 10);
+		}
+
+		StageManifest manifest = new StageManifest(stage, parameters);
+		for (String data : scheduler.getOutputs(stage)) {
+			for (String name : dataFiles.get(data)) {
+				manifest.addOutput(data, dir, dir.resolve(name));
+			}
+		}
+		manifest.write(
+				CompletedStagesFinder.getManifestPath(dirStages, stage));
+	}
+
+	private void complete(String... stages) throws IOException
+	{
+		for (String stage : stages) {
+			completeWith(PARAMETERS, stage);
+		}
+	}
+
+	private CompletedStagesFinder finder()
+	{
+		CompletedStagesFinder finder = new CompletedStagesFinder(scheduler,
+				dirStages, dir, PARAMETERS);
+		finder.addResumable("merge");
+		return finder;
+	}
+
+	private List<String> find(CompletedStagesFinder finder) throws IOException
+	{
+		return new ArrayList<>(finder.find());
+	}
+
+	@Test
+	public void testManifest() throws IOException
+	{
+		complete("tree");
+
+		StageManifest manifest = StageManifest.read(
+				CompletedStagesFinder.getManifestPath(dirStages, "tree"));
+		assertEquals("tree", manifest.getStage());
+		assertEquals(PARAMETERS, manifest.getParameters());
+		assertEquals(3, manifest.getOutputs().size());
+		assertEquals("initial", manifest.getOutputData(
+				dir.relativize(dir.resolve("tree/1/initial")).toString()));
+		assertTrue(manifest.isIntact(dir));
+
+		delete("initial");
+		assertFalse(manifest.isIntact(dir));
+		assertFalse(manifest.isIntact(dir, "initial"));
+		assertTrue(manifest.isIntact(dir, "layout"));
+	}
+
+	@Test
+	public void testAllComplete() throws IOException
+	{
+		complete("tree", "map", "merge", "shared", "index");
+
+		assertEquals(Arrays.asList("tree", "map", "merge", "shared", "index"),
+				find(finder()));
+	}
+
+	@Test
+	public void testParameters() throws IOException
+	{
+		complete("tree");
+		completeWith("other", "map");
+
+		CompletedStagesFinder finder = finder();
+		assertEquals(Arrays.asList("tree"), find(finder));
+		assertFalse(finder.isResumed("merge"));
+	}
+
+	@Test
+	public void testResumeMerge() throws IOException
+	{
+		complete("tree", "map");
+		// An interrupted merge has consumed the files of the first leaf
+		Files.delete(dir.resolve("tree/1/initial"));
+		Files.delete(dir.resolve("tree/1/ways"));
+		Files.write(dir.resolve("tree/1/final"), new byte[10]);
+
+		CompletedStagesFinder finder = finder();
+		assertEquals(Arrays.asList("tree", "map"), find(finder));
+		assertTrue(finder.isResumed("merge"));
+	}
+
+	@Test
+	public void testRestartMerge() throws IOException
+	{
+		complete("tree");
+		// The interrupted merge has consumed the files of the first leaf, but
+		// the ways are mapped again, hence the merge can not be resumed and
+		// needs all of the initial nodes
+		Files.delete(dir.resolve("tree/1/initial"));
+
+		CompletedStagesFinder finder = finder();
+		assertEquals(Arrays.<String> asList(), find(finder));
+		assertFalse(finder.isResumed("merge"));
+	}
+
+	@Test
+	public void testRestartMergeIntact() throws IOException
+	{
+		complete("tree");
+		// The ways are mapped again, the initial nodes are still available
+		CompletedStagesFinder finder = finder();
+		assertEquals(Arrays.asList("tree"), find(finder));
+		assertFalse(finder.isResumed("merge"));
+	}
+
+	@Test
+	public void testRewrittenOutputs() throws IOException
+	{
+		complete("tree", "map", "merge", "shared");
+		// The outputs of tree, map and merge have been deleted or rewritten
+		// by later stages, yet the interrupted index only reads data as
+		// written by the stage that has separated shared ways
+		assertEquals(Arrays.asList("tree", "map", "merge", "shared"),
+				find(finder()));
+	}
+
+	@Test
+	public void testDamagedInput() throws IOException
+	{
+		complete("tree", "map", "merge", "shared");
+		Files.delete(dir.resolve("tree/2/final"));
+
+		// The index reads the damaged data, so shared is run again, which in
+		// turn needs the data as written by the merge, which has been
+		// rewritten. The merge has consumed all of its inputs and needs to
+		// be run from scratch, and so do the stages writing its inputs
+		assertEquals(Arrays.<String> asList(), find(finder()));
+	}
+
+}
@@ -0,0 +1,375 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.extracts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+
+import de.topobyte.adt.geo.BBox;
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.access.OsmOutputStream;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.EntityType;
+import de.topobyte.osm4j.core.model.iface.OsmEntity;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmRelation;
+import de.topobyte.osm4j.core.model.iface.OsmRelationMember;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.core.model.impl.Node;
+import de.topobyte.osm4j.core.model.impl.Relation;
+import de.topobyte.osm4j.core.model.impl.RelationMember;
+import de.topobyte.osm4j.core.model.impl.Way;
+import de.topobyte.osm4j.extra.datatree.DataTree;
+import de.topobyte.osm4j.extra.datatree.DataTreeOpener;
+import de.topobyte.osm4j.extra.datatree.DataTreeUtil;
+import de.topobyte.osm4j.extra.idbboxlist.IdBboxEntry;
+import de.topobyte.osm4j.extra.idbboxlist.IdBboxListOutputStream;
+import de.topobyte.osm4j.extra.idbboxlist.IdBboxUtil;
+import de.topobyte.osm4j.utils.FileFormat;
+import de.topobyte.osm4j.utils.OsmIoUtils;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+import de.topobyte.osm4j.utils.config.TboConfig;
+
+public class TestExtractionRebalancer
+{
+
+	private Path dir;
+	private OsmOutputConfig config = new OsmOutputConfig(FileFormat.TBO, null,
+			new TboConfig(), false);
+	private ExtractionFileNames fileNames = new ExtractionFileNames(
+			FileFormat.TBO);
+	private TreeFileNames treeNames = fileNames.getTreeNames();
+	private ExtractionPaths paths;
+
+	@Before
+	public void setup() throws IOException
+	{
+		dir = Files.createTempDirectory("rebalancer");
+		paths = new ExtractionPaths(dir, fileNames);
+		createDatabase();
+	}
+
+	@After
+	public void cleanup() throws IOException
+	{
+		FileUtils.deleteDirectory(dir.toFile());
+	}
+
+	/**
+	 * Create a tree with the leafs 4 and 5 in the left half and the leaf 3
+	 * covering the right half. The right half has four nodes, the leafs of
+	 * the left half one node each.
+	 */
+	private void createDatabase() throws IOException
+	{
+		DataTree tree = DataTreeUtil.initNewTree(paths.getTree(),
+				new BBox(new Envelope(0, 8, 0, 8)), 2);
+		tree.getRoot().split();
+		tree.getRoot().getChildren()[0].split();
+
+		writeLeaf("4", list(new Node(1, 1, 1)), list(new Way(10, ids(1))),
+				list(relation(20, node(1))), list());
+		writeLeaf("5", list(new Node(2, 1, 5)), list(new Way(11, ids(2))),
+				list(), list());
+		writeLeaf("3",
+				list(new Node(3, 5, 1), new Node(4, 6, 2), new Node(5, 5, 5),
+						new Node(6, 6, 6)),
+				list(new Way(12, ids(3, 4)), new Way(13, ids(3, 5))),
+				list(relation(21, node(3)), relation(22, node(4), node(6))),
+				list(relation(30, way(12), member(31, EntityType.Relation)),
+						relation(31, node(4))));
+
+		// An existing batch of simple relations
+		Files.createDirectories(paths.getSimpleRelations().resolve("0"));
+		Files.createDirectories(paths.getComplexRelations());
+		writeBboxes(paths.getSimpleRelationsBboxes(),
+				new IdBboxEntry(0, new Envelope(0, 8, 0, 8), 1));
+	}
+
+	@Test
+	public void testSplitOverfullLeaf() throws IOException
+	{
+		rebalance(2);
+
+		assertEquals(Arrays.asList(4L, 5L, 6L, 7L), leafs());
+		assertTreeFiles("4", "5", "6", "7");
+
+		// Way 13 crosses both new leafs and brings its nodes along
+		assertEquals(Arrays.asList(3L, 4L, 5L),
+				read("6", treeNames.getNodes()));
+		assertEquals(Arrays.asList(3L, 5L, 6L),
+				read("7", treeNames.getNodes()));
+		assertEquals(Arrays.asList(12L, 13L), read("6", treeNames.getWays()));
+		assertEquals(Arrays.asList(13L), read("7", treeNames.getWays()));
+		assertEquals(Arrays.asList(21L),
+				read("6", treeNames.getSimpleRelations()));
+		assertEquals(Arrays.asList(30L, 31L),
+				read("6", treeNames.getComplexRelations()));
+		assertEquals(Arrays.asList(),
+				read("7", treeNames.getComplexRelations()));
+
+		// Untouched leafs keep their data
+		assertEquals(Arrays.asList(1L), read("4", treeNames.getNodes()));
+		assertEquals(Arrays.asList(20L),
+				read("4", treeNames.getSimpleRelations()));
+	}
+
+	@Test
+	public void testMergeUnderfilledSiblings() throws IOException
+	{
+		rebalance(4);
+
+		assertEquals(Arrays.asList(2L, 3L), leafs());
+		assertTreeFiles("2", "3");
+
+		assertEquals(Arrays.asList(1L, 2L), read("2", treeNames.getNodes()));
+		assertEquals(Arrays.asList(10L, 11L), read("2", treeNames.getWays()));
+		assertEquals(Arrays.asList(20L),
+				read("2", treeNames.getSimpleRelations()));
+		assertEquals(Arrays.asList(3L, 4L, 5L, 6L),
+				read("3", treeNames.getNodes()));
+		assertEquals(Arrays.asList(0L), batches(paths.getSimpleRelations()));
+	}
+
+	@Test
+	public void testNewBatch() throws IOException
+	{
+		rebalance(2);
+
+		// Relation 22 spans the leafs 6 and 7
+		assertEquals(Arrays.asList(21L),
+				read("6", treeNames.getSimpleRelations()));
+		assertEquals(Arrays.asList(),
+				read("7", treeNames.getSimpleRelations()));
+		assertEquals(Arrays.asList(0L, 1L),
+				batches(paths.getSimpleRelations()));
+
+		BatchFileNames relationNames = fileNames.getRelationNames();
+		Path batch = paths.getSimpleRelations().resolve("1");
+		assertEquals(Arrays.asList(22L),
+				read(batch.resolve(relationNames.getRelations())));
+		assertEquals(Arrays.asList(4L, 6L),
+				read(batch.resolve(relationNames.getNodes())));
+
+		List<IdBboxEntry> entries = IdBboxUtil
+				.read(paths.getSimpleRelationsBboxes());
+		assertEquals(2, entries.size());
+		assertEquals(1, entries.get(1).getId());
+		assertEquals(new Envelope(6, 6, 2, 6), entries.get(1).getEnvelope());
+		assertEquals(2, entries.get(1).getSize());
+		assertFalse(Files.exists(paths.getComplexRelationsBboxes()));
+	}
+
+	@Test
+	public void testCompleteInterruptedSwap() throws IOException
+	{
+		// A merge of the leafs 4 and 5 that has been interrupted after
+		// moving leaf 4 aside, along with a new batch not yet moved into
+		// place
+		Path tree = paths.getTree();
+		writeLeaf("2.new", list(new Node(1, 1, 1), new Node(2, 1, 5)),
+				list(new Way(10, ids(1)), new Way(11, ids(2))),
+				list(relation(20, node(1))), list());
+		Files.move(tree.resolve("4"), tree.resolve("4.old"));
+
+		Path batch = paths.getSimpleRelations().resolve("1.new");
+		Files.createDirectories(batch);
+		write(batch.resolve(fileNames.getRelationNames().getRelations()),
+				list(relation(22, node(4), node(6))));
+
+		Files.write(tree.resolveSibling("rebalance.journal"),
+				Arrays.asList("remove 4", "remove 5", "create 2",
+						"simple 1 6.0 6.0 2.0 6.0 2"),
+				StandardCharsets.UTF_8);
+
+		rebalance(4);
+
+		assertFalse(Files.exists(tree.resolveSibling("rebalance.journal")));
+		assertEquals(Arrays.asList(2L, 3L), leafs());
+		assertTreeFiles("2", "3");
+		assertEquals(Arrays.asList(1L, 2L), read("2", treeNames.getNodes()));
+
+		assertEquals(Arrays.asList(0L, 1L),
+				batches(paths.getSimpleRelations()));
+		assertFalse(Files.exists(batch));
+		List<IdBboxEntry> entries = IdBboxUtil
+				.read(paths.getSimpleRelationsBboxes());
+		assertEquals(2, entries.size());
+		assertEquals(1, entries.get(1).getId());
+	}
+
+	private void rebalance(int maxNodes) throws IOException
+	{
+		new ExtractionRebalancer(paths, fileNames, config, maxNodes).execute();
+		assertFalse(Files.exists(
+				paths.getTree().resolveSibling("rebalance.journal")));
+	}
+
+	private List<Long> leafs() throws IOException
+	{
+		DataTree tree = DataTreeOpener.open(paths.getTree().toFile());
+		List<Long> leafs = new ArrayList<>();
+		for (de.topobyte.osm4j.extra.datatree.Node leaf : tree.getLeafs()) {
+			leafs.add(leaf.getPath());
+		}
+		Collections.sort(leafs);
+		return leafs;
+	}
+
+	/**
+	 * Assert that the tree directory contains exactly the specified leafs,
+	 * without any leftovers of the swap.
+	 */
+	private void assertTreeFiles(String... leafs) throws IOException
+	{
+		List<String> names = new ArrayList<>();
+		for (Path path : Files.newDirectoryStream(paths.getTree())) {
+			if (Files.isDirectory(path)) {
+				names.add(path.getFileName().toString());
+			}
+		}
+		Collections.sort(names);
+		assertEquals(Arrays.asList(leafs), names);
+		for (String leaf : leafs) {
+			assertTrue(Files.exists(paths.getTree().resolve(leaf)
+					.resolve(treeNames.getNodes())));
+		}
+	}
+
+	private List<Long> batches(Path dir) throws IOException
+	{
+		List<Long> batches = new ArrayList<>();
+		for (Path path : Files.newDirectoryStream(dir)) {
+			batches.add(Long.parseLong(path.getFileName().toString()));
+		}
+		Collections.sort(batches);
+		return batches;
+	}
+
+	private void writeLeaf(String name, List<OsmEntity> nodes,
+			List<OsmEntity> ways, List<OsmEntity> simpleRelations,
+			List<OsmEntity> complexRelations) throws IOException
+	{
+		Path leaf = paths.getTree().resolve(name);
+		Files.createDirectories(leaf);
+		write(leaf.resolve(treeNames.getNodes()), nodes);
+		write(leaf.resolve(treeNames.getWays()), ways);
+		write(leaf.resolve(treeNames.getSimpleRelations()), simpleRelations);
+		write(leaf.resolve(treeNames.getComplexRelations()),
+				complexRelations);
+	}
+
+	private void write(Path path, List<OsmEntity> entities)
+			throws IOException
+	{
+		OutputStream output = Files.newOutputStream(path);
+		OsmOutputStream osmOutput = OsmIoUtils.setupOsmOutput(output, config);
+		for (OsmEntity entity : entities) {
+			if (entity instanceof OsmNode) {
+				osmOutput.write((OsmNode) entity);
+			} else if (entity instanceof OsmWay) {
+				osmOutput.write((OsmWay) entity);
+			} else {
+				osmOutput.write((OsmRelation) entity);
+			}
+		}
+		osmOutput.complete();
+		output.close();
+	}
+
+	private void writeBboxes(Path path, IdBboxEntry... entries)
+			throws IOException
+	{
+		IdBboxListOutputStream output = new IdBboxListOutputStream(
+				Files.newOutputStream(path));
+		for (IdBboxEntry entry : entries) {
+			output.write(entry);
+		}
+		output.close();
+	}
+
+	private List<Long> read(String leaf, String name) throws IOException
+	{
+		return read(paths.getTree().resolve(leaf).resolve(name));
+	}
+
+	private List<Long> read(Path path) throws IOException
+	{
+		List<Long> ids = new ArrayList<>();
+		InputStream input = Files.newInputStream(path);
+		OsmIterator iterator = OsmIoUtils.setupOsmIterator(input,
+				FileFormat.TBO, false);
+		while (iterator.hasNext()) {
+			EntityContainer container = iterator.next();
+			ids.add(container.getEntity().getId());
+		}
+		input.close();
+		return ids;
+	}
+
+	private static List<OsmEntity> list(OsmEntity... entities)
+	{
+		return Arrays.asList(entities);
+	}
+
+	private static TLongArrayList ids(long... ids)
+	{
+		return new TLongArrayList(ids);
+	}
+
+	private static Relation relation(long id, OsmRelationMember... members)
+	{
+		return new Relation(id, Arrays.asList(members));
+	}
+
+	private static RelationMember node(long id)
+	{
+		return member(id, EntityType.Node);
+	}
+
+	private static RelationMember way(long id)
+	{
+		return member(id, EntityType.Way);
+	}
+
+	private static RelationMember member(long id, EntityType type)
+	{
+		return new RelationMember(id, type, "");
+	}
+
+}
@@ -0,0 +1,85 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.extracts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestTimeTable
+{
+
+	private static void run(TimeTable t, String key, long millis)
+			throws InterruptedException
+	{
+		t.start(key);
+		Thread.sleep(millis);
+		t.stop(key);
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		TimeTable t = new TimeTable();
+		assertTrue(t.criticalPath().isEmpty());
+		assertEquals(0, t.criticalPathTime());
+	}
+
+	@Test
+	public void testCriticalPath() throws InterruptedException
+	{
+		TimeTable t = new TimeTable();
+		t.setDependencies("a", Arrays.<String> asList());
+		t.setDependencies("b", Arrays.asList("a"));
+		t.setDependencies("c", Arrays.asList("a"));
+		t.setDependencies("d", Arrays.asList("b", "c"));
+		t.setDependencies("e", Arrays.<String> asList());
+
+		run(t, "a", 20);
+		run(t, "b", 20);
+		run(t, "c", 100);
+		run(t, "d", 20);
+		run(t, "e", 100);
+
+		List<String> path = t.criticalPath();
+		assertEquals(Arrays.asList("a", "c", "d"), path);
+		assertEquals(t.time("a") + t.time("c") + t.time("d"),
+				t.criticalPathTime());
+	}
+
+	@Test
+	public void testIndependentLongest() throws InterruptedException
+	{
+		TimeTable t = new TimeTable();
+		t.setDependencies("a", Arrays.<String> asList());
+		t.setDependencies("b", Arrays.asList("a"));
+		t.setDependencies("c", Arrays.<String> asList());
+
+		run(t, "a", 20);
+		run(t, "b", 20);
+		run(t, "c", 150);
+
+		assertEquals(Arrays.asList("c"), t.criticalPath());
+		assertEquals(t.time("c"), t.criticalPathTime());
+	}
+
+}
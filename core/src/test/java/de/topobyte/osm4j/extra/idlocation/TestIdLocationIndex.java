@@ -0,0 +1,137 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.idlocation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestIdLocationIndex
+{
+
+	private Path dir;
+
+	@Before
+	public void setup() throws IOException
+	{
+		dir = Files.createTempDirectory("id-index");
+	}
+
+	@After
+	public void cleanup() throws IOException
+	{
+		FileUtils.deleteDirectory(dir.toFile());
+	}
+
+	@Test
+	public void testLookup() throws IOException
+	{
+		// Several pages with gaps between the ids
+		Path file = write(1000, 16);
+		IdLocationIndex index = new IdLocationIndex(file);
+		assertEquals(1000, index.getNumberOfEntries());
+
+		for (int i = 0; i < 1000; i++) {
+			IdLocation location = index.lookup(id(i));
+			assertEquals(i % 7, location.getLocation());
+			assertEquals(i % 3 - 1, location.getBlock());
+		}
+
+		// Before the first id, within a gap, after the last id
+		assertNull(index.lookup(0));
+		assertNull(index.lookup(id(500) + 1));
+		assertNull(index.lookup(id(999) + 1));
+
+		index.close();
+	}
+
+	@Test
+	public void testLookupUnordered() throws IOException
+	{
+		Path file = write(1000, 16);
+		IdLocationIndex index = new IdLocationIndex(file);
+		for (int i = 0; i < 1000; i++) {
+			int k = (i * 389) % 1000;
+			assertEquals(k % 7, index.lookup(id(k)).getLocation());
+		}
+		index.close();
+	}
+
+	@Test
+	public void testEmpty() throws IOException
+	{
+		Path file = write(0, 16);
+		IdLocationIndex index = new IdLocationIndex(file);
+		assertEquals(0, index.getNumberOfEntries());
+		assertNull(index.lookup(1));
+		index.close();
+	}
+
+	@Test
+	public void testNotIncreasing() throws IOException
+	{
+		OutputStream output = Files.newOutputStream(dir.resolve("index"));
+		IdLocationIndexWriter writer = new IdLocationIndexWriter(output);
+		writer.write(5, 0, 0);
+		try {
+			writer.write(5, 0, 0);
+			fail("duplicate id accepted");
+		} catch (IOException e) {
+			// expected
+		}
+		output.close();
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalid() throws IOException
+	{
+		Path file = dir.resolve("invalid");
+		Files.write(file, new byte[100]);
+		new IdLocationIndex(file);
+	}
+
+	private static long id(int i)
+	{
+		return 10 + i * 3L;
+	}
+
+	private Path write(int n, int pageSize) throws IOException
+	{
+		Path file = dir.resolve("index");
+		OutputStream output = Files.newOutputStream(file);
+		IdLocationIndexWriter writer = new IdLocationIndexWriter(output,
+				pageSize);
+		for (int i = 0; i < n; i++) {
+			writer.write(id(i), i % 7, i % 3 - 1);
+		}
+		writer.close();
+		output.close();
+		return file;
+	}
+
+}
@@ -0,0 +1,226 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestWriteBufferPool
+{
+
+	private Path dir;
+
+	@Before
+	public void setup() throws IOException
+	{
+		dir = Files.createTempDirectory("write-buffer-pool");
+	}
+
+	@After
+	public void cleanup() throws IOException
+	{
+		FileUtils.deleteDirectory(dir.toFile());
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() throws IOException
+	{
+		WriteBufferPool pool = new WriteBufferPool(1024, 16, 2);
+		PooledOutputStream a = (PooledOutputStream) pool
+				.create(dir.resolve("a"));
+		PooledOutputStream b = (PooledOutputStream) pool
+				.create(dir.resolve("b"));
+		PooledOutputStream c = (PooledOutputStream) pool
+				.create(dir.resolve("c"));
+
+		write(pool, a, "a1");
+		write(pool, b, "b1");
+		assertTrue(pool.isOpen(a));
+		assertTrue(pool.isOpen(b));
+
+		// Using a again makes b the least recently used handle
+		write(pool, a, "a2");
+		write(pool, c, "c1");
+		assertTrue(pool.isOpen(a));
+		assertFalse(pool.isOpen(b));
+		assertTrue(pool.isOpen(c));
+
+		// Reopening b appends to its file and evicts a
+		write(pool, b, "b2");
+		assertFalse(pool.isOpen(a));
+		assertTrue(pool.isOpen(b));
+		assertTrue(pool.isOpen(c));
+
+		a.close();
+		b.close();
+		c.close();
+		assertFalse(pool.isOpen(b));
+		assertFalse(pool.isOpen(c));
+
+		assertEquals("a1a2", read("a"));
+		assertEquals("b1b2", read("b"));
+		assertEquals("c1", read("c"));
+	}
+
+	@Test
+	public void testSkipLockedStreams() throws Exception
+	{
+		// Room for 4 chunks, all of them taken by the first stream
+		WriteBufferPool pool = new WriteBufferPool(64, 16, 4);
+		final PooledOutputStream large = (PooledOutputStream) pool
+				.create(dir.resolve("large"));
+		final OutputStream small = pool.create(dir.resolve("small"));
+		byte[] data = bytes(64, 1);
+		large.write(data);
+		assertEquals(4, large.getNumChunks());
+
+		// While another thread writes to the large stream, a writer that
+		// runs out of chunks must not wait for it
+		assertTrue(large.tryLock());
+		final byte[] smallData = bytes(100, 2);
+		final List<Throwable> failures = new ArrayList<>();
+		Thread writer = new Thread(new Runnable() {
+
+			@Override
+			public void run()
+			{
+				try {
+					small.write(smallData);
+				} catch (Throwable e) {
+					failures.add(e);
+				}
+			}
+		});
+		writer.start();
+		writer.join(10000);
+		boolean finished = !writer.isAlive();
+		large.unlock();
+		writer.join();
+
+		assertTrue("writer blocked on a locked stream", finished);
+		assertTrue(failures.isEmpty());
+		// The locked stream has been skipped
+		assertEquals(4, large.getNumChunks());
+
+		large.close();
+		small.close();
+		assertArrayEquals(data, Files.readAllBytes(dir.resolve("large")));
+		assertArrayEquals(smallData, Files.readAllBytes(dir.resolve("small")));
+	}
+
+	@Test
+	public void testConcurrentWriters() throws Exception
+	{
+		// A small budget and few handles, so that writers constantly flush
+		// and evict each other's streams
+		final WriteBufferPool pool = new WriteBufferPool(1024, 32, 4);
+		final int numStreams = 20;
+		final List<OutputStream> streams = new ArrayList<>();
+		final List<ByteArrayOutputStream> expected = new ArrayList<>();
+		for (int i = 0; i < numStreams; i++) {
+			streams.add(pool.create(dir.resolve("file" + i)));
+			expected.add(new ByteArrayOutputStream());
+		}
+
+		final List<Throwable> failures = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			final Random random = new Random(t);
+			Thread thread = new Thread(new Runnable() {
+
+				@Override
+				public void run()
+				{
+					try {
+						for (int k = 0; k < 2000; k++) {
+							int i = random.nextInt(numStreams);
+							byte[] data = bytes(1 + random.nextInt(50),
+									random.nextInt());
+							OutputStream stream = streams.get(i);
+							// Record what each stream receives in order
+							synchronized (stream) {
+								stream.write(data);
+								expected.get(i).write(data);
+							}
+						}
+					} catch (Throwable e) {
+						synchronized (failures) {
+							failures.add(e);
+						}
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+
+		for (OutputStream stream : streams) {
+			stream.close();
+		}
+		for (int i = 0; i < numStreams; i++) {
+			assertArrayEquals(expected.get(i).toByteArray(),
+					Files.readAllBytes(dir.resolve("file" + i)));
+		}
+	}
+
+	private void write(WriteBufferPool pool, PooledOutputStream stream,
+			String text) throws IOException
+	{
+		// Write and force the data to the file
+		stream.write(text.getBytes("UTF-8"));
+		assertTrue(stream.tryLock());
+		try {
+			pool.flush(stream);
+		} finally {
+			stream.unlock();
+		}
+	}
+
+	private String read(String name) throws IOException
+	{
+		return new String(Files.readAllBytes(dir.resolve(name)), "UTF-8");
+	}
+
+	private static byte[] bytes(int length, int seed)
+	{
+		byte[] bytes = new byte[length];
+		new Random(seed).nextBytes(bytes);
+		return bytes;
+	}
+
+}
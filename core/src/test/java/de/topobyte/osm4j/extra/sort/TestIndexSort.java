@@ -0,0 +1,136 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.sort;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestIndexSort
+{
+
+	@Test
+	public void testRandom()
+	{
+		Random random = new Random(1);
+		for (int n : new int[] { 0, 1, 2, 15, 16, 17, 100, 10000 }) {
+			long[] values = new long[n];
+			for (int i = 0; i < n; i++) {
+				values[i] = random.nextLong();
+			}
+			test(values);
+		}
+	}
+
+	@Test
+	public void testDuplicates()
+	{
+		Random random = new Random(1);
+		for (int distinct : new int[] { 1, 2, 3, 10 }) {
+			long[] values = new long[10000];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = random.nextInt(distinct);
+			}
+			test(values);
+		}
+	}
+
+	@Test
+	public void testEqual()
+	{
+		// Quadratic with a two-way partition
+		long[] values = new long[1000000];
+		Arrays.fill(values, 42);
+		int[] order = sort(values);
+		assertTrue(isPermutation(order));
+	}
+
+	@Test
+	public void testSortedAndReversed()
+	{
+		long[] sorted = new long[10000];
+		long[] reversed = new long[10000];
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = i;
+			reversed[i] = sorted.length - i;
+		}
+		test(sorted);
+		test(reversed);
+	}
+
+	@Test
+	public void testRange()
+	{
+		final long[] values = { 9, 8, 7, 6, 5, 4, 3, 2, 1, 0 };
+		int[] order = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+		IndexSort.sort(order, 2, 6, comparator(values));
+		assertArrayEquals(new int[] { 0, 1, 5, 4, 3, 2, 6, 7, 8, 9 }, order);
+	}
+
+	private void test(long[] values)
+	{
+		int[] order = sort(values);
+		assertTrue(isPermutation(order));
+
+		long[] expected = values.clone();
+		Arrays.sort(expected);
+		for (int i = 0; i < values.length; i++) {
+			assertEquals(expected[i], values[order[i]]);
+		}
+	}
+
+	private int[] sort(long[] values)
+	{
+		int[] order = new int[values.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		IndexSort.sort(order, comparator(values));
+		return order;
+	}
+
+	private IndexComparator comparator(final long[] values)
+	{
+		return new IndexComparator() {
+
+			@Override
+			public int compare(int a, int b)
+			{
+				return Long.compare(values[a], values[b]);
+			}
+		};
+	}
+
+	private boolean isPermutation(int[] order)
+	{
+		boolean[] seen = new boolean[order.length];
+		for (int index : order) {
+			if (seen[index]) {
+				return false;
+			}
+			seen[index] = true;
+		}
+		return true;
+	}
+
+}
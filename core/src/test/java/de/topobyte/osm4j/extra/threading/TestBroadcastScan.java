@@ -0,0 +1,197 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.threading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.EntityType;
+import de.topobyte.osm4j.core.model.iface.OsmNode;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.core.model.impl.Node;
+import de.topobyte.osm4j.core.model.impl.Way;
+import de.topobyte.osm4j.extra.EntityListIterator;
+
+public class TestBroadcastScan
+{
+
+	private static class Counter implements IteratorConsumer
+	{
+
+		private int limit;
+		private int nodes = 0;
+		private int ways = 0;
+		private long idSum = 0;
+
+		public Counter(int limit)
+		{
+			this.limit = limit;
+		}
+
+		@Override
+		public void consume(OsmIterator iterator) throws IOException
+		{
+			int n = 0;
+			while (n < limit && iterator.hasNext()) {
+				EntityContainer container = iterator.next();
+				if (container.getType() == EntityType.Node) {
+					nodes++;
+				} else if (container.getType() == EntityType.Way) {
+					ways++;
+				}
+				idSum += container.getEntity().getId();
+				n++;
+			}
+		}
+
+	}
+
+	private static OsmIterator data(int numNodes, int numWays)
+	{
+		List<OsmNode> nodes = new ArrayList<>();
+		for (int i = 0; i < numNodes; i++) {
+			nodes.add(new Node(i + 1, 0, 0));
+		}
+		List<OsmWay> ways = new ArrayList<>();
+		for (int i = 0; i < numWays; i++) {
+			TLongArrayList ids = new TLongArrayList();
+			ids.add(1);
+			ids.add(2);
+			ways.add(new Way(i + 1, ids));
+		}
+		return new EntityListIterator(nodes, ways);
+	}
+
+	private static long sum(int n)
+	{
+		return (long) n * (n + 1) / 2;
+	}
+
+	@Test
+	public void testAllConsumersSeeAll() throws IOException
+	{
+		List<Counter> consumers = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			consumers.add(new Counter(Integer.MAX_VALUE));
+		}
+
+		// Small batches and queues to exercise the back pressure
+		BroadcastScan scan = new BroadcastScan(data(1000, 300), consumers, 7,
+				2);
+		scan.execute();
+
+		for (Counter counter : consumers) {
+			assertEquals(1000, counter.nodes);
+			assertEquals(300, counter.ways);
+			assertEquals(sum(1000) + sum(300), counter.idSum);
+		}
+	}
+
+	@Test
+	public void testEarlyFinish() throws IOException
+	{
+		// A consumer that stops reading must not block the others
+		Counter partial = new Counter(5);
+		Counter full = new Counter(Integer.MAX_VALUE);
+		List<Counter> consumers = new ArrayList<>();
+		consumers.add(partial);
+		consumers.add(full);
+
+		BroadcastScan scan = new BroadcastScan(data(1000, 0), consumers, 10,
+				1);
+		scan.execute();
+
+		assertEquals(5, partial.nodes);
+		assertEquals(1000, full.nodes);
+	}
+
+	@Test
+	public void testEmpty() throws IOException
+	{
+		List<Counter> consumers = new ArrayList<>();
+		consumers.add(new Counter(Integer.MAX_VALUE));
+
+		BroadcastScan scan = new BroadcastScan(data(0, 0), consumers);
+		scan.execute();
+
+		assertEquals(0, consumers.get(0).nodes);
+	}
+
+	@Test
+	public void testFailure()
+	{
+		final IOException error = new IOException("failed");
+
+		List<IteratorConsumer> consumers = new ArrayList<>();
+		consumers.add(new Counter(Integer.MAX_VALUE));
+		consumers.add(new IteratorConsumer() {
+
+			@Override
+			public void consume(OsmIterator iterator) throws IOException
+			{
+				iterator.next();
+				throw error;
+			}
+		});
+
+		BroadcastScan scan = new BroadcastScan(data(1000, 0), consumers, 10,
+				1);
+		try {
+			scan.execute();
+			fail("failure not reported");
+		} catch (IOException e) {
+			assertSame(error, e);
+		}
+	}
+
+	@Test
+	public void testRuntimeFailure()
+	{
+		List<IteratorConsumer> consumers = new ArrayList<>();
+		consumers.add(new IteratorConsumer() {
+
+			@Override
+			public void consume(OsmIterator iterator) throws IOException
+			{
+				throw new IllegalStateException();
+			}
+		});
+
+		BroadcastScan scan = new BroadcastScan(data(100, 0), consumers, 10,
+				1);
+		try {
+			scan.execute();
+			fail("failure not reported");
+		} catch (IOException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.threading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestMemoryBudget
+{
+
+	@Test
+	public void testWithinBudget() throws InterruptedException
+	{
+		MemoryBudget budget = new MemoryBudget(100);
+		budget.acquire(40);
+		budget.acquire(60);
+		assertEquals(100, budget.getUsed());
+		budget.release(40);
+		budget.release(60);
+		assertEquals(0, budget.getUsed());
+	}
+
+	@Test
+	public void testOversized() throws InterruptedException
+	{
+		// A reservation larger than the budget is granted if it is alone
+		MemoryBudget budget = new MemoryBudget(100);
+		budget.acquire(500);
+		assertEquals(500, budget.getUsed());
+		budget.release(500);
+		assertEquals(0, budget.getUsed());
+	}
+
+	@Test
+	public void testBlocking() throws InterruptedException
+	{
+		final MemoryBudget budget = new MemoryBudget(100);
+		budget.acquire(60);
+
+		final CountDownLatch acquired = new CountDownLatch(1);
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run()
+			{
+				try {
+					budget.acquire(60);
+					acquired.countDown();
+				} catch (InterruptedException e) {
+					// test fails on timeout
+				}
+			}
+		});
+		thread.start();
+
+		assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+		assertEquals(60, budget.getUsed());
+
+		budget.release(60);
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		assertEquals(60, budget.getUsed());
+		thread.join();
+	}
+
+	@Test
+	public void testOversizedWaitsForOthers() throws InterruptedException
+	{
+		final MemoryBudget budget = new MemoryBudget(100);
+		budget.acquire(10);
+
+		final CountDownLatch acquired = new CountDownLatch(1);
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run()
+			{
+				try {
+					budget.acquire(500);
+					acquired.countDown();
+				} catch (InterruptedException e) {
+					// test fails on timeout
+				}
+			}
+		});
+		thread.start();
+
+		assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+		budget.release(10);
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		assertEquals(500, budget.getUsed());
+		thread.join();
+	}
+
+}
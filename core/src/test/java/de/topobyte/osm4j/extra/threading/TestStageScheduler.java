@@ -0,0 +1,280 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.threading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestStageScheduler
+{
+
+	private List<String> finished = Collections
+			.synchronizedList(new ArrayList<String>());
+
+	private AtomicInteger used = new AtomicInteger();
+	private AtomicInteger maxUsed = new AtomicInteger();
+
+	private Task task(final String name, final int threads, final long sleep)
+	{
+		return new Task() {
+
+			@Override
+			public void execute() throws IOException
+			{
+				int now = used.addAndGet(threads);
+				synchronized (maxUsed) {
+					maxUsed.set(Math.max(maxUsed.get(), now));
+				}
+				try {
+					Thread.sleep(sleep);
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				used.addAndGet(-threads);
+				finished.add(name);
+			}
+		};
+	}
+
+	private static String[] data(String... names)
+	{
+		return names;
+	}
+
+	@Test
+	public void testDependencies()
+	{
+		StageScheduler scheduler = new StageScheduler(4);
+		scheduler.add("a", 1, data(), data("x"), task("a", 1, 0));
+		scheduler.add("b", 1, data("x"), data("y"), task("b", 1, 0));
+		scheduler.add("c", 1, data("x"), data("z"), task("c", 1, 0));
+		scheduler.add("d", 1, data("y", "z"), data(), task("d", 1, 0));
+		// Rewriting y needs to wait for its writer and its reader
+		scheduler.add("e", 1, data(), data("y"), task("e", 1, 0));
+
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e"),
+				scheduler.getStages());
+		assertEquals(Arrays.<String> asList(), scheduler.getDependencies("a"));
+		assertEquals(Arrays.asList("a"), scheduler.getDependencies("b"));
+		assertEquals(Arrays.asList("a"), scheduler.getDependencies("c"));
+		assertEquals(Arrays.asList("b", "c"), scheduler.getDependencies("d"));
+		assertEquals(Arrays.asList("b", "d"), scheduler.getDependencies("e"));
+	}
+
+	@Test
+	public void testReaders()
+	{
+		StageScheduler scheduler = new StageScheduler(4);
+		scheduler.add("a", 1, data(), data("x"), task("a", 1, 0));
+		scheduler.add("b", 1, data("x"), data("y"), task("b", 1, 0));
+		scheduler.add("c", 1, data("x"), data("x"), task("c", 1, 0));
+		scheduler.add("d", 1, data("x", "y"), data(), task("d", 1, 0));
+
+		assertEquals(Arrays.asList("x"), scheduler.getOutputs("a"));
+		assertEquals(Arrays.asList("b", "c"), scheduler.getReaders("a", "x"));
+		// d reads x as rewritten by c
+		assertEquals(Arrays.asList("d"), scheduler.getReaders("c", "x"));
+		assertEquals(Arrays.asList("d"), scheduler.getReaders("b", "y"));
+		assertEquals(Arrays.<String> asList(),
+				scheduler.getReaders("d", "x"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicate()
+	{
+		StageScheduler scheduler = new StageScheduler(4);
+		scheduler.add("a", 1, data(), data("x"), task("a", 1, 0));
+		scheduler.add("a", 1, data(), data("y"), task("a", 1, 0));
+	}
+
+	@Test
+	public void testOrder() throws IOException
+	{
+		StageScheduler scheduler = new StageScheduler(4);
+		scheduler.add("a", 1, data(), data("x"), task("a", 1, 20));
+		scheduler.add("b", 1, data("x"), data("y"), task("b", 1, 50));
+		scheduler.add("c", 1, data("x"), data("z"), task("c", 1, 10));
+		scheduler.add("d", 1, data("y", "z"), data(), task("d", 1, 0));
+		scheduler.execute();
+
+		assertEquals(4, finished.size());
+		assertEquals("a", finished.get(0));
+		assertEquals("d", finished.get(3));
+		// The independent stages b and c run concurrently
+		assertEquals(Arrays.asList("c", "b"), finished.subList(1, 3));
+	}
+
+	@Test
+	public void testCapacity() throws IOException
+	{
+		StageScheduler scheduler = new StageScheduler(3);
+		for (int i = 0; i < 6; i++) {
+			String name = "s" + i;
+			scheduler.add(name, 2, data(), data(name), task(name, 2, 30));
+		}
+		// Larger than the capacity, may only run on its own
+		scheduler.add("big", 5, data(), data("big"), task("big", 5, 30));
+		scheduler.execute();
+
+		assertEquals(7, finished.size());
+		assertEquals(5, maxUsed.get());
+	}
+
+	@Test
+	public void testCapacityShared() throws IOException
+	{
+		StageScheduler scheduler = new StageScheduler(4);
+		for (int i = 0; i < 6; i++) {
+			String name = "s" + i;
+			scheduler.add(name, 2, data(), data(name), task(name, 2, 30));
+		}
+		scheduler.execute();
+
+		assertEquals(6, finished.size());
+		assertEquals(4, maxUsed.get());
+	}
+
+	private static MemoryEstimate memory(final long bytes)
+	{
+		return new MemoryEstimate() {
+
+			@Override
+			public long getBytes()
+			{
+				return bytes;
+			}
+		};
+	}
+
+	@Test
+	public void testMemory() throws IOException
+	{
+		StageScheduler scheduler = new StageScheduler(4, 100);
+		scheduler.add("a", 1, memory(60), data(), data("x"),
+				task("a", 1, 30));
+		scheduler.add("b", 1, memory(60), data(), data("y"),
+				task("b", 1, 30));
+		scheduler.add("c", 1, memory(40), data(), data("z"),
+				task("c", 1, 30));
+		scheduler.execute();
+
+		assertEquals(3, finished.size());
+		// a and c fit into the memory capacity, b has to wait for them
+		assertEquals(2, maxUsed.get());
+		assertEquals("b", finished.get(2));
+	}
+
+	@Test
+	public void testMemoryEstimatedLate() throws IOException
+	{
+		final List<String> estimated = Collections
+				.synchronizedList(new ArrayList<String>());
+
+		StageScheduler scheduler = new StageScheduler(4, 100);
+		scheduler.add("a", 1, data(), data("x"), task("a", 1, 20));
+		scheduler.add("b", 1, new MemoryEstimate() {
+
+			@Override
+			public long getBytes()
+			{
+				estimated.add("b");
+				// The data written by the dependency is available
+				assertEquals(Arrays.asList("a"), finished);
+				return 50;
+			}
+		}, data("x"), data("y"), task("b", 1, 0));
+		scheduler.execute();
+
+		assertEquals(Arrays.asList("b"), estimated);
+		assertEquals(Arrays.asList("a", "b"), finished);
+	}
+
+	@Test
+	public void testSkip() throws IOException
+	{
+		StageScheduler scheduler = new StageScheduler(4);
+		scheduler.add("a", 1, data(), data("x"), task("a", 1, 0));
+		scheduler.add("b", 1, data("x"), data("y"), task("b", 1, 0));
+		scheduler.skip("a");
+		scheduler.execute();
+
+		assertEquals(Arrays.asList("b"), finished);
+	}
+
+	@Test
+	public void testFailure()
+	{
+		final IOException error = new IOException("failed");
+
+		StageScheduler scheduler = new StageScheduler(4);
+		scheduler.add("a", 1, data(), data("x"), new Task() {
+
+			@Override
+			public void execute() throws IOException
+			{
+				throw error;
+			}
+		});
+		scheduler.add("b", 1, data("x"), data("y"), task("b", 1, 0));
+		scheduler.add("c", 1, data(), data("z"), task("c", 1, 50));
+
+		try {
+			scheduler.execute();
+			fail("failure not reported");
+		} catch (IOException e) {
+			assertSame(error, e);
+		}
+		// Running stages are completed, dependent stages never start
+		assertTrue(finished.contains("c"));
+		assertFalse(finished.contains("b"));
+	}
+
+	@Test
+	public void testRuntimeFailure()
+	{
+		StageScheduler scheduler = new StageScheduler(4);
+		scheduler.add("a", 1, data(), data("x"), new Task() {
+
+			@Override
+			public void execute() throws IOException
+			{
+				throw new IllegalStateException();
+			}
+		});
+
+		try {
+			scheduler.execute();
+			fail("failure not reported");
+		} catch (IOException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+}
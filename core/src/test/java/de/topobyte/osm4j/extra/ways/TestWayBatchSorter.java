@@ -0,0 +1,120 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.ways;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.core.model.impl.Way;
+
+public class TestWayBatchSorter
+{
+
+	@Test
+	public void testEmpty()
+	{
+		WayBatchSorter sorter = new WayBatchSorter();
+		assertEquals(0, sorter.sort(new ArrayList<OsmWay>()).size());
+	}
+
+	@Test
+	public void testSmall()
+	{
+		test(new Random(1), 10, 5);
+	}
+
+	@Test
+	public void testManyEqualFirstNodes()
+	{
+		test(new Random(2), 1000, 3);
+	}
+
+	@Test
+	public void testLarge()
+	{
+		test(new Random(3), 10000, 100000);
+	}
+
+	@Test
+	public void testReused()
+	{
+		// The sorter keeps its arrays between batches of varying size
+		WayBatchSorter sorter = new WayBatchSorter();
+		Random random = new Random(4);
+		for (int size : new int[] { 500, 20, 1000, 0, 17 }) {
+			test(sorter, random, size, 50);
+		}
+	}
+
+	@Test
+	public void testPresorted()
+	{
+		List<OsmWay> ways = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			ways.add(way(i, i / 2));
+		}
+		List<OsmWay> sorted = new WayBatchSorter().sort(ways);
+		for (int i = 0; i < ways.size(); i++) {
+			assertSame(ways.get(i), sorted.get(i));
+		}
+	}
+
+	private void test(Random random, int size, int maxNodeId)
+	{
+		test(new WayBatchSorter(), random, size, maxNodeId);
+	}
+
+	private void test(WayBatchSorter sorter, Random random, int size,
+			int maxNodeId)
+	{
+		List<OsmWay> ways = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			ways.add(way(random.nextInt(size * 10), random.nextInt(maxNodeId)));
+		}
+
+		List<OsmWay> expected = new ArrayList<>(ways);
+		Collections.sort(expected, new WayNodeIdComparator());
+
+		List<OsmWay> sorted = sorter.sort(ways);
+		assertEquals(expected.size(), sorted.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getNodeId(0),
+					sorted.get(i).getNodeId(0));
+			assertEquals(expected.get(i).getId(), sorted.get(i).getId());
+		}
+	}
+
+	private static OsmWay way(long id, long firstNode)
+	{
+		TLongArrayList nodes = new TLongArrayList();
+		nodes.add(firstNode);
+		nodes.add(firstNode + 1);
+		return new Way(id, nodes);
+	}
+
+}
@@ -0,0 +1,177 @@
+// Copyright 2017 Sebastian Kuerten
+//
+// This file is part of osm4j.
+//
+// osm4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// osm4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with osm4j. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.osm4j.extra.ways;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+
+import de.topobyte.osm4j.core.access.OsmIterator;
+import de.topobyte.osm4j.core.access.OsmOutputStream;
+import de.topobyte.osm4j.core.model.iface.EntityContainer;
+import de.topobyte.osm4j.core.model.iface.OsmWay;
+import de.topobyte.osm4j.core.model.impl.Way;
+import de.topobyte.osm4j.utils.FileFormat;
+import de.topobyte.osm4j.utils.OsmIoUtils;
+import de.topobyte.osm4j.utils.OsmOutputConfig;
+import de.topobyte.osm4j.utils.config.TboConfig;
+
+public class TestWayRunsMerger
+{
+
+	private Path dir;
+	private OsmOutputConfig config = new OsmOutputConfig(FileFormat.TBO, null,
+			new TboConfig(), false);
+	private WayNodeIdComparator comparator = new WayNodeIdComparator();
+
+	@Before
+	public void setup() throws IOException
+	{
+		dir = Files.createTempDirectory("way-runs");
+	}
+
+	@After
+	public void cleanup() throws IOException
+	{
+		FileUtils.deleteDirectory(dir.toFile());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidFanIn()
+	{
+		new WayRunsMerger(dir, config, 1);
+	}
+
+	@Test
+	public void testFewRuns() throws IOException
+	{
+		int total = createRuns(new Random(1), 4, 100);
+		List<String> before = names();
+
+		new WayRunsMerger(dir, config, 4).execute();
+
+		// Nothing to do, the runs are left untouched
+		assertEquals(before, names());
+		assertEquals(total, check());
+	}
+
+	@Test
+	public void testSinglePass() throws IOException
+	{
+		int total = createRuns(new Random(2), 10, 100);
+		new WayRunsMerger(dir, config, 8).execute();
+
+		assertEquals(8, names().size());
+		assertEquals(total, check());
+	}
+
+	@Test
+	public void testMultiplePasses() throws IOException
+	{
+		int total = createRuns(new Random(3), 50, 40);
+		new WayRunsMerger(dir, config, 3).execute();
+
+		List<String> names = names();
+		assertTrue(names.size() <= 3);
+		for (String name : names) {
+			assertTrue(name.startsWith("merged-"));
+		}
+		assertEquals(total, check());
+	}
+
+	private int createRuns(Random random, int numRuns, int maxSize)
+			throws IOException
+	{
+		long id = 1;
+		for (int i = 0; i < numRuns; i++) {
+			List<OsmWay> ways = new ArrayList<>();
+			int size = 1 + random.nextInt(maxSize);
+			for (int k = 0; k < size; k++) {
+				TLongArrayList nodes = new TLongArrayList();
+				nodes.add(random.nextInt(10000));
+				nodes.add(random.nextInt(10000));
+				ways.add(new Way(id++, nodes));
+			}
+			Collections.sort(ways, comparator);
+
+			Path path = dir.resolve(String.format("run-%d%s", i,
+					OsmIoUtils.extension(config.getFileFormat())));
+			OutputStream output = Files.newOutputStream(path);
+			OsmOutputStream osmOutput = OsmIoUtils.setupOsmOutput(output,
+					config);
+			for (OsmWay way : ways) {
+				osmOutput.write(way);
+			}
+			osmOutput.complete();
+			output.close();
+		}
+		return (int) id - 1;
+	}
+
+	private List<String> names()
+	{
+		List<String> names = Arrays.asList(dir.toFile().list());
+		Collections.sort(names);
+		return names;
+	}
+
+	/**
+	 * Check that each remaining run is sorted.
+	 * 
+	 * @return the total number of ways within the runs.
+	 */
+	private int check() throws IOException
+	{
+		int total = 0;
+		for (String name : names()) {
+			InputStream input = Files.newInputStream(dir.resolve(name));
+			OsmIterator iterator = OsmIoUtils.setupOsmIterator(input,
+					config.getFileFormat(), false);
+			OsmWay last = null;
+			while (iterator.hasNext()) {
+				EntityContainer container = iterator.next();
+				OsmWay way = (OsmWay) container.getEntity();
+				if (last != null) {
+					assertTrue(comparator.compare(last, way) < 0);
+				}
+				last = way;
+				total++;
+			}
+			input.close();
+		}
+		return total;
+	}
+
+}